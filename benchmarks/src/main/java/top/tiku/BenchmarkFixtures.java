@@ -0,0 +1,215 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BenchmarkFixtures 类提供基准测试共用的数据：录制的 Ollama 流式响应、默认配置快照和模拟的命令发送者。
+ * 默认使用 resources/streams 下的录制数据，也可以通过 -Dollamachat.streams=&lt;目录&gt;
+ * 指定用 curl -N 从真实 Ollama 服务录制的 generate.ndjson 和 chat.ndjson。
+ */
+final class BenchmarkFixtures {
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * 读取录制的流式响应。
+     *
+     * @param chatMode 为 true 时读取 /api/chat 的响应，否则读取 /api/generate 的响应
+     * @return 响应体的全部字节
+     */
+    static byte[] stream(boolean chatMode) {
+        String name = chatMode ? "chat.ndjson" : "generate.ndjson";
+        String dir = System.getProperty("ollamachat.streams");
+        try {
+            if (dir != null) {
+                return Files.readAllBytes(Path.of(dir, name));
+            }
+            try (InputStream in = BenchmarkFixtures.class.getResourceAsStream("/streams/" + name)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing recorded stream " + name);
+                }
+                return in.readAllBytes();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 解码录制的流式响应，得到模型依次生成的文本片段。
+     *
+     * @param chatMode 是否读取 /api/chat 的响应
+     * @return 生成的文本片段
+     */
+    static List<String> tokens(boolean chatMode) {
+        return decode(OllamaClient::readStream, new ByteArrayInputStream(stream(chatMode)), chatMode).tokens();
+    }
+
+    /**
+     * 读取录制的流式响应中最后一个数据块，其中包含 context 和生成统计。
+     *
+     * @return 最后一个数据块
+     */
+    static JSONObject finalChunk() {
+        return decode(OllamaClient::readStream, new ByteArrayInputStream(stream(false)), false).finalChunk();
+    }
+
+    /**
+     * 确认 {@link NdjsonStreamDecoder} 与原先基于 JSONObject 的解码方式对录制的流式响应得到相同的结果，
+     * 包括每次只读取几个字节、多字节字符被拆分到两次读取中的情况。结果不同时抛出异常使基准测试失败。
+     *
+     * @param chatMode 是否检查 /api/chat 的响应
+     */
+    static void verifyDecoders(boolean chatMode) {
+        byte[] body = stream(chatMode);
+        Decoded expected = decode(JsonObjectStreamReader::readStream, new ByteArrayInputStream(body), chatMode);
+        Decoded actual = decode(OllamaClient::readStream, new ByteArrayInputStream(body), chatMode);
+        Decoded trickled = decode(OllamaClient::readStream, new TrickleInputStream(body), chatMode);
+        for (Decoded decoded : List.of(actual, trickled)) {
+            if (!expected.tokens().equals(decoded.tokens())) {
+                throw new IllegalStateException("Decoded tokens differ from JSONObject decoding");
+            }
+            for (String key : List.of("done", "eval_count", "eval_duration")) {
+                if (!String.valueOf(expected.finalChunk().opt(key)).equals(String.valueOf(decoded.finalChunk().opt(key)))) {
+                    throw new IllegalStateException("Decoded " + key + " differs from JSONObject decoding");
+                }
+            }
+            JSONArray expectedContext = expected.finalChunk().optJSONArray("context");
+            JSONArray actualContext = decoded.finalChunk().optJSONArray("context");
+            if (expectedContext == null ? actualContext != null : !expectedContext.similar(actualContext)) {
+                throw new IllegalStateException("Decoded context differs from JSONObject decoding");
+            }
+        }
+    }
+
+    /**
+     * 解码一条流式响应，收集生成的文本片段和最后一个数据块。
+     */
+    private static Decoded decode(StreamReader reader, InputStream in, boolean chatMode) {
+        List<String> tokens = new ArrayList<>();
+        JSONObject[] result = new JSONObject[1];
+        try {
+            reader.read(in, chatMode, new StreamCallback() {
+                @Override
+                public void onToken(String token) {
+                    tokens.add(token);
+                }
+
+                @Override
+                public void onComplete(JSONObject finalChunk) {
+                    result[0] = finalChunk;
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    throw new IllegalStateException(errorMessage);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (result[0] == null) {
+            throw new IllegalStateException("Recorded stream has no final chunk");
+        }
+        return new Decoded(tokens, result[0]);
+    }
+
+    /**
+     * 解码流式响应的方法，OllamaClient.readStream 和 JsonObjectStreamReader.readStream 都符合该签名。
+     */
+    private interface StreamReader {
+        void read(InputStream in, boolean chatMode, StreamCallback callback) throws IOException;
+    }
+
+    /**
+     * 一条流式响应的解码结果。
+     */
+    private record Decoded(List<String> tokens, JSONObject finalChunk) {
+    }
+
+    /**
+     * 每次最多返回 7 个字节的输入流，模拟网络上零散到达的数据。
+     */
+    private static final class TrickleInputStream extends ByteArrayInputStream {
+
+        private int next;
+
+        TrickleInputStream(byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            // 依次返回 1 到 7 个字节，使多字节字符落在两次读取之间
+            next = next % 7 + 1;
+            return super.read(b, off, Math.min(len, next));
+        }
+    }
+
+    /**
+     * 创建使用全部默认值的配置快照。
+     *
+     * @return 配置快照
+     */
+    static PluginSettings defaultSettings() {
+        return PluginSettings.load(new YamlConfiguration());
+    }
+
+    /**
+     * 创建一个只有名称的命令发送者，发送给它的消息会被丢弃。
+     *
+     * @param name 发送者名称
+     * @return 命令发送者
+     */
+    static CommandSender sender(String name) {
+        return (CommandSender) Proxy.newProxyInstance(CommandSender.class.getClassLoader(),
+                new Class<?>[]{CommandSender.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getName" -> name;
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "BenchmarkSender[" + name + "]";
+                    case "isOp", "hasPermission", "isPermissionSet" -> false;
+                    default -> null;
+                });
+    }
+
+    /**
+     * 创建把收到的文本交给 Blackhole 的回调，出现错误时抛出异常使基准测试失败。
+     *
+     * @param blackhole JMH 的 Blackhole
+     * @return 回调
+     */
+    static StreamCallback consuming(Blackhole blackhole) {
+        return new StreamCallback() {
+            @Override
+            public void onToken(String token) {
+                blackhole.consume(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                blackhole.consume(finalChunk);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                throw new IllegalStateException(errorMessage);
+            }
+        };
+    }
+}
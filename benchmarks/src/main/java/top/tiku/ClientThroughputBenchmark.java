@@ -0,0 +1,76 @@
+package top.tiku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量 OllamaClient 端到端的吞吐量：经过共享的 HTTP 传输层和节点池，
+ * 向进程内回放录制数据的模拟服务发送流式请求，并解码全部响应。
+ * 线程数可以通过 -t 参数调整，用于观察连接池和并发请求的表现。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Threads(4)
+@Fork(1)
+public class ClientThroughputBenchmark {
+
+    private static final String PROMPT = "怎么做一个不会卡服的红石时钟？";
+
+    // 请求 /api/generate 还是 /api/chat
+    @Param({"generate", "chat"})
+    public String api;
+
+    private StubOllamaServer server;
+    private HttpTransport transport;
+    private OllamaProcessSupervisor supervisor;
+    private OllamaClient client;
+    private boolean chatMode;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        chatMode = "chat".equals(api);
+        server = new StubOllamaServer();
+        PluginSettings settings = BenchmarkFixtures.defaultSettings();
+        transport = new HttpTransport(null, settings);
+        OllamaEndpointPool endpointPool = new OllamaEndpointPool(null, transport, List.of(server.baseUrl()),
+                settings.getEjectAfterFailures());
+        // 未调用 start() 的监控器不管理进程，awaitReady() 立即返回
+        supervisor = new OllamaProcessSupervisor(null, transport, 1000, 1000);
+        client = new OllamaClient(null, transport, "llama2:7b", endpointPool, supervisor,
+                settings.getOllamaKeepAlive());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        supervisor.shutdown();
+        transport.shutdown();
+        server.close();
+    }
+
+    @Benchmark
+    public void streamRequest(Blackhole blackhole) {
+        ChatSession session = chatMode ? new ChatSession(ChatSession.MODE_CHAT, 2048) : null;
+        ChatRequest request = new ChatRequest(PROMPT, session, null, new CancellationToken());
+        client.streamRequest(request, BenchmarkFixtures.consuming(blackhole));
+    }
+}
@@ -0,0 +1,54 @@
+package top.tiku;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * JsonObjectStreamReader 类保留了 OllamaClient 原先的解码方式：逐行读取字符串，再为每个数据块创建完整的 JSONObject。
+ * 只用于和 {@link NdjsonStreamDecoder} 比较性能和解码结果。
+ */
+final class JsonObjectStreamReader {
+
+    private JsonObjectStreamReader() {
+    }
+
+    /**
+     * 按原先的方式解码一条流式响应，回调的语义与 OllamaClient.readStream 相同。
+     *
+     * @param in       响应体的输入流
+     * @param chatMode 是否是 /api/chat 的响应
+     * @param callback 接收生成文本和结束事件的回调
+     * @throws IOException 读取失败时抛出
+     */
+    static void readStream(InputStream in, boolean chatMode, StreamCallback callback) throws IOException {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String responseLine;
+            while ((responseLine = br.readLine()) != null) {
+                if (responseLine.isBlank()) {
+                    continue;
+                }
+                JSONObject chunk = new JSONObject(responseLine);
+                if (chunk.has("error")) {
+                    callback.onError(chunk.getString("error"));
+                    return;
+                }
+                String token = chatMode
+                        ? chunk.optJSONObject("message", new JSONObject()).optString("content", "")
+                        : chunk.optString("response", "");
+                if (!token.isEmpty()) {
+                    callback.onToken(token);
+                }
+                if (chunk.optBoolean("done", false)) {
+                    callback.onComplete(chunk);
+                    return;
+                }
+            }
+        }
+        callback.onError("Stream ended before the reply was complete");
+    }
+}
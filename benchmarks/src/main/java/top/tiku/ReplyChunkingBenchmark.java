@@ -0,0 +1,82 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量把生成的文本切分成聊天消息的开销：ChatStreamWriter 按行和按句切分，
+ * 回复按聊天栏宽度换行并分页后进入玩家的输出队列。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplyChunkingBenchmark {
+
+    private ChatDeliveryManager deliveryManager;
+    private CommandSender sender;
+    private List<String> tokens;
+    private String fullReply;
+    private int lineWidth;
+
+    @Setup
+    public void setUp() {
+        PluginSettings settings = BenchmarkFixtures.defaultSettings();
+        // 不调用 start()，输出队列不会被发送，每次测量后清空
+        deliveryManager = new ChatDeliveryManager(null, settings);
+        sender = BenchmarkFixtures.sender("bench");
+        tokens = BenchmarkFixtures.tokens(false);
+        fullReply = String.join("", tokens);
+        lineWidth = settings.getDeliveryLineWidth();
+    }
+
+    /**
+     * 逐个 token 写入流式回复，与 Ollama 流式输出时的路径相同。
+     */
+    @Benchmark
+    public ChatDeliveryManager.Reply streamTokens() {
+        ChatDeliveryManager.Reply reply = deliveryManager.openReply(sender);
+        ChatStreamWriter writer = new ChatStreamWriter(reply);
+        for (String token : tokens) {
+            writer.onToken(token);
+        }
+        writer.onComplete(new JSONObject());
+        deliveryManager.clear(sender);
+        return reply;
+    }
+
+    /**
+     * 一次性写入完整回复，与关闭流式输出或使用新 API 时的路径相同。
+     */
+    @Benchmark
+    public ChatDeliveryManager.Reply appendFullReply() {
+        ChatDeliveryManager.Reply reply = deliveryManager.openReply(sender);
+        reply.append(fullReply);
+        reply.close();
+        deliveryManager.clear(sender);
+        return reply;
+    }
+
+    /**
+     * 只测量按聊天栏宽度换行。
+     */
+    @Benchmark
+    public List<String> wrap() {
+        return ChatDeliveryManager.wrap(fullReply, lineWidth);
+    }
+}
@@ -0,0 +1,72 @@
+package top.tiku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量构造请求体并序列化为 JSON 文本的开销，与 OllamaClient 和 NewAPIClient 发送请求时的做法相同。
+ * 分别覆盖首轮 generate 请求、带 context 的 generate 请求、带消息历史的 chat 请求和新 API 请求。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBuildingBenchmark {
+
+    private static final String PROMPT = "怎么做一个不会卡服的红石时钟？请给出步骤。";
+
+    private OllamaClient client;
+    private ChatRequest firstTurn;
+    private ChatRequest generateWithContext;
+    private ChatRequest chatWithHistory;
+
+    @Setup
+    public void setUp() {
+        // 构造请求体只用到模型和 keep_alive，不需要插件实例和传输层
+        client = new OllamaClient(null, null, "llama2:7b", null, null, "30m");
+        firstTurn = new ChatRequest(PROMPT);
+
+        ChatSession generateSession = new ChatSession(ChatSession.MODE_GENERATE, 4096);
+        generateSession.recordTurn(PROMPT, "", BenchmarkFixtures.finalChunk());
+        generateWithContext = new ChatRequest(PROMPT, generateSession, null, new CancellationToken());
+
+        ChatSession chatSession = new ChatSession(ChatSession.MODE_CHAT, 4096);
+        String reply = String.join("", BenchmarkFixtures.tokens(true));
+        for (int i = 0; i < 3; i++) {
+            chatSession.recordTurn(PROMPT, reply, null);
+        }
+        chatWithHistory = new ChatRequest(PROMPT, chatSession, null, new CancellationToken());
+    }
+
+    @Benchmark
+    public String ollamaGenerateFirstTurn() {
+        return client.buildRequestBody(firstTurn, false).toString();
+    }
+
+    @Benchmark
+    public String ollamaGenerateWithContext() {
+        return client.buildRequestBody(generateWithContext, false).toString();
+    }
+
+    @Benchmark
+    public String ollamaChatWithHistory() {
+        return client.buildRequestBody(chatWithHistory, true).toString();
+    }
+
+    @Benchmark
+    public String newApi() {
+        return NewAPIClient.buildRequestBody(PROMPT, "default-model", null).toString();
+    }
+}
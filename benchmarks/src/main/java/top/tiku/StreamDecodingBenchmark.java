@@ -0,0 +1,57 @@
+package top.tiku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 测量解码一条完整的 Ollama 流式响应的开销，不包含网络。
+ * decode 使用 OllamaClient 实际使用的字节级解码器，decodeWithJsonObject 使用原先为每个数据块创建 JSONObject 的方式。
+ * 加上 -prof gc 参数运行可以比较两者的内存分配速率（gc.alloc.rate.norm）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamDecodingBenchmark {
+
+    // 解码 /api/generate 还是 /api/chat 的响应
+    @Param({"generate", "chat"})
+    public String api;
+
+    private boolean chatMode;
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        chatMode = "chat".equals(api);
+        body = BenchmarkFixtures.stream(chatMode);
+        // 两种解码方式的结果不同时直接失败，避免比较错误的实现
+        BenchmarkFixtures.verifyDecoders(chatMode);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        OllamaClient.readStream(new ByteArrayInputStream(body), chatMode, BenchmarkFixtures.consuming(blackhole));
+    }
+
+    @Benchmark
+    public void decodeWithJsonObject(Blackhole blackhole) throws IOException {
+        JsonObjectStreamReader.readStream(new ByteArrayInputStream(body), chatMode, BenchmarkFixtures.consuming(blackhole));
+    }
+}
@@ -0,0 +1,109 @@
+package top.tiku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * StubOllamaServer 类是进程内的 Ollama 模拟服务，使用 JDK 自带的 HTTP 服务器，
+ * 对 /api/generate 和 /api/chat 按行回放录制的流式响应，每行单独刷新，与真实服务逐个 token 输出的方式相同。
+ */
+final class StubOllamaServer implements AutoCloseable {
+
+    static {
+        // JDK 的 HTTP 服务器默认启用 Nagle 算法，逐行刷新的小数据块会与客户端的延迟确认相互等待，
+        // 每个请求多出约 40 毫秒，掩盖了客户端本身的开销
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<byte[]> generateLines;
+    private final List<byte[]> chatLines;
+
+    /**
+     * 在本机的随机端口上启动模拟服务。
+     *
+     * @throws IOException 无法监听端口时抛出
+     */
+    StubOllamaServer() throws IOException {
+        generateLines = splitLines(BenchmarkFixtures.stream(false));
+        chatLines = splitLines(BenchmarkFixtures.stream(true));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/generate", exchange -> replay(exchange, generateLines));
+        server.createContext("/api/chat", exchange -> replay(exchange, chatLines));
+        server.createContext("/api/version", exchange -> {
+            byte[] body = "{\"version\":\"stub\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * 获取模拟服务的基础地址。
+     *
+     * @return 例如 http://127.0.0.1:54321
+     */
+    String baseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static void replay(HttpExchange exchange, List<byte[]> lines) throws IOException {
+        try (exchange; InputStream in = exchange.getRequestBody()) {
+            in.readAllBytes();
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            // 长度为 0 表示使用分块传输
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            for (byte[] line : lines) {
+                out.write(line);
+                out.flush();
+            }
+            out.close();
+        }
+    }
+
+    private static List<byte[]> splitLines(byte[] body) {
+        List<byte[]> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < body.length; i++) {
+            if (body[i] == '\n') {
+                byte[] line = new byte[i + 1 - start];
+                System.arraycopy(body, start, line, 0, line.length);
+                lines.add(line);
+                start = i + 1;
+            }
+        }
+        if (start < body.length) {
+            byte[] line = new byte[body.length - start + 1];
+            System.arraycopy(body, start, line, 0, body.length - start);
+            line[line.length - 1] = '\n';
+            lines.add(line);
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,379 @@
+package top.tiku;
+
+import org.bukkit.configuration.file.FileConfiguration;
+import org.mockbukkit.mockbukkit.MockBukkit;
+import org.mockbukkit.mockbukkit.ServerMock;
+import org.mockbukkit.mockbukkit.entity.PlayerMock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LoadTestHarness 是离线负载测试的入口。它在 MockBukkit 模拟的服务器中加载插件，
+ * 让多个模拟玩家并行执行 /ollama 命令，经过插件真实的命令处理、请求服务、执行器和客户端，
+ * 访问本地的 {@link MockLlmServer}，最后输出延迟分位数、吞吐量和拒绝次数。
+ * 设置了延迟预算时，超出预算以退出码 1 结束，可以用来在发布前把关。
+ *
+ * <p>参数使用 key=value 的形式，例如：
+ * {@code java -jar target/loadtest.jar players=50 requests=4 token-rate=25 error-rate=0.02 budget-p95-ms=8000}
+ */
+public final class LoadTestHarness {
+
+    // 服务器状态消息的前缀，这些消息不属于回复内容
+    private static final String[] STATUS_PREFIXES = {
+            "正在生成", "当前排在第", "相同的问题正在生成中", "模型 ", "对话内容已超出长度限制", "回复共 "
+    };
+
+    // 超出配额时的提示前缀
+    private static final String[] THROTTLE_PREFIXES = {"请求过于频繁", "生成的内容过多", "今日的"};
+
+    private final Map<String, String> args;
+    private final MockLlmServer.Options serverOptions = new MockLlmServer.Options();
+    private final int playerCount;
+    private final int requestsPerPlayer;
+    private final long thinkMillis;
+    private final long rampMillis;
+    private final long tickMillis;
+    private final long timeoutMillis;
+    private final String backend;
+    private final boolean sharedPrompts;
+
+    // 每个请求的统计结果
+    private final List<Long> firstMessageMillis = new ArrayList<>();
+    private final List<Long> fullReplyMillis = new ArrayList<>();
+    private int completed;
+    private int rejected;
+    private int throttled;
+    private int errors;
+    private int timeouts;
+    private long receivedLines;
+
+    private LoadTestHarness(Map<String, String> args) {
+        this.args = args;
+        playerCount = intArg("players", 20);
+        requestsPerPlayer = intArg("requests", 5);
+        thinkMillis = longArg("think-ms", 1000);
+        rampMillis = longArg("ramp-ms", 2000);
+        tickMillis = longArg("tick-ms", 50);
+        timeoutMillis = longArg("timeout-s", 600) * 1000L;
+        backend = args.getOrDefault("backend", "ollama");
+        sharedPrompts = Boolean.parseBoolean(args.getOrDefault("shared-prompts", "false"));
+        serverOptions.tokenRate = doubleArg("token-rate", serverOptions.tokenRate);
+        serverOptions.firstTokenMillis = longArg("first-token-ms", serverOptions.firstTokenMillis);
+        serverOptions.firstTokenJitterMillis = longArg("jitter-ms", serverOptions.firstTokenJitterMillis);
+        serverOptions.tokens = intArg("tokens", serverOptions.tokens);
+        serverOptions.tokensPerChunk = Math.max(1, intArg("tokens-per-chunk", serverOptions.tokensPerChunk));
+        serverOptions.errorRate = doubleArg("error-rate", serverOptions.errorRate);
+    }
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new LinkedHashMap<>();
+        for (String arg : argv) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                System.err.println("Ignoring argument without '=': " + arg);
+                continue;
+            }
+            args.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        System.exit(new LoadTestHarness(args).run());
+    }
+
+    private int run() throws Exception {
+        try (MockLlmServer mock = new MockLlmServer(serverOptions)) {
+            ServerMock server = MockBukkit.mock();
+            try {
+                OllamaChatPlugin plugin = MockBukkit.load(OllamaChatPlugin.class);
+                configure(server, plugin, mock);
+                long elapsedNanos = drive(server, plugin);
+                printReport(plugin, mock, elapsedNanos);
+                return checkBudgets();
+            } finally {
+                MockBukkit.unmock();
+            }
+        }
+    }
+
+    /**
+     * 把模拟服务的地址和执行器参数写入配置文件，并通过 /ollama reload 使其生效。
+     */
+    private void configure(ServerMock server, OllamaChatPlugin plugin, MockLlmServer mock) {
+        FileConfiguration config = plugin.getConfig();
+        config.set("ollama.standalone_url", mock.baseUrl() + "/api/generate");
+        config.set("new-api.url", mock.baseUrl() + "/v1/generate");
+        config.set("api-type", backend);
+        config.set("ollama.stream", Boolean.parseBoolean(args.getOrDefault("stream", "true")));
+        config.set("session.mode", args.getOrDefault("session-mode", "generate"));
+        config.set("executor.max-concurrent", intArg("max-concurrent", config.getInt("executor.max-concurrent", 2)));
+        config.set("executor.queue-capacity", intArg("queue", config.getInt("executor.queue-capacity", 50)));
+        config.set("executor.request-deadline-seconds",
+                longArg("deadline-s", config.getLong("executor.request-deadline-seconds", 120)));
+        config.set("quotas.enabled", Boolean.parseBoolean(args.getOrDefault("quotas", "false")));
+        plugin.saveConfig();
+        server.dispatchCommand(server.getConsoleSender(), "ollama reload");
+    }
+
+    /**
+     * 按游戏刻推进模拟服务器，并驱动每个模拟玩家发送请求、接收回复。
+     *
+     * @return 从第一个请求到最后一个请求完成的时间（纳秒）
+     */
+    private long drive(ServerMock server, OllamaChatPlugin plugin) throws InterruptedException {
+        ChatRequestService requests = plugin.getChatRequestService();
+        ChatDeliveryManager delivery = plugin.getDeliveryManager();
+        List<SimPlayer> players = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < playerCount; i++) {
+            SimPlayer player = new SimPlayer(server.addPlayer("loadtest" + i));
+            // 在 ramp-ms 内均匀地加入玩家，避免所有请求在同一刻到达
+            player.nextAt = start + TimeUnit.MILLISECONDS.toNanos(playerCount > 1 ? rampMillis * i / (playerCount - 1) : 0);
+            players.add(player);
+        }
+
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int finishedPlayers = 0;
+        long lastProgress = start;
+        while (finishedPlayers < players.size()) {
+            long tickStart = System.nanoTime();
+            if (tickStart > deadline) {
+                System.err.println("Load test timed out; reporting partial results.");
+                break;
+            }
+            server.getScheduler().performOneTick();
+            finishedPlayers = 0;
+            for (SimPlayer player : players) {
+                collectMessages(player, tickStart);
+                if (player.waiting && requests.getActiveCount(player.player) == 0
+                        && delivery.getPendingCount(player.player) == 0 && player.hasOutcome()) {
+                    finishRequest(player, tickStart);
+                }
+                if (!player.waiting && player.sent < requestsPerPlayer && tickStart >= player.nextAt) {
+                    sendRequest(player, tickStart);
+                }
+                if (!player.waiting && player.sent >= requestsPerPlayer) {
+                    finishedPlayers++;
+                }
+            }
+            if (tickStart - lastProgress >= TimeUnit.SECONDS.toNanos(10)) {
+                lastProgress = tickStart;
+                System.out.printf(Locale.ROOT, "[%.0fs] completed=%d rejected=%d errors=%d timeouts=%d%n",
+                        (tickStart - start) / 1e9, completed, rejected, errors, timeouts);
+            }
+            long sleep = tickMillis - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - tickStart);
+            if (sleep > 0) {
+                Thread.sleep(sleep);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void sendRequest(SimPlayer player, long now) {
+        player.sent++;
+        player.reset(now);
+        String prompt = sharedPrompts
+                ? "怎么做一个红石时钟？"
+                : "怎么做一个红石时钟？ #" + player.player.getName() + "-" + player.sent;
+        player.waiting = true;
+        player.player.performCommand("ollama " + prompt);
+        // 命令处理过程中收到的都是状态消息，队列已满或超出配额时请求直接被拒绝
+        String message;
+        while ((message = player.player.nextMessage()) != null) {
+            boolean throttle = startsWithAny(message, THROTTLE_PREFIXES);
+            if (throttle || message.startsWith("当前请求过多")) {
+                if (throttle) {
+                    throttled++;
+                } else {
+                    rejected++;
+                }
+                player.waiting = false;
+                player.nextAt = now + TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+            }
+        }
+    }
+
+    private void collectMessages(SimPlayer player, long now) {
+        String message;
+        while ((message = player.player.nextMessage()) != null) {
+            if (!player.waiting || startsWithAny(message, STATUS_PREFIXES)) {
+                continue;
+            }
+            if (message.startsWith("当前请求过多")) {
+                // 排队的请求被优先级更高的请求挤出
+                player.evicted = true;
+                continue;
+            }
+            receivedLines++;
+            player.lastMessageAt = now;
+            if (message.startsWith("请求超过")) {
+                player.timedOut = true;
+            } else if (message.startsWith("Error: ")) {
+                player.failed = true;
+            } else if (player.firstMessageAt == 0) {
+                player.firstMessageAt = now;
+            }
+        }
+    }
+
+    private void finishRequest(SimPlayer player, long now) {
+        player.waiting = false;
+        player.nextAt = now + TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+        if (player.evicted) {
+            rejected++;
+        } else if (player.timedOut) {
+            timeouts++;
+        } else if (player.failed) {
+            errors++;
+        } else {
+            completed++;
+            firstMessageMillis.add(TimeUnit.NANOSECONDS.toMillis(player.firstMessageAt - player.sentAt));
+            fullReplyMillis.add(TimeUnit.NANOSECONDS.toMillis(player.lastMessageAt - player.sentAt));
+        }
+    }
+
+    private static boolean startsWithAny(String message, String[] prefixes) {
+        for (String prefix : prefixes) {
+            if (message.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void printReport(OllamaChatPlugin plugin, MockLlmServer mock, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        int total = completed + errors + timeouts + rejected + throttled;
+        System.out.println();
+        System.out.println("== 负载测试结果 ==");
+        System.out.printf(Locale.ROOT, "场景: %d 名玩家 × %d 个请求，后端 %s，思考时间 %d ms，刻间隔 %d ms%n",
+                playerCount, requestsPerPlayer, backend, thinkMillis, tickMillis);
+        System.out.printf(Locale.ROOT, "模拟服务: %.1f tokens/s，首个 token %d+%d ms，每个回复 %d tokens，每块 %d tokens，错误率 %.1f%%%n",
+                serverOptions.tokenRate, serverOptions.firstTokenMillis, serverOptions.firstTokenJitterMillis,
+                serverOptions.tokens, serverOptions.tokensPerChunk, serverOptions.errorRate * 100);
+        System.out.printf(Locale.ROOT, "耗时 %.1f s，请求 %d 个：完成 %d，拒绝 %d（%.1f%%），超出配额 %d，错误 %d，超时 %d%n",
+                seconds, total, completed, rejected, total == 0 ? 0.0 : rejected * 100.0 / total, throttled, errors,
+                timeouts);
+        System.out.printf(Locale.ROOT, "吞吐量: %.2f 个回复/s，%.1f 行聊天消息/s%n",
+                completed / seconds, receivedLines / seconds);
+        System.out.println("首条消息延迟: " + percentiles(firstMessageMillis));
+        System.out.println("完整回复延迟: " + percentiles(fullReplyMillis));
+        System.out.printf(Locale.ROOT, "模拟服务: 完成 %d 次生成，注入错误 %d 次，客户端断开 %d 次%n",
+                mock.getStreamed(), mock.getInjectedErrors(), mock.getDisconnects());
+        System.out.println("插件指标:");
+        for (String line : plugin.getMetrics().summary()) {
+            System.out.println("  " + line);
+        }
+    }
+
+    /**
+     * 检查延迟、错误率和拒绝率是否在预算内。
+     *
+     * @return 全部在预算内时返回 0，否则返回 1
+     */
+    private int checkBudgets() {
+        List<String> violations = new ArrayList<>();
+        checkLatency(violations, "budget-p50-ms", 0.50);
+        checkLatency(violations, "budget-p95-ms", 0.95);
+        checkLatency(violations, "budget-p99-ms", 0.99);
+        int total = completed + errors + timeouts + rejected + throttled;
+        double maxRejectionRate = doubleArg("max-rejection-rate", -1);
+        if (maxRejectionRate >= 0 && total > 0 && (double) rejected / total > maxRejectionRate) {
+            violations.add("rejection rate " + rejected + "/" + total + " exceeds " + maxRejectionRate);
+        }
+        double maxErrorRate = doubleArg("max-error-rate", -1);
+        if (maxErrorRate >= 0 && total > 0 && (double) (errors + timeouts) / total > maxErrorRate) {
+            violations.add("error rate " + (errors + timeouts) + "/" + total + " exceeds " + maxErrorRate);
+        }
+        for (String violation : violations) {
+            System.out.println("超出预算: " + violation);
+        }
+        return violations.isEmpty() ? 0 : 1;
+    }
+
+    private void checkLatency(List<String> violations, String key, double quantile) {
+        long budget = longArg(key, 0);
+        if (budget <= 0) {
+            return;
+        }
+        long actual = percentile(fullReplyMillis, quantile);
+        if (fullReplyMillis.isEmpty() || actual > budget) {
+            violations.add(key + " = " + budget + " ms, actual " + (fullReplyMillis.isEmpty() ? "n/a" : actual + " ms"));
+        }
+    }
+
+    private static String percentiles(List<Long> samples) {
+        if (samples.isEmpty()) {
+            return "无数据";
+        }
+        return "p50 " + percentile(samples, 0.50) + " ms，p95 " + percentile(samples, 0.95) + " ms，p99 "
+                + percentile(samples, 0.99) + " ms，最大 " + Collections.max(samples) + " ms";
+    }
+
+    private static long percentile(List<Long> samples, double quantile) {
+        if (samples.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil(quantile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private int intArg(String key, int defaultValue) {
+        String value = args.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private long longArg(String key, long defaultValue) {
+        String value = args.get(key);
+        return value == null ? defaultValue : Long.parseLong(value);
+    }
+
+    private double doubleArg(String key, double defaultValue) {
+        String value = args.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * SimPlayer 类表示一个模拟玩家及其当前请求的状态。
+     */
+    private static final class SimPlayer {
+
+        private final PlayerMock player;
+        // 已发送的请求数
+        private int sent;
+        // 下一次发送请求的时间（System.nanoTime）
+        private long nextAt;
+        // 是否有请求尚未完成
+        private boolean waiting;
+        // 当前请求的发送时间、收到第一条回复消息和最后一条消息的时间
+        private long sentAt;
+        private long firstMessageAt;
+        private long lastMessageAt;
+        // 当前请求是否以错误、超时或被挤出队列结束
+        private boolean failed;
+        private boolean timedOut;
+        private boolean evicted;
+
+        SimPlayer(PlayerMock player) {
+            this.player = player;
+        }
+
+        void reset(long now) {
+            sentAt = now;
+            firstMessageAt = 0;
+            lastMessageAt = 0;
+            failed = false;
+            timedOut = false;
+            evicted = false;
+        }
+
+        boolean hasOutcome() {
+            return firstMessageAt > 0 || failed || timedOut || evicted;
+        }
+    }
+}
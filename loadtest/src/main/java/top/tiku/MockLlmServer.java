@@ -0,0 +1,268 @@
+package top.tiku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MockLlmServer 类是本地运行的 Ollama 和新 API 模拟服务，用于离线负载测试。
+ * 生成速度、首个 token 的延迟、回复长度、每个数据块包含的 token 数和错误注入的比例都可以配置。
+ * 每个请求使用一个虚拟线程处理，按配置的速率逐块输出，模拟 CPU 推理时的流式响应。
+ */
+final class MockLlmServer implements AutoCloseable {
+
+    static {
+        // 逐块刷新的小数据块在启用 Nagle 算法时会与客户端的延迟确认相互等待，使延迟失真
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    // 模拟生成时循环使用的文本片段
+    private static final String[] WORDS = {
+            "红石", "电路", " can", " be", " used", " to", " build", "自动", "门", "，", " and", " a",
+            " hopper", " clock", " is", "最", "省", "性能", "的", "做法", "。", "\n"
+    };
+
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    // 各类请求的计数，用于在报告中核对
+    private final LongAdder streamed = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    /**
+     * 在本机的随机端口上启动模拟服务。
+     *
+     * @param options 模拟服务的参数
+     * @throws IOException 无法监听端口时抛出
+     */
+    MockLlmServer(Options options) throws IOException {
+        this.options = options;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        server.setExecutor(executor);
+        server.createContext("/api/version", exchange -> json(exchange, 200, new JSONObject().put("version", "mock")));
+        server.createContext("/api/ps", exchange -> json(exchange, 200, new JSONObject()
+                .put("models", new JSONArray().put(new JSONObject().put("name", options.model).put("model", options.model)))));
+        server.createContext("/api/generate", exchange -> ollama(exchange, false));
+        server.createContext("/api/chat", exchange -> ollama(exchange, true));
+        server.createContext("/v1/generate", this::newApi);
+        server.start();
+    }
+
+    /**
+     * 获取模拟服务的基础地址。
+     *
+     * @return 例如 http://127.0.0.1:54321
+     */
+    String baseUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort();
+    }
+
+    long getStreamed() {
+        return streamed.sum();
+    }
+
+    long getInjectedErrors() {
+        return injectedErrors.sum();
+    }
+
+    long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * 处理 /api/generate 和 /api/chat 请求。不带提示词的请求是预加载请求，立即返回。
+     */
+    private void ollama(HttpExchange exchange, boolean chatMode) throws IOException {
+        try (exchange) {
+            JSONObject request = readBody(exchange);
+            boolean preload = !chatMode && request.optString("prompt", "").isEmpty();
+            if (preload) {
+                json(exchange, 200, new JSONObject().put("model", options.model).put("done", true));
+                return;
+            }
+            Failure failure = pickFailure();
+            if (failure == Failure.HTTP_500) {
+                injectedErrors.increment();
+                json(exchange, 500, new JSONObject().put("error", "mock: injected server error"));
+                return;
+            }
+            sleep(firstTokenDelay());
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            long nanosPerChunk = (long) (1e9 * options.tokensPerChunk / options.tokenRate);
+            long started = System.nanoTime();
+            int produced = 0;
+            int chunkIndex = 0;
+            try {
+                while (produced < options.tokens) {
+                    if (failure != Failure.NONE && produced >= options.tokens / 2) {
+                        injectedErrors.increment();
+                        if (failure == Failure.STREAM_ERROR) {
+                            writeLine(out, new JSONObject().put("error", "mock: injected generation error"));
+                        }
+                        // DROP：不发送 done 直接结束响应，客户端会读到提前结束的流
+                        return;
+                    }
+                    StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < options.tokensPerChunk && produced < options.tokens; i++, produced++) {
+                        text.append(WORDS[produced % WORDS.length]);
+                    }
+                    JSONObject chunk = new JSONObject().put("model", options.model).put("done", false);
+                    if (chatMode) {
+                        chunk.put("message", new JSONObject().put("role", "assistant").put("content", text));
+                    } else {
+                        chunk.put("response", text);
+                    }
+                    writeLine(out, chunk);
+                    chunkIndex++;
+                    // 按绝对时间安排下一块，避免累积误差
+                    sleep((started + chunkIndex * nanosPerChunk - System.nanoTime()) / 1_000_000);
+                }
+                long evalNanos = System.nanoTime() - started;
+                JSONObject last = new JSONObject().put("model", options.model).put("done", true)
+                        .put("done_reason", "stop").put("eval_count", produced).put("eval_duration", evalNanos);
+                if (chatMode) {
+                    last.put("message", new JSONObject().put("role", "assistant").put("content", ""));
+                } else {
+                    JSONArray context = new JSONArray();
+                    for (int i = 0; i < produced + 16; i++) {
+                        context.put(i + 1);
+                    }
+                    last.put("response", "").put("context", context);
+                }
+                writeLine(out, last);
+                streamed.increment();
+            } catch (IOException e) {
+                // 客户端取消请求或超时后断开连接
+                disconnects.increment();
+            }
+        }
+    }
+
+    /**
+     * 处理新 API 请求，等待完整的生成时间后一次性返回全部文本。
+     */
+    private void newApi(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            readBody(exchange);
+            if (pickFailure() != Failure.NONE) {
+                injectedErrors.increment();
+                json(exchange, 500, new JSONObject().put("error", "mock: injected server error"));
+                return;
+            }
+            sleep(firstTokenDelay() + (long) (1000.0 * options.tokens / options.tokenRate));
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < options.tokens; i++) {
+                text.append(WORDS[i % WORDS.length]);
+            }
+            byte[] body = text.toString().replace("\n", " ").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+            streamed.increment();
+        } catch (IOException e) {
+            disconnects.increment();
+        }
+    }
+
+    private Failure pickFailure() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() >= options.errorRate) {
+            return Failure.NONE;
+        }
+        Failure[] modes = {Failure.HTTP_500, Failure.STREAM_ERROR, Failure.DROP};
+        return modes[random.nextInt(modes.length)];
+    }
+
+    private long firstTokenDelay() {
+        long jitter = options.firstTokenJitterMillis > 0
+                ? ThreadLocalRandom.current().nextLong(options.firstTokenJitterMillis + 1) : 0;
+        return options.firstTokenMillis + jitter;
+    }
+
+    private static JSONObject readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            String body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            return body.isBlank() ? new JSONObject() : new JSONObject(body);
+        }
+    }
+
+    private static void json(HttpExchange exchange, int status, JSONObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void writeLine(OutputStream out, JSONObject chunk) throws IOException {
+        out.write((chunk.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 注入的错误类型：返回 500、在流中返回 error 数据块、在发送 done 之前结束响应。
+     */
+    private enum Failure {
+        NONE, HTTP_500, STREAM_ERROR, DROP
+    }
+
+    /**
+     * Options 类是模拟服务的参数。
+     */
+    static final class Options {
+
+        // 返回的模型名称
+        String model = "llama2:7b";
+        // 生成速度（tokens/s）
+        double tokenRate = 30;
+        // 首个 token 之前的延迟（毫秒），模拟提示词处理时间
+        long firstTokenMillis = 300;
+        // 首个 token 延迟的随机抖动上限（毫秒）
+        long firstTokenJitterMillis = 100;
+        // 每个回复的 token 数
+        int tokens = 120;
+        // 每个数据块包含的 token 数
+        int tokensPerChunk = 1;
+        // 注入错误的请求比例，范围从 0.0 到 1.0
+        double errorRate = 0.0;
+    }
+}
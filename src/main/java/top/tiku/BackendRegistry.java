@@ -0,0 +1,52 @@
+package top.tiku;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * BackendRegistry 类按名称登记可用的大模型后端，
+ * 命令处理时根据配置文件中的 api-type 查找对应的后端。
+ */
+public class BackendRegistry {
+
+    // 已登记的后端，键为后端名称，保持登记顺序
+    private final Map<String, LlmBackend> backends = new LinkedHashMap<>();
+
+    /**
+     * 登记一个后端，同名的后端会被替换。
+     *
+     * @param backend 要登记的后端
+     */
+    public synchronized void register(LlmBackend backend) {
+        backends.put(backend.getName(), backend);
+    }
+
+    /**
+     * 移除所有已登记的后端，重新加载配置时在重新登记之前调用。
+     */
+    public synchronized void clear() {
+        backends.clear();
+    }
+
+    /**
+     * 根据名称查找后端。
+     *
+     * @param name 后端名称
+     * @return 对应的后端，未登记时返回 null
+     */
+    public synchronized LlmBackend get(String name) {
+        return backends.get(name);
+    }
+
+    /**
+     * 获取所有已登记的后端名称。
+     *
+     * @return 后端名称集合
+     */
+    public synchronized Set<String> getNames() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(backends.keySet()));
+    }
+}
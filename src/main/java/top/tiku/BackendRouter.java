@@ -0,0 +1,500 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * BackendRouter 类按配置文件中 api-type 列出的顺序为请求选择后端，并为每个后端维护一个熔断器。
+ * 后端在开始输出之前失败时，请求自动转到链中的下一个后端；启用对冲请求后，
+ * 主后端在设定的时间内还没有开始输出时，同时向下一个后端发送相同的请求，先开始输出的一方胜出，另一方被取消。
+ * 对冲请求在单独的虚拟线程中执行，发出请求的执行器线程等到整个请求结束后才返回，因此对冲期间仍占用它的名额。
+ */
+public class BackendRouter {
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取 api-type 和熔断、对冲的设置
+    private final ConfigManager configManager;
+    // 后端注册表
+    private final BackendRegistry backendRegistry;
+    // 每个后端的熔断器，键为后端名称
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    // 到时间后发出对冲请求的调度器
+    private final ScheduledExecutorService hedgeScheduler;
+    // 转到下一个后端的次数
+    private final LongAdder failovers = new LongAdder();
+    // 发出对冲请求的次数
+    private final LongAdder hedges = new LongAdder();
+    // 对冲请求先开始输出的次数
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * 构造函数，初始化 BackendRouter 实例。
+     *
+     * @param plugin          插件实例
+     * @param configManager   配置管理器
+     * @param backendRegistry 后端注册表
+     */
+    public BackendRouter(JavaPlugin plugin, ConfigManager configManager, BackendRegistry backendRegistry) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.backendRegistry = backendRegistry;
+        this.hedgeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 选出处理新请求的后端：api-type 链中第一个熔断器允许请求的后端。不占用熔断器的探测名额。
+     *
+     * @return 选中的后端，链中没有已登记的后端或全部熔断时返回 null
+     */
+    public LlmBackend route() {
+        PluginSettings settings = configManager.getSettings();
+        for (String name : settings.getApiTypes()) {
+            LlmBackend backend = backendRegistry.get(name);
+            if (backend != null && breaker(name).isAvailable(settings)) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 判断 api-type 链中是否有已登记的后端。
+     *
+     * @return 至少有一个后端已登记时返回 true
+     */
+    public boolean hasBackend() {
+        for (String name : configManager.getApiTypes()) {
+            if (backendRegistry.get(name) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取最早恢复的后端还需熔断多久。
+     *
+     * @return 剩余的毫秒数
+     */
+    public long getRetryDelayMillis() {
+        PluginSettings settings = configManager.getSettings();
+        long delay = Long.MAX_VALUE;
+        for (String name : settings.getApiTypes()) {
+            delay = Math.min(delay, breaker(name).getRemainingOpenMillis(settings));
+        }
+        return delay == Long.MAX_VALUE ? 0 : delay;
+    }
+
+    /**
+     * 执行一个请求，阻塞到输出回复的后端结束或所有后端都失败为止，应在请求执行器的线程中调用。
+     * 对冲请求胜出时同样等待它结束，使并发上限和按模型的调度统计包括对冲请求。
+     * 回调中的文本只来自一个后端；所有后端都失败时回调最后一个错误。
+     *
+     * @param primary    首先尝试的后端，通常是 {@link #route()} 的结果
+     * @param request    聊天请求
+     * @param failover   是否允许转到其他后端，指定了模型的请求不应转到其他后端
+     * @param callback   接收生成文本和结束事件的回调
+     * @param onFallback 回复改由其他后端生成时调用，在该后端的第一个 token 之前调用
+     */
+    public void execute(LlmBackend primary, ChatRequest request, boolean failover, StreamCallback callback,
+                        Runnable onFallback) {
+        List<LlmBackend> chain = new ArrayList<>();
+        chain.add(primary);
+        if (failover) {
+            for (String name : configManager.getApiTypes()) {
+                LlmBackend backend = backendRegistry.get(name);
+                if (backend != null && !chain.contains(backend)) {
+                    chain.add(backend);
+                }
+            }
+        }
+        new Exchange(request, chain, callback, onFallback).start();
+    }
+
+    /**
+     * 生成描述各个后端熔断器状态的文本。
+     *
+     * @return 每行一条的描述
+     */
+    public List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (String name : configManager.getApiTypes()) {
+            lines.add("后端 " + breaker(name).describe());
+        }
+        lines.add("故障转移 " + failovers.sum() + " 次，对冲请求 " + hedges.sum() + " 次（胜出 " + hedgeWins.sum() + " 次）");
+        return lines;
+    }
+
+    /**
+     * 获取 api-type 链中各个后端的熔断器。
+     *
+     * @return 熔断器列表
+     */
+    public List<CircuitBreaker> getBreakers() {
+        List<CircuitBreaker> list = new ArrayList<>();
+        for (String name : configManager.getApiTypes()) {
+            list.add(breaker(name));
+        }
+        return list;
+    }
+
+    public long getFailovers() {
+        return failovers.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * 停止对冲请求的调度器，已发出的对冲请求不受影响。
+     */
+    public void shutdown() {
+        hedgeScheduler.shutdownNow();
+    }
+
+    private CircuitBreaker breaker(String name) {
+        return breakers.computeIfAbsent(name, CircuitBreaker::new);
+    }
+
+    /**
+     * Exchange 类表示一个请求在各个后端上的全部尝试，决定由哪个尝试输出回复。
+     */
+    private final class Exchange {
+
+        // 原始请求，玩家取消时取消所有尝试
+        private final ChatRequest request;
+        // 依次尝试的后端
+        private final List<LlmBackend> chain;
+        // 接收回复的回调
+        private final StreamCallback delegate;
+        // 改由其他后端生成时调用
+        private final Runnable onFallback;
+        // 下一个要尝试的后端的位置
+        private int nextIndex;
+        // 正在进行的尝试数
+        private int running;
+        // 输出回复的尝试，在第一个 token 或结束事件到达时确定
+        private volatile Attempt winner;
+        // 进行中的尝试，用于取消落败的一方
+        private final List<Attempt> attempts = new ArrayList<>();
+        // 是否已经回调过结束事件
+        private boolean finished;
+        // 最后一个错误
+        private String lastError = "No backend is available";
+        // 发出对冲请求的定时任务
+        private ScheduledFuture<?> hedgeTask;
+        // 输出回复的尝试结束或所有尝试都失败时释放，start 等到释放后才返回
+        private final CountDownLatch settled = new CountDownLatch(1);
+
+        Exchange(ChatRequest request, List<LlmBackend> chain, StreamCallback delegate, Runnable onFallback) {
+            this.request = request;
+            this.chain = chain;
+            this.delegate = delegate;
+            this.onFallback = onFallback;
+        }
+
+        void start() {
+            Attempt first;
+            synchronized (this) {
+                first = nextAttempt();
+                if (first != null) {
+                    scheduleHedge();
+                }
+            }
+            if (first == null) {
+                fail();
+                return;
+            }
+            drive(first);
+            // 最先尝试的后端落败或失败时，对冲请求可能仍在生成，等它结束后再交还执行器的名额
+            try {
+                settled.await();
+            } catch (InterruptedException e) {
+                // 插件正在关闭，停止所有尝试
+                List<Attempt> inProgress;
+                synchronized (this) {
+                    inProgress = new ArrayList<>(attempts);
+                }
+                for (Attempt attempt : inProgress) {
+                    attempt.cancellation.cancel();
+                }
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * 在当前线程中执行尝试，失败且没有其他尝试在进行时转到下一个后端。
+         */
+        private void drive(Attempt attempt) {
+            while (attempt != null) {
+                attempt.execute();
+                attempt = afterAttempt(attempt);
+            }
+        }
+
+        /**
+         * 选出下一个熔断器允许请求的后端，调用前必须持有锁。
+         */
+        private Attempt nextAttempt() {
+            PluginSettings settings = configManager.getSettings();
+            while (nextIndex < chain.size()) {
+                LlmBackend backend = chain.get(nextIndex++);
+                CircuitBreaker breaker = breaker(backend.getName());
+                boolean probe = breaker.getState() != CircuitBreaker.State.CLOSED;
+                if (breaker.tryAcquire(settings)) {
+                    Attempt attempt = new Attempt(backend, breaker, probe && settings.isCircuitBreakerEnabled(),
+                            nextIndex == 1);
+                    attempts.add(attempt);
+                    running++;
+                    return attempt;
+                }
+            }
+            return null;
+        }
+
+        private void scheduleHedge() {
+            PluginSettings settings = configManager.getSettings();
+            if (!settings.isHedgeEnabled() || nextIndex >= chain.size()) {
+                return;
+            }
+            try {
+                hedgeTask = hedgeScheduler.schedule(this::hedge, settings.getHedgeDelayMillis(), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 插件正在关闭
+            }
+        }
+
+        private void hedge() {
+            Attempt hedged;
+            synchronized (this) {
+                if (finished || winner != null || running == 0 || request.getCancellation().isCancelled()) {
+                    return;
+                }
+                hedged = nextAttempt();
+                if (hedged == null) {
+                    return;
+                }
+                hedged.hedge = true;
+            }
+            hedges.increment();
+            Thread.ofVirtual().name("OllamaChat-hedge-request").start(() -> drive(hedged));
+        }
+
+        /**
+         * 尝试收到第一个 token 或结束事件时调用，确定由它输出回复并取消其他尝试。
+         *
+         * @return 该尝试输出回复时返回 true
+         */
+        private boolean claim(Attempt attempt) {
+            List<Attempt> losers = new ArrayList<>();
+            boolean fallback;
+            synchronized (this) {
+                if (winner != null || finished) {
+                    return winner == attempt;
+                }
+                winner = attempt;
+                fallback = !attempt.primary;
+                for (Attempt other : attempts) {
+                    if (other != attempt) {
+                        losers.add(other);
+                    }
+                }
+                if (hedgeTask != null) {
+                    hedgeTask.cancel(false);
+                }
+            }
+            if (attempt.hedge) {
+                hedgeWins.increment();
+            }
+            for (Attempt loser : losers) {
+                loser.lost = true;
+                loser.cancellation.cancel();
+            }
+            if (fallback) {
+                onFallback.run();
+            }
+            return true;
+        }
+
+        /**
+         * 一个尝试结束后调用：记录熔断器的结果，并决定是否在当前线程中转到下一个后端。
+         *
+         * @return 要在当前线程中继续执行的尝试，没有时返回 null
+         */
+        private Attempt afterAttempt(Attempt attempt) {
+            PluginSettings settings = configManager.getSettings();
+            if (attempt.breaker.record(settings, attempt.outcome(settings), attempt.probe)) {
+                plugin.getLogger().warning("Circuit breaker opened for backend " + attempt.backend.getName());
+            }
+            Attempt next;
+            synchronized (this) {
+                running--;
+                attempts.remove(attempt);
+                if (winner == attempt) {
+                    settled.countDown();
+                }
+                if (finished || winner != null || attempt.error == null) {
+                    return null;
+                }
+                lastError = attempt.error;
+                if (running > 0) {
+                    // 另一个尝试还在进行，由它决定结果
+                    return null;
+                }
+                next = request.getCancellation().isCancelled() ? null : nextAttempt();
+                if (next == null) {
+                    finished = true;
+                }
+            }
+            if (next == null) {
+                fail();
+                return null;
+            }
+            failovers.increment();
+            plugin.getLogger().warning("Backend " + attempt.backend.getName() + " failed (" + attempt.error
+                    + "), retrying on " + next.backend.getName());
+            return next;
+        }
+
+        private void fail() {
+            if (hedgeTask != null) {
+                hedgeTask.cancel(false);
+            }
+            try {
+                delegate.onError(lastError);
+            } finally {
+                settled.countDown();
+            }
+        }
+
+        /**
+         * Attempt 类表示在某个后端上的一次尝试。
+         */
+        private final class Attempt {
+
+            private final LlmBackend backend;
+            private final CircuitBreaker breaker;
+            // 是否是半开状态下的探测请求
+            private final boolean probe;
+            // 是否是最先尝试的后端
+            private final boolean primary;
+            // 本次尝试的取消标记，玩家取消或在对冲中落败时取消
+            private final CancellationToken cancellation = new CancellationToken();
+            // 是否是对冲请求
+            private volatile boolean hedge;
+            // 是否在对冲中落败
+            private volatile boolean lost;
+            // 开始时间和收到第一个 token 的时间（System.nanoTime）
+            private long startedAt;
+            private long firstTokenAt;
+            // 输出回复前出现的错误
+            private String error;
+            // 是否已经正常结束
+            private boolean completed;
+
+            Attempt(LlmBackend backend, CircuitBreaker breaker, boolean probe, boolean primary) {
+                this.backend = backend;
+                this.breaker = breaker;
+                this.probe = probe;
+                this.primary = primary;
+            }
+
+            void execute() {
+                Runnable cancelAttempt = cancellation::cancel;
+                request.getCancellation().onCancel(cancelAttempt);
+                startedAt = System.nanoTime();
+                // 转到其他后端时使用该后端自己的模型
+                ChatRequest attemptRequest = new ChatRequest(request.getPrompt(), request.getSession(),
+                        primary ? request.getModel() : null, cancellation, request.getKnowledge(),
+                        request.getGeneration());
+                try {
+                    backend.streamRequest(attemptRequest, new StreamCallback() {
+                        @Override
+                        public void onToken(String token) {
+                            if (firstTokenAt == 0) {
+                                firstTokenAt = System.nanoTime();
+                            }
+                            if (claim(Attempt.this)) {
+                                delegate.onToken(token);
+                            }
+                        }
+
+                        @Override
+                        public void onComplete(JSONObject finalChunk) {
+                            if (firstTokenAt == 0) {
+                                firstTokenAt = System.nanoTime();
+                            }
+                            completed = true;
+                            if (claim(Attempt.this)) {
+                                delegate.onComplete(finalChunk);
+                            }
+                        }
+
+                        @Override
+                        public void onError(String errorMessage) {
+                            error = errorMessage;
+                            // 已经开始输出后出错时无法再转到其他后端，否则由 afterAttempt 决定是否转移
+                            if (winner == Attempt.this) {
+                                delegate.onError(errorMessage);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    error = e.getMessage() != null ? e.getMessage() : e.toString();
+                    if (winner == this) {
+                        delegate.onError(error);
+                    }
+                } finally {
+                    request.getCancellation().removeCallback(cancelAttempt);
+                }
+                if (!completed && error == null) {
+                    error = "Backend returned without a reply";
+                }
+            }
+
+            /**
+             * 计算本次尝试计入熔断器的结果。
+             */
+            CircuitBreaker.Outcome outcome(PluginSettings settings) {
+                if (lost) {
+                    // 只有首选后端被对冲请求抢先时才说明它没能及时开始输出；对冲请求晚 delay-ms 才发出，
+                    // 落败不代表下一个后端有问题，不计入统计，避免正常的对冲使备用后端熔断
+                    Attempt won = winner;
+                    return primary && firstTokenAt == 0 && won != null && won.hedge
+                            ? CircuitBreaker.Outcome.SLOW : CircuitBreaker.Outcome.IGNORED;
+                }
+                if (request.getCancellation().isCancelled()) {
+                    return CircuitBreaker.Outcome.IGNORED;
+                }
+                if (!completed) {
+                    return CircuitBreaker.Outcome.FAILURE;
+                }
+                long firstTokenMillis = TimeUnit.NANOSECONDS.toMillis(firstTokenAt - startedAt);
+                return firstTokenMillis > settings.getCircuitSlowCallMillis()
+                        ? CircuitBreaker.Outcome.SLOW : CircuitBreaker.Outcome.SUCCESS;
+            }
+        }
+    }
+}
@@ -6,46 +6,53 @@ import org.bukkit.boss.BarStyle;
 import org.bukkit.boss.BossBar;
 import org.bukkit.entity.Player;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * BossBarManager 类负责管理玩家的 Boss 血条，提供显示、更新和隐藏血条的功能。
+ * 每个玩家可以同时显示多个血条，以玩家和血条标识区分，例如同时下载多个模型时每个模型一个血条。
+ * 血条的映射可以在任意线程中访问，但显示、更新和隐藏操作需要在主线程中调用。
  */
 public class BossBarManager {
 
-    // 用于存储每个玩家对应的 Boss 血条对象，键为玩家对象，值为 BossBar 对象
-    private final Map<Player, BossBar> bossBars = new HashMap<>();
+    // 用于存储每个血条对象，键由玩家 UUID 和血条标识组成
+    private final Map<String, BossBar> bossBars = new ConcurrentHashMap<>();
 
     /**
-     * 为指定玩家显示 Boss 血条。
+     * 为指定玩家显示 Boss 血条，同一标识的血条已存在时只更新标题。
      *
      * @param player 要显示血条的玩家对象
+     * @param id     血条标识，例如正在下载的模型名称
      * @param title  血条的标题，会显示在血条上方
      */
-    public void showBossBar(Player player, String title) {
-        // 创建一个新的 Boss 血条，设置标题、颜色和样式
-        BossBar bossBar = Bukkit.createBossBar(title, BarColor.BLUE, BarStyle.SOLID);
-        // 将玩家添加到血条的可见列表中，使玩家能够看到该血条
-        bossBar.addPlayer(player);
-        // 设置血条为可见状态
-        bossBar.setVisible(true);
-        // 将玩家和对应的血条对象存入 map 中，方便后续管理
-        bossBars.put(player, bossBar);
+    public void showBossBar(Player player, String id, String title) {
+        BossBar bossBar = bossBars.computeIfAbsent(key(player, id), key -> {
+            // 创建一个新的 Boss 血条，设置标题、颜色和样式
+            BossBar created = Bukkit.createBossBar(title, BarColor.BLUE, BarStyle.SOLID);
+            // 将玩家添加到血条的可见列表中，使玩家能够看到该血条
+            created.addPlayer(player);
+            // 设置血条为可见状态
+            created.setVisible(true);
+            return created;
+        });
+        bossBar.setTitle(title);
     }
 
     /**
-     * 更新指定玩家的 Boss 血条进度。
+     * 更新指定玩家的 Boss 血条标题和进度。
      *
      * @param player   要更新血条进度的玩家对象
+     * @param id       血条标识
+     * @param title    新的标题
      * @param progress 血条的进度值，范围从 0.0 到 1.0，0.0 表示 0%，1.0 表示 100%
      */
-    public void updateBossBarProgress(Player player, double progress) {
-        // 从 map 中获取该玩家对应的 Boss 血条对象
-        BossBar bossBar = bossBars.get(player);
+    public void updateBossBar(Player player, String id, String title, double progress) {
+        BossBar bossBar = bossBars.get(key(player, id));
         if (bossBar != null) {
-            // 如果血条对象存在，设置血条的进度
-            bossBar.setProgress(progress);
+            // 如果血条对象存在，设置血条的标题和进度
+            bossBar.setTitle(title);
+            bossBar.setProgress(Math.max(0.0, Math.min(1.0, progress)));
         }
     }
 
@@ -53,17 +60,30 @@ public class BossBarManager {
      * 隐藏指定玩家的 Boss 血条。
      *
      * @param player 要隐藏血条的玩家对象
+     * @param id     血条标识
      */
-    public void hideBossBar(Player player) {
-        // 从 map 中获取该玩家对应的 Boss 血条对象
-        BossBar bossBar = bossBars.get(player);
+    public void hideBossBar(Player player, String id) {
+        // 从 map 中移除该玩家对应的血条对象
+        BossBar bossBar = bossBars.remove(key(player, id));
         if (bossBar != null) {
-            // 如果血条对象存在，将玩家从血条的可见列表中移除
+            // 如果血条对象存在，将玩家从血条的可见列表中移除，并设置为不可见状态
             bossBar.removePlayer(player);
-            // 设置血条为不可见状态
             bossBar.setVisible(false);
-            // 从 map 中移除该玩家对应的血条对象
-            bossBars.remove(player);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 隐藏所有血条，插件禁用时调用。
+     */
+    public void hideAll() {
+        for (BossBar bossBar : bossBars.values()) {
+            bossBar.removeAll();
+            bossBar.setVisible(false);
+        }
+        bossBars.clear();
+    }
+
+    private static String key(Player player, String id) {
+        return player.getUniqueId() + ":" + id;
+    }
+}
@@ -0,0 +1,67 @@
+package top.tiku;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CancellationToken 类表示一个可以取消的请求。取消时依次执行登记的回调，
+ * 例如从等待队列中移除请求、中止正在进行的 HTTP 请求，使 Ollama 停止生成。
+ */
+public class CancellationToken {
+
+    // 取消时执行的回调
+    private final List<Runnable> callbacks = new ArrayList<>();
+    // 是否已取消
+    private volatile boolean cancelled;
+
+    /**
+     * 取消请求并执行所有登记的回调，重复调用不会有额外效果。
+     */
+    public void cancel() {
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for (Runnable callback : toRun) {
+            callback.run();
+        }
+    }
+
+    /**
+     * 判断请求是否已取消。
+     *
+     * @return 已取消时返回 true
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 登记取消时执行的回调。请求已取消时立即执行。
+     *
+     * @param callback 取消时执行的回调
+     */
+    public void onCancel(Runnable callback) {
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * 移除登记的回调，通常在对应的操作结束后调用。
+     *
+     * @param callback 要移除的回调
+     */
+    public synchronized void removeCallback(Runnable callback) {
+        callbacks.remove(callback);
+    }
+}
@@ -0,0 +1,351 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChatDeliveryManager 类负责把回复发送给玩家。每个玩家有一个输出队列，
+ * 由一个每刻执行的任务按配置的速率统一发送，长文本会按聊天栏宽度换行，
+ * 超出一页的部分不会直接发送，而是通过 /ollama page &lt;n&gt; 查看。
+ * 玩家退出时自动清空其队列。
+ */
+public class ChatDeliveryManager implements Listener {
+
+    // 插件实例，用于调度发送任务
+    private final JavaPlugin plugin;
+    // 每刻最多发送的字符数
+    private volatile int charsPerTick;
+    // 每行的最大宽度，宽字符按 2 计算
+    private volatile int lineWidth;
+    // 每页的行数，一条回复超过该行数时其余部分需要翻页查看
+    private volatile int pageLines;
+    // 每个发送者的输出队列，键与会话管理器相同
+    private final Map<String, PlayerOutput> outputs = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 ChatDeliveryManager 实例。
+     *
+     * @param plugin        插件实例
+     * @param configManager 配置管理器，用于读取发送速率和分页设置
+     */
+    public ChatDeliveryManager(JavaPlugin plugin, ConfigManager configManager) {
+        this(plugin, configManager.getSettings());
+    }
+
+    /**
+     * 构造函数，根据配置快照初始化，供基准测试等不经过配置文件的场景使用。
+     *
+     * @param plugin   插件实例
+     * @param settings 配置快照
+     */
+    ChatDeliveryManager(JavaPlugin plugin, PluginSettings settings) {
+        this.plugin = plugin;
+        apply(settings);
+    }
+
+    /**
+     * 重新读取发送速率和分页设置，之后发送的内容按新的设置处理。
+     *
+     * @param configManager 配置管理器
+     */
+    public void reconfigure(ConfigManager configManager) {
+        apply(configManager.getSettings());
+    }
+
+    private void apply(PluginSettings settings) {
+        this.charsPerTick = settings.getDeliveryCharsPerTick();
+        this.lineWidth = settings.getDeliveryLineWidth();
+        this.pageLines = settings.getDeliveryPageLines();
+    }
+
+    /**
+     * 启动每刻执行一次的发送任务，应在插件启用时调用。
+     */
+    public void start() {
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this::tick, 1L, 1L);
+    }
+
+    /**
+     * 为发送者创建一条新的回复。回复的所有文本都进入该发送者的输出队列，
+     * 并作为该发送者最近的回复供 /ollama page 翻页查看。可以在任意线程中调用。
+     *
+     * @param sender 接收回复的命令发送者
+     * @return 新的回复
+     */
+    public Reply openReply(CommandSender sender) {
+        PlayerOutput output = getOutput(sender);
+        Reply reply = new Reply(output);
+        output.setLastReply(reply);
+        return reply;
+    }
+
+    /**
+     * 把一条提示消息放入发送者的输出队列，在其之前的回复之后发送。可以在任意线程中调用。
+     *
+     * @param sender  接收消息的命令发送者
+     * @param message 提示消息
+     */
+    public void send(CommandSender sender, String message) {
+        PlayerOutput output = getOutput(sender);
+        for (String line : wrap(message)) {
+            output.enqueue(line);
+        }
+    }
+
+    /**
+     * 显示发送者最近一条回复的指定页，并丢弃尚未发送的内容。
+     *
+     * @param sender 命令发送者
+     * @param page   页码，从 1 开始
+     */
+    public void showPage(CommandSender sender, int page) {
+        PlayerOutput output = getOutput(sender);
+        Reply reply = output.getLastReply();
+        if (reply == null) {
+            sender.sendMessage("没有可以翻页的回复。");
+            return;
+        }
+        List<String> lines = reply.snapshot();
+        int pageCount = Math.max(1, (lines.size() + pageLines - 1) / pageLines);
+        if (page < 1 || page > pageCount) {
+            sender.sendMessage("页码超出范围，共 " + pageCount + " 页。");
+            return;
+        }
+        output.clear();
+        int from = (page - 1) * pageLines;
+        for (String line : lines.subList(from, Math.min(lines.size(), from + pageLines))) {
+            output.enqueue(line);
+        }
+        output.enqueue("—— 第 " + page + "/" + pageCount + " 页 ——");
+    }
+
+    /**
+     * 清空发送者尚未发送的内容。
+     *
+     * @param sender 命令发送者
+     */
+    public void clear(CommandSender sender) {
+        PlayerOutput output = outputs.get(SessionManager.sessionKey(sender));
+        if (output != null) {
+            output.clear();
+        }
+    }
+
+    /**
+     * 获取发送者输出队列中尚未发送的行数。
+     *
+     * @param sender 命令发送者
+     * @return 尚未发送的行数
+     */
+    int getPendingCount(CommandSender sender) {
+        PlayerOutput output = outputs.get(SessionManager.sessionKey(sender));
+        return output == null ? 0 : output.size();
+    }
+
+    /**
+     * 玩家退出时移除其输出队列和可翻页的回复。
+     *
+     * @param event 玩家退出事件
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        outputs.remove(SessionManager.sessionKey(event.getPlayer()));
+    }
+
+    /**
+     * 每刻在主线程上执行一次，按速率从每个输出队列中发送若干行。
+     */
+    private void tick() {
+        for (PlayerOutput output : outputs.values()) {
+            output.drain();
+        }
+    }
+
+    /**
+     * 获取发送者的输出队列。玩家退出后仍可能有回调向其发送内容，这时返回一个不登记的队列，其内容直接丢弃，
+     * 避免以已断开的 Player 对象重新登记队列，使玩家重新加入后收不到任何消息。
+     * 玩家重新加入后 Player 对象会变化，这时用新的对象替换旧的队列。
+     */
+    private PlayerOutput getOutput(CommandSender sender) {
+        if (sender instanceof Player player && !player.isOnline()) {
+            return new PlayerOutput(sender);
+        }
+        return outputs.compute(SessionManager.sessionKey(sender),
+                (key, existing) -> existing != null && existing.sender == sender ? existing : new PlayerOutput(sender));
+    }
+
+    /**
+     * 把文本按换行符和聊天栏宽度切分成多行，优先在空格处换行。
+     *
+     * @param text 要切分的文本
+     * @return 切分后的非空行
+     */
+    private List<String> wrap(String text) {
+        return wrap(text, lineWidth);
+    }
+
+    /**
+     * 把文本按换行符和指定的宽度切分成多行，优先在空格处换行。宽字符按 2 计算。
+     *
+     * @param text      要切分的文本
+     * @param lineWidth 每行的最大宽度
+     * @return 切分后的非空行
+     */
+    static List<String> wrap(String text, int lineWidth) {
+        List<String> lines = new ArrayList<>();
+        for (String paragraph : text.split("\n")) {
+            String rest = paragraph.strip();
+            while (!rest.isEmpty()) {
+                int cut = 0;
+                int width = 0;
+                int lastSpace = -1;
+                while (cut < rest.length()) {
+                    int charWidth = rest.charAt(cut) >= 0x2E80 ? 2 : 1;
+                    if (width + charWidth > lineWidth) {
+                        break;
+                    }
+                    if (rest.charAt(cut) == ' ') {
+                        lastSpace = cut;
+                    }
+                    width += charWidth;
+                    cut++;
+                }
+                if (cut < rest.length() && lastSpace > 0) {
+                    cut = lastSpace;
+                }
+                lines.add(rest.substring(0, cut).stripTrailing());
+                rest = rest.substring(cut).stripLeading();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * PlayerOutput 类表示一个发送者的输出队列。
+     */
+    private class PlayerOutput {
+
+        // 接收消息的命令发送者
+        private final CommandSender sender;
+        // 等待发送的行
+        private final Deque<String> pending = new ArrayDeque<>();
+        // 可用的发送额度（字符数），每刻增加 charsPerTick
+        private int credit;
+        // 最近的一条回复，供翻页查看
+        private Reply lastReply;
+
+        PlayerOutput(CommandSender sender) {
+            this.sender = sender;
+        }
+
+        synchronized void enqueue(String line) {
+            pending.addLast(line);
+        }
+
+        synchronized void clear() {
+            pending.clear();
+        }
+
+        synchronized int size() {
+            return pending.size();
+        }
+
+        synchronized Reply getLastReply() {
+            return lastReply;
+        }
+
+        synchronized void setLastReply(Reply reply) {
+            this.lastReply = reply;
+        }
+
+        /**
+         * 按额度发送队首的若干行。额度上限为一行宽度加每刻速率，保证再长的行也能发出，且队列空闲后不会突发大量消息。
+         */
+        void drain() {
+            List<String> ready = new ArrayList<>();
+            synchronized (this) {
+                credit = Math.min(credit + charsPerTick, charsPerTick + lineWidth);
+                while (!pending.isEmpty() && credit >= pending.peekFirst().length()) {
+                    String line = pending.pollFirst();
+                    credit -= line.length();
+                    ready.add(line);
+                }
+            }
+            for (String line : ready) {
+                sender.sendMessage(line);
+            }
+        }
+    }
+
+    /**
+     * Reply 类表示发送给某个发送者的一条回复。前一页的内容直接进入输出队列，
+     * 其余内容只保存下来，回复结束时提示玩家翻页查看。
+     */
+    public class Reply {
+
+        // 回复所属的输出队列
+        private final PlayerOutput output;
+        // 回复的全部行
+        private final List<String> lines = new ArrayList<>();
+
+        private Reply(PlayerOutput output) {
+            this.output = output;
+        }
+
+        /**
+         * 追加一段回复文本，可以在任意线程中调用。
+         *
+         * @param text 回复文本
+         */
+        public void append(String text) {
+            for (String line : wrap(text)) {
+                boolean visible;
+                synchronized (this) {
+                    visible = lines.size() < pageLines;
+                    lines.add(line);
+                }
+                if (visible) {
+                    output.enqueue(line);
+                }
+            }
+        }
+
+        /**
+         * 结束回复。内容超过一页时提示玩家使用 /ollama page 查看后续内容。
+         */
+        public void close() {
+            int size;
+            synchronized (this) {
+                size = lines.size();
+            }
+            if (size > pageLines) {
+                int pageCount = (size + pageLines - 1) / pageLines;
+                output.enqueue("回复共 " + pageCount + " 页，使用 /ollama page 2 查看后续内容。");
+            }
+        }
+
+        private synchronized List<String> snapshot() {
+            return new ArrayList<>(lines);
+        }
+    }
+
+    /**
+     * 获取当前的输出队列数量。
+     *
+     * @return 输出队列数量
+     */
+    public int size() {
+        return outputs.size();
+    }
+}
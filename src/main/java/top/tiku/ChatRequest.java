@@ -0,0 +1,105 @@
+package top.tiku;
+
+/**
+ * ChatRequest 类描述一次发送给后端的聊天请求，包括用户消息、可选的对话会话、使用的模型、取消标记、
+ * 从知识库中检索到的参考资料以及生成参数。
+ */
+public class ChatRequest {
+
+    // 用户输入的消息
+    private final String prompt;
+    // 对话会话，不需要多轮对话时为 null
+    private final ChatSession session;
+    // 本次请求使用的模型，为 null 时使用后端当前的模型
+    private final String model;
+    // 请求的取消标记，取消后后端应尽快中止请求
+    private final CancellationToken cancellation;
+    // 附加在用户消息之前的参考资料，没有时为 null
+    private final String knowledge;
+    // 生成参数，为 null 时使用后端的默认值
+    private final GenerationProfile generation;
+
+    /**
+     * 构造函数，创建一个不带会话的单轮请求。
+     *
+     * @param prompt 用户输入的消息
+     */
+    public ChatRequest(String prompt) {
+        this(prompt, null, null, new CancellationToken());
+    }
+
+    /**
+     * 构造函数，初始化 ChatRequest 实例。
+     *
+     * @param prompt       用户输入的消息
+     * @param session      对话会话，可以为 null
+     * @param model        本次请求使用的模型，为 null 时使用后端当前的模型
+     * @param cancellation 请求的取消标记
+     */
+    public ChatRequest(String prompt, ChatSession session, String model, CancellationToken cancellation) {
+        this(prompt, session, model, cancellation, null, null);
+    }
+
+    /**
+     * 构造函数，创建附带参考资料和生成参数的请求。
+     *
+     * @param prompt       用户输入的消息
+     * @param session      对话会话，可以为 null
+     * @param model        本次请求使用的模型，为 null 时使用后端当前的模型
+     * @param cancellation 请求的取消标记
+     * @param knowledge    附加在用户消息之前的参考资料，可以为 null
+     * @param generation   生成参数，为 null 时使用后端的默认值
+     */
+    public ChatRequest(String prompt, ChatSession session, String model, CancellationToken cancellation,
+                       String knowledge, GenerationProfile generation) {
+        this.prompt = prompt;
+        this.session = session;
+        this.model = model;
+        this.cancellation = cancellation;
+        this.knowledge = knowledge;
+        this.generation = generation;
+    }
+
+    /**
+     * 创建附带参考资料的副本，其余字段不变。
+     *
+     * @param knowledge 参考资料
+     * @return 新的请求
+     */
+    public ChatRequest withKnowledge(String knowledge) {
+        return new ChatRequest(prompt, session, model, cancellation, knowledge, generation);
+    }
+
+    /**
+     * 获取实际发送给模型的消息。附带参考资料时资料在前、问题在后；会话历史中仍然只记录用户消息。
+     *
+     * @return 发送给模型的消息
+     */
+    public String getModelPrompt() {
+        return knowledge == null ? prompt : knowledge + "问题：" + prompt;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public ChatSession getSession() {
+        return session;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public CancellationToken getCancellation() {
+        return cancellation;
+    }
+
+    public String getKnowledge() {
+        return knowledge;
+    }
+
+    public GenerationProfile getGeneration() {
+        return generation;
+    }
+}
@@ -0,0 +1,781 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ChatRequestService 类负责处理玩家的聊天请求：检查配额、选择后端、查询缓存和语义缓存、合并相同的请求、
+ * 按配额组的优先级提交到请求执行器，并把回复放入玩家的输出队列。后端失败时由 {@link BackendRouter} 转到 api-type 链中的下一个后端。
+ * 每个请求都可以通过 /ollama cancel、玩家退出或超时取消，取消后停止生成并丢弃尚未发送的内容。
+ * 多个服务器共享状态时，本地缓存作为共享缓存的近端缓存，未命中时再查询共享缓存，相同的问题在整个网络中只生成一次。
+ */
+public class ChatRequestService implements Listener {
+
+    // 等待其他服务器生成相同问题的回复时，查询共享缓存的间隔（毫秒）
+    private static final long CLUSTER_POLL_MILLIS = 250;
+    // 没有设置请求超时时，共享状态中生成标记的存活时间（毫秒）
+    private static final long DEFAULT_CLUSTER_LOCK_MILLIS = 180_000;
+
+    // 插件实例，用于获取调度器和记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取超时等配置
+    private final ConfigManager configManager;
+    // 后端路由，按 api-type 链和熔断器的状态选择后端
+    private final BackendRouter backendRouter;
+    // 请求执行器，限制并发并为等待中的请求排队
+    private final RequestExecutor requestExecutor;
+    // 回复缓存，命中时无需再调用后端
+    private final ResponseCache responseCache;
+    // 多个服务器之间共享的状态，用于共享回复缓存和合并正在生成中的请求
+    private final SharedStateProvider sharedState;
+    // 语义缓存，相近的问题命中时无需再调用后端
+    private final SemanticCache semanticCache;
+    // 服务器知识库，为请求检索相关的参考资料
+    private final KnowledgeBase knowledgeBase;
+    // Ollama 服务，用于查询模型是否正在预热
+    private final OllamaService ollamaService;
+    // 会话管理器，保存每个玩家的多轮对话
+    private final SessionManager sessionManager;
+    // 回复输出管理器，负责按速率把回复发送给玩家
+    private final ChatDeliveryManager deliveryManager;
+    // 配额管理器，限制每个玩家的提问频率和每日用量
+    private final QuotaManager quotaManager;
+    // 生成策略，为每个请求选出生成档位并在负载较高时缩短回复
+    private final GenerationPolicy generationPolicy;
+    // 运行指标，记录延迟、生成速度和错误次数
+    private final PluginMetrics metrics;
+    // 合并正在生成中的相同请求
+    private final RequestCoalescer requestCoalescer = new RequestCoalescer();
+    // 每个发送者尚未完成的请求，键与会话管理器相同
+    private final Map<String, Set<ActiveRequest>> activeRequests = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 ChatRequestService 实例。
+     *
+     * @param plugin           插件实例
+     * @param configManager    配置管理器
+     * @param backendRouter    后端路由
+     * @param requestExecutor  请求执行器
+     * @param responseCache    回复缓存
+     * @param sharedState      多个服务器之间共享的状态
+     * @param semanticCache    语义缓存
+     * @param knowledgeBase    服务器知识库
+     * @param ollamaService    Ollama 服务
+     * @param sessionManager   会话管理器
+     * @param deliveryManager  回复输出管理器
+     * @param quotaManager     配额管理器
+     * @param generationPolicy 生成策略
+     * @param metrics          运行指标
+     */
+    public ChatRequestService(JavaPlugin plugin, ConfigManager configManager, BackendRouter backendRouter,
+                              RequestExecutor requestExecutor, ResponseCache responseCache,
+                              SharedStateProvider sharedState, SemanticCache semanticCache, KnowledgeBase knowledgeBase,
+                              OllamaService ollamaService, SessionManager sessionManager,
+                              ChatDeliveryManager deliveryManager, QuotaManager quotaManager,
+                              GenerationPolicy generationPolicy, PluginMetrics metrics) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.backendRouter = backendRouter;
+        this.requestExecutor = requestExecutor;
+        this.responseCache = responseCache;
+        this.sharedState = sharedState;
+        this.semanticCache = semanticCache;
+        this.knowledgeBase = knowledgeBase;
+        this.ollamaService = ollamaService;
+        this.sessionManager = sessionManager;
+        this.deliveryManager = deliveryManager;
+        this.quotaManager = quotaManager;
+        this.generationPolicy = generationPolicy;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 使用后端当前的模型处理一条聊天请求。
+     *
+     * @param sender      命令发送者
+     * @param userMessage 用户输入的消息
+     */
+    public void submit(CommandSender sender, String userMessage) {
+        submit(sender, userMessage, null);
+    }
+
+    /**
+     * 处理一条聊天请求。超出配额时告知玩家何时可以再次提问；缓存命中时直接返回缓存的回复；
+     * 相同的问题正在生成时合并到该请求上；否则提交到请求执行器异步执行，生成的 token 数计入发起者的配额。
+     * 执行时先按语义查找相近的问题，命中时直接返回其回复而不调用后端；否则从知识库中检索相关的资料附加到问题之前。
+     * 指定了模型的请求是单轮提问，不使用也不影响玩家的对话会话。
+     *
+     * @param sender      命令发送者
+     * @param userMessage 用户输入的消息
+     * @param modelName   本次请求使用的模型，为 null 时使用后端当前的模型
+     */
+    public void submit(CommandSender sender, String userMessage, String modelName) {
+        submit(sender, userMessage, modelName, false);
+    }
+
+    /**
+     * 处理一条聊天请求，与 {@link #submit(CommandSender, String, String)} 相同，但可以把回复公开发送给所有在线玩家。
+     * 只能在主线程中调用。
+     *
+     * @param sender      命令发送者
+     * @param userMessage 用户输入的消息
+     * @param modelName   本次请求使用的模型，为 null 时使用后端当前的模型
+     * @param publicReply 是否把回复发送给所有在线玩家，为 false 时只发送给发起者
+     */
+    public void submit(CommandSender sender, String userMessage, String modelName, boolean publicReply) {
+        submit(sender, userMessage, modelName, null, publicReply);
+    }
+
+    /**
+     * 使用指定的生成档位处理一条聊天请求，其余与 {@link #submit(CommandSender, String, String, boolean)} 相同。
+     * 只能在主线程中调用。
+     *
+     * @param sender      命令发送者
+     * @param userMessage 用户输入的消息
+     * @param modelName   本次请求使用的模型，为 null 时使用后端当前的模型
+     * @param profileName 本次请求使用的生成档位，为 null 时使用发送者所属配额组的档位
+     * @param publicReply 是否把回复发送给所有在线玩家，为 false 时只发送给发起者
+     */
+    public void submit(CommandSender sender, String userMessage, String modelName, String profileName,
+                       boolean publicReply) {
+        // 选择 api-type 链中第一个没有熔断的后端
+        LlmBackend backend = backendRouter.route();
+        if (backend == null) {
+            if (backendRouter.hasBackend()) {
+                sender.sendMessage("所有后端暂时不可用，请在 "
+                        + QuotaManager.formatDuration(backendRouter.getRetryDelayMillis() * 1_000_000L) + "后再试。");
+            } else {
+                sender.sendMessage("Unsupported API type.");
+            }
+            return;
+        }
+        String model = modelName != null ? modelName : backend.getModel();
+        QuotaManager.Permit permit = quotaManager.acquire(sender);
+        if (!permit.isGranted()) {
+            metrics.recordThrottled();
+            sender.sendMessage(permit.getDenial());
+            return;
+        }
+
+        // 已有对话历史时回复取决于上下文，只有新对话的第一轮才使用缓存和合并请求
+        ChatSession session = modelName != null ? null : sessionManager.getSession(sender);
+        if (session != null) {
+            session.bindModel(backend.getName() + ":" + model);
+        }
+        boolean shareable = session == null || session.isEmpty();
+        // generate 模式的会话从回复的最后一个数据块中取得 context，缓存的回复没有 context，
+        // 使用缓存时会话会一直为空，因此这类会话只合并请求，不从缓存中取回复
+        boolean cacheable = shareable && (session == null || session.isChatMode());
+        // 生成参数不同的回复不共用缓存，负载较高时缩短的回复不会在负载降低后继续返回
+        GenerationProfile generation = generationPolicy.resolve(sender, profileName);
+        String cacheKey = ResponseCache.key(backend.getName(), model, generation.cacheKey(), userMessage);
+        CancellationToken cancellation = new CancellationToken();
+        ChatRequest request = new ChatRequest(userMessage, session, model, cancellation, null, generation);
+        ActiveRequest active = new ActiveRequest(sender, backend.getName(), model, cancellation,
+                shareable ? cacheKey : null);
+        StreamCallback subscriber = createSubscriber(sender, backend, request, active, publicReply);
+        active.subscriber = subscriber;
+        track(active);
+
+        StreamCallback upstream = subscriber;
+        RequestCoalescer.Flight flight = null;
+        // 回复改由其他后端生成时不写入缓存，避免以首选后端的名义缓存其他模型的回复
+        AtomicBoolean fallback = new AtomicBoolean(false);
+        // 语义缓存未命中时的查找结果，回复生成后用于写入语义缓存
+        AtomicReference<SemanticCache.Lookup> semanticMiss = new AtomicReference<>();
+        // 共享状态中回复的键，以及本服务器是否持有该问题的生成标记
+        String clusterKey = cacheable && sharedState.isDistributed() ? ResponseCache.digest(cacheKey) : null;
+        AtomicBoolean clusterLock = new AtomicBoolean(false);
+        if (shareable) {
+            // 缓存命中时不占用执行器名额，直接发送缓存的回复
+            String cached = cacheable ? responseCache.get(cacheKey) : null;
+            if (cached != null) {
+                subscriber.onToken(cached);
+                subscriber.onComplete(new JSONObject());
+                return;
+            }
+            // 相同的问题正在生成时，直接等待该请求的回复
+            flight = requestCoalescer.attach(cacheKey, subscriber, cancellation);
+            if (flight == null) {
+                metrics.recordCoalesced();
+                sender.sendMessage("相同的问题正在生成中，回复会同时发送给你。");
+                scheduleDeadline(active);
+                return;
+            }
+            upstream = cachingCallback(flight, cacheKey, fallback, semanticMiss, clusterKey, clusterLock);
+        }
+
+        // 在插件专用的执行器上异步执行请求操作，优先级由发送者的配额组决定
+        long submittedAt = System.nanoTime();
+        StreamCallback callback = metricsCallback(quotaCallback(upstream, permit), backend.getName(), model,
+                cancellation, submittedAt);
+        RequestCoalescer.Flight ownFlight = flight;
+        StreamCallback shared = upstream;
+        String semanticScope = cacheable && semanticCache.isEnabled()
+                ? ResponseCache.key(backend.getName(), model, generation.cacheKey(), "") : null;
+        int position = requestExecutor.submit(model, permit.getPriority(), cancellation, () -> {
+            metrics.recordQueueWait(System.nanoTime() - submittedAt);
+            // 共享缓存需要网络请求，因此在执行器线程中查询；命中的回复同时写入本地缓存，之后的相同问题无需再查询
+            if (clusterKey != null) {
+                String remote = awaitClusterResponse(clusterKey, cancellation, clusterLock);
+                if (remote != null) {
+                    // 直接发给合并的请求，不经过写入缓存的回调，避免把取回的回复再写回共享缓存
+                    responseCache.put(cacheKey, remote);
+                    ownFlight.onToken(remote);
+                    ownFlight.onComplete(new JSONObject());
+                    return;
+                }
+            }
+            // 计算向量需要请求 Ollama，因此在执行器线程中查找语义缓存，命中时不再调用后端，也不计入 token 配额
+            if (semanticScope != null) {
+                SemanticCache.Lookup lookup = semanticCache.lookup(semanticScope, userMessage);
+                if (lookup != null && lookup.getResponse() != null) {
+                    shared.onToken(lookup.getResponse());
+                    shared.onComplete(new JSONObject());
+                    return;
+                }
+                semanticMiss.set(lookup);
+            }
+            // 只附带与问题相关的几个片段，提示词比附带整份资料短得多
+            ChatRequest augmented = request;
+            if (knowledgeBase.isAvailable()) {
+                String knowledge = knowledgeBase.buildContext(userMessage);
+                if (knowledge != null) {
+                    augmented = request.withKnowledge(knowledge);
+                }
+            }
+            metrics.recordRequest(backend.getName(), model);
+            // 指定了模型的请求只能由该模型所在的后端处理
+            backendRouter.execute(backend, augmented, modelName == null, callback, () -> fallback.set(true));
+        }, () -> reject(active, ownFlight, permit, "当前请求过多，你的排队位置已让给优先级更高的请求，请稍后再试。"));
+        // 根据提交结果告知用户请求的状态
+        if (position == RequestExecutor.REJECTED) {
+            reject(active, flight, permit, "当前请求过多，请稍后再试。");
+            return;
+        }
+        scheduleDeadline(active);
+        if (position == RequestExecutor.STARTED) {
+            sender.sendMessage("正在生成...");
+        } else {
+            sender.sendMessage("当前排在第 " + position + " 位，请稍候...");
+        }
+        // 预热提示是额外的说明，排队的玩家仍需知道自己的位置
+        if (isWarming(backend, model)) {
+            sender.sendMessage("模型 " + model + " 预热中，首次回复可能需要稍等...");
+        }
+        if (generation.getDegradeLevel() > 0) {
+            sender.sendMessage("当前请求较多，本次回复会比平时简短。");
+        }
+    }
+
+    /**
+     * 取消发送者所有尚未完成的请求，并丢弃尚未发送的内容。
+     *
+     * @param sender 命令发送者
+     * @return 被取消的请求数
+     */
+    public int cancelAll(CommandSender sender) {
+        Set<ActiveRequest> requests = activeRequests.remove(SessionManager.sessionKey(sender));
+        int cancelled = 0;
+        if (requests != null) {
+            for (ActiveRequest active : requests) {
+                if (active.cancel()) {
+                    cancelled++;
+                }
+            }
+        }
+        deliveryManager.clear(sender);
+        return cancelled;
+    }
+
+    /**
+     * 获取发送者尚未完成的请求数。
+     *
+     * @param sender 命令发送者
+     * @return 尚未完成的请求数
+     */
+    int getActiveCount(CommandSender sender) {
+        Set<ActiveRequest> requests = activeRequests.get(SessionManager.sessionKey(sender));
+        return requests == null ? 0 : requests.size();
+    }
+
+    /**
+     * 玩家退出时取消其所有请求，正在生成的回复会停止生成。
+     *
+     * @param event 玩家退出事件
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        cancelAll(event.getPlayer());
+    }
+
+    private void track(ActiveRequest active) {
+        activeRequests.computeIfAbsent(SessionManager.sessionKey(active.sender), key -> ConcurrentHashMap.newKeySet())
+                .add(active);
+    }
+
+    private void untrack(ActiveRequest active) {
+        activeRequests.computeIfPresent(SessionManager.sessionKey(active.sender), (key, requests) -> {
+            requests.remove(active);
+            return requests.isEmpty() ? null : requests;
+        });
+    }
+
+    /**
+     * 为请求安排超时取消，超时时间包括排队时间。
+     *
+     * @param active 要安排超时的请求
+     */
+    private void scheduleDeadline(ActiveRequest active) {
+        long deadlineSeconds = configManager.getRequestDeadlineSeconds();
+        if (deadlineSeconds <= 0) {
+            return;
+        }
+        active.deadlineTask = plugin.getServer().getScheduler().runTaskLater(plugin, () -> {
+            if (active.cancel()) {
+                metrics.recordTimeout(active.backendName, active.model);
+                deliveryManager.send(active.sender, "请求超过 " + deadlineSeconds + " 秒未完成，已取消。");
+            }
+        }, deadlineSeconds * 20L);
+        // 请求可能在安排超时之前就已经完成
+        if (active.isFinished()) {
+            active.deadlineTask.cancel();
+        }
+    }
+
+    /**
+     * 拒绝一个没有发往后端的请求：退还配额，结束请求并告知发起者。
+     * 发起者单独收到提示，其余已合并的发送者通过回调收到错误。
+     *
+     * @param active  被拒绝的请求
+     * @param flight  请求发起的合并请求，没有合并时为 null
+     * @param permit  请求占用的配额
+     * @param message 告知发起者的提示
+     */
+    private void reject(ActiveRequest active, RequestCoalescer.Flight flight, QuotaManager.Permit permit,
+                        String message) {
+        if (!active.finish()) {
+            return;
+        }
+        metrics.recordRejected();
+        permit.refund();
+        if (flight != null) {
+            flight.removeSubscriber(active.subscriber);
+            flight.onError(message);
+        }
+        active.sender.sendMessage(message);
+    }
+
+    /**
+     * 在共享缓存中查找回复。相同的问题正在其他服务器上生成时，每隔一段时间查询一次，等待其回复写入共享缓存；
+     * 没有其他服务器在生成时获取生成标记，由本服务器生成。等待超时、请求被取消或共享状态不可用时返回 null，由本服务器生成。
+     *
+     * @param clusterKey   共享状态中回复的键
+     * @param cancellation 请求的取消标记
+     * @param clusterLock  获取到生成标记时设置为 true，回复结束后需要释放
+     * @return 共享缓存中的回复，没有时返回 null
+     */
+    private String awaitClusterResponse(String clusterKey, CancellationToken cancellation, AtomicBoolean clusterLock) {
+        long deadlineSeconds = configManager.getRequestDeadlineSeconds();
+        long lockMillis = deadlineSeconds > 0 ? deadlineSeconds * 1000 : DEFAULT_CLUSTER_LOCK_MILLIS;
+        long waitUntil = System.nanoTime() + configManager.getSharedStateInflightWaitSeconds() * 1_000_000_000L;
+        try {
+            while (true) {
+                String response = sharedState.get("response:" + clusterKey);
+                if (response != null) {
+                    return response;
+                }
+                if (sharedState.tryLock("flight:" + clusterKey, lockMillis)) {
+                    clusterLock.set(true);
+                    return null;
+                }
+                if (cancellation.isCancelled() || System.nanoTime() - waitUntil >= 0) {
+                    return null;
+                }
+                Thread.sleep(CLUSTER_POLL_MILLIS);
+            }
+        } catch (IOException e) {
+            // 共享状态会记录失败的原因，这里直接由本服务器生成
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 在异步线程中把回复写入共享缓存，并释放本服务器持有的生成标记，不阻塞生成回复的线程。
+     *
+     * @param clusterKey  共享状态中回复的键
+     * @param response    完整的回复内容，为 null 时只释放生成标记
+     * @param clusterLock 本服务器是否持有生成标记
+     */
+    private void publishToCluster(String clusterKey, String response, AtomicBoolean clusterLock) {
+        boolean release = clusterLock.getAndSet(false);
+        if (response == null && !release) {
+            return;
+        }
+        long ttlMillis = configManager.getCacheTtlMinutes() * 60_000L;
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                if (response != null && !response.isBlank()) {
+                    sharedState.put("response:" + clusterKey, response, ttlMillis);
+                }
+                if (release) {
+                    sharedState.unlock("flight:" + clusterKey);
+                }
+            } catch (IOException e) {
+                // 共享状态会记录失败的原因；未释放的生成标记会在存活时间结束后自动释放
+            }
+        });
+    }
+
+    /**
+     * 判断请求使用的 Ollama 模型是否正在预热。
+     *
+     * @param backend 处理请求的后端
+     * @param model   请求使用的模型
+     * @return 模型正在预热时返回 true
+     */
+    private boolean isWarming(LlmBackend backend, String model) {
+        return backend == ollamaService.getClient() && ollamaService.getModelWarmer().isWarming(model);
+    }
+
+    /**
+     * 包装发送给后端的回调，记录首个 token 的延迟、总耗时、生成速度和错误次数。
+     * 延迟从提交请求开始计算，包括排队时间。取消导致的错误不计入错误次数。
+     *
+     * @param delegate     被包装的回调
+     * @param backendName  处理请求的后端名称
+     * @param model        请求使用的模型
+     * @param cancellation 请求的取消标记
+     * @param submittedAt  提交请求的时间（System.nanoTime）
+     * @return 包装后的回调
+     */
+    private StreamCallback metricsCallback(StreamCallback delegate, String backendName, String model,
+                                           CancellationToken cancellation, long submittedAt) {
+        return new StreamCallback() {
+            // 对冲请求胜出时回调来自对冲请求的线程而不是执行请求的线程；同一时间只有胜出的一方回调，
+            // 因此只有一个线程写入，volatile 保证其他线程读到最新的值
+            private volatile boolean firstToken = true;
+
+            @Override
+            public void onToken(String token) {
+                if (firstToken) {
+                    firstToken = false;
+                    metrics.recordTimeToFirstToken(System.nanoTime() - submittedAt);
+                }
+                delegate.onToken(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                // Ollama 在最后一个数据块中返回生成的 token 数和耗时（纳秒），其他后端没有这两个字段
+                metrics.recordCompletion(System.nanoTime() - submittedAt,
+                        finalChunk.optLong("eval_count", 0), finalChunk.optLong("eval_duration", 0));
+                delegate.onComplete(finalChunk);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (!cancellation.isCancelled()) {
+                    metrics.recordError(backendName, model);
+                }
+                delegate.onError(errorMessage);
+            }
+        };
+    }
+
+    /**
+     * 包装发送给后端的回调，在请求结束后把生成的 token 数计入发起者的配额。
+     * 优先使用 Ollama 返回的 eval_count，没有时按收到的文本估算；出错或取消时按已收到的部分计算。
+     *
+     * @param delegate 被包装的回调
+     * @param permit   发起者的提问许可
+     * @return 包装后的回调
+     */
+    private StreamCallback quotaCallback(StreamCallback delegate, QuotaManager.Permit permit) {
+        return new StreamCallback() {
+            // 回调可能来自对冲请求的线程，同一时间只有胜出的一方写入，volatile 保证读到最新的值
+            private volatile long estimatedTokens;
+
+            @Override
+            public void onToken(String token) {
+                estimatedTokens += ChatSession.estimateTokens(token);
+                delegate.onToken(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                long evalCount = finalChunk.optLong("eval_count", 0);
+                permit.recordTokens(evalCount > 0 ? evalCount : estimatedTokens);
+                delegate.onComplete(finalChunk);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                permit.recordTokens(estimatedTokens);
+                delegate.onError(errorMessage);
+            }
+        };
+    }
+
+    /**
+     * 包装发送给后端的回调，在回复完整生成后写入缓存，语义缓存未命中时同时写入语义缓存。
+     *
+     * @param delegate     被包装的回调
+     * @param cacheKey     回复对应的缓存键
+     * @param fallback     回复是否改由其他后端生成，为 true 时不写入缓存
+     * @param semanticMiss 语义缓存未命中时的查找结果，没有查找时为 null
+     * @param clusterKey   共享状态中回复的键，不共享时为 null
+     * @param clusterLock  本服务器是否持有该问题的生成标记
+     * @return 包装后的回调
+     */
+    private StreamCallback cachingCallback(StreamCallback delegate, String cacheKey, AtomicBoolean fallback,
+                                           AtomicReference<SemanticCache.Lookup> semanticMiss, String clusterKey,
+                                           AtomicBoolean clusterLock) {
+        StringBuilder fullResponse = new StringBuilder();
+        return new StreamCallback() {
+            @Override
+            public void onToken(String token) {
+                fullResponse.append(token);
+                delegate.onToken(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                if (!fallback.get()) {
+                    responseCache.put(cacheKey, fullResponse.toString());
+                    SemanticCache.Lookup lookup = semanticMiss.get();
+                    if (lookup != null) {
+                        semanticCache.put(lookup, fullResponse.toString());
+                    }
+                }
+                if (clusterKey != null) {
+                    publishToCluster(clusterKey, fallback.get() ? null : fullResponse.toString(), clusterLock);
+                }
+                delegate.onComplete(finalChunk);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (clusterKey != null) {
+                    publishToCluster(clusterKey, null, clusterLock);
+                }
+                delegate.onError(errorMessage);
+            }
+        };
+    }
+
+    /**
+     * 创建某个发送者的订阅回调：把回复发送给该发送者，并在回复结束后更新其会话。
+     *
+     * @param sender      命令发送者
+     * @param backend     处理请求的后端
+     * @param request     该发送者的聊天请求
+     * @param active      该发送者的请求句柄，请求被取消后不再输出任何内容
+     * @param publicReply 是否把回复发送给所有在线玩家
+     * @return 订阅回调
+     */
+    private StreamCallback createSubscriber(CommandSender sender, LlmBackend backend, ChatRequest request,
+                                            ActiveRequest active, boolean publicReply) {
+        StreamCallback output = publicReply ? createPublicOutput(sender, backend) : createOutput(sender, backend);
+        StringBuilder fullResponse = new StringBuilder();
+        return new StreamCallback() {
+            @Override
+            public void onToken(String token) {
+                if (active.isFinished()) {
+                    return;
+                }
+                fullResponse.append(token);
+                output.onToken(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                if (!active.finish()) {
+                    return;
+                }
+                output.onComplete(finalChunk);
+                ChatSession session = request.getSession();
+                if (session != null && session.recordTurn(request.getPrompt(), fullResponse.toString(), finalChunk)) {
+                    deliveryManager.send(sender, "对话内容已超出长度限制，下一次提问将开始新的对话。");
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (!active.finish()) {
+                    return;
+                }
+                output.onError(errorMessage);
+            }
+        };
+    }
+
+    /**
+     * 创建把回复发送给玩家的回调。后端支持且启用了流式输出时边生成边发送，
+     * 否则等待完整回复后一次性放入玩家的输出队列。
+     *
+     * @param sender  命令发送者
+     * @param backend 处理请求的后端
+     * @return 输出回调
+     */
+    private StreamCallback createOutput(CommandSender sender, LlmBackend backend) {
+        if (backend.supportsStreaming() && configManager.isOllamaStreamEnabled()) {
+            return new ChatStreamWriter(deliveryManager.openReply(sender));
+        }
+        return new StreamCallback() {
+            private final StringBuilder response = new StringBuilder();
+
+            @Override
+            public void onToken(String token) {
+                response.append(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                deliver(response.toString());
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                deliver("Error: " + errorMessage);
+            }
+
+            private void deliver(String text) {
+                ChatDeliveryManager.Reply reply = deliveryManager.openReply(sender);
+                reply.append(text);
+                reply.close();
+            }
+        };
+    }
+
+    /**
+     * 创建把回复公开发送给所有在线玩家和控制台的回调。每个接收者都有自己的回复，可以各自翻页查看。
+     * 在线玩家在提交请求时确定，之后加入的玩家不会收到该回复。
+     *
+     * @param sender  发起请求的命令发送者
+     * @param backend 处理请求的后端
+     * @return 输出回调
+     */
+    private StreamCallback createPublicOutput(CommandSender sender, LlmBackend backend) {
+        List<StreamCallback> outputs = new ArrayList<>();
+        List<CommandSender> recipients = new ArrayList<>(plugin.getServer().getOnlinePlayers());
+        recipients.add(plugin.getServer().getConsoleSender());
+        if (!recipients.contains(sender)) {
+            recipients.add(sender);
+        }
+        for (CommandSender recipient : recipients) {
+            deliveryManager.send(recipient, "[AI] 回复 " + sender.getName() + "：");
+            outputs.add(createOutput(recipient, backend));
+        }
+        return new StreamCallback() {
+            @Override
+            public void onToken(String token) {
+                for (StreamCallback output : outputs) {
+                    output.onToken(token);
+                }
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+                for (StreamCallback output : outputs) {
+                    output.onComplete(finalChunk);
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                for (StreamCallback output : outputs) {
+                    output.onError(errorMessage);
+                }
+            }
+        };
+    }
+
+    /**
+     * ActiveRequest 类表示某个发送者尚未完成的一个请求，用于取消该请求。
+     * 合并到其他请求上的发送者取消时只会离开该请求，所有发送者都离开后才会停止生成。
+     */
+    private class ActiveRequest {
+
+        // 发起请求的命令发送者
+        private final CommandSender sender;
+        // 处理请求的后端名称和使用的模型，用于按后端和模型统计指标
+        private final String backendName;
+        private final String model;
+        // 发往后端的请求的取消标记，仅用于没有合并的请求
+        private final CancellationToken cancellation;
+        // 合并请求使用的键，没有合并时为 null
+        private final String flightKey;
+        // 是否已完成或已取消
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        // 接收回复的订阅回调
+        private volatile StreamCallback subscriber;
+        // 超时取消任务
+        private volatile BukkitTask deadlineTask;
+
+        ActiveRequest(CommandSender sender, String backendName, String model, CancellationToken cancellation,
+                      String flightKey) {
+            this.sender = sender;
+            this.backendName = backendName;
+            this.model = model;
+            this.cancellation = cancellation;
+            this.flightKey = flightKey;
+        }
+
+        boolean isFinished() {
+            return finished.get();
+        }
+
+        /**
+         * 标记请求已完成。
+         *
+         * @return 请求此前尚未完成或取消时返回 true
+         */
+        boolean finish() {
+            if (!finished.compareAndSet(false, true)) {
+                return false;
+            }
+            untrack(this);
+            BukkitTask task = deadlineTask;
+            if (task != null) {
+                task.cancel();
+            }
+            return true;
+        }
+
+        /**
+         * 取消请求：从等待队列中移除或中止正在进行的 HTTP 请求。
+         *
+         * @return 请求此前尚未完成或取消时返回 true
+         */
+        boolean cancel() {
+            if (!finish()) {
+                return false;
+            }
+            metrics.recordCancelled(backendName, model);
+            if (flightKey != null) {
+                requestCoalescer.detach(flightKey, subscriber);
+            } else {
+                cancellation.cancel();
+            }
+            return true;
+        }
+    }
+}
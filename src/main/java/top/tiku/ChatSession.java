@@ -0,0 +1,198 @@
+package top.tiku;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * ChatSession 类保存一个玩家跨多次 /ollama 命令的对话状态。
+ * generate 模式下保存 /api/generate 返回的 context，chat 模式下保存有限长度的消息历史。
+ */
+public class ChatSession {
+
+    // 使用 /api/generate 并复用 context 的模式
+    public static final String MODE_GENERATE = "generate";
+    // 使用 /api/chat 并保留消息历史的模式
+    public static final String MODE_CHAT = "chat";
+
+    // 会话模式，generate 或 chat
+    private final String mode;
+    // 会话允许占用的最大 token 数
+    private final int tokenBudget;
+    // generate 模式下上一轮返回的 context
+    private JSONArray context;
+    // chat 模式下的消息历史，每条消息包含 role 和 content
+    private final Deque<JSONObject> messages = new ArrayDeque<>();
+    // 消息历史的估算 token 数
+    private int historyTokens;
+    // 产生当前历史的后端和模型，切换模型后旧的 context 不再有效
+    private String modelKey;
+    // 最后一次使用的时间（毫秒时间戳）
+    private volatile long lastActive = System.currentTimeMillis();
+
+    /**
+     * 构造函数，初始化 ChatSession 实例。
+     *
+     * @param mode        会话模式，generate 或 chat
+     * @param tokenBudget 会话允许占用的最大 token 数
+     */
+    public ChatSession(String mode, int tokenBudget) {
+        this.mode = MODE_CHAT.equals(mode) ? MODE_CHAT : MODE_GENERATE;
+        this.tokenBudget = tokenBudget;
+    }
+
+    /**
+     * 判断会话是否使用 /api/chat 模式。
+     *
+     * @return chat 模式时返回 true
+     */
+    public boolean isChatMode() {
+        return MODE_CHAT.equals(mode);
+    }
+
+    /**
+     * 绑定本轮使用的后端和模型，与上一轮不同时清空历史。
+     *
+     * @param modelKey 后端和模型的组合标识
+     */
+    public synchronized void bindModel(String modelKey) {
+        if (!modelKey.equals(this.modelKey)) {
+            reset();
+            this.modelKey = modelKey;
+        }
+    }
+
+    /**
+     * 判断会话是否还没有任何历史。
+     *
+     * @return 没有 context 和消息历史时返回 true
+     */
+    public synchronized boolean isEmpty() {
+        return context == null && messages.isEmpty();
+    }
+
+    /**
+     * 获取上一轮返回的 context。
+     *
+     * @return context，没有时返回 null
+     */
+    public synchronized JSONArray getContext() {
+        return context;
+    }
+
+    /**
+     * 构造发送给 /api/chat 的消息列表，包含已有的历史和本次的用户消息。
+     *
+     * @param userMessage 本次的用户消息
+     * @return 消息列表
+     */
+    public synchronized JSONArray buildMessages(String userMessage) {
+        JSONArray result = new JSONArray();
+        for (JSONObject message : messages) {
+            result.put(message);
+        }
+        result.put(message("user", userMessage));
+        return result;
+    }
+
+    /**
+     * 一轮对话完成后更新会话状态。
+     *
+     * @param userMessage 本轮的用户消息
+     * @param reply       本轮的完整回复
+     * @param finalChunk  最后一个数据块，generate 模式下从中读取新的 context
+     * @return 超出 token 预算、会话被清空时返回 true
+     */
+    public synchronized boolean recordTurn(String userMessage, String reply, JSONObject finalChunk) {
+        touch();
+        if (isChatMode()) {
+            appendMessage(message("user", userMessage));
+            appendMessage(message("assistant", reply));
+            // 从最早的消息开始移除，直到历史重新回到预算以内
+            boolean trimmed = false;
+            while (historyTokens > tokenBudget && !messages.isEmpty()) {
+                historyTokens -= estimateTokens(messages.removeFirst().getString("content"));
+                trimmed = true;
+            }
+            return trimmed && messages.isEmpty();
+        }
+        JSONArray newContext = finalChunk == null ? null : finalChunk.optJSONArray("context");
+        if (newContext == null) {
+            return false;
+        }
+        // context 无法安全地截断，超出预算时从头开始新的对话
+        if (newContext.length() > tokenBudget) {
+            context = null;
+            return true;
+        }
+        context = newContext;
+        return false;
+    }
+
+    /**
+     * 清空会话的全部历史。
+     */
+    public synchronized void reset() {
+        context = null;
+        messages.clear();
+        historyTokens = 0;
+    }
+
+    /**
+     * 获取会话当前估算占用的 token 数。
+     *
+     * @return 估算的 token 数
+     */
+    public synchronized int getTokenCount() {
+        return isChatMode() ? historyTokens : (context == null ? 0 : context.length());
+    }
+
+    /**
+     * 获取会话最后一次使用的时间。
+     *
+     * @return 毫秒时间戳
+     */
+    public long getLastActive() {
+        return lastActive;
+    }
+
+    /**
+     * 记录会话被使用。
+     */
+    public void touch() {
+        lastActive = System.currentTimeMillis();
+    }
+
+    private void appendMessage(JSONObject message) {
+        messages.addLast(message);
+        historyTokens += estimateTokens(message.getString("content"));
+    }
+
+    private static JSONObject message(String role, String content) {
+        JSONObject message = new JSONObject();
+        message.put("role", role);
+        message.put("content", content);
+        return message;
+    }
+
+    /**
+     * 粗略估算文本的 token 数：中日韩字符按每字一个 token 计算，其余字符按每四个字符一个 token 计算。
+     *
+     * @param text 文本
+     * @return 估算的 token 数
+     */
+    static int estimateTokens(String text) {
+        int wide = 0;
+        int narrow = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x2E80) {
+                wide++;
+            } else {
+                narrow++;
+            }
+        }
+        return wide + (narrow + 3) / 4;
+    }
+}
@@ -0,0 +1,107 @@
+package top.tiku;
+
+import org.json.JSONObject;
+
+/**
+ * ChatStreamWriter 类把流式生成的文本按行或按句切分，
+ * 并逐段追加到玩家的回复中，由输出队列统一发送。
+ */
+public class ChatStreamWriter implements StreamCallback {
+
+    // 按句切分时，缓冲区至少积累的字符数，避免发送过短的片段
+    private static final int MIN_SENTENCE_LENGTH = 24;
+    // 缓冲区的最大长度，超过后即使没有句末标点也会强制发送
+    private static final int MAX_PIECE_LENGTH = 200;
+    // 视为句子结束的标点符号
+    private static final String SENTENCE_TERMINATORS = "。！？；.!?;";
+
+    // 接收文本的回复
+    private final ChatDeliveryManager.Reply reply;
+    // 尚未发送的文本缓冲区
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * 构造函数，初始化 ChatStreamWriter 实例。
+     *
+     * @param reply 接收文本的回复
+     */
+    public ChatStreamWriter(ChatDeliveryManager.Reply reply) {
+        this.reply = reply;
+    }
+
+    @Override
+    public void onToken(String token) {
+        buffer.append(token);
+
+        // 先按换行符切分出完整的行
+        int newline;
+        while ((newline = buffer.indexOf("\n")) >= 0) {
+            send(buffer.substring(0, newline));
+            buffer.delete(0, newline + 1);
+        }
+
+        // 缓冲区足够长时，在最后一个句末标点处切分
+        if (buffer.length() >= MIN_SENTENCE_LENGTH) {
+            int end = lastSentenceEnd();
+            if (end > 0) {
+                send(buffer.substring(0, end));
+                buffer.delete(0, end);
+            } else if (buffer.length() >= MAX_PIECE_LENGTH) {
+                int space = buffer.lastIndexOf(" ");
+                int cut = space > 0 ? space : buffer.length();
+                send(buffer.substring(0, cut));
+                buffer.delete(0, cut);
+            }
+        }
+    }
+
+    @Override
+    public void onComplete(JSONObject finalChunk) {
+        flush();
+        reply.close();
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        flush();
+        send("Error: " + errorMessage);
+        reply.close();
+    }
+
+    /**
+     * 发送缓冲区中剩余的全部文本。
+     */
+    private void flush() {
+        if (buffer.length() > 0) {
+            send(buffer.toString());
+            buffer.setLength(0);
+        }
+    }
+
+    /**
+     * 查找缓冲区中最后一个句末标点之后的位置。
+     *
+     * @return 切分位置，如果没有句末标点则返回 -1
+     */
+    private int lastSentenceEnd() {
+        for (int i = buffer.length() - 1; i >= 0; i--) {
+            if (SENTENCE_TERMINATORS.indexOf(buffer.charAt(i)) >= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把一段文本追加到回复中，空白片段会被忽略。
+     *
+     * @param piece 要发送的文本片段
+     */
+    private void send(String piece) {
+        String text = piece.trim();
+        if (text.isEmpty()) {
+            return;
+        }
+        reply.append(text);
+    }
+}
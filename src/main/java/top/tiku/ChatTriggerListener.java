@@ -0,0 +1,236 @@
+package top.tiku;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChatTriggerListener 类监听玩家的聊天消息，把以触发前缀开头或提及 AI 的消息当作提问，交给与 /ollama 相同的请求流程处理。
+ * 聊天事件在异步线程中触发，这里只做字符串比较和登记，不会阻塞聊天线程；没有触发的消息不分配任何对象。
+ * 同一玩家在等待时间内连续发送的提问会合并成一个请求，等待结束后在主线程中提交。
+ */
+public class ChatTriggerListener implements Listener {
+
+    // 插件实例，用于获取调度器
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取触发前缀和等待时间，重新加载配置后立即生效
+    private final ConfigManager configManager;
+    // 聊天请求服务，合并后的提问交给它处理
+    private final ChatRequestService chatRequestService;
+    // 每个玩家等待合并的提问
+    private final Map<UUID, PendingQuestion> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 ChatTriggerListener 实例。
+     *
+     * @param plugin             插件实例
+     * @param configManager      配置管理器
+     * @param chatRequestService 聊天请求服务
+     */
+    public ChatTriggerListener(JavaPlugin plugin, ConfigManager configManager, ChatRequestService chatRequestService) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.chatRequestService = chatRequestService;
+    }
+
+    /**
+     * 处理玩家的聊天消息。该方法在异步聊天线程中调用，只检查消息是否触发提问，
+     * 触发时登记提问并安排在主线程中提交，不等待请求的结果。
+     *
+     * @param event 玩家聊天事件
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onAsyncPlayerChat(AsyncPlayerChatEvent event) {
+        PluginSettings settings = configManager.getSettings();
+        if (!settings.isChatTriggerEnabled()) {
+            return;
+        }
+        String question = extractQuestion(event.getMessage(), settings.getChatTriggerPrefix(),
+                settings.getChatTriggerMentions());
+        if (question == null) {
+            return;
+        }
+        Player player = event.getPlayer();
+        if (!player.hasPermission("ollama.use")) {
+            return;
+        }
+        boolean publicReply = settings.isChatTriggerPublicReply();
+        // 不公开回复时提问不出现在公共频道中，回复只发给提问的玩家
+        if (!publicReply) {
+            event.setCancelled(true);
+        }
+        if (question.isEmpty()) {
+            return;
+        }
+        enqueue(player, question, publicReply, settings.getChatTriggerDebounceMillis());
+    }
+
+    /**
+     * 玩家退出时丢弃其尚未提交的提问。
+     *
+     * @param event 玩家退出事件
+     */
+    @EventHandler
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        pending.remove(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * 登记一条提问。玩家已有等待中的提问时追加到其后并推迟提交，否则安排一次提交任务。
+     *
+     * @param player         提问的玩家
+     * @param question       去掉触发前缀后的提问
+     * @param publicReply    是否公开回复
+     * @param debounceMillis 合并连续提问的等待时间（毫秒）
+     */
+    private void enqueue(Player player, String question, boolean publicReply, long debounceMillis) {
+        UUID playerId = player.getUniqueId();
+        long now = System.nanoTime();
+        boolean[] created = new boolean[1];
+        pending.compute(playerId, (key, existing) -> {
+            if (existing == null) {
+                created[0] = true;
+                return new PendingQuestion(player, question, publicReply, now);
+            }
+            existing.append(question, publicReply, now);
+            return existing;
+        });
+        // 已有提交任务时由该任务在等待结束后一并提交
+        if (created[0]) {
+            schedule(playerId, debounceMillis * 1_000_000L);
+        }
+    }
+
+    /**
+     * 安排在指定时间后检查玩家的提问。调度器的方法可以在任意线程中调用，任务在主线程中执行。
+     *
+     * @param playerId   玩家的 UUID
+     * @param delayNanos 等待的时间（纳秒）
+     */
+    private void schedule(UUID playerId, long delayNanos) {
+        // 向上取整到 tick，至少等待 1 tick，使提交总是在主线程中进行
+        long ticks = Math.max(1, (delayNanos + 49_999_999L) / 50_000_000L);
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> flush(playerId), ticks);
+    }
+
+    /**
+     * 在主线程中检查玩家的提问。等待期间又有新的提问时推迟到最后一条提问之后，否则提交合并后的提问。
+     *
+     * @param playerId 玩家的 UUID
+     */
+    private void flush(UUID playerId) {
+        long debounceNanos = configManager.getChatTriggerDebounceMillis() * 1_000_000L;
+        long now = System.nanoTime();
+        long[] remaining = new long[1];
+        PendingQuestion[] ready = new PendingQuestion[1];
+        pending.computeIfPresent(playerId, (key, question) -> {
+            long wait = question.lastAt + debounceNanos - now;
+            if (wait > 0) {
+                remaining[0] = wait;
+                return question;
+            }
+            ready[0] = question;
+            return null;
+        });
+        if (remaining[0] > 0) {
+            schedule(playerId, remaining[0]);
+            return;
+        }
+        PendingQuestion question = ready[0];
+        if (question == null || !question.player.isOnline()) {
+            return;
+        }
+        chatRequestService.submit(question.player, question.text.toString(), null, question.publicReply);
+    }
+
+    /**
+     * 从聊天消息中取出提问。消息以触发前缀开头时去掉前缀，否则查找 "@名称" 形式的提及并去掉该提及。
+     * 前缀和提及之后必须是空白、标点或消息结尾，例如前缀 "@ai" 不会匹配 "@aim"。
+     *
+     * @param message  聊天消息
+     * @param prefix   触发前缀，为空时不按前缀触发
+     * @param mentions 提及的名称列表
+     * @return 去掉前缀或提及后的提问，可能为空字符串；没有触发时返回 null
+     */
+    static String extractQuestion(String message, String prefix, List<String> mentions) {
+        int prefixLength = prefix.length();
+        if (prefixLength > 0 && message.regionMatches(true, 0, prefix, 0, prefixLength)
+                && isBoundary(message, prefixLength)) {
+            return stripSeparators(message.substring(prefixLength));
+        }
+        if (mentions.isEmpty()) {
+            return null;
+        }
+        // 只在出现 @ 的位置比较名称，没有 @ 的消息只需扫描一遍
+        for (int at = message.indexOf('@'); at >= 0; at = message.indexOf('@', at + 1)) {
+            // @ 前面不是空白时是邮箱地址等内容，不是提及
+            if (at > 0 && !Character.isWhitespace(message.charAt(at - 1))) {
+                continue;
+            }
+            for (String mention : mentions) {
+                int end = at + 1 + mention.length();
+                if (message.regionMatches(true, at + 1, mention, 0, mention.length()) && isBoundary(message, end)) {
+                    return stripSeparators(message.substring(0, at).stripTrailing() + ' '
+                            + stripSeparators(message.substring(end)));
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBoundary(String message, int index) {
+        return index >= message.length() || !Character.isLetterOrDigit(message.charAt(index));
+    }
+
+    /**
+     * 去掉提问首尾的空白以及前缀后常见的分隔符，例如 "@ai: 你好" 中的冒号。
+     */
+    private static String stripSeparators(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && (Character.isWhitespace(text.charAt(start)) || ",，:：".indexOf(text.charAt(start)) >= 0)) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(start, end);
+    }
+
+    /**
+     * PendingQuestion 类表示某个玩家等待合并的提问，只在 {@link ConcurrentHashMap#compute} 中修改。
+     */
+    private static final class PendingQuestion {
+
+        // 提问的玩家
+        private final Player player;
+        // 合并后的提问，多条提问之间用换行分隔
+        private final StringBuilder text;
+        // 是否公开回复，以最后一条提问时的配置为准
+        private boolean publicReply;
+        // 最后一条提问的时间（System.nanoTime）
+        private long lastAt;
+
+        PendingQuestion(Player player, String question, boolean publicReply, long lastAt) {
+            this.player = player;
+            this.text = new StringBuilder(question);
+            this.publicReply = publicReply;
+            this.lastAt = lastAt;
+        }
+
+        void append(String question, boolean publicReply, long lastAt) {
+            text.append('\n').append(question);
+            this.publicReply = publicReply;
+            this.lastAt = lastAt;
+        }
+    }
+}
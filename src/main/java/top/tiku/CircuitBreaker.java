@@ -0,0 +1,211 @@
+package top.tiku;
+
+/**
+ * CircuitBreaker 类是单个后端的熔断器。它统计该后端最近若干个请求中失败和首个 token 过慢的比例，
+ * 比例过高时断开（OPEN），在一段时间内不再向该后端发送请求；断开时间结束后进入半开（HALF_OPEN）状态，
+ * 只放行少量探测请求，探测成功后恢复（CLOSED），失败或过慢则重新断开。
+ * 阈值每次从配置快照中读取，重新加载配置后立即生效。
+ */
+public class CircuitBreaker {
+
+    /**
+     * 熔断器的状态。
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 一个请求的结果。
+     */
+    public enum Outcome {
+        // 成功，首个 token 在阈值内到达
+        SUCCESS,
+        // 成功但首个 token 过慢，或者首选后端在对冲中被对冲请求抢先
+        SLOW,
+        // 失败
+        FAILURE,
+        // 被玩家取消、对冲请求落败等与后端无关的结束，不计入统计
+        IGNORED
+    }
+
+    // 后端名称
+    private final String name;
+    // 最近请求的结果，循环使用
+    private Outcome[] window = new Outcome[0];
+    // 窗口中的结果数
+    private int size;
+    // 下一个结果写入的位置
+    private int next;
+    // 当前状态
+    private State state = State.CLOSED;
+    // 断开的时间（毫秒时间戳）
+    private long openedAt;
+    // 半开状态下正在进行的探测请求数
+    private int probesInFlight;
+
+    /**
+     * 构造函数，初始化 CircuitBreaker 实例。
+     *
+     * @param name 后端名称
+     */
+    public CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 判断当前是否可以向后端发送请求，不占用探测名额。
+     *
+     * @param settings 配置快照
+     * @return 可以发送请求时返回 true
+     */
+    public synchronized boolean isAvailable(PluginSettings settings) {
+        if (!settings.isCircuitBreakerEnabled()) {
+            return true;
+        }
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> System.currentTimeMillis() - openedAt >= settings.getCircuitOpenSeconds() * 1000L;
+            case HALF_OPEN -> probesInFlight < settings.getCircuitHalfOpenProbes();
+        };
+    }
+
+    /**
+     * 尝试向后端发送一个请求。断开时间已过时进入半开状态，并把该请求作为探测请求。
+     *
+     * @param settings 配置快照
+     * @return 允许发送时返回 true，之后必须调用一次 {@link #record}
+     */
+    public synchronized boolean tryAcquire(PluginSettings settings) {
+        if (!settings.isCircuitBreakerEnabled()) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < settings.getCircuitOpenSeconds() * 1000L) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesInFlight >= settings.getCircuitHalfOpenProbes()) {
+                return false;
+            }
+            probesInFlight++;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一个已放行的请求的结果。
+     *
+     * @param settings 配置快照
+     * @param outcome  请求的结果
+     * @param probe    该请求是否是半开状态下的探测请求
+     * @return 本次记录使熔断器断开时返回 true
+     */
+    public synchronized boolean record(PluginSettings settings, Outcome outcome, boolean probe) {
+        if (!settings.isCircuitBreakerEnabled()) {
+            return false;
+        }
+        if (probe) {
+            if (state != State.HALF_OPEN) {
+                return false;
+            }
+            probesInFlight--;
+            switch (outcome) {
+                case SUCCESS -> close();
+                case SLOW, FAILURE -> {
+                    open();
+                    return true;
+                }
+                case IGNORED -> {
+                }
+            }
+            return false;
+        }
+        // 断开之前放行的请求结束时不再影响统计
+        if (state != State.CLOSED || outcome == Outcome.IGNORED) {
+            return false;
+        }
+        int capacity = Math.max(1, settings.getCircuitWindow());
+        if (window.length != capacity) {
+            window = new Outcome[capacity];
+            size = 0;
+            next = 0;
+        }
+        window[next] = outcome;
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+        if (size < settings.getCircuitMinimumRequests()) {
+            return false;
+        }
+        int failures = count(Outcome.FAILURE);
+        int slow = count(Outcome.SLOW);
+        if ((double) failures / size >= settings.getCircuitFailureRate()
+                || (double) slow / size >= settings.getCircuitSlowCallRate()) {
+            open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 获取断开状态还需持续的时间。
+     *
+     * @param settings 配置快照
+     * @return 剩余的毫秒数，没有断开时返回 0
+     */
+    public synchronized long getRemainingOpenMillis(PluginSettings settings) {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + settings.getCircuitOpenSeconds() * 1000L - System.currentTimeMillis());
+    }
+
+    /**
+     * 生成描述熔断器状态的文本，供 /ollama stats 显示。
+     *
+     * @return 例如 "ollama: 正常（最近 20 次：失败 1，过慢 0）"
+     */
+    public synchronized String describe() {
+        String stateName = switch (state) {
+            case CLOSED -> "正常";
+            case OPEN -> "已熔断";
+            case HALF_OPEN -> "探测中";
+        };
+        return name + ": " + stateName + "（最近 " + size + " 次：失败 " + count(Outcome.FAILURE)
+                + "，过慢 " + count(Outcome.SLOW) + "）";
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private int count(Outcome outcome) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (window[i] == outcome) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        size = 0;
+        next = 0;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        size = 0;
+        next = 0;
+    }
+}
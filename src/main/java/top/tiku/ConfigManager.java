@@ -3,17 +3,39 @@ package top.tiku;
 import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * ConfigManager 类负责管理插件的配置文件，提供对配置项的读取和写入操作。
+ * 读取操作使用不可变的配置快照，可以在任意线程中调用；修改配置后整体替换快照，
+ * 并由后台线程写入磁盘，避免在主线程上进行文件读写。
  */
 public class ConfigManager {
 
     // 插件实例，用于访问配置文件和保存配置
     private JavaPlugin plugin;
-    // 配置文件对象，用于读取和修改配置项
+    // 配置文件对象，仅在修改配置和重新加载时使用
     private FileConfiguration config;
+    // 当前的配置快照，修改或重新加载配置时整体替换
+    private final AtomicReference<PluginSettings> settings = new AtomicReference<>();
+    // 等待写入磁盘的配置内容，多次修改只写入最新的内容
+    private final AtomicReference<String> pendingSave = new AtomicReference<>();
+    // 负责写入配置文件的后台线程
+    private final ExecutorService saveExecutor;
+    // 保证配置内容按修改顺序写入磁盘
+    private final Object writeLock = new Object();
 
     /**
      * 构造函数，初始化 ConfigManager 实例。
@@ -23,13 +45,90 @@ public class ConfigManager {
     public ConfigManager(JavaPlugin plugin) {
         this.plugin = plugin;
         this.config = plugin.getConfig();
+        this.settings.set(PluginSettings.load(config));
+        this.saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-config-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
      * 保存默认配置文件。如果配置文件不存在，将创建并保存默认配置。
      */
-    public void saveDefaultConfig() {
+    public synchronized void saveDefaultConfig() {
         plugin.saveDefaultConfig();
+        config = plugin.getConfig();
+        settings.set(PluginSettings.load(config));
+    }
+
+    /**
+     * 从磁盘重新加载配置文件并替换配置快照。尚未写入的修改会先写入磁盘。
+     *
+     * @return 新的配置快照
+     */
+    public synchronized PluginSettings reload() {
+        writePendingSave();
+        plugin.reloadConfig();
+        config = plugin.getConfig();
+        PluginSettings loaded = PluginSettings.load(config);
+        settings.set(loaded);
+        return loaded;
+    }
+
+    /**
+     * 获取当前的配置快照。
+     *
+     * @return 配置快照
+     */
+    public PluginSettings getSettings() {
+        return settings.get();
+    }
+
+    /**
+     * 写入尚未保存的修改并停止后台写入线程，插件禁用时调用。
+     */
+    public void shutdown() {
+        saveExecutor.shutdown();
+        try {
+            if (!saveExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out waiting for the config file to be saved.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writePendingSave();
+    }
+
+    /**
+     * 修改配置后调用：替换配置快照，并把配置内容交给后台线程写入磁盘。
+     */
+    private void applyChange() {
+        settings.set(PluginSettings.load(config));
+        // 在调用线程中序列化，写入磁盘在后台线程中进行；已有等待中的写入时由它写入最新的内容
+        if (pendingSave.getAndSet(config.saveToString()) == null && !saveExecutor.isShutdown()) {
+            saveExecutor.execute(this::writePendingSave);
+        }
+    }
+
+    /**
+     * 把等待中的配置内容写入临时文件，再原子地替换配置文件。
+     */
+    private void writePendingSave() {
+        synchronized (writeLock) {
+            String content = pendingSave.getAndSet(null);
+            if (content == null) {
+                return;
+            }
+            Path target = new File(plugin.getDataFolder(), "config.yml").toPath();
+            Path temp = target.resolveSibling("config.yml.tmp");
+            try {
+                Files.writeString(temp, content, StandardCharsets.UTF_8);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                plugin.getLogger().severe("Failed to save config file: " + e.getMessage());
+            }
+        }
     }
 
     /**
@@ -38,7 +137,7 @@ public class ConfigManager {
      * @return Ollama 的使用模式，默认为 "built-in"
      */
     public String getOllamaMode() {
-        return config.getString("ollama.mode", "built-in");
+        return settings.get().getOllamaMode();
     }
 
     /**
@@ -47,7 +146,7 @@ public class ConfigManager {
      * @return 当前使用的 Ollama 模型，默认为 "llama2:7b"
      */
     public String getOllamaModel() {
-        return config.getString("ollama.current_model", "llama2:7b");
+        return settings.get().getOllamaModel();
     }
 
     /**
@@ -56,7 +155,7 @@ public class ConfigManager {
      * @return 内置 Ollama 服务的 API 请求地址，默认为 "http://localhost:11434/api/generate"
      */
     public String getOllamaBuiltInUrl() {
-        return config.getString("ollama.built_in_url", "http://localhost:11434/api/generate");
+        return settings.get().getOllamaBuiltInUrl();
     }
 
     /**
@@ -65,7 +164,89 @@ public class ConfigManager {
      * @return 独立 Ollama 服务的 API 请求地址，默认为 "http://external-ollama-server:11434/api/generate"
      */
     public String getOllamaStandaloneUrl() {
-        return config.getString("ollama.standalone_url", "http://external-ollama-server:11434/api/generate");
+        return settings.get().getOllamaStandaloneUrl();
+    }
+
+    /**
+     * 获取独立模式下用于负载均衡的多个 Ollama 服务地址。
+     *
+     * @return Ollama 服务地址列表，未配置时为空列表
+     */
+    public List<String> getOllamaEndpoints() {
+        return settings.get().getOllamaEndpoints();
+    }
+
+    /**
+     * 获取 Ollama 节点健康检查的间隔时间（秒）。
+     *
+     * @return 健康检查间隔时间，默认为 15
+     */
+    public long getHealthCheckIntervalSeconds() {
+        return settings.get().getHealthCheckIntervalSeconds();
+    }
+
+    /**
+     * 获取 Ollama 节点连续失败多少次后被剔除。
+     *
+     * @return 剔除前允许的连续失败次数，默认为 3
+     */
+    public int getEjectAfterFailures() {
+        return settings.get().getEjectAfterFailures();
+    }
+
+    /**
+     * 获取查询 Ollama 节点已加载模型的间隔时间（秒）。
+     *
+     * @return 查询间隔时间，默认为 10
+     */
+    public long getResidencyPollIntervalSeconds() {
+        return settings.get().getResidencyPollIntervalSeconds();
+    }
+
+    /**
+     * 获取内置 Ollama 服务启动后等待其就绪的最长时间（秒），期间收到的请求会等待服务就绪。
+     *
+     * @return 等待时间，默认为 60
+     */
+    public long getStartupTimeoutSeconds() {
+        return settings.get().getStartupTimeoutSeconds();
+    }
+
+    /**
+     * 获取停止内置 Ollama 服务时等待其正常退出的最长时间（秒），超时后强制结束进程。
+     *
+     * @return 等待时间，默认为 10
+     */
+    public long getShutdownTimeoutSeconds() {
+        return settings.get().getShutdownTimeoutSeconds();
+    }
+
+    /**
+     * 获取模型在最后一次请求后保持加载的时间，原样发送给 Ollama 的 keep_alive 参数。
+     * 可以是秒数（-1 表示一直保持加载）或 "30m" 这样的时长。
+     *
+     * @return 保持加载的时间，默认为 "30m"
+     */
+    public Object getOllamaKeepAlive() {
+        return settings.get().getOllamaKeepAlive();
+    }
+
+    /**
+     * 获取是否在插件启用和切换模型后预热模型。
+     *
+     * @return 启用预热返回 true，默认为 true
+     */
+    public boolean isWarmUpEnabled() {
+        return settings.get().isWarmUpEnabled();
+    }
+
+    /**
+     * 获取是否以流式模式输出 Ollama 的回复。
+     *
+     * @return 是否启用流式输出，默认为 true
+     */
+    public boolean isOllamaStreamEnabled() {
+        return settings.get().isOllamaStreamEnabled();
     }
 
     /**
@@ -74,25 +255,521 @@ public class ConfigManager {
      * @return 可供选择的 Ollama 模型列表
      */
     public List<String> getAvailableModels() {
-        return config.getStringList("ollama.available_models");
+        return settings.get().getAvailableModels();
     }
 
     /**
-     * 获取当前使用的 API 类型（ollama 或 new-api）。
+     * 获取首选的 API 类型（ollama 或 new-api），即 api-type 链中的第一个后端。
      *
-     * @return 当前使用的 API 类型，默认为 "ollama"
+     * @return 首选的 API 类型，默认为 "ollama"
      */
     public String getApiType() {
-        return config.getString("api-type", "ollama");
+        return settings.get().getApiType();
+    }
+
+    /**
+     * 获取按顺序尝试的 API 类型，首选的后端熔断或失败时依次使用后面的后端。
+     *
+     * @return API 类型列表，至少包含一个元素
+     */
+    public List<String> getApiTypes() {
+        return settings.get().getApiTypes();
+    }
+
+    /**
+     * 获取是否启用回复缓存。
+     *
+     * @return 是否启用回复缓存，默认为 true
+     */
+    public boolean isCacheEnabled() {
+        return settings.get().isCacheEnabled();
+    }
+
+    /**
+     * 获取回复缓存的最大条目数。
+     *
+     * @return 最大条目数，默认为 500
+     */
+    public int getCacheMaxEntries() {
+        return settings.get().getCacheMaxEntries();
+    }
+
+    /**
+     * 获取每条回复缓存的有效时间（分钟）。
+     *
+     * @return 有效时间，默认为 360
+     */
+    public long getCacheTtlMinutes() {
+        return settings.get().getCacheTtlMinutes();
     }
 
     /**
-     * 获取按行输出时每行之间的延迟时间（游戏刻）。
+     * 获取是否把回复缓存保存到磁盘。
      *
-     * @return 每行之间的延迟时间，默认为 60
+     * @return 是否保存缓存快照，默认为 true
      */
-    public long getLineDelay() {
-        return config.getLong("line-delay", 60);
+    public boolean isCachePersistent() {
+        return settings.get().isCachePersistent();
+    }
+
+    /**
+     * 获取是否启用语义缓存。
+     *
+     * @return 是否启用语义缓存，默认为 false
+     */
+    public boolean isSemanticCacheEnabled() {
+        return settings.get().isSemanticCacheEnabled();
+    }
+
+    /**
+     * 获取生成问题向量使用的 Ollama 嵌入模型。
+     *
+     * @return 嵌入模型，默认为 "nomic-embed-text"
+     */
+    public String getSemanticCacheModel() {
+        return settings.get().getSemanticCacheModel();
+    }
+
+    /**
+     * 获取语义缓存命中所需的最低余弦相似度。
+     *
+     * @return 相似度阈值，默认为 0.92
+     */
+    public double getSemanticCacheThreshold() {
+        return settings.get().getSemanticCacheThreshold();
+    }
+
+    /**
+     * 获取语义缓存的最大条目数。
+     *
+     * @return 最大条目数，默认为 500
+     */
+    public int getSemanticCacheMaxEntries() {
+        return settings.get().getSemanticCacheMaxEntries();
+    }
+
+    /**
+     * 获取是否启用服务器知识库检索。
+     *
+     * @return 是否启用知识库，默认为 false
+     */
+    public boolean isKnowledgeEnabled() {
+        return settings.get().isKnowledgeEnabled();
+    }
+
+    /**
+     * 获取为知识库片段和问题计算向量使用的 Ollama 嵌入模型。
+     *
+     * @return 嵌入模型，默认为 "nomic-embed-text"
+     */
+    public String getKnowledgeModel() {
+        return settings.get().getKnowledgeModel();
+    }
+
+    /**
+     * 获取知识库文件切分成片段时每个片段的最大字符数。
+     *
+     * @return 最大字符数，默认为 800
+     */
+    public int getKnowledgeChunkChars() {
+        return settings.get().getKnowledgeChunkChars();
+    }
+
+    /**
+     * 获取每个问题最多附带的知识库片段数。
+     *
+     * @return 片段数，默认为 3
+     */
+    public int getKnowledgeTopK() {
+        return settings.get().getKnowledgeTopK();
+    }
+
+    /**
+     * 获取知识库片段被附带所需的最低余弦相似度。
+     *
+     * @return 相似度阈值，默认为 0.5
+     */
+    public double getKnowledgeMinScore() {
+        return settings.get().getKnowledgeMinScore();
+    }
+
+    /**
+     * 获取共享状态的类型："local" 只在当前服务器内共享，"redis" 通过 Redis 在多个服务器之间共享。修改后需要重启服务器。
+     *
+     * @return 共享状态的类型，默认为 "local"
+     */
+    public String getSharedStateType() {
+        return settings.get().getSharedStateType();
+    }
+
+    /**
+     * 获取共享状态中所有键的前缀。
+     *
+     * @return 键前缀，默认为 "ollamachat:"
+     */
+    public String getSharedStateKeyPrefix() {
+        return settings.get().getSharedStateKeyPrefix();
+    }
+
+    /**
+     * 获取相同的问题正在其他服务器上生成时，等待其回复的最长时间，超过后由本服务器自行生成。
+     *
+     * @return 最长等待时间（秒），0 表示不等待，默认为 15
+     */
+    public long getSharedStateInflightWaitSeconds() {
+        return settings.get().getSharedStateInflightWaitSeconds();
+    }
+
+    /**
+     * 获取 Redis 的地址。
+     *
+     * @return Redis 的地址，默认为 "127.0.0.1"
+     */
+    public String getRedisHost() {
+        return settings.get().getRedisHost();
+    }
+
+    /**
+     * 获取 Redis 的端口。
+     *
+     * @return Redis 的端口，默认为 6379
+     */
+    public int getRedisPort() {
+        return settings.get().getRedisPort();
+    }
+
+    /**
+     * 获取连接 Redis 使用的密码。
+     *
+     * @return 密码，为空时不认证
+     */
+    public String getRedisPassword() {
+        return settings.get().getRedisPassword();
+    }
+
+    /**
+     * 获取使用的 Redis 数据库编号。
+     *
+     * @return 数据库编号，默认为 0
+     */
+    public int getRedisDatabase() {
+        return settings.get().getRedisDatabase();
+    }
+
+    /**
+     * 获取连接和读取 Redis 的超时时间。
+     *
+     * @return 超时时间（毫秒），默认为 500
+     */
+    public int getRedisTimeoutMillis() {
+        return settings.get().getRedisTimeoutMillis();
+    }
+
+    /**
+     * 获取最多保留的空闲 Redis 连接数。
+     *
+     * @return 空闲连接数，默认为 4
+     */
+    public int getRedisPoolSize() {
+        return settings.get().getRedisPoolSize();
+    }
+
+    /**
+     * 获取是否监听聊天消息，把带有触发前缀或提及 AI 的消息当作提问。
+     *
+     * @return 是否启用聊天触发，默认为 false
+     */
+    public boolean isChatTriggerEnabled() {
+        return settings.get().isChatTriggerEnabled();
+    }
+
+    /**
+     * 获取聊天消息以该前缀开头时视为提问的触发前缀，不区分大小写。
+     *
+     * @return 触发前缀，默认为 "@ai"，为空时只按提及触发
+     */
+    public String getChatTriggerPrefix() {
+        return settings.get().getChatTriggerPrefix();
+    }
+
+    /**
+     * 获取聊天消息中出现 "@名称" 时视为提问的名称列表，不区分大小写。
+     *
+     * @return 名称列表，默认为空
+     */
+    public List<String> getChatTriggerMentions() {
+        return settings.get().getChatTriggerMentions();
+    }
+
+    /**
+     * 获取合并同一玩家连续提问的等待时间，最后一条消息之后这段时间内没有新消息才发送请求。
+     *
+     * @return 等待时间（毫秒），默认为 1500
+     */
+    public long getChatTriggerDebounceMillis() {
+        return settings.get().getChatTriggerDebounceMillis();
+    }
+
+    /**
+     * 获取聊天触发的提问是否公开回复给所有在线玩家。
+     *
+     * @return 是否公开回复，默认为 false
+     */
+    public boolean isChatTriggerPublicReply() {
+        return settings.get().isChatTriggerPublicReply();
+    }
+
+    /**
+     * 获取是否为每个玩家保留多轮对话会话。
+     *
+     * @return 是否启用会话，默认为 true
+     */
+    public boolean isSessionEnabled() {
+        return settings.get().isSessionEnabled();
+    }
+
+    /**
+     * 获取会话模式，generate 表示复用 /api/generate 的 context，chat 表示通过 /api/chat 保留消息历史。
+     *
+     * @return 会话模式，默认为 "generate"
+     */
+    public String getSessionMode() {
+        return settings.get().getSessionMode();
+    }
+
+    /**
+     * 获取每个会话允许占用的最大 token 数。
+     *
+     * @return token 预算，默认为 2048
+     */
+    public int getSessionTokenBudget() {
+        return settings.get().getSessionTokenBudget();
+    }
+
+    /**
+     * 获取会话在无人使用多久后过期（分钟）。
+     *
+     * @return 空闲过期时间，默认为 15
+     */
+    public long getSessionIdleMinutes() {
+        return settings.get().getSessionIdleMinutes();
+    }
+
+    /**
+     * 获取启用的后端列表。
+     *
+     * @return 启用的后端名称列表，未配置时默认启用 ollama 和 new-api
+     */
+    public List<String> getEnabledBackends() {
+        return settings.get().getEnabledBackends();
+    }
+
+    /**
+     * 获取每刻（1/20 秒）最多向每个玩家发送的字符数，用于控制回复的显示速度。
+     *
+     * @return 每刻发送的字符数，默认为 40
+     */
+    public int getDeliveryCharsPerTick() {
+        return settings.get().getDeliveryCharsPerTick();
+    }
+
+    /**
+     * 获取回复每行的最大宽度，中文等宽字符按 2 计算，超过时自动换行。
+     *
+     * @return 每行的最大宽度，默认为 53
+     */
+    public int getDeliveryLineWidth() {
+        return settings.get().getDeliveryLineWidth();
+    }
+
+    /**
+     * 获取回复每页的行数，超过一页的部分需要使用 /ollama page 查看。
+     *
+     * @return 每页的行数，默认为 20
+     */
+    public int getDeliveryPageLines() {
+        return settings.get().getDeliveryPageLines();
+    }
+
+    /**
+     * 获取同时向后端发送的最大请求数。
+     *
+     * @return 最大并发请求数，默认为 2
+     */
+    public int getMaxConcurrentRequests() {
+        return settings.get().getMaxConcurrentRequests();
+    }
+
+    /**
+     * 获取请求等待队列的最大长度。
+     *
+     * @return 等待队列的最大长度，默认为 50
+     */
+    public int getRequestQueueCapacity() {
+        return settings.get().getRequestQueueCapacity();
+    }
+
+    /**
+     * 获取排队请求最多被其他模型的请求插队多久（秒）。
+     *
+     * @return 最长等待时间，默认为 30
+     */
+    public long getMaxAffinityWaitSeconds() {
+        return settings.get().getMaxAffinityWaitSeconds();
+    }
+
+    /**
+     * 获取每个请求从提交到完成的最长时间（秒），包括排队时间，超时后自动取消。
+     *
+     * @return 最长时间，0 表示不限制，默认为 180
+     */
+    public long getRequestDeadlineSeconds() {
+        return settings.get().getRequestDeadlineSeconds();
+    }
+
+    /**
+     * 获取建立 HTTP 连接的超时时间（毫秒）。
+     *
+     * @return 连接超时时间，默认为 5000
+     */
+    public int getHttpConnectTimeoutMillis() {
+        return settings.get().getHttpConnectTimeoutMillis();
+    }
+
+    /**
+     * 获取两次读取到响应数据之间的最长等待时间（毫秒）。
+     *
+     * @return 读取超时时间，默认为 120000
+     */
+    public int getHttpReadTimeoutMillis() {
+        return settings.get().getHttpReadTimeoutMillis();
+    }
+
+    /**
+     * 获取单个 HTTP 请求从发出到读完响应的最长时间（毫秒）。
+     *
+     * @return 总超时时间，默认为 300000
+     */
+    public long getHttpTotalTimeoutMillis() {
+        return settings.get().getHttpTotalTimeoutMillis();
+    }
+
+    /**
+     * 获取HTTP 连接池的最大连接数。
+     *
+     * @return 最大连接数，默认为 20
+     */
+    public int getHttpMaxConnections() {
+        return settings.get().getHttpMaxConnections();
+    }
+
+    /**
+     * 获取每个服务地址的最大 HTTP 连接数。
+     *
+     * @return 每个服务地址的最大连接数，默认为 10
+     */
+    public int getHttpMaxConnectionsPerRoute() {
+        return settings.get().getHttpMaxConnectionsPerRoute();
+    }
+
+    /**
+     * 获取空闲 HTTP 连接的保活时间（毫秒）。
+     *
+     * @return 保活时间，默认为 30000
+     */
+    public long getHttpKeepAliveMillis() {
+        return settings.get().getHttpKeepAliveMillis();
+    }
+
+    /**
+     * 获取是否使用 gzip 压缩 HTTP 请求体。
+     *
+     * @return 是否压缩请求体，默认为 false
+     */
+    public boolean isHttpGzipRequests() {
+        return settings.get().isHttpGzipRequests();
+    }
+
+    /**
+     * 获取是否接受 gzip 压缩的 HTTP 响应。
+     *
+     * @return 是否接受压缩的响应，默认为 true
+     */
+    public boolean isHttpGzipResponses() {
+        return settings.get().isHttpGzipResponses();
+    }
+
+    /**
+     * 获取是否启用 Prometheus 格式的指标接口。
+     *
+     * @return 是否启用指标接口，默认为 false
+     */
+    public boolean isMetricsEndpointEnabled() {
+        return settings.get().isMetricsEndpointEnabled();
+    }
+
+    /**
+     * 获取指标接口监听的地址。
+     *
+     * @return 监听的地址，默认为 "127.0.0.1"，只允许本机访问
+     */
+    public String getMetricsHost() {
+        return settings.get().getMetricsHost();
+    }
+
+    /**
+     * 获取指标接口监听的端口。
+     *
+     * @return 监听的端口，默认为 9464
+     */
+    public int getMetricsPort() {
+        return settings.get().getMetricsPort();
+    }
+
+    /**
+     * 获取是否启用配额。
+     *
+     * @return 是否启用配额，默认为 true
+     */
+    public boolean isQuotasEnabled() {
+        return settings.get().isQuotasEnabled();
+    }
+
+    /**
+     * 获取配额组列表，按优先级从高到低排列。
+     *
+     * @return 配额组列表
+     */
+    public List<QuotaGroup> getQuotaGroups() {
+        return settings.get().getQuotaGroups();
+    }
+
+    /**
+     * 获取指定名称的生成档位。
+     *
+     * @param name 档位名称
+     * @return 生成档位，没有该档位时返回 null
+     */
+    public GenerationProfile getGenerationProfile(String name) {
+        return settings.get().getGenerationProfiles().get(name);
+    }
+
+    /**
+     * 获取所有生成档位的名称。
+     *
+     * @return 档位名称，按配置文件中的顺序排列
+     */
+    public Set<String> getGenerationProfileNames() {
+        return settings.get().getGenerationProfiles().keySet();
+    }
+
+    /**
+     * 获取没有指定档位、配额组也没有设置档位时使用的生成档位名称。
+     *
+     * @return 档位名称，默认为 "default"
+     */
+    public String getDefaultGenerationProfile() {
+        return settings.get().getDefaultGenerationProfile();
     }
 
     /**
@@ -100,9 +777,24 @@ public class ConfigManager {
      *
      * @param model 要设置的新 Ollama 模型
      */
-    public void setOllamaModel(String model) {
+    public synchronized void setOllamaModel(String model) {
         config.set("ollama.current_model", model);
-        plugin.saveConfig();
+        applyChange();
+    }
+
+    /**
+     * 把模型加入可供选择的 Ollama 模型列表，并保存配置文件。模型已在列表中时不做任何操作。
+     *
+     * @param model 要加入的模型名称
+     */
+    public synchronized void addAvailableModel(String model) {
+        List<String> models = new ArrayList<>(getAvailableModels());
+        if (models.contains(model)) {
+            return;
+        }
+        models.add(model);
+        config.set("ollama.available_models", models);
+        applyChange();
     }
 
     /**
@@ -110,9 +802,9 @@ public class ConfigManager {
      *
      * @param mode 要设置的新 Ollama 使用模式
      */
-    public void setOllamaMode(String mode) {
+    public synchronized void setOllamaMode(String mode) {
         config.set("ollama.mode", mode);
-        plugin.saveConfig();
+        applyChange();
     }
 
     /**
@@ -121,7 +813,7 @@ public class ConfigManager {
      * @return 新 API 的模型，默认为 "default-model"
      */
     public String getNewApiModel() {
-        return config.getString("new-api.model", "default-model");
+        return settings.get().getNewApiModel();
     }
 
     /**
@@ -130,7 +822,7 @@ public class ConfigManager {
      * @return 新 API 的请求地址，默认为 "https://example.com/api/generate"
      */
     public String getNewApiUrl() {
-        return config.getString("new-api.url", "https://example.com/api/generate");
+        return settings.get().getNewApiUrl();
     }
 
     /**
@@ -139,7 +831,7 @@ public class ConfigManager {
      * @return 访问新 API 所需的密钥，默认为 "your_api_key_here"
      */
     public String getNewApiKey() {
-        return config.getString("new-api.key", "your_api_key_here");
+        return settings.get().getNewApiKey();
     }
 
     /**
@@ -147,8 +839,8 @@ public class ConfigManager {
      *
      * @param model 要设置的新 API 模型
      */
-    public void setNewApiModel(String model) {
+    public synchronized void setNewApiModel(String model) {
         config.set("new-api.model", model);
-        plugin.saveConfig();
+        applyChange();
     }
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+
+/**
+ * GenerationPolicy 类为每个请求选出生成档位，并根据请求执行器的排队长度自动缩短回复。
+ * 排队的请求超过阈值时立即提高缩短级别，每提高一级最多生成的 token 数减半；
+ * 排队长度回落后每隔一段时间恢复一级，避免在阈值附近来回切换。上下文长度变化时 Ollama 需要重新加载模型，
+ * 因此缩短时不改变上下文长度。队列很长时，所有人得到较短的回复好过一半的玩家等到超时。
+ */
+public class GenerationPolicy {
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取生成档位和缩短的阈值，重新加载配置后立即生效
+    private final ConfigManager configManager;
+    // 请求执行器，用于读取排队长度
+    private final RequestExecutor requestExecutor;
+    // 配额管理器，用于确定发送者所属的配额组
+    private final QuotaManager quotaManager;
+    // 当前的缩短级别
+    private int level;
+    // 上次改变缩短级别的时间（System.nanoTime）
+    private long changedAt = System.nanoTime();
+
+    /**
+     * 构造函数，初始化 GenerationPolicy 实例。
+     *
+     * @param plugin          插件实例
+     * @param configManager   配置管理器
+     * @param requestExecutor 请求执行器
+     * @param quotaManager    配额管理器
+     */
+    public GenerationPolicy(JavaPlugin plugin, ConfigManager configManager, RequestExecutor requestExecutor,
+                            QuotaManager quotaManager) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.requestExecutor = requestExecutor;
+        this.quotaManager = quotaManager;
+    }
+
+    /**
+     * 为请求选出生成档位：优先使用指定的档位，其次是发送者所属配额组的档位，最后是默认档位；
+     * 再按当前的负载缩短最多生成的 token 数。
+     *
+     * @param sender      命令发送者
+     * @param profileName 指定的档位名称，为 null 时按配额组选择
+     * @return 本次请求使用的生成档位
+     */
+    public GenerationProfile resolve(CommandSender sender, String profileName) {
+        PluginSettings settings = configManager.getSettings();
+        GenerationProfile profile = profileName != null ? settings.getGenerationProfiles().get(profileName) : null;
+        if (profile == null) {
+            String groupProfile = quotaManager.resolveGroup(sender).getProfile();
+            profile = groupProfile != null ? settings.getGenerationProfiles().get(groupProfile) : null;
+        }
+        if (profile == null) {
+            profile = settings.getGenerationProfiles().get(settings.getDefaultGenerationProfile());
+        }
+        return profile.degrade(updateLevel(settings), settings.getAdaptiveMinNumPredict());
+    }
+
+    /**
+     * 根据当前的排队长度更新缩短级别。排队长度超过阈值后每增加 queue-step 个请求提高一级，提高时立即生效；
+     * 降低时每经过 restore-seconds 才恢复一级。
+     *
+     * @param settings 配置快照
+     * @return 更新后的缩短级别
+     */
+    synchronized int updateLevel(PluginSettings settings) {
+        int target = 0;
+        if (settings.isAdaptiveGenerationEnabled()) {
+            int queued = requestExecutor.getQueueSize();
+            if (queued > settings.getAdaptiveQueueThreshold()) {
+                target = Math.min(settings.getAdaptiveMaxLevel(),
+                        1 + (queued - settings.getAdaptiveQueueThreshold() - 1) / settings.getAdaptiveQueueStep());
+            }
+        }
+        long now = System.nanoTime();
+        int previous = level;
+        if (target > level) {
+            level = target;
+            changedAt = now;
+        } else if (target < level) {
+            long restoreNanos = settings.getAdaptiveRestoreSeconds() * 1_000_000_000L;
+            long steps = (now - changedAt) / restoreNanos;
+            if (steps > 0) {
+                level = (int) Math.max(target, level - steps);
+                changedAt = now;
+            }
+        }
+        if (level != previous) {
+            plugin.getLogger().info("Generation load level changed from " + previous + " to " + level
+                    + " (" + requestExecutor.getQueueSize() + " requests queued).");
+        }
+        return level;
+    }
+
+    /**
+     * 获取当前的缩短级别，供 /ollama stats 显示。
+     *
+     * @return 缩短级别，0 表示没有缩短
+     */
+    public synchronized int getLevel() {
+        return level;
+    }
+}
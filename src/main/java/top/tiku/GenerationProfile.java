@@ -0,0 +1,156 @@
+package top.tiku;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.List;
+
+/**
+ * GenerationProfile 类表示配置文件中的一个生成档位，包括最多生成的 token 数（num_predict）、上下文长度（num_ctx）、
+ * 温度和停止词。数值为 0（温度为负数）时表示不设置，使用后端的默认值。实例不可变，负载较高时通过
+ * {@link #degrade} 得到缩短后的副本。
+ */
+public final class GenerationProfile {
+
+    // 没有配置任何档位时使用的档位名称
+    public static final String DEFAULT = "default";
+
+    // 档位名称
+    private final String name;
+    // 最多生成的 token 数
+    private final int numPredict;
+    // 上下文长度
+    private final int numCtx;
+    // 温度
+    private final double temperature;
+    // 停止词
+    private final List<String> stop;
+    // 负载较高时缩短的级别，0 表示没有缩短
+    private final int degradeLevel;
+
+    /**
+     * 构造函数，初始化 GenerationProfile 实例。
+     *
+     * @param name        档位名称
+     * @param numPredict  最多生成的 token 数，0 表示不限制
+     * @param numCtx      上下文长度，0 表示使用后端的默认值
+     * @param temperature 温度，负数表示使用后端的默认值
+     * @param stop        停止词
+     */
+    public GenerationProfile(String name, int numPredict, int numCtx, double temperature, List<String> stop) {
+        this(name, numPredict, numCtx, temperature, stop, 0);
+    }
+
+    private GenerationProfile(String name, int numPredict, int numCtx, double temperature, List<String> stop,
+                              int degradeLevel) {
+        this.name = name;
+        this.numPredict = Math.max(0, numPredict);
+        this.numCtx = Math.max(0, numCtx);
+        this.temperature = temperature;
+        this.stop = List.copyOf(stop);
+        this.degradeLevel = degradeLevel;
+    }
+
+    /**
+     * 创建一个不设置任何参数的档位，后端使用其默认值。
+     *
+     * @param name 档位名称
+     * @return 不设置参数的档位
+     */
+    public static GenerationProfile unbounded(String name) {
+        return new GenerationProfile(name, 0, 0, -1, List.of());
+    }
+
+    /**
+     * 创建缩短后的副本：每提高一级，最多生成的 token 数减半，但不低于下限；没有设置时保持不限制。
+     * 上下文长度不变，因为 num_ctx 变化时 Ollama 会重新加载模型，负载较高时反复重新加载只会更慢。
+     * 温度和停止词同样不受影响。
+     *
+     * @param level         缩短的级别，0 时返回自身
+     * @param minNumPredict 最多生成的 token 数的下限
+     * @return 缩短后的档位
+     */
+    public GenerationProfile degrade(int level, int minNumPredict) {
+        if (level <= 0) {
+            return this;
+        }
+        return new GenerationProfile(name, shrink(numPredict, level, minNumPredict), numCtx, temperature, stop, level);
+    }
+
+    private static int shrink(int value, int level, int minimum) {
+        if (value == 0 || value <= minimum) {
+            return value;
+        }
+        return Math.max(minimum, value >> Math.min(level, 30));
+    }
+
+    /**
+     * 生成 Ollama 请求体中的 options 对象。
+     *
+     * @return options 对象，没有设置任何参数时返回 null
+     */
+    public JSONObject toOllamaOptions() {
+        if (isUnbounded()) {
+            return null;
+        }
+        JSONObject options = new JSONObject();
+        if (numPredict > 0) {
+            options.put("num_predict", numPredict);
+        }
+        if (numCtx > 0) {
+            options.put("num_ctx", numCtx);
+        }
+        if (temperature >= 0) {
+            options.put("temperature", temperature);
+        }
+        if (!stop.isEmpty()) {
+            options.put("stop", new JSONArray(stop));
+        }
+        return options;
+    }
+
+    /**
+     * 生成用于缓存键的参数描述。参数不同的请求生成的回复不同，不能共用缓存，例如缩短后的回复不会在负载降低后继续返回。
+     *
+     * @return 参数描述，没有设置任何参数时为空字符串
+     */
+    public String cacheKey() {
+        if (isUnbounded()) {
+            return "";
+        }
+        return "p" + numPredict + ";c" + numCtx + ";t" + temperature + ";s" + String.join("\u0001", stop);
+    }
+
+    /**
+     * 判断是否没有设置任何参数。
+     *
+     * @return 没有设置任何参数时返回 true
+     */
+    public boolean isUnbounded() {
+        return numPredict == 0 && numCtx == 0 && temperature < 0 && stop.isEmpty();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumPredict() {
+        return numPredict;
+    }
+
+    public int getNumCtx() {
+        return numCtx;
+    }
+
+    public double getTemperature() {
+        return temperature;
+    }
+
+    public List<String> getStop() {
+        return stop;
+    }
+
+    public int getDegradeLevel() {
+        return degradeLevel;
+    }
+}
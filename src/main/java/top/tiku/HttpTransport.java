@@ -0,0 +1,360 @@
+package top.tiku;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HttpTransport 类是 OllamaClient 和 NewAPIClient 共用的 HTTP 传输层，
+ * 基于连接池复用长连接，并为每个请求设置连接、读取和总时长的超时限制。
+ */
+public class HttpTransport {
+
+    // 错误响应中保留的最大字符数，避免把过长的响应体写入日志
+    private static final int MAX_ERROR_BODY_LENGTH = 512;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 当前使用的连接池和 HTTP 客户端，重新加载配置时整体替换
+    private volatile ClientPool pool;
+    // 用于在请求超过总时长后中止请求的调度器
+    private final ScheduledExecutorService deadlineScheduler;
+
+    /**
+     * 构造函数，根据配置文件创建连接池和 HTTP 客户端。
+     *
+     * @param plugin        插件实例
+     * @param configManager 配置管理器，用于读取超时和连接池设置
+     */
+    public HttpTransport(JavaPlugin plugin, ConfigManager configManager) {
+        this(plugin, configManager.getSettings());
+    }
+
+    /**
+     * 构造函数，根据配置快照创建连接池和 HTTP 客户端，供基准测试等不经过配置文件的场景使用。
+     *
+     * @param plugin   插件实例
+     * @param settings 配置快照
+     */
+    HttpTransport(JavaPlugin plugin, PluginSettings settings) {
+        this.plugin = plugin;
+        this.pool = new ClientPool(settings);
+        deadlineScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-http-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 按新的配置创建连接池和 HTTP 客户端并替换当前的客户端。
+     * 正在进行的请求继续使用旧的客户端，旧客户端在这些请求全部结束后关闭。
+     *
+     * @param configManager 配置管理器，用于读取超时和连接池设置
+     */
+    public void reconfigure(ConfigManager configManager) {
+        ClientPool previous = pool;
+        pool = new ClientPool(configManager.getSettings());
+        previous.retire();
+    }
+
+    /**
+     * 发送 JSON 格式的 POST 请求，并在总时长限制内由处理器读取响应。
+     *
+     * @param url     请求地址
+     * @param body    JSON 请求体
+     * @param headers 额外的请求头，可以为 null
+     * @param handler 响应处理器，负责读取响应体
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、超时或服务端返回错误状态码时抛出
+     */
+    public <T> T postJson(String url, JSONObject body, Map<String, String> headers,
+                          ResponseHandler<? extends T> handler) throws IOException {
+        return postJson(url, body, headers, null, handler);
+    }
+
+    /**
+     * 发送可以取消的 JSON 格式 POST 请求。取消时立即中止连接，服务端会随之停止生成。
+     *
+     * @param url          请求地址
+     * @param body         JSON 请求体
+     * @param headers      额外的请求头，可以为 null
+     * @param cancellation 请求的取消标记，可以为 null
+     * @param handler      响应处理器，负责读取响应体
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、超时、被取消或服务端返回错误状态码时抛出
+     */
+    public <T> T postJson(String url, JSONObject body, Map<String, String> headers, CancellationToken cancellation,
+                          ResponseHandler<? extends T> handler) throws IOException {
+        ClientPool current = pool;
+        HttpPost request = new HttpPost(url);
+        HttpEntity entity = new StringEntity(body.toString(), ContentType.APPLICATION_JSON);
+        request.setEntity(current.gzipRequests ? new GzipCompressingEntity(entity) : entity);
+        if (headers != null) {
+            headers.forEach(request::setHeader);
+        }
+        return execute(request, handler, current.totalTimeoutMillis, cancellation);
+    }
+
+    /**
+     * 发送不限制总时长的 JSON 格式 POST 请求，适用于模型下载等持续时间很长的流式请求。
+     * 读取超时仍然有效，服务端长时间没有发送数据时请求会失败。
+     *
+     * @param url          请求地址
+     * @param body         JSON 请求体
+     * @param cancellation 请求的取消标记，可以为 null
+     * @param handler      响应处理器，负责读取响应体
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、读取超时、被取消或服务端返回错误状态码时抛出
+     */
+    public <T> T postJsonUnbounded(String url, JSONObject body, CancellationToken cancellation,
+                                   ResponseHandler<? extends T> handler) throws IOException {
+        HttpPost request = new HttpPost(url);
+        request.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+        return execute(request, handler, 0, cancellation);
+    }
+
+    /**
+     * 发送 GET 请求，并在总时长限制内由处理器读取响应。
+     *
+     * @param url     请求地址
+     * @param handler 响应处理器，负责读取响应体
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、超时或服务端返回错误状态码时抛出
+     */
+    public <T> T get(String url, ResponseHandler<? extends T> handler) throws IOException {
+        return execute(new HttpGet(url), handler, pool.totalTimeoutMillis, null);
+    }
+
+    /**
+     * 使用单独的超时时间发送 GET 请求，适用于健康检查等需要快速失败的短请求。
+     *
+     * @param url           请求地址
+     * @param timeoutMillis 连接、读取和总时长共用的超时时间（毫秒）
+     * @param handler       响应处理器，负责读取响应体
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、超时或服务端返回错误状态码时抛出
+     */
+    public <T> T get(String url, int timeoutMillis, ResponseHandler<? extends T> handler) throws IOException {
+        HttpGet request = new HttpGet(url);
+        request.setConfig(RequestConfig.copy(pool.defaultRequestConfig)
+                .setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .build());
+        return execute(request, handler, timeoutMillis, null);
+    }
+
+    /**
+     * 执行请求。超过总时长后请求会被中止，中止后抛出 SocketTimeoutException；
+     * 被取消时同样中止请求，并抛出 InterruptedIOException。
+     *
+     * @param request       要执行的请求
+     * @param handler       响应处理器
+     * @param timeoutMillis 请求的总时长限制（毫秒），0 表示不限制
+     * @param cancellation  请求的取消标记，可以为 null
+     * @return 响应处理器的返回值
+     * @throws IOException 连接失败、超时、被取消或服务端返回错误状态码时抛出
+     */
+    private <T> T execute(HttpRequestBase request, ResponseHandler<? extends T> handler,
+                          long timeoutMillis, CancellationToken cancellation) throws IOException {
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        ScheduledFuture<?> deadline = timeoutMillis <= 0 ? null : deadlineScheduler.schedule(() -> {
+            timedOut.set(true);
+            request.abort();
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        Runnable abort = request::abort;
+        if (cancellation != null) {
+            cancellation.onCancel(abort);
+        }
+        ClientPool current = acquirePool();
+        try {
+            return current.httpClient.execute(request, response -> {
+                int status = response.getStatusLine().getStatusCode();
+                if (status >= 400) {
+                    throw new HttpResponseException(status, readErrorBody(response.getEntity(),
+                            response.getStatusLine().getReasonPhrase()));
+                }
+                return handler.handleResponse(response);
+            });
+        } catch (IOException e) {
+            if (cancellation != null && cancellation.isCancelled()) {
+                throw new InterruptedIOException("Request was cancelled");
+            }
+            if (timedOut.get()) {
+                throw new SocketTimeoutException("Request exceeded the total timeout of " + timeoutMillis + " ms");
+            }
+            throw e;
+        } finally {
+            current.release();
+            if (deadline != null) {
+                deadline.cancel(false);
+            }
+            if (cancellation != null) {
+                cancellation.removeCallback(abort);
+            }
+        }
+    }
+
+    /**
+     * 获取当前的连接池并登记一个正在进行的请求。取到的连接池恰好被替换时改用新的连接池。
+     *
+     * @return 登记了请求的连接池，请求结束后需要调用 {@link ClientPool#release()}
+     */
+    private ClientPool acquirePool() {
+        while (true) {
+            ClientPool current = pool;
+            current.active.incrementAndGet();
+            if (!current.retired) {
+                return current;
+            }
+            current.release();
+        }
+    }
+
+    /**
+     * 读取错误响应的响应体作为错误信息，读取失败时使用状态行中的原因短语。
+     *
+     * @param entity       响应体
+     * @param reasonPhrase 状态行中的原因短语
+     * @return 错误信息
+     */
+    private String readErrorBody(HttpEntity entity, String reasonPhrase) {
+        if (entity == null) {
+            return reasonPhrase;
+        }
+        try {
+            String body = EntityUtils.toString(entity, "UTF-8").trim();
+            if (body.isEmpty()) {
+                return reasonPhrase;
+            }
+            return body.length() > MAX_ERROR_BODY_LENGTH ? body.substring(0, MAX_ERROR_BODY_LENGTH) : body;
+        } catch (IOException e) {
+            return reasonPhrase;
+        }
+    }
+
+    /**
+     * 关闭 HTTP 客户端和连接池，释放所有连接。
+     */
+    public void shutdown() {
+        deadlineScheduler.shutdownNow();
+        pool.close();
+    }
+
+    /**
+     * ClientPool 类表示按某一份配置创建的连接池和 HTTP 客户端，并统计正在使用它的请求数。
+     */
+    private class ClientPool {
+
+        // 连接池管理器，按路由复用长连接
+        private final PoolingHttpClientConnectionManager connectionManager;
+        // 共享的 HTTP 客户端
+        private final CloseableHttpClient httpClient;
+        // 默认的请求配置，包含连接和读取超时
+        private final RequestConfig defaultRequestConfig;
+        // 单个请求从发出到读完响应的最长时间（毫秒）
+        private final long totalTimeoutMillis;
+        // 是否对请求体进行 gzip 压缩
+        private final boolean gzipRequests;
+        // 正在使用该客户端的请求数
+        private final AtomicInteger active = new AtomicInteger();
+        // 是否已被新的连接池替换
+        private volatile boolean retired;
+        // 是否已关闭
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        ClientPool(PluginSettings settings) {
+            this.totalTimeoutMillis = settings.getHttpTotalTimeoutMillis();
+            this.gzipRequests = settings.isHttpGzipRequests();
+
+            long keepAliveMillis = settings.getHttpKeepAliveMillis();
+            connectionManager = new PoolingHttpClientConnectionManager();
+            connectionManager.setMaxTotal(settings.getHttpMaxConnections());
+            connectionManager.setDefaultMaxPerRoute(settings.getHttpMaxConnectionsPerRoute());
+            // 复用空闲超过 2 秒的连接前先检查连接是否仍然可用
+            connectionManager.setValidateAfterInactivity(2000);
+
+            int connectTimeout = settings.getHttpConnectTimeoutMillis();
+            defaultRequestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeout)
+                    .setConnectionRequestTimeout(connectTimeout)
+                    .setSocketTimeout(settings.getHttpReadTimeoutMillis())
+                    .build();
+
+            HttpClientBuilder builder = HttpClientBuilder.create()
+                    .setConnectionManager(connectionManager)
+                    .setDefaultRequestConfig(defaultRequestConfig)
+                    // 服务端未声明 Keep-Alive 时间时，使用配置的保活时间
+                    .setKeepAliveStrategy((response, context) -> {
+                        long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                .getKeepAliveDuration(response, context);
+                        return serverKeepAlive > 0 ? serverKeepAlive : keepAliveMillis;
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+                    .setUserAgent("OllamaChatPlugin");
+            // HttpClient 默认会发送 Accept-Encoding 并自动解压 gzip 响应
+            if (!settings.isHttpGzipResponses()) {
+                builder.disableContentCompression();
+            }
+            httpClient = builder.build();
+        }
+
+        /**
+         * 请求结束时调用，已被替换的连接池在最后一个请求结束后关闭。
+         */
+        void release() {
+            if (active.decrementAndGet() == 0 && retired) {
+                close();
+            }
+        }
+
+        /**
+         * 标记连接池已被替换，没有正在进行的请求时立即关闭。
+         */
+        void retire() {
+            retired = true;
+            if (active.get() == 0) {
+                close();
+            }
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                plugin.getLogger().warning("Error closing HTTP client: " + e.getMessage());
+            }
+            connectionManager.shutdown();
+        }
+    }
+}
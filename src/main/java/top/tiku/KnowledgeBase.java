@@ -0,0 +1,716 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * KnowledgeBase 类为服务器规则、wiki 等资料建立向量索引，并为每个问题检索最相关的几个片段附加到提示词中，
+ * 管理员无需再把整本规则写进提示词。插件目录下 knowledge 文件夹中的 .md 和 .txt 文件按段落切分成片段，
+ * 通过 Ollama 的嵌入模型计算向量后写入 cache 目录下的向量文件，检索时以内存映射的方式读取该文件。
+ * 文件夹中的文件发生变化时只重新计算变化的文件，未变化的文件沿用已有的向量。
+ */
+public class KnowledgeBase {
+
+    // 索引文件的标识和版本号，用于识别格式不兼容的旧文件
+    private static final int INDEX_MAGIC = 0x4F434B42;
+    private static final int INDEX_VERSION = 1;
+    // 向量文件头部的长度：标识、版本号、维度和片段数
+    private static final int VECTOR_HEADER_BYTES = 16;
+    // 文件变化后等待多久再重新建立索引（毫秒），编辑器保存文件时通常会连续触发多个事件
+    private static final long REINDEX_DELAY_MILLIS = 2000;
+    // 检索时嵌入请求失败后暂停检索的时间（毫秒），避免 Ollama 不可用时每个请求都等待超时
+    private static final long FAILURE_BACKOFF_MILLIS = 30_000;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取嵌入模型、片段长度和检索数量
+    private final ConfigManager configManager;
+    // Ollama 客户端，用于计算片段和问题的向量
+    private final OllamaClient ollamaClient;
+    // 存放资料的文件夹
+    private final Path folder;
+    // 存放索引的文件夹
+    private final Path indexFolder;
+    // 建立索引的线程，同一时间只有一个索引任务
+    private final ScheduledExecutorService indexer;
+    // 当前使用的索引，重新建立索引后整体替换
+    private volatile Index index = Index.EMPTY;
+    // 等待执行的重新建立索引任务
+    private ScheduledFuture<?> pendingReindex;
+    // 监听文件夹变化的服务和线程，未启用知识库时为 null
+    private WatchService watchService;
+    private Thread watcher;
+    // 暂停检索的截止时间（毫秒时间戳）
+    private volatile long pausedUntil;
+
+    /**
+     * 构造函数，初始化 KnowledgeBase 实例。
+     *
+     * @param plugin        插件实例
+     * @param configManager 配置管理器
+     * @param ollamaClient  Ollama 客户端
+     */
+    public KnowledgeBase(JavaPlugin plugin, ConfigManager configManager, OllamaClient ollamaClient) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.ollamaClient = ollamaClient;
+        this.folder = plugin.getDataFolder().toPath().resolve("knowledge");
+        this.indexFolder = plugin.getDataFolder().toPath().resolve("cache");
+        this.indexer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-knowledge");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 配置中启用了知识库时，加载上次保存的索引，开始监听文件夹的变化，并在后台检查是否有文件需要重新计算。
+     * 重新加载配置后再次调用，之前未启用时启动，已启动时按新的配置检查索引。
+     */
+    public synchronized void start() {
+        if (!configManager.isKnowledgeEnabled()) {
+            return;
+        }
+        if (watchService != null) {
+            scheduleReindex(0);
+            return;
+        }
+        try {
+            Files.createDirectories(folder);
+            watchService = folder.getFileSystem().newWatchService();
+            registerTree(folder);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to watch knowledge folder " + folder + ": " + e.getMessage());
+        }
+        indexer.execute(this::loadIndex);
+        scheduleReindex(0);
+        if (watchService != null) {
+            watcher = new Thread(this::watch, "OllamaChat-knowledge-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * 判断当前是否可以检索知识库。
+     *
+     * @return 启用了知识库且索引中有片段时返回 true
+     */
+    public boolean isAvailable() {
+        return configManager.isKnowledgeEnabled() && !index.chunks.isEmpty();
+    }
+
+    /**
+     * 检索与问题最相关的片段，并整理成附加在问题之前的参考资料。该方法会发送 HTTP 请求，不能在主线程中调用。
+     *
+     * @param prompt 用户输入的问题
+     * @return 参考资料，没有足够相关的片段或无法检索时返回 null
+     */
+    public String buildContext(String prompt) {
+        List<Chunk> chunks = search(prompt);
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        StringBuilder context = new StringBuilder("以下是服务器资料中与问题相关的内容，请优先依据这些内容回答；")
+                .append("资料中没有提到的内容按你自己的知识回答。\n\n");
+        for (Chunk chunk : chunks) {
+            context.append('[').append(chunk.source).append("]\n").append(chunk.text).append("\n\n");
+        }
+        return context.toString();
+    }
+
+    /**
+     * 检索与问题最相关的片段。
+     *
+     * @param prompt 用户输入的问题
+     * @return 相似度不低于 min-score 的片段，按相似度从高到低排列，最多 top-k 个
+     */
+    public List<Chunk> search(String prompt) {
+        Index current = index;
+        if (!configManager.isKnowledgeEnabled() || current.chunks.isEmpty()
+                || System.currentTimeMillis() < pausedUntil) {
+            return List.of();
+        }
+        float[] query;
+        try {
+            query = normalize(ollamaClient.embed(current.model, prompt));
+        } catch (IOException e) {
+            pausedUntil = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+            plugin.getLogger().warning("Knowledge retrieval paused for " + FAILURE_BACKOFF_MILLIS / 1000
+                    + " seconds, failed to embed with " + current.model + ": " + e.getMessage());
+            return List.of();
+        }
+        if (query == null || query.length != current.dimension) {
+            return List.of();
+        }
+
+        // 保留相似度最高的 top-k 个片段，按相似度从高到低插入
+        int topK = configManager.getKnowledgeTopK();
+        double minScore = configManager.getKnowledgeMinScore();
+        int[] best = new int[topK];
+        double[] scores = new double[topK];
+        int found = 0;
+        for (int i = 0; i < current.chunks.size(); i++) {
+            double score = current.dot(i, query);
+            if (score < minScore || (found == topK && score <= scores[topK - 1])) {
+                continue;
+            }
+            int position = Math.min(found, topK - 1);
+            while (position > 0 && scores[position - 1] < score) {
+                best[position] = best[position - 1];
+                scores[position] = scores[position - 1];
+                position--;
+            }
+            best[position] = i;
+            scores[position] = score;
+            found = Math.min(found + 1, topK);
+        }
+        List<Chunk> result = new ArrayList<>(found);
+        for (int i = 0; i < found; i++) {
+            result.add(current.chunks.get(best[i]));
+        }
+        return result;
+    }
+
+    /**
+     * 获取当前索引中的文件数。
+     *
+     * @return 文件数
+     */
+    public int getFileCount() {
+        return index.files.size();
+    }
+
+    /**
+     * 获取当前索引中的片段数。
+     *
+     * @return 片段数
+     */
+    public int getChunkCount() {
+        return index.chunks.size();
+    }
+
+    /**
+     * 停止监听文件夹和建立索引。
+     */
+    public synchronized void shutdown() {
+        indexer.shutdownNow();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to close knowledge folder watcher: " + e.getMessage());
+            }
+        }
+        if (watcher != null) {
+            watcher.interrupt();
+        }
+    }
+
+    /**
+     * 在延迟之后重新建立索引。延迟期间再次调用时重新计时，连续的文件变化只触发一次索引。
+     */
+    private synchronized void scheduleReindex(long delayMillis) {
+        if (indexer.isShutdown()) {
+            return;
+        }
+        if (pendingReindex != null) {
+            pendingReindex.cancel(false);
+        }
+        pendingReindex = indexer.schedule(this::reindex, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 监听文件夹的变化，新建的子文件夹也一并监听。插件关闭时结束。
+     */
+    private void watch() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == ENTRY_CREATE && event.context() instanceof Path name) {
+                        Path child = ((Path) key.watchable()).resolve(name);
+                        if (Files.isDirectory(child)) {
+                            registerTree(child);
+                        }
+                    }
+                }
+                key.reset();
+                scheduleReindex(REINDEX_DELAY_MILLIS);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 插件关闭
+        } catch (IOException e) {
+            plugin.getLogger().warning("Stopped watching knowledge folder: " + e.getMessage());
+        }
+    }
+
+    private void registerTree(Path root) throws IOException {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator) {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            }
+        }
+    }
+
+    /**
+     * 检查资料文件夹并更新索引：未变化的文件沿用已有的片段和向量，新增或修改的文件重新切分并计算向量，
+     * 已删除的文件从索引中移除。没有任何变化时不写入文件。计算向量失败时保留原有的索引。
+     */
+    private void reindex() {
+        if (!configManager.isKnowledgeEnabled()) {
+            return;
+        }
+        Index old = index;
+        String model = configManager.getKnowledgeModel();
+        int chunkChars = configManager.getKnowledgeChunkChars();
+        // 嵌入模型或片段长度变化后，已有的向量不能再使用
+        boolean compatible = model.equals(old.model) && chunkChars == old.chunkChars;
+
+        Map<String, FileEntry> files = new LinkedHashMap<>();
+        List<Chunk> chunks = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        int embeddedFiles = 0;
+        try {
+            List<Path> paths = listFiles();
+            boolean changed = !compatible || paths.size() != old.files.size();
+            for (Path path : paths) {
+                String name = folder.relativize(path).toString().replace('\\', '/');
+                long size = Files.size(path);
+                long modified = Files.getLastModifiedTime(path).toMillis();
+                int first = chunks.size();
+                FileEntry previous = compatible ? old.files.get(name) : null;
+                if (previous != null && previous.size == size && previous.modified == modified) {
+                    for (int i = previous.firstChunk; i < previous.firstChunk + previous.chunkCount; i++) {
+                        chunks.add(old.chunks.get(i));
+                        vectors.add(old.vector(i));
+                    }
+                } else {
+                    changed = true;
+                    embeddedFiles++;
+                    String text;
+                    try {
+                        text = Files.readString(path, StandardCharsets.UTF_8);
+                    } catch (CharacterCodingException e) {
+                        // 仍然记录该文件，文件修改之前不再重复尝试
+                        plugin.getLogger().warning("Skipping knowledge file " + name + ", it is not UTF-8 text.");
+                        text = "";
+                    }
+                    for (String piece : split(text, chunkChars)) {
+                        float[] vector = normalize(ollamaClient.embed(model, piece));
+                        if (vector == null) {
+                            continue;
+                        }
+                        if (!vectors.isEmpty() && vector.length != vectors.get(0).length) {
+                            throw new IOException("Embedding dimension changed while indexing");
+                        }
+                        chunks.add(new Chunk(name, piece));
+                        vectors.add(vector);
+                    }
+                }
+                files.put(name, new FileEntry(size, modified, first, chunks.size() - first));
+            }
+            if (!changed) {
+                return;
+            }
+            Index updated = writeIndex(model, chunkChars, files, chunks, vectors);
+            index = updated;
+            pausedUntil = 0;
+            deleteVectorFile(old.vectorFile);
+            plugin.getLogger().info("Knowledge base indexed: " + files.size() + " files, " + chunks.size()
+                    + " chunks, " + embeddedFiles + " files embedded.");
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to index knowledge base, keeping the previous index: " + e.getMessage());
+        }
+    }
+
+    private List<Path> listFiles() throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(folder)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return name.endsWith(".md") || name.endsWith(".markdown") || name.endsWith(".txt");
+                    })
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * 把文件内容按段落切分成片段。相邻的段落合并到同一个片段中，直到超过最大长度；
+     * 超过最大长度的段落按长度截断。片段位于 Markdown 标题之下时，片段开头带上该标题，便于检索和理解。
+     *
+     * @param text       文件内容
+     * @param chunkChars 每个片段的最大字符数
+     * @return 片段
+     */
+    static List<String> split(String text, int chunkChars) {
+        List<String> pieces = new ArrayList<>();
+        String heading = null;
+        StringBuilder current = new StringBuilder();
+        for (String paragraph : text.replace("\r\n", "\n").split("\n\\s*\n")) {
+            paragraph = paragraph.strip();
+            if (paragraph.isEmpty()) {
+                continue;
+            }
+            if (paragraph.startsWith("#")) {
+                // 新的标题开始新的片段
+                flush(pieces, current);
+                int end = paragraph.indexOf('\n');
+                heading = end < 0 ? paragraph : paragraph.substring(0, end);
+                if (end < 0) {
+                    continue;
+                }
+                paragraph = paragraph.substring(end + 1).strip();
+            }
+            if (current.length() > 0 && current.length() + paragraph.length() + 2 > chunkChars) {
+                flush(pieces, current);
+            }
+            if (current.length() == 0 && heading != null) {
+                current.append(heading).append('\n');
+            }
+            while (current.length() + paragraph.length() > chunkChars) {
+                int room = Math.max(1, chunkChars - current.length());
+                current.append(paragraph, 0, Math.min(room, paragraph.length()));
+                paragraph = paragraph.substring(Math.min(room, paragraph.length()));
+                flush(pieces, current);
+                if (heading != null) {
+                    current.append(heading).append('\n');
+                }
+            }
+            if (!paragraph.isEmpty()) {
+                if (current.length() > 0 && current.charAt(current.length() - 1) != '\n') {
+                    current.append("\n\n");
+                }
+                current.append(paragraph);
+            }
+        }
+        flush(pieces, current);
+        return pieces;
+    }
+
+    private static void flush(List<String> pieces, StringBuilder current) {
+        String piece = current.toString().strip();
+        // 只有标题的片段没有检索的意义
+        if (!piece.isEmpty() && !(piece.startsWith("#") && piece.indexOf('\n') < 0)) {
+            pieces.add(piece);
+        }
+        current.setLength(0);
+    }
+
+    /**
+     * 写入新的向量文件和索引文件，并映射新的向量文件。向量文件每次使用新的文件名，
+     * 旧的向量文件在切换后删除，正在检索的线程仍然可以读取旧的映射。
+     */
+    private Index writeIndex(String model, int chunkChars, Map<String, FileEntry> files, List<Chunk> chunks,
+                             List<float[]> vectors) throws IOException {
+        Files.createDirectories(indexFolder);
+        int dimension = vectors.isEmpty() ? 0 : vectors.get(0).length;
+        String vectorFile = "knowledge-" + System.currentTimeMillis() + ".vec";
+        Path vectorPath = indexFolder.resolve(vectorFile);
+        try (FileChannel channel = FileChannel.open(vectorPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(VECTOR_HEADER_BYTES, dimension * Float.BYTES))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(dimension).putInt(vectors.size()).flip();
+            writeFully(channel, buffer);
+            for (float[] vector : vectors) {
+                buffer.clear();
+                buffer.asFloatBuffer().put(vector);
+                buffer.limit(dimension * Float.BYTES);
+                writeFully(channel, buffer);
+            }
+            channel.force(false);
+        }
+
+        Path metaPath = indexFolder.resolve("knowledge.meta");
+        Path tempPath = indexFolder.resolve("knowledge.meta.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            writeString(out, model);
+            out.writeInt(chunkChars);
+            writeString(out, vectorFile);
+            out.writeInt(files.size());
+            for (Map.Entry<String, FileEntry> entry : files.entrySet()) {
+                FileEntry file = entry.getValue();
+                writeString(out, entry.getKey());
+                out.writeLong(file.size);
+                out.writeLong(file.modified);
+                out.writeInt(file.chunkCount);
+                for (int i = file.firstChunk; i < file.firstChunk + file.chunkCount; i++) {
+                    writeString(out, chunks.get(i).text);
+                }
+            }
+        }
+        Files.move(tempPath, metaPath, StandardCopyOption.REPLACE_EXISTING);
+        return new Index(model, chunkChars, files, chunks, map(vectorPath, dimension, vectors.size()), dimension,
+                vectorFile);
+    }
+
+    /**
+     * 加载上次保存的索引，使重启后无需重新计算未变化的文件。索引文件不存在或格式不符时使用空索引。
+     */
+    private void loadIndex() {
+        Path metaPath = indexFolder.resolve("knowledge.meta");
+        if (!Files.exists(metaPath)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(metaPath)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                plugin.getLogger().warning("Ignoring knowledge index with an unknown format.");
+                return;
+            }
+            String model = readString(in);
+            int chunkChars = in.readInt();
+            String vectorFile = readString(in);
+            int fileCount = in.readInt();
+            Map<String, FileEntry> files = new LinkedHashMap<>();
+            List<Chunk> chunks = new ArrayList<>();
+            for (int i = 0; i < fileCount; i++) {
+                String name = readString(in);
+                long size = in.readLong();
+                long modified = in.readLong();
+                int chunkCount = in.readInt();
+                files.put(name, new FileEntry(size, modified, chunks.size(), chunkCount));
+                for (int j = 0; j < chunkCount; j++) {
+                    chunks.add(new Chunk(name, readString(in)));
+                }
+            }
+            Path vectorPath = indexFolder.resolve(vectorFile);
+            FloatBuffer vectors;
+            int dimension;
+            try (FileChannel channel = FileChannel.open(vectorPath, StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(VECTOR_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() < VECTOR_HEADER_BYTES || header.getInt() != INDEX_MAGIC
+                        || header.getInt() != INDEX_VERSION) {
+                    plugin.getLogger().warning("Ignoring knowledge vectors with an unknown format.");
+                    return;
+                }
+                dimension = header.getInt();
+                if (header.getInt() != chunks.size()) {
+                    plugin.getLogger().warning("Ignoring knowledge index that does not match its vectors.");
+                    return;
+                }
+            }
+            vectors = map(vectorPath, dimension, chunks.size());
+            index = new Index(model, chunkChars, files, chunks, vectors, dimension, vectorFile);
+            deleteStaleVectorFiles(vectorFile);
+            plugin.getLogger().info("Loaded knowledge index: " + files.size() + " files, " + chunks.size() + " chunks.");
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to load knowledge index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 以只读方式映射向量文件，映射在关闭文件后仍然有效。向量固定按小端序保存，在常见的 x86 和 ARM 服务器上无需转换字节序。
+     */
+    private static FloatBuffer map(Path vectorPath, int dimension, int count) throws IOException {
+        long length = (long) dimension * count * Float.BYTES;
+        try (FileChannel channel = FileChannel.open(vectorPath, StandardOpenOption.READ)) {
+            if (channel.size() < VECTOR_HEADER_BYTES + length) {
+                throw new IOException("Knowledge vector file " + vectorPath.getFileName() + " is truncated");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, VECTOR_HEADER_BYTES, length);
+            return mapped.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        }
+    }
+
+    private void deleteVectorFile(String vectorFile) {
+        if (vectorFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(indexFolder.resolve(vectorFile));
+        } catch (IOException e) {
+            // 部分系统不允许删除仍被映射的文件，下次启动时再清理
+        }
+    }
+
+    private void deleteStaleVectorFiles(String currentFile) {
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(indexFolder, "knowledge-*.vec")) {
+            for (Path path : stale) {
+                if (!path.getFileName().toString().equals(currentFile)) {
+                    deleteVectorFile(path.getFileName().toString());
+                }
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to clean up old knowledge vectors: " + e.getMessage());
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 把向量缩放为单位向量，之后的余弦相似度就是点积。
+     *
+     * @param vector 原始向量，会被直接修改
+     * @return 单位向量，向量长度为 0 时返回 null
+     */
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += (double) value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    /**
+     * Chunk 类表示知识库中的一个片段。
+     */
+    public static final class Chunk {
+
+        // 片段所在的文件，相对于 knowledge 文件夹
+        private final String source;
+        // 片段的内容
+        private final String text;
+
+        Chunk(String source, String text) {
+            this.source = source;
+            this.text = text;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * FileEntry 类记录一个已索引的文件，用于判断文件是否发生变化。
+     */
+    private static final class FileEntry {
+
+        // 建立索引时的文件大小和修改时间
+        private final long size;
+        private final long modified;
+        // 该文件的第一个片段在索引中的位置，以及片段数
+        private final int firstChunk;
+        private final int chunkCount;
+
+        FileEntry(long size, long modified, int firstChunk, int chunkCount) {
+            this.size = size;
+            this.modified = modified;
+            this.firstChunk = firstChunk;
+            this.chunkCount = chunkCount;
+        }
+    }
+
+    /**
+     * Index 类是一份不可变的索引，片段的内容保存在内存中，向量保存在映射的向量文件中。
+     */
+    private static final class Index {
+
+        private static final Index EMPTY = new Index(null, 0, Map.of(), List.of(), null, 0, null);
+
+        // 计算向量使用的嵌入模型和片段长度
+        private final String model;
+        private final int chunkChars;
+        // 已索引的文件，键为相对于 knowledge 文件夹的路径
+        private final Map<String, FileEntry> files;
+        // 所有片段，第 i 个片段的向量位于 [i * dimension, (i + 1) * dimension)
+        private final List<Chunk> chunks;
+        private final FloatBuffer vectors;
+        private final int dimension;
+        // 向量文件的文件名
+        private final String vectorFile;
+
+        Index(String model, int chunkChars, Map<String, FileEntry> files, List<Chunk> chunks, FloatBuffer vectors,
+              int dimension, String vectorFile) {
+            this.model = model;
+            this.chunkChars = chunkChars;
+            this.files = files;
+            this.chunks = chunks;
+            this.vectors = vectors;
+            this.dimension = dimension;
+            this.vectorFile = vectorFile;
+        }
+
+        /**
+         * 计算第 i 个片段的向量与问题向量的点积。使用绝对位置读取，多个线程可以同时检索。
+         */
+        double dot(int i, float[] query) {
+            int offset = i * dimension;
+            float sum = 0;
+            for (int j = 0; j < dimension; j++) {
+                sum += vectors.get(offset + j) * query[j];
+            }
+            return sum;
+        }
+
+        /**
+         * 复制第 i 个片段的向量，用于写入新的向量文件。
+         */
+        float[] vector(int i) {
+            float[] vector = new float[dimension];
+            vectors.get(i * dimension, vector);
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package top.tiku;
+
+/**
+ * LlmBackend 接口是所有大模型后端的公共接口，
+ * OllamaClient 和 NewAPIClient 都实现了该接口，由 BackendRegistry 统一管理。
+ */
+public interface LlmBackend {
+
+    /**
+     * 获取后端名称，与配置文件中 api-type 的取值对应。
+     *
+     * @return 后端名称
+     */
+    String getName();
+
+    /**
+     * 获取后端当前使用的模型。
+     *
+     * @return 当前使用的模型名称
+     */
+    String getModel();
+
+    /**
+     * 判断后端是否支持边生成边返回的流式输出。
+     *
+     * @return 支持流式输出时返回 true
+     */
+    boolean supportsStreaming();
+
+    /**
+     * 发送请求并等待完整的回复。
+     *
+     * @param userMessage 用户输入的消息
+     * @return 后端返回的回复内容，如果出现异常则返回错误信息
+     */
+    String sendRequest(String userMessage);
+
+    /**
+     * 发送请求，并通过回调依次接收生成的文本。
+     * 不支持流式输出的后端会在拿到完整回复后一次性回调，不支持多轮对话的后端会忽略请求中的会话。
+     *
+     * @param request  聊天请求，包含用户消息和可选的对话会话
+     * @param callback 接收生成文本和结束事件的回调
+     */
+    void streamRequest(ChatRequest request, StreamCallback callback);
+}
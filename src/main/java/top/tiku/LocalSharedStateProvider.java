@@ -0,0 +1,106 @@
+package top.tiku;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LocalSharedStateProvider 类是只在当前服务器内共享的状态，用于单个服务器和测试。
+ * 条目保存在内存中，过期的条目在访问时或条目过多时清理。
+ */
+public class LocalSharedStateProvider implements SharedStateProvider {
+
+    // 条目数超过该值时在写入前清理一次过期的条目
+    private static final int SWEEP_THRESHOLD = 10_000;
+
+    // 所有条目，值为字符串或计数器
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public boolean isDistributed() {
+        return false;
+    }
+
+    @Override
+    public String get(String key) {
+        Entry entry = live(key);
+        return entry == null ? null : entry.value;
+    }
+
+    @Override
+    public void put(String key, String value, long ttlMillis) {
+        sweepIfLarge();
+        entries.put(key, new Entry(value, 0, System.currentTimeMillis() + ttlMillis));
+    }
+
+    @Override
+    public boolean tryLock(String key, long ttlMillis) {
+        sweepIfLarge();
+        long now = System.currentTimeMillis();
+        Entry created = new Entry("", 0, now + ttlMillis);
+        return entries.compute(key, (k, existing) -> existing != null && existing.expiresAt > now ? existing : created)
+                == created;
+    }
+
+    @Override
+    public void unlock(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public long increment(String key, long amount, long ttlMillis) {
+        sweepIfLarge();
+        long now = System.currentTimeMillis();
+        return entries.compute(key, (k, existing) -> {
+            long current = existing != null && existing.expiresAt > now ? existing.counter : 0;
+            return new Entry(null, current + amount, now + ttlMillis);
+        }).counter;
+    }
+
+    @Override
+    public String describe() {
+        return "local";
+    }
+
+    @Override
+    public void close() {
+        entries.clear();
+    }
+
+    /**
+     * 获取未过期的条目，并顺便移除已过期的条目。
+     */
+    private Entry live(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void sweepIfLarge() {
+        if (entries.size() > SWEEP_THRESHOLD) {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+    }
+
+    /**
+     * Entry 类表示一个值或计数器及其过期时间，不可变。
+     */
+    private static final class Entry {
+
+        // 字符串值，计数器为 null
+        private final String value;
+        // 计数器的值
+        private final long counter;
+        // 过期时间（毫秒时间戳）
+        private final long expiresAt;
+
+        Entry(String value, long counter, long expiresAt) {
+            this.value = value;
+            this.counter = counter;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package top.tiku;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * MetricsHistogram 类是固定分桶的直方图，记录时只增加一个桶的计数，不加锁，可以在任意线程中调用。
+ * 分位数按桶内线性插值估算，精度取决于桶的划分。
+ */
+public class MetricsHistogram {
+
+    // 各个桶的上界（包含），按升序排列，最后还有一个不设上界的溢出桶
+    private final double[] bounds;
+    // 每个桶的计数，长度为 bounds.length + 1
+    private final LongAdder[] counts;
+    // 所有记录值的总和
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * 构造函数，初始化 MetricsHistogram 实例。
+     *
+     * @param bounds 各个桶的上界，按升序排列
+     */
+    public MetricsHistogram(double... bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一个值。
+     *
+     * @param value 要记录的值
+     */
+    public void record(double value) {
+        int index = 0;
+        while (index < bounds.length && value > bounds[index]) {
+            index++;
+        }
+        counts[index].increment();
+        sum.add(value);
+    }
+
+    /**
+     * 获取记录的次数。
+     *
+     * @return 记录的次数
+     */
+    public long getCount() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * 获取所有记录值的平均值。
+     *
+     * @return 平均值，没有记录时返回 0
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0.0 : sum.sum() / count;
+    }
+
+    /**
+     * 估算分位数。落在溢出桶中的分位数返回最大的桶上界。
+     *
+     * @param quantile 分位，范围从 0.0 到 1.0，例如 0.95
+     * @return 估算的分位数，没有记录时返回 0
+     */
+    public double getQuantile(double quantile) {
+        long[] snapshot = new long[counts.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        double rank = quantile * total;
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            if (snapshot[i] > 0 && seen + snapshot[i] >= rank) {
+                double lower = i == 0 ? 0.0 : bounds[i - 1];
+                return lower + (bounds[i] - lower) * (rank - seen) / snapshot[i];
+            }
+            seen += snapshot[i];
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    /**
+     * 以 Prometheus 文本格式输出直方图，桶计数是累计值。
+     *
+     * @param out  输出的目标
+     * @param name 指标名称
+     * @param help 指标说明
+     */
+    public void writePrometheus(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < counts.length; i++) {
+            cumulative += counts[i].sum();
+            String le = i < bounds.length ? format(bounds[i]) : "+Inf";
+            out.append(name).append("_bucket{le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%s", value);
+    }
+}
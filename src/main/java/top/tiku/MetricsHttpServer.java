@@ -0,0 +1,89 @@
+package top.tiku;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MetricsHttpServer 类在本地端口上提供 /metrics 接口，以 Prometheus 文本格式导出插件的运行指标。
+ * 使用 JDK 自带的 HTTP 服务器，请求在单个后台线程中处理，不会占用主线程。
+ */
+public class MetricsHttpServer {
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 要导出的指标
+    private final PluginMetrics metrics;
+    // HTTP 服务器，未启动时为 null
+    private HttpServer server;
+    // 处理请求的后台线程
+    private ExecutorService executor;
+
+    /**
+     * 构造函数，初始化 MetricsHttpServer 实例。
+     *
+     * @param plugin  插件实例
+     * @param metrics 要导出的指标
+     */
+    public MetricsHttpServer(JavaPlugin plugin, PluginMetrics metrics) {
+        this.plugin = plugin;
+        this.metrics = metrics;
+    }
+
+    /**
+     * 在指定的地址和端口上启动 HTTP 服务器。启动失败时只记录日志，不影响插件的其他功能。
+     *
+     * @param host 监听的地址，默认只监听本机
+     * @param port 监听的端口
+     */
+    public void start(String host, int port) {
+        try {
+            server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to start metrics endpoint on " + host + ":" + port + ": " + e.getMessage());
+            return;
+        }
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        plugin.getLogger().info("Metrics endpoint listening on http://" + host + ":" + port + "/metrics");
+    }
+
+    /**
+     * 停止 HTTP 服务器。
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
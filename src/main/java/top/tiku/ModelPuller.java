@@ -0,0 +1,240 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ModelPuller 类通过 Ollama 的 /api/pull 接口在异步线程中下载模型，
+ * 从返回的 NDJSON 数据块中读取下载进度，并限速在主线程上更新发起者的 Boss 血条。
+ * 下载完成后模型会自动加入 available_models。
+ */
+public class ModelPuller {
+
+    // 两次更新进度之间的最短间隔（毫秒）
+    private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+    // 插件实例，用于调度任务和记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于登记下载完成的模型
+    private final ConfigManager configManager;
+    // 共享的 HTTP 传输层
+    private final HttpTransport transport;
+    // Ollama 服务节点池，模型会下载到每个健康的节点上
+    private final OllamaEndpointPool endpointPool;
+    // 内置 Ollama 进程的监控器，下载前等待服务就绪
+    private final OllamaProcessSupervisor processSupervisor;
+    // 显示下载进度的 Boss 血条管理器
+    private final BossBarManager bossBarManager;
+    // 正在下载的模型
+    private final Set<String> pullingModels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 构造函数，初始化 ModelPuller 实例。
+     *
+     * @param plugin            插件实例
+     * @param configManager     配置管理器
+     * @param transport         共享的 HTTP 传输层
+     * @param endpointPool      Ollama 服务节点池
+     * @param processSupervisor 内置 Ollama 进程的监控器
+     * @param bossBarManager    Boss 血条管理器
+     */
+    public ModelPuller(JavaPlugin plugin, ConfigManager configManager, HttpTransport transport,
+                       OllamaEndpointPool endpointPool, OllamaProcessSupervisor processSupervisor,
+                       BossBarManager bossBarManager) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.transport = transport;
+        this.endpointPool = endpointPool;
+        this.processSupervisor = processSupervisor;
+        this.bossBarManager = bossBarManager;
+    }
+
+    /**
+     * 在异步线程中下载模型，应在主线程中调用。玩家发起时以 Boss 血条显示进度，其他发送者按每 10% 收到一条进度消息。
+     *
+     * @param sender 发起下载的命令发送者
+     * @param model  要下载的模型名称
+     * @return 该模型已在下载中时返回 false
+     */
+    public boolean pull(CommandSender sender, String model) {
+        if (!pullingModels.add(model)) {
+            return false;
+        }
+        Player player = sender instanceof Player ? (Player) sender : null;
+        if (player != null) {
+            bossBarManager.showBossBar(player, model, "正在下载模型: " + model);
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            String error;
+            try {
+                error = pullOnAllEndpoints(sender, player, model);
+            } finally {
+                pullingModels.remove(model);
+            }
+            plugin.getServer().getScheduler().runTask(plugin, () -> finish(sender, player, model, error));
+        });
+        return true;
+    }
+
+    /**
+     * 判断模型是否正在下载。
+     *
+     * @param model 模型名称
+     * @return 正在下载时返回 true
+     */
+    public boolean isPulling(String model) {
+        return pullingModels.contains(model);
+    }
+
+    /**
+     * 在每个健康的节点上依次下载模型。
+     *
+     * @return 下载失败时返回错误信息，成功时返回 null
+     */
+    private String pullOnAllEndpoints(CommandSender sender, Player player, String model) {
+        if (!processSupervisor.awaitReady()) {
+            return "Ollama 服务尚未就绪";
+        }
+        List<OllamaEndpointPool.Endpoint> endpoints = new ArrayList<>();
+        for (OllamaEndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            if (endpoint.isHealthy()) {
+                endpoints.add(endpoint);
+            }
+        }
+        if (endpoints.isEmpty()) {
+            return "没有可用的 Ollama 节点";
+        }
+        for (int i = 0; i < endpoints.size(); i++) {
+            OllamaEndpointPool.Endpoint endpoint = endpoints.get(i);
+            String label = endpoints.size() > 1 ? " (节点 " + (i + 1) + "/" + endpoints.size() + ")" : "";
+            try {
+                if (!pullFrom(endpoint, sender, player, model, label)) {
+                    return "下载在完成之前中断";
+                }
+            } catch (IOException | JSONException e) {
+                plugin.getLogger().warning("Failed to pull " + model + " on " + endpoint.getBaseUrl() + ": " + e.getMessage());
+                return e.getMessage();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在一个节点上下载模型，逐行读取 /api/pull 返回的 NDJSON 数据块并汇报进度。
+     * 模型由多个分层组成，总进度按所有已出现分层的 completed 与 total 之和计算。
+     *
+     * @return 收到 success 状态时返回 true
+     * @throws IOException 请求失败或 Ollama 返回错误时抛出
+     */
+    private boolean pullFrom(OllamaEndpointPool.Endpoint endpoint, CommandSender sender, Player player,
+                             String model, String label) throws IOException {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", model);
+        requestBody.put("stream", true);
+
+        return transport.postJsonUnbounded(endpoint.getBaseUrl() + "/api/pull", requestBody, null, response -> {
+            Map<String, Long> totals = new HashMap<>();
+            Map<String, Long> completed = new HashMap<>();
+            long lastReport = 0;
+            String lastStatus = "";
+            int lastDecile = -1;
+            try (BufferedReader br = new BufferedReader(
+                    new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8))) {
+                String responseLine;
+                while ((responseLine = br.readLine()) != null) {
+                    if (responseLine.isBlank()) {
+                        continue;
+                    }
+                    JSONObject chunk = new JSONObject(responseLine);
+                    if (chunk.has("error")) {
+                        throw new IOException(chunk.getString("error"));
+                    }
+                    String status = chunk.optString("status", "");
+                    if ("success".equals(status)) {
+                        return true;
+                    }
+                    String digest = chunk.optString("digest", "");
+                    if (!digest.isEmpty() && chunk.has("total")) {
+                        totals.put(digest, chunk.optLong("total"));
+                        completed.put(digest, chunk.optLong("completed"));
+                    }
+
+                    // 状态变化时立即汇报，否则限制汇报频率
+                    long now = System.currentTimeMillis();
+                    if (status.equals(lastStatus) && now - lastReport < PROGRESS_INTERVAL_MILLIS) {
+                        continue;
+                    }
+                    lastReport = now;
+                    lastStatus = status;
+                    double progress = fraction(totals, completed);
+                    if (player != null) {
+                        String title = "正在下载模型 " + model + label + ": " + shortStatus(status)
+                                + " " + Math.round(progress * 100) + "%";
+                        plugin.getServer().getScheduler().runTask(plugin,
+                                () -> bossBarManager.updateBossBar(player, model, title, progress));
+                    } else {
+                        int decile = (int) (progress * 10);
+                        if (decile > lastDecile) {
+                            lastDecile = decile;
+                            String message = "模型 " + model + label + " 下载进度: " + decile * 10 + "%";
+                            plugin.getServer().getScheduler().runTask(plugin, () -> sender.sendMessage(message));
+                        }
+                    }
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 下载结束后在主线程上调用：隐藏血条、登记模型并通知发起者。
+     */
+    private void finish(CommandSender sender, Player player, String model, String error) {
+        if (player != null) {
+            bossBarManager.hideBossBar(player, model);
+        }
+        if (error != null) {
+            sender.sendMessage("下载模型 " + model + " 失败: " + error);
+            return;
+        }
+        configManager.addAvailableModel(model);
+        plugin.getLogger().info("Model " + model + " pulled successfully.");
+        sender.sendMessage("模型 " + model + " 下载成功。");
+        sender.sendMessage("你可以使用 /ollama setmodel " + model + " 命令来启用该模型。");
+    }
+
+    private static double fraction(Map<String, Long> totals, Map<String, Long> completed) {
+        long total = 0;
+        long done = 0;
+        for (Map.Entry<String, Long> entry : totals.entrySet()) {
+            total += entry.getValue();
+            done += Math.min(entry.getValue(), completed.getOrDefault(entry.getKey(), 0L));
+        }
+        return total > 0 ? (double) done / total : 0.0;
+    }
+
+    /**
+     * 去掉状态中的分层摘要，例如把 "pulling 8eeb52dfb3bb" 显示为 "pulling"。
+     */
+    private static String shortStatus(String status) {
+        int space = status.indexOf(' ');
+        if (space > 0 && status.startsWith("pulling ") && status.length() - space > 8) {
+            return status.substring(0, space);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,100 @@
+package top.tiku;
+
+import org.apache.http.util.EntityUtils;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ModelResidencyTracker 类定期通过 /api/ps 查询各个 Ollama 节点当前已加载到内存中的模型，
+ * 供请求执行器优先处理无需切换模型的请求。
+ */
+public class ModelResidencyTracker {
+
+    // 查询请求的超时时间（毫秒）
+    private static final int POLL_TIMEOUT_MILLIS = 3000;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 共享的 HTTP 传输层
+    private final HttpTransport transport;
+    // Ollama 服务节点池
+    private final OllamaEndpointPool endpointPool;
+    // 所有节点上已加载的模型名称，整体替换以保证读取时无需加锁
+    private volatile Set<String> residentModels = Set.of();
+
+    /**
+     * 构造函数，初始化 ModelResidencyTracker 实例。
+     *
+     * @param plugin       插件实例
+     * @param transport    共享的 HTTP 传输层
+     * @param endpointPool Ollama 服务节点池
+     */
+    public ModelResidencyTracker(JavaPlugin plugin, HttpTransport transport, OllamaEndpointPool endpointPool) {
+        this.plugin = plugin;
+        this.transport = transport;
+        this.endpointPool = endpointPool;
+    }
+
+    /**
+     * 查询所有健康节点上已加载的模型，应在异步线程中定期调用。
+     */
+    public void poll() {
+        Set<String> models = new HashSet<>();
+        for (OllamaEndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            if (!endpoint.isHealthy()) {
+                continue;
+            }
+            try {
+                String body = transport.get(endpoint.getBaseUrl() + "/api/ps", POLL_TIMEOUT_MILLIS,
+                        response -> EntityUtils.toString(response.getEntity(), "UTF-8"));
+                JSONArray loaded = new JSONObject(body).optJSONArray("models");
+                if (loaded == null) {
+                    continue;
+                }
+                for (int i = 0; i < loaded.length(); i++) {
+                    JSONObject model = loaded.getJSONObject(i);
+                    models.add(normalize(model.optString("name", model.optString("model"))));
+                }
+            } catch (IOException | JSONException e) {
+                plugin.getLogger().fine("Failed to query loaded models from " + endpoint.getBaseUrl() + ": " + e.getMessage());
+            }
+        }
+        residentModels = Set.copyOf(models);
+    }
+
+    /**
+     * 判断模型是否已加载到某个节点的内存中。
+     *
+     * @param model 模型名称
+     * @return 已加载时返回 true
+     */
+    public boolean isResident(String model) {
+        return model != null && residentModels.contains(normalize(model));
+    }
+
+    /**
+     * 补全模型名称中省略的标签。/api/ps 返回的名称总是带标签，例如配置中的 llama2 显示为 llama2:latest。
+     * 只检查最后一个 / 之后的部分，仓库地址中的端口号不是标签。
+     *
+     * @param model 模型名称
+     * @return 带标签的模型名称
+     */
+    static String normalize(String model) {
+        return model.indexOf(':', model.lastIndexOf('/') + 1) >= 0 ? model : model + ":latest";
+    }
+
+    /**
+     * 获取所有已加载的模型名称。
+     *
+     * @return 模型名称集合
+     */
+    public Set<String> getResidentModels() {
+        return residentModels;
+    }
+}
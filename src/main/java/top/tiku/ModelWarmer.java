@@ -0,0 +1,72 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ModelWarmer 类负责在插件启用和切换模型或模式后，在异步线程中预加载 Ollama 模型，
+ * 并记录正在预热的模型，以便在预热完成前提示玩家首次回复可能较慢。
+ */
+public class ModelWarmer {
+
+    // 插件实例，用于调度任务和记录日志
+    private final JavaPlugin plugin;
+    // 负责发送预加载请求的 Ollama 客户端
+    private final OllamaClient ollamaClient;
+    // 正在预热的模型
+    private final Set<String> warmingModels = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 构造函数，初始化 ModelWarmer 实例。
+     *
+     * @param plugin       插件实例
+     * @param ollamaClient 负责发送预加载请求的 Ollama 客户端
+     */
+    public ModelWarmer(JavaPlugin plugin, OllamaClient ollamaClient) {
+        this.plugin = plugin;
+        this.ollamaClient = ollamaClient;
+    }
+
+    /**
+     * 在异步线程中预热模型。该模型已在预热时不会重复发送请求。
+     *
+     * @param model    要预热的模型
+     * @param numCtx   加载模型时使用的上下文长度，应与默认生成档位相同，0 表示使用 Ollama 的默认值
+     * @param notifier 预热结束后接收通知的命令发送者，可以为 null
+     */
+    public void warmUp(String model, int numCtx, CommandSender notifier) {
+        if (!warmingModels.add(model)) {
+            return;
+        }
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            plugin.getLogger().info("Warming up model " + model + "...");
+            long start = System.currentTimeMillis();
+            boolean loaded;
+            try {
+                loaded = ollamaClient.preload(model, numCtx);
+            } finally {
+                warmingModels.remove(model);
+            }
+            if (loaded) {
+                plugin.getLogger().info("Model " + model + " warmed up in " + (System.currentTimeMillis() - start) + " ms.");
+            }
+            if (notifier != null) {
+                String message = loaded ? "模型 " + model + " 预热完成。" : "模型 " + model + " 预热失败，首次回复可能较慢。";
+                plugin.getServer().getScheduler().runTask(plugin, () -> notifier.sendMessage(message));
+            }
+        });
+    }
+
+    /**
+     * 判断模型是否正在预热。
+     *
+     * @param model 模型名称
+     * @return 正在预热时返回 true
+     */
+    public boolean isWarming(String model) {
+        return warmingModels.contains(model);
+    }
+}
@@ -0,0 +1,594 @@
+package top.tiku;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * NdjsonStreamDecoder 类直接在字节流上解码 Ollama 返回的 NDJSON 数据块，只取出插件使用的字段：
+ * response、message.content、done、error、context 和生成统计，其余字段跳过而不创建任何对象。
+ * 数据块按换行符切分后再解码，多字节的 UTF-8 字符被拆分到两次读取中也不会出错。
+ * 读取缓冲区和转义缓冲区在整条流中复用，每个数据块通常只分配生成的文本字符串本身。
+ * 该类不是线程安全的，每条流使用一个实例。
+ */
+public final class NdjsonStreamDecoder {
+
+    // 字段名的 UTF-8 字节，用于直接与数据块中的字节比较
+    private static final byte[] RESPONSE = ascii("response");
+    private static final byte[] MESSAGE = ascii("message");
+    private static final byte[] CONTENT = ascii("content");
+    private static final byte[] DONE = ascii("done");
+    private static final byte[] ERROR = ascii("error");
+    private static final byte[] CONTEXT = ascii("context");
+    private static final byte[] TRUE = ascii("true");
+    // 最后一个数据块中的生成统计，原样放入 onComplete 的数据块
+    private static final String[] STAT_NAMES = {
+            "total_duration", "load_duration", "prompt_eval_count", "prompt_eval_duration", "eval_count", "eval_duration"
+    };
+    private static final byte[][] STAT_KEYS = new byte[STAT_NAMES.length][];
+
+    static {
+        for (int i = 0; i < STAT_NAMES.length; i++) {
+            STAT_KEYS[i] = ascii(STAT_NAMES[i]);
+        }
+    }
+
+    // 响应体的输入流
+    private final InputStream in;
+    // 是否是 /api/chat 的响应，决定从 message.content 还是 response 读取文本
+    private final boolean chatMode;
+    // 读取缓冲区，一行放不下时扩容
+    private byte[] buffer = new byte[8192];
+    // 缓冲区中尚未处理的数据的起始位置
+    private int start;
+    // 缓冲区中有效数据的结束位置
+    private int limit;
+    // 输入流是否已经读完
+    private boolean eof;
+    // 解析时的当前位置，以及当前数据块的起始和结束位置
+    private int pos;
+    private int lineStart;
+    private int end;
+    // 含有转义字符的字符串先还原到这里，再整体按 UTF-8 解码
+    private byte[] scratch = new byte[256];
+
+    // 当前数据块中的字段
+    private String token;
+    private String error;
+    private boolean done;
+    private int[] context = new int[0];
+    private int contextLength;
+    private boolean hasContext;
+    private final long[] stats = new long[STAT_NAMES.length];
+    // 当前数据块中出现过的统计字段，每一位对应 STAT_NAMES 中的一项
+    private int statsPresent;
+
+    /**
+     * 构造函数，初始化 NdjsonStreamDecoder 实例。
+     *
+     * @param in       响应体的输入流
+     * @param chatMode 是否是 /api/chat 的响应
+     */
+    public NdjsonStreamDecoder(InputStream in, boolean chatMode) {
+        this.in = in;
+        this.chatMode = chatMode;
+    }
+
+    /**
+     * 读取并解码下一个非空的数据块。
+     *
+     * @return 读到数据块时返回 true，流已结束时返回 false
+     * @throws IOException   读取失败时抛出
+     * @throws JSONException 数据块不是合法的 JSON 对象时抛出
+     */
+    public boolean next() throws IOException {
+        while (nextLine()) {
+            skipWhitespace();
+            if (pos < end) {
+                lineStart = pos;
+                parseChunk();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取当前数据块中生成的文本。
+     *
+     * @return 生成的文本，没有时返回空字符串
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * 获取当前数据块中的错误信息，Ollama 在生成过程中出错时会返回带 error 字段的数据块。
+     *
+     * @return 错误信息，没有时返回 null
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * 判断当前数据块是否是回复的最后一个数据块。
+     *
+     * @return done 为 true 时返回 true
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * 用当前数据块中的 done、context 和生成统计创建 JSON 对象，供 {@link StreamCallback#onComplete} 使用。
+     * 每条回复只调用一次，context 在这里才转换成 JSONArray。
+     *
+     * @return 只包含插件使用的字段的数据块
+     */
+    public JSONObject toFinalChunk() {
+        JSONObject chunk = new JSONObject();
+        chunk.put("done", done);
+        if (hasContext) {
+            JSONArray array = new JSONArray();
+            for (int i = 0; i < contextLength; i++) {
+                array.put(context[i]);
+            }
+            chunk.put("context", array);
+        }
+        for (int i = 0; i < STAT_NAMES.length; i++) {
+            if ((statsPresent & (1 << i)) != 0) {
+                chunk.put(STAT_NAMES[i], stats[i]);
+            }
+        }
+        return chunk;
+    }
+
+    /**
+     * 从缓冲区中取出下一行，缓冲区中没有完整的一行时继续从输入流读取。
+     *
+     * @return 取到一行时返回 true，此时 pos 和 end 指向该行
+     * @throws IOException 读取失败时抛出
+     */
+    private boolean nextLine() throws IOException {
+        int scan = start;
+        while (true) {
+            for (int i = scan; i < limit; i++) {
+                if (buffer[i] == '\n') {
+                    pos = start;
+                    end = i;
+                    start = i + 1;
+                    return true;
+                }
+            }
+            scan = limit;
+            if (eof) {
+                // 最后一行可能没有换行符
+                if (start < limit) {
+                    pos = start;
+                    end = limit;
+                    start = limit;
+                    return true;
+                }
+                return false;
+            }
+            // 把未处理的数据移到缓冲区开头，仍然放不下时扩容
+            if (start > 0) {
+                System.arraycopy(buffer, start, buffer, 0, limit - start);
+                scan -= start;
+                limit -= start;
+                start = 0;
+            }
+            if (limit == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+            } else {
+                limit += read;
+            }
+        }
+    }
+
+    /**
+     * 解码 pos 到 end 之间的一个 JSON 对象，只保留需要的字段。
+     */
+    private void parseChunk() {
+        token = "";
+        error = null;
+        done = false;
+        hasContext = false;
+        contextLength = 0;
+        statsPresent = 0;
+
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            skipString();
+            int keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            if (!chatMode && matches(keyStart, keyLength, RESPONSE) && peek() == '"') {
+                token = readString();
+            } else if (chatMode && matches(keyStart, keyLength, MESSAGE) && peek() == '{') {
+                parseMessage();
+            } else if (matches(keyStart, keyLength, DONE)) {
+                done = readBoolean();
+            } else if (matches(keyStart, keyLength, ERROR) && peek() == '"') {
+                error = readString();
+            } else if (matches(keyStart, keyLength, CONTEXT) && peek() == '[') {
+                readContext();
+            } else if (!readStat(keyStart, keyLength)) {
+                skipValue();
+            }
+
+            skipWhitespace();
+            byte b = next("',' or '}'");
+            if (b == '}') {
+                return;
+            }
+            if (b != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * 解码 /api/chat 数据块中的 message 对象，只取出 content。
+     */
+    private void parseMessage() {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            int keyStart = pos + 1;
+            skipString();
+            int keyLength = pos - 1 - keyStart;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            if (matches(keyStart, keyLength, CONTENT) && peek() == '"') {
+                token = readString();
+            } else {
+                skipValue();
+            }
+            skipWhitespace();
+            byte b = next("',' or '}'");
+            if (b == '}') {
+                return;
+            }
+            if (b != ',') {
+                throw syntaxError("Expected ',' or '}'");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * 如果字段是生成统计之一，读取其数值。
+     *
+     * @return 字段是生成统计且值是数字时返回 true
+     */
+    private boolean readStat(int keyStart, int keyLength) {
+        byte b = peek();
+        if (b != '-' && (b < '0' || b > '9')) {
+            return false;
+        }
+        for (int i = 0; i < STAT_KEYS.length; i++) {
+            if (matches(keyStart, keyLength, STAT_KEYS[i])) {
+                stats[i] = readLong();
+                statsPresent |= 1 << i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 读取 context 数组，数值写入复用的 int 数组。
+     */
+    private void readContext() {
+        expect('[');
+        skipWhitespace();
+        hasContext = true;
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        while (true) {
+            if (contextLength == context.length) {
+                context = Arrays.copyOf(context, Math.max(256, context.length * 2));
+            }
+            context[contextLength++] = (int) readLong();
+            skipWhitespace();
+            byte b = next("',' or ']'");
+            if (b == ']') {
+                return;
+            }
+            if (b != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * 读取一个数字。Ollama 的统计和 context 都是整数，带小数或指数时按浮点数解析后取整。
+     */
+    private long readLong() {
+        int numberStart = pos;
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < end && buffer[pos] >= '0' && buffer[pos] <= '9') {
+            value = value * 10 + (buffer[pos] - '0');
+            pos++;
+            digits++;
+        }
+        if (digits == 0) {
+            throw syntaxError("Expected a number");
+        }
+        if (pos < end && (buffer[pos] == '.' || buffer[pos] == 'e' || buffer[pos] == 'E')) {
+            while (pos < end && isNumberPart(buffer[pos])) {
+                pos++;
+            }
+            String text = new String(buffer, numberStart, pos - numberStart, StandardCharsets.ISO_8859_1);
+            try {
+                return (long) Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                throw syntaxError("Invalid number " + text);
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * 读取 true 或 false，其他值（例如 null）按 false 处理。
+     */
+    private boolean readBoolean() {
+        if (matches(pos, Math.min(4, end - pos), TRUE)) {
+            pos += 4;
+            return true;
+        }
+        skipValue();
+        return false;
+    }
+
+    /**
+     * 读取一个字符串。没有转义字符时直接从读取缓冲区解码，否则先在转义缓冲区中还原字节。
+     */
+    private String readString() {
+        expect('"');
+        int stringStart = pos;
+        boolean ascii = true;
+        while (pos < end) {
+            byte b = buffer[pos];
+            if (b == '"') {
+                int length = pos - stringStart;
+                pos++;
+                // 纯 ASCII 的文本直接按单字节复制，省去 UTF-8 解码
+                return new String(buffer, stringStart, length,
+                        ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+            }
+            if (b == '\\') {
+                pos = stringStart;
+                return readEscapedString();
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+            pos++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * 读取含有转义字符的字符串。\\u 转义（包括代理对）先还原成 UTF-8 字节，最后整体解码一次。
+     */
+    private String readEscapedString() {
+        int length = 0;
+        while (true) {
+            if (pos >= end) {
+                throw syntaxError("Unterminated string");
+            }
+            byte b = buffer[pos++];
+            if (b == '"') {
+                return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            // 一个字符最多还原成 4 个字节，代理对一次写入 4 个字节
+            if (length + 4 > scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            if (b != '\\') {
+                scratch[length++] = b;
+                continue;
+            }
+            byte escaped = next("an escape character");
+            switch (escaped) {
+                case '"', '\\', '/' -> scratch[length++] = escaped;
+                case 'b' -> scratch[length++] = '\b';
+                case 'f' -> scratch[length++] = '\f';
+                case 'n' -> scratch[length++] = '\n';
+                case 'r' -> scratch[length++] = '\r';
+                case 't' -> scratch[length++] = '\t';
+                case 'u' -> {
+                    int codePoint = readHex4();
+                    // 高代理后紧跟低代理时合并成一个码点，单独出现的代理按替换字符处理
+                    if (Character.isHighSurrogate((char) codePoint) && pos + 1 < end
+                            && buffer[pos] == '\\' && buffer[pos + 1] == 'u') {
+                        int mark = pos;
+                        pos += 2;
+                        int low = readHex4();
+                        if (Character.isLowSurrogate((char) low)) {
+                            codePoint = Character.toCodePoint((char) codePoint, (char) low);
+                        } else {
+                            pos = mark;
+                        }
+                    }
+                    if (codePoint <= 0xFFFF && Character.isSurrogate((char) codePoint)) {
+                        codePoint = 0xFFFD;
+                    }
+                    length = encodeUtf8(codePoint, length);
+                }
+                default -> throw syntaxError("Invalid escape character");
+            }
+        }
+    }
+
+    private int readHex4() {
+        if (pos + 4 > end) {
+            throw syntaxError("Truncated \\u escape");
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(buffer[pos++], 16);
+            if (digit < 0) {
+                throw syntaxError("Invalid \\u escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private int encodeUtf8(int codePoint, int length) {
+        if (codePoint < 0x80) {
+            scratch[length++] = (byte) codePoint;
+        } else if (codePoint < 0x800) {
+            scratch[length++] = (byte) (0xC0 | (codePoint >> 6));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else if (codePoint < 0x10000) {
+            scratch[length++] = (byte) (0xE0 | (codePoint >> 12));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        } else {
+            scratch[length++] = (byte) (0xF0 | (codePoint >> 18));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            scratch[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            scratch[length++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        return length;
+    }
+
+    /**
+     * 跳过一个字符串，不解码其内容。
+     */
+    private void skipString() {
+        expect('"');
+        while (pos < end) {
+            byte b = buffer[pos++];
+            if (b == '"') {
+                return;
+            }
+            if (b == '\\') {
+                pos++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    /**
+     * 跳过一个任意类型的值，对象和数组按嵌套深度整体跳过。
+     */
+    private void skipValue() {
+        byte b = peek();
+        if (b == '"') {
+            skipString();
+            return;
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                b = buffer[pos];
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw syntaxError("Unterminated object or array");
+        }
+        // 数字、true、false 和 null
+        int valueStart = pos;
+        while (pos < end && b != ',' && b != '}' && b != ']' && !isWhitespace(b)) {
+            b = ++pos < end ? buffer[pos] : 0;
+        }
+        if (pos == valueStart) {
+            throw syntaxError("Expected a value");
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end && isWhitespace(buffer[pos])) {
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        if (pos >= end) {
+            throw syntaxError("Unexpected end of chunk");
+        }
+        return buffer[pos];
+    }
+
+    private byte next(String expected) {
+        if (pos >= end) {
+            throw syntaxError("Expected " + expected);
+        }
+        return buffer[pos++];
+    }
+
+    private void expect(char c) {
+        if (pos >= end || buffer[pos] != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        pos++;
+    }
+
+    private boolean matches(int from, int length, byte[] key) {
+        return Arrays.equals(buffer, from, from + length, key, 0, key.length);
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at offset " + (pos - lineStart) + " of stream chunk");
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean isNumberPart(byte b) {
+        return (b >= '0' && b <= '9') || b == '.' || b == 'e' || b == 'E' || b == '+' || b == '-';
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -6,15 +6,14 @@ import org.json.JSONObject;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 /**
  * NewAPIClient 类用于与新的 API 进行 HTTP 通信，
  * 发送请求并接收响应，处理与新 API 的交互逻辑。
  */
-public class NewAPIClient {
+public class NewAPIClient implements LlmBackend {
 
     // 插件实例，用于记录日志等操作
     private JavaPlugin plugin;
@@ -24,66 +23,51 @@ public class NewAPIClient {
     private String model;
     // 新 API 的请求地址
     private String apiUrl;
+    // 共享的 HTTP 传输层
+    private HttpTransport transport;
 
     /**
      * 构造函数，初始化 NewAPIClient 实例。
      *
-     * @param plugin 插件实例，用于记录日志
-     * @param apiUrl 新 API 的请求地址
-     * @param apiKey 新 API 的访问密钥
-     * @param model  当前使用的新 API 模型
+     * @param plugin    插件实例，用于记录日志
+     * @param transport 共享的 HTTP 传输层
+     * @param apiUrl    新 API 的请求地址
+     * @param apiKey    新 API 的访问密钥
+     * @param model     当前使用的新 API 模型
      */
-    public NewAPIClient(JavaPlugin plugin, String apiUrl, String apiKey, String model) {
+    public NewAPIClient(JavaPlugin plugin, HttpTransport transport, String apiUrl, String apiKey, String model) {
         this.plugin = plugin;
+        this.transport = transport;
         this.apiUrl = apiUrl;
         this.apiKey = apiKey;
         this.model = model;
     }
 
+    @Override
+    public String getName() {
+        return "new-api";
+    }
+
+    @Override
+    public String getModel() {
+        return model;
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return false;
+    }
+
     /**
      * 向新 API 发送请求并获取响应的方法。
      *
      * @param userMessage 用户输入的消息
      * @return 新 API 返回的响应内容，如果出现异常则返回错误信息
      */
-    public String sendRequestToNewAPI(String userMessage) {
+    @Override
+    public String sendRequest(String userMessage) {
         try {
-            // 创建 URL 对象，指定新 API 的请求地址
-            URL obj = new URL(apiUrl);
-            // 打开 HTTP 连接
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            // 设置请求方法为 POST
-            con.setRequestMethod("POST");
-            // 设置请求头，指定请求内容的类型为 JSON
-            con.setRequestProperty("Content-Type", "application/json");
-            // 设置请求头，添加 API 访问密钥
-            con.setRequestProperty("Authorization", "Bearer " + apiKey);
-            // 允许向连接中写入数据
-            con.setDoOutput(true);
-
-            // 创建 JSON 对象，包含请求所需的模型和用户消息
-            JSONObject requestBody = new JSONObject();
-            requestBody.put("model", model);
-            requestBody.put("prompt", userMessage);
-
-            // 获取输出流，将请求体以 UTF-8 编码写入连接
-            try (OutputStream os = con.getOutputStream()) {
-                byte[] input = requestBody.toString().getBytes("utf-8");
-                os.write(input, 0, input.length);
-            }
-
-            // 获取输入流，读取新 API 返回的响应
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(con.getInputStream(), "utf-8"))) {
-                StringBuilder response = new StringBuilder();
-                String responseLine;
-                // 逐行读取响应内容并添加到 StringBuilder 中
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
-                }
-                // 返回完整的响应内容
-                return response.toString();
-            }
+            return requestNewAPI(userMessage, model, null, null);
         } catch (IOException e) {
             // 若出现 IO 异常，记录错误日志并返回错误信息
             plugin.getLogger().severe("Error sending request to New API: " + e.getMessage());
@@ -91,6 +75,90 @@ public class NewAPIClient {
         }
     }
 
+    /**
+     * 新 API 不支持流式输出和多轮对话，拿到完整回复后一次性回调。
+     *
+     * @param request  聊天请求
+     * @param callback 接收回复和结束事件的回调
+     */
+    @Override
+    public void streamRequest(ChatRequest request, StreamCallback callback) {
+        String response;
+        try {
+            response = requestNewAPI(request.getModelPrompt(), request.getModel() != null ? request.getModel() : model,
+                    request.getGeneration(), request.getCancellation());
+        } catch (IOException e) {
+            if (request.getCancellation().isCancelled()) {
+                callback.onError("Request was cancelled");
+                return;
+            }
+            plugin.getLogger().severe("Error sending request to New API: " + e.getMessage());
+            callback.onError(e.getMessage());
+            return;
+        }
+        callback.onToken(response);
+        callback.onComplete(new JSONObject());
+    }
+
+    /**
+     * 向新 API 发送请求并读取完整的响应内容。
+     *
+     * @param userMessage  用户输入的消息
+     * @param requestModel 本次请求使用的模型
+     * @param generation   生成参数，可以为 null
+     * @param cancellation 请求的取消标记，可以为 null
+     * @return 新 API 返回的响应内容
+     * @throws IOException 请求失败或被取消时抛出
+     */
+    private String requestNewAPI(String userMessage, String requestModel, GenerationProfile generation,
+                                 CancellationToken cancellation) throws IOException {
+        JSONObject requestBody = buildRequestBody(userMessage, requestModel, generation);
+
+        // 通过共享的传输层发送请求，并在请求头中添加 API 访问密钥
+        return transport.postJson(apiUrl, requestBody, Map.of("Authorization", "Bearer " + apiKey), cancellation,
+                response -> {
+                    try (BufferedReader br = new BufferedReader(
+                            new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8))) {
+                        StringBuilder result = new StringBuilder();
+                        String responseLine;
+                        // 逐行读取响应内容并添加到 StringBuilder 中
+                        while ((responseLine = br.readLine()) != null) {
+                            result.append(responseLine.trim());
+                        }
+                        // 返回完整的响应内容
+                        return result.toString();
+                    }
+                });
+    }
+
+    /**
+     * 创建发送给新 API 的请求体，包含模型、用户消息和生成参数。生成参数使用 completions 接口的字段名，
+     * 新 API 没有上下文长度参数，因此不发送 num_ctx。
+     *
+     * @param userMessage  用户输入的消息
+     * @param requestModel 本次请求使用的模型
+     * @param generation   生成参数，为 null 时使用新 API 的默认值
+     * @return 请求体
+     */
+    static JSONObject buildRequestBody(String userMessage, String requestModel, GenerationProfile generation) {
+        // 创建 JSON 对象，包含请求所需的模型和用户消息
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", requestModel);
+        requestBody.put("prompt", userMessage);
+        if (generation != null) {
+            if (generation.getNumPredict() > 0) {
+                requestBody.put("max_tokens", generation.getNumPredict());
+            }
+            if (generation.getTemperature() >= 0) {
+                requestBody.put("temperature", generation.getTemperature());
+            }
+            if (!generation.getStop().isEmpty()) {
+                requestBody.put("stop", generation.getStop());
+            }
+        }
+        return requestBody;
+    }
+
     /**
      * 设置当前使用的新 API 模型。
      *
@@ -99,4 +167,15 @@ public class NewAPIClient {
     public void setModel(String newModel) {
         this.model = newModel;
     }
+
+    /**
+     * 设置新 API 的请求地址和访问密钥。
+     *
+     * @param apiUrl 新 API 的请求地址
+     * @param apiKey 新 API 的访问密钥
+     */
+    public void setEndpoint(String apiUrl, String apiKey) {
+        this.apiUrl = apiUrl;
+        this.apiKey = apiKey;
+    }
 }
\ No newline at end of file
@@ -2,7 +2,6 @@ package top.tiku;
 
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitScheduler;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -24,8 +23,9 @@ public class NewAPIService {
      *
      * @param plugin        插件实例
      * @param configManager 配置管理器
+     * @param transport     共享的 HTTP 传输层
      */
-    public NewAPIService(JavaPlugin plugin, ConfigManager configManager) {
+    public NewAPIService(JavaPlugin plugin, ConfigManager configManager, HttpTransport transport) {
         this.plugin = plugin;
         this.configManager = configManager;
 
@@ -35,7 +35,7 @@ public class NewAPIService {
         String newApiKey = configManager.getNewApiKey();
 
         // 创建新 API 客户端实例
-        newAPIClient = new NewAPIClient(plugin, newApiUrl, newApiKey, newApiModel);
+        newAPIClient = new NewAPIClient(plugin, transport, newApiUrl, newApiKey, newApiModel);
     }
 
     /**
@@ -45,25 +45,16 @@ public class NewAPIService {
      * @return 新 API 服务返回的响应
      */
     public String sendRequest(String userMessage) {
-        return newAPIClient.sendRequestToNewAPI(userMessage);
+        return newAPIClient.sendRequest(userMessage);
     }
 
     /**
-     * 按行显示响应消息，并模拟打字效果。
+     * 获取新 API 客户端，用于登记到后端注册表。
      *
-     * @param sender   消息的接收者
-     * @param response 新 API 服务返回的响应消息
+     * @return 新 API 客户端
      */
-    public void showTypingEffectByLine(CommandSender sender, String response) {
-        String[] lines = response.split("\n");
-        BukkitScheduler scheduler = plugin.getServer().getScheduler();
-        long lineDelay = configManager.getLineDelay();
-        for (int i = 0; i < lines.length; i++) {
-            final int lineIndex = i;
-            scheduler.runTaskLater(plugin, () -> {
-                sender.sendMessage(lines[lineIndex]);
-            }, i * lineDelay);
-        }
+    public NewAPIClient getClient() {
+        return newAPIClient;
     }
 
     /**
@@ -75,4 +66,12 @@ public class NewAPIService {
         configManager.setNewApiModel(newModel);
         newAPIClient.setModel(newModel);
     }
+
+    /**
+     * 重新加载配置后调用，使用新的地址、密钥和模型。
+     */
+    public void reload() {
+        newAPIClient.setEndpoint(configManager.getNewApiUrl(), configManager.getNewApiKey());
+        newAPIClient.setModel(configManager.getNewApiModel());
+    }
 }
\ No newline at end of file
@@ -4,19 +4,58 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.util.concurrent.CompletableFuture;
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * 主插件类，继承自 JavaPlugin，负责插件的整体生命周期管理和命令处理。
  */
 public class OllamaChatPlugin extends JavaPlugin {
 
+    // 回复缓存快照的保存间隔（游戏刻），即 5 分钟
+    private static final long CACHE_SAVE_INTERVAL_TICKS = 5 * 60 * 20L;
+    // 清理空闲会话和配额用量的间隔（游戏刻），即 1 分钟
+    private static final long SESSION_EXPIRY_INTERVAL_TICKS = 60 * 20L;
+    // 与共享状态同步每日配额用量的间隔（游戏刻），即 1 秒
+    private static final long QUOTA_SYNC_INTERVAL_TICKS = 20L;
+
     // 配置管理器，用于读取和管理配置文件
     private ConfigManager configManager;
+    // 共享的 HTTP 传输层，Ollama 和新 API 的客户端共用同一个连接池
+    private HttpTransport httpTransport;
     // Ollama 服务，处理与 Ollama 相关的操作
     private OllamaService ollamaService;
     // 新 API 服务，处理与新 API 相关的操作
     private NewAPIService newAPIService;
+    // 后端注册表，根据 api-type 查找处理请求的后端
+    private BackendRegistry backendRegistry;
+    // 后端路由，按 api-type 链和熔断器的状态选择后端，并在后端失败时转到下一个后端
+    private BackendRouter backendRouter;
+    // 请求执行器，负责限制并发并为等待中的请求排队
+    private RequestExecutor requestExecutor;
+    // 回复缓存，相同的问题直接返回已生成的回复
+    private ResponseCache responseCache;
+    // 多个服务器之间共享的状态，未配置 Redis 时只在当前服务器内共享
+    private SharedStateProvider sharedState;
+    // 语义缓存
+    private SemanticCache semanticCache;
+    // 服务器知识库
+    private KnowledgeBase knowledgeBase;
+    // 会话管理器，保存每个玩家的多轮对话
+    private SessionManager sessionManager;
+    // 回复输出管理器，按速率把回复发送给每个玩家
+    private ChatDeliveryManager deliveryManager;
+    // 配额管理器，按配额组限制每个玩家的提问频率和每日用量
+    private QuotaManager quotaManager;
+    // 生成策略，为每个请求选出生成档位并在负载较高时缩短回复
+    private GenerationPolicy generationPolicy;
+    // 运行指标，供 /ollama stats 和 Prometheus 接口使用
+    private PluginMetrics metrics;
+    // Prometheus 指标接口，未启用时为 null
+    private MetricsHttpServer metricsServer;
+    // 聊天请求服务，负责处理 /ollama 发送的消息
+    private ChatRequestService chatRequestService;
 
     /**
      * 插件启用时调用的方法，进行初始化操作。
@@ -27,11 +66,79 @@ public class OllamaChatPlugin extends JavaPlugin {
         configManager = new ConfigManager(this);
         // 保存默认配置文件，如果配置文件不存在则创建
         configManager.saveDefaultConfig();
+        for (String problem : configManager.getSettings().getProblems()) {
+            getLogger().warning("Config: " + problem);
+        }
 
-        // 创建 Ollama 服务实例，传入当前插件实例和配置管理器
-        ollamaService = new OllamaService(this, configManager);
-        // 创建新 API 服务实例，传入当前插件实例和配置管理器
-        newAPIService = new NewAPIService(this, configManager);
+        // 创建共享的 HTTP 传输层，连接池和超时设置从配置文件中读取
+        httpTransport = new HttpTransport(this, configManager);
+        // 创建 Ollama 服务实例，传入当前插件实例、配置管理器和传输层
+        ollamaService = new OllamaService(this, configManager, httpTransport);
+        // 创建新 API 服务实例，传入当前插件实例、配置管理器和传输层
+        newAPIService = new NewAPIService(this, configManager, httpTransport);
+        // 根据配置文件登记启用的后端
+        backendRegistry = new BackendRegistry();
+        registerBackends();
+        backendRouter = new BackendRouter(this, configManager, backendRegistry);
+        // 创建请求执行器，并发上限和队列长度从配置文件中读取，排队的请求优先处理已加载的模型
+        requestExecutor = new RequestExecutor(this, configManager.getMaxConcurrentRequests(),
+                configManager.getRequestQueueCapacity(), configManager.getMaxAffinityWaitSeconds() * 1000L,
+                ollamaService.getResidencyTracker()::isResident);
+        // 创建共享状态，配置为 redis 时回复缓存、正在生成中的请求和每日配额在多个服务器之间共享
+        sharedState = createSharedState();
+        getLogger().info("Shared state: " + sharedState.describe());
+        // 创建回复缓存，并加载上次保存的快照，使用共享状态时作为共享缓存的近端缓存
+        responseCache = new ResponseCache(this, configManager.isCacheEnabled(),
+                configManager.getCacheMaxEntries(), configManager.getCacheTtlMinutes() * 60_000L);
+        if (configManager.isCachePersistent()) {
+            responseCache.load(getCacheFile());
+            // 定期在异步线程中保存缓存快照
+            getServer().getScheduler().runTaskTimerAsynchronously(this, () -> responseCache.save(getCacheFile()),
+                    CACHE_SAVE_INTERVAL_TICKS, CACHE_SAVE_INTERVAL_TICKS);
+        }
+        // 创建语义缓存，只保存在内存中，条目的有效时间与回复缓存相同
+        semanticCache = new SemanticCache(this, configManager, ollamaService.getClient(),
+                configManager.isSemanticCacheEnabled(), configManager.getSemanticCacheMaxEntries(),
+                configManager.getCacheTtlMinutes() * 60_000L);
+        // 创建服务器知识库，在后台加载索引并监听 knowledge 文件夹的变化
+        knowledgeBase = new KnowledgeBase(this, configManager, ollamaService.getClient());
+        knowledgeBase.start();
+        // 创建会话管理器，并每分钟清理一次空闲的会话
+        sessionManager = new SessionManager(configManager);
+        getServer().getScheduler().runTaskTimerAsynchronously(this, sessionManager::expireIdleSessions,
+                SESSION_EXPIRY_INTERVAL_TICKS, SESSION_EXPIRY_INTERVAL_TICKS);
+        // 创建回复输出管理器，启动统一的发送任务，并在玩家退出时清空其输出队列
+        deliveryManager = new ChatDeliveryManager(this, configManager);
+        deliveryManager.start();
+        getServer().getPluginManager().registerEvents(deliveryManager, this);
+        // 创建配额管理器，并每分钟清理一次空闲玩家的用量。清理与 acquire 一样在主线程中执行，
+        // 不会移除 acquire 刚取出、尚未记录用量的条目
+        quotaManager = new QuotaManager(configManager, sharedState);
+        getServer().getScheduler().runTaskTimer(this, quotaManager::expireIdle,
+                SESSION_EXPIRY_INTERVAL_TICKS, SESSION_EXPIRY_INTERVAL_TICKS);
+        // 多个服务器共享状态时，每秒在异步线程中同步一次每日用量，并为进入服务器的玩家准备用量记录
+        if (sharedState.isDistributed()) {
+            getServer().getScheduler().runTaskTimerAsynchronously(this, quotaManager::syncShared,
+                    QUOTA_SYNC_INTERVAL_TICKS, QUOTA_SYNC_INTERVAL_TICKS);
+            getServer().getPluginManager().registerEvents(quotaManager, this);
+        }
+        // 创建生成策略，按配额组选择生成档位，并根据排队长度缩短回复
+        generationPolicy = new GenerationPolicy(this, configManager, requestExecutor, quotaManager);
+        // 创建运行指标，按配置在本地端口上导出 Prometheus 格式的指标
+        metrics = new PluginMetrics(requestExecutor, responseCache, semanticCache, backendRouter);
+        if (configManager.isMetricsEndpointEnabled()) {
+            metricsServer = new MetricsHttpServer(this, metrics);
+            metricsServer.start(configManager.getMetricsHost(), configManager.getMetricsPort());
+        }
+        // 创建聊天请求服务
+        chatRequestService = new ChatRequestService(this, configManager, backendRouter, requestExecutor,
+                responseCache, sharedState, semanticCache, knowledgeBase, ollamaService, sessionManager, deliveryManager,
+                quotaManager, generationPolicy, metrics);
+        // 玩家退出时取消其尚未完成的请求
+        getServer().getPluginManager().registerEvents(chatRequestService, this);
+        // 监听聊天消息，把带有触发前缀或提及 AI 的消息当作提问，是否启用由配置决定，重新加载配置后立即生效
+        getServer().getPluginManager().registerEvents(
+                new ChatTriggerListener(this, configManager, chatRequestService), this);
 
         // 记录插件启用的日志信息
         getLogger().info("Ollama Chat Plugin has been enabled!");
@@ -42,8 +149,26 @@ public class OllamaChatPlugin extends JavaPlugin {
      */
     @Override
     public void onDisable() {
+        // 关闭指标接口
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        // 关闭请求执行器，丢弃仍在排队的请求
+        requestExecutor.shutdown();
+        backendRouter.shutdown();
+        knowledgeBase.shutdown();
+        // 保存回复缓存的快照，以便重启后继续使用
+        if (configManager.isCachePersistent()) {
+            responseCache.save(getCacheFile());
+        }
+        // 关闭共享状态的连接
+        sharedState.close();
         // 停止 Ollama 服务
-        ollamaService.stopOllama();
+        ollamaService.shutdown();
+        // 关闭 HTTP 传输层，释放连接池中的所有连接
+        httpTransport.shutdown();
+        // 写出尚未保存的配置修改
+        configManager.shutdown();
         // 记录插件禁用的日志信息
         getLogger().info("Ollama Chat Plugin has been disabled!");
     }
@@ -76,8 +201,11 @@ public class OllamaChatPlugin extends JavaPlugin {
                 }
                 String newModel = args[1];
                 // 尝试切换模型
-                if (ollamaService.changeModel(newModel)) {
+                if (ollamaService.changeModel(newModel, sender)) {
                     sender.sendMessage("Successfully changed the model to " + newModel);
+                    if (configManager.isWarmUpEnabled()) {
+                        sender.sendMessage("模型 " + newModel + " 预热中，预热完成前的首次回复可能较慢。");
+                    }
                 } else {
                     sender.sendMessage("Invalid model. Available models: " + configManager.getAvailableModels());
                 }
@@ -92,38 +220,224 @@ public class OllamaChatPlugin extends JavaPlugin {
                 }
                 String newMode = args[1];
                 // 尝试切换服务模式
-                if (ollamaService.changeMode(newMode)) {
+                if (ollamaService.changeMode(newMode, sender)) {
                     sender.sendMessage("Successfully changed the mode to " + newMode);
+                    if (configManager.isWarmUpEnabled()) {
+                        sender.sendMessage("模型 " + configManager.getOllamaModel() + " 预热中，预热完成前的首次回复可能较慢。");
+                    }
                 } else {
                     sender.sendMessage("Invalid mode. Available modes: built-in, standalone");
                 }
                 return true;
             }
+            // 如果参数为 pull，在后台下载模型，下载完成后自动加入可用模型列表
+            if (args[0].equalsIgnoreCase("pull")) {
+                if (!sender.hasPermission("ollama.pull")) {
+                    sender.sendMessage("You don't have permission to download models.");
+                    return true;
+                }
+                if (args.length < 2) {
+                    sender.sendMessage("Usage: /ollama pull <model_name>");
+                    return true;
+                }
+                String model = args[1];
+                if (ollamaService.downloadModel(sender, model)) {
+                    sender.sendMessage("开始下载模型 " + model + "，下载在后台进行。");
+                } else {
+                    sender.sendMessage("模型 " + model + " 正在下载中。");
+                }
+                return true;
+            }
+            // 如果参数为 ask，使用指定的模型回答一个单独的问题
+            if (args[0].equalsIgnoreCase("ask")) {
+                if (args.length < 3) {
+                    sender.sendMessage("Usage: /ollama ask <model_name> <message>");
+                    return true;
+                }
+                String model = args[1];
+                if (!configManager.getAvailableModels().contains(model)) {
+                    sender.sendMessage("Invalid model. Available models: " + configManager.getAvailableModels());
+                    return true;
+                }
+                String question = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+                getLogger().info("Player used /ollama ask with model " + model + " and message: " + question);
+                chatRequestService.submit(sender, question, model);
+                return true;
+            }
+            // 如果参数为 profile，使用指定的生成档位回答一个问题
+            if (args[0].equalsIgnoreCase("profile")) {
+                if (args.length < 3) {
+                    sender.sendMessage("Usage: /ollama profile <profile_name> <message>");
+                    return true;
+                }
+                String profile = args[1];
+                if (configManager.getGenerationProfile(profile) == null) {
+                    sender.sendMessage("Invalid profile. Available profiles: " + configManager.getGenerationProfileNames());
+                    return true;
+                }
+                if (!sender.hasPermission("ollama.profile." + profile)) {
+                    sender.sendMessage("You don't have permission to use the " + profile + " profile.");
+                    return true;
+                }
+                String question = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+                getLogger().info("Player used /ollama profile with profile " + profile + " and message: " + question);
+                chatRequestService.submit(sender, question, null, profile, false);
+                return true;
+            }
+            // 如果参数为 cancel，取消发送者所有尚未完成的请求
+            if (args[0].equalsIgnoreCase("cancel")) {
+                int cancelled = chatRequestService.cancelAll(sender);
+                if (cancelled > 0) {
+                    sender.sendMessage("已取消 " + cancelled + " 个请求。");
+                } else {
+                    sender.sendMessage("当前没有进行中的请求。");
+                }
+                return true;
+            }
+            // 如果参数为 page，显示最近一条回复的指定页
+            if (args[0].equalsIgnoreCase("page")) {
+                if (args.length < 2) {
+                    sender.sendMessage("Usage: /ollama page <page_number>");
+                    return true;
+                }
+                try {
+                    deliveryManager.showPage(sender, Integer.parseInt(args[1]));
+                } catch (NumberFormatException e) {
+                    sender.sendMessage("Usage: /ollama page <page_number>");
+                }
+                return true;
+            }
+            // 如果参数为 stats，显示运行指标
+            if (args[0].equalsIgnoreCase("stats")) {
+                if (!sender.hasPermission("ollama.stats")) {
+                    sender.sendMessage("You don't have permission to view metrics.");
+                    return true;
+                }
+                for (String line : metrics.summary()) {
+                    sender.sendMessage(line);
+                }
+                sender.sendMessage("回复缩短级别: " + generationPolicy.getLevel());
+                return true;
+            }
+            // 如果参数为 reload，重新加载配置文件并应用到各个组件
+            if (args[0].equalsIgnoreCase("reload")) {
+                if (!sender.hasPermission("ollama.reload")) {
+                    sender.sendMessage("You don't have permission to reload the configuration.");
+                    return true;
+                }
+                reloadSettings(sender);
+                return true;
+            }
+            // 如果参数为 quota，显示发送者的配额组和剩余用量
+            if (args[0].equalsIgnoreCase("quota")) {
+                for (String line : quotaManager.describe(sender)) {
+                    sender.sendMessage(line);
+                }
+                return true;
+            }
+            // 如果参数为 reset，清空发送者的对话会话
+            if (args[0].equalsIgnoreCase("reset")) {
+                sessionManager.resetSession(sender);
+                sender.sendMessage("对话已重置，下一次提问将开始新的对话。");
+                return true;
+            }
             // 将用户输入的参数拼接成完整的消息
             String userMessage = String.join(" ", args);
             // 记录用户使用 /ollama 命令发送的消息日志
             getLogger().info("Player used /ollama command with message: " + userMessage);
-            // 告知用户正在生成回复
-            sender.sendMessage("正在生成...");
-
-            // 异步执行请求操作
-            CompletableFuture.runAsync(() -> {
-                // 获取当前使用的 API 类型
-                String apiType = configManager.getApiType();
-                String response;
-                // 根据 API 类型选择调用相应的服务发送请求
-                if ("ollama".equals(apiType)) {
-                    response = ollamaService.sendRequest(userMessage);
-                } else if ("new-api".equals(apiType)) {
-                    response = newAPIService.sendRequest(userMessage);
-                } else {
-                    response = "Unsupported API type.";
-                }
-                // 调用 Ollama 服务的显示打字效果方法显示回复
-                ollamaService.showTypingEffectByLine(sender, response);
-            });
+            // 交给聊天请求服务处理
+            chatRequestService.submit(sender, userMessage);
             return true;
         }
         return false;
     }
+
+    /**
+     * 根据配置文件登记启用的后端。
+     */
+    private void registerBackends() {
+        List<String> enabledBackends = configManager.getEnabledBackends();
+        for (LlmBackend backend : List.of(ollamaService.getClient(), newAPIService.getClient())) {
+            if (enabledBackends.contains(backend.getName())) {
+                backendRegistry.register(backend);
+            }
+        }
+    }
+
+    /**
+     * 重新加载配置文件，并把新的配置应用到各个组件。正在进行的请求继续使用旧的设置直到结束。
+     * 健康检查和模型驻留的轮询间隔、进程启动和停止的超时、回复缓存以及指标接口的设置需要重启服务器才会生效。
+     *
+     * @param sender 执行命令的发送者，用于反馈加载结果
+     */
+    private void reloadSettings(CommandSender sender) {
+        PluginSettings settings = configManager.reload();
+        for (String problem : settings.getProblems()) {
+            getLogger().warning("Config: " + problem);
+            sender.sendMessage("配置问题: " + problem);
+        }
+        httpTransport.reconfigure(configManager);
+        requestExecutor.setLimits(settings.getMaxConcurrentRequests(), settings.getRequestQueueCapacity(),
+                settings.getMaxAffinityWaitSeconds() * 1000L);
+        deliveryManager.reconfigure(configManager);
+        newAPIService.reload();
+        ollamaService.reload(sender);
+        backendRegistry.clear();
+        registerBackends();
+        // 嵌入模型或片段长度变化时重新计算向量，之前未启用的知识库在这里启动
+        knowledgeBase.start();
+        getLogger().info("Configuration reloaded.");
+        sender.sendMessage("配置已重新加载。");
+    }
+
+    /**
+     * 根据配置创建共享状态。共享状态的类型和 Redis 的连接参数只在启动时读取，修改后需要重启服务器。
+     *
+     * @return 共享状态
+     */
+    private SharedStateProvider createSharedState() {
+        if ("redis".equals(configManager.getSharedStateType())) {
+            return new RedisSharedStateProvider(this, configManager.getRedisHost(), configManager.getRedisPort(),
+                    configManager.getRedisPassword(), configManager.getRedisDatabase(),
+                    configManager.getRedisTimeoutMillis(), configManager.getRedisPoolSize(),
+                    configManager.getSharedStateKeyPrefix());
+        }
+        return new LocalSharedStateProvider();
+    }
+
+    /**
+     * 获取聊天请求服务，供负载测试检查请求是否完成。
+     *
+     * @return 聊天请求服务
+     */
+    ChatRequestService getChatRequestService() {
+        return chatRequestService;
+    }
+
+    /**
+     * 获取回复输出管理器，供负载测试检查回复是否已全部发送。
+     *
+     * @return 回复输出管理器
+     */
+    ChatDeliveryManager getDeliveryManager() {
+        return deliveryManager;
+    }
+
+    /**
+     * 获取运行指标。
+     *
+     * @return 运行指标
+     */
+    PluginMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取回复缓存快照文件。
+     *
+     * @return 插件数据目录下的缓存快照文件
+     */
+    private File getCacheFile() {
+        return new File(getDataFolder(), "cache/responses.bin");
+    }
 }
\ No newline at end of file
@@ -1,87 +1,296 @@
 package top.tiku;
 
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.util.EntityUtils;
 import org.bukkit.plugin.java.JavaPlugin;
+import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
 
 /**
  * OllamaClient 类负责与 Ollama 服务进行实际的 HTTP 通信，
- * 包括发送请求和接收响应的操作。
+ * 包括发送请求和接收响应的操作。每个请求都会从节点池中选择一个 Ollama 服务节点。
  */
-public class OllamaClient {
+public class OllamaClient implements LlmBackend {
 
     // 插件实例，用于记录日志等操作
     private JavaPlugin plugin;
     // 当前使用的 Ollama 模型
     private String model;
-    // Ollama 服务的请求地址
-    private String url;
+    // Ollama 服务节点池
+    private OllamaEndpointPool endpointPool;
+    // 共享的 HTTP 传输层
+    private HttpTransport transport;
+    // 内置 Ollama 进程的监控器，用于在服务就绪前暂缓请求
+    private OllamaProcessSupervisor processSupervisor;
+    // 模型在最后一次请求后保持加载的时间，随每个请求发送给 Ollama
+    private Object keepAlive;
 
     /**
      * 构造函数，用于初始化 OllamaClient 实例。
      *
-     * @param plugin 插件实例，用于记录日志
-     * @param model  当前使用的 Ollama 模型
-     * @param url    Ollama 服务的请求地址
+     * @param plugin            插件实例，用于记录日志
+     * @param transport         共享的 HTTP 传输层
+     * @param model             当前使用的 Ollama 模型
+     * @param endpointPool      Ollama 服务节点池
+     * @param processSupervisor 内置 Ollama 进程的监控器
+     * @param keepAlive         模型保持加载的时间，可以是秒数或 "30m" 这样的时长
      */
-    public OllamaClient(JavaPlugin plugin, String model, String url) {
+    public OllamaClient(JavaPlugin plugin, HttpTransport transport, String model, OllamaEndpointPool endpointPool,
+                        OllamaProcessSupervisor processSupervisor, Object keepAlive) {
         this.plugin = plugin;
+        this.transport = transport;
         this.model = model;
-        this.url = url;
+        this.endpointPool = endpointPool;
+        this.processSupervisor = processSupervisor;
+        this.keepAlive = keepAlive;
+    }
+
+    @Override
+    public String getName() {
+        return "ollama";
+    }
+
+    @Override
+    public String getModel() {
+        return model;
+    }
+
+    @Override
+    public boolean supportsStreaming() {
+        return true;
     }
 
     /**
-     * 向 Ollama 服务发送请求并获取响应的方法。
+     * 向 Ollama 服务发送请求并获取完整响应的方法。
      *
      * @param userMessage 用户输入的消息
      * @return Ollama 服务返回的响应内容，如果出现异常则返回错误信息
      */
-    public String sendRequestToOllama(String userMessage) {
+    @Override
+    public String sendRequest(String userMessage) {
+        StringBuilder response = new StringBuilder();
+        String[] error = new String[1];
+        streamRequest(new ChatRequest(userMessage), new StreamCallback() {
+            @Override
+            public void onToken(String token) {
+                response.append(token);
+            }
+
+            @Override
+            public void onComplete(JSONObject finalChunk) {
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                error[0] = errorMessage;
+            }
+        });
+        // 出现错误时沿用原有的错误信息格式
+        if (error[0] != null) {
+            return "Error: " + error[0];
+        }
+        return response.toString();
+    }
+
+    /**
+     * 以流式模式向 Ollama 服务发送请求，每从连接中读到一个 NDJSON 数据块就解码并回调。
+     * 请求带有 chat 模式的会话时使用 /api/chat 并附带消息历史，
+     * 否则使用 /api/generate，并在会话中已有 context 时一并发送。
+     *
+     * @param request  聊天请求，包含用户消息和可选的对话会话
+     * @param callback 接收生成文本和结束事件的回调
+     */
+    @Override
+    public void streamRequest(ChatRequest request, StreamCallback callback) {
+        ChatSession session = request.getSession();
+        boolean chatMode = session != null && session.isChatMode();
+        JSONObject requestBody = buildRequestBody(request, chatMode);
+        String path = chatMode ? "/api/chat" : "/api/generate";
+
+        // 请求在排队期间已被取消时不再发送
+        CancellationToken cancellation = request.getCancellation();
+        if (cancellation.isCancelled()) {
+            callback.onError("Request was cancelled");
+            return;
+        }
+        // 内置服务刚启动或正在重启时，等待其就绪后再发送请求
+        if (!processSupervisor.awaitReady()) {
+            callback.onError("Ollama service is not ready yet, please try again later");
+            return;
+        }
+
+        // 选择未完成请求数最少的健康节点
+        OllamaEndpointPool.Endpoint endpoint = endpointPool.acquire();
+        boolean reachable = true;
         try {
-            // 创建 URL 对象，指定 Ollama 服务的请求地址
-            URL obj = new URL(url);
-            // 打开 HTTP 连接
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            // 设置请求方法为 POST
-            con.setRequestMethod("POST");
-            // 设置请求头，指定请求内容的类型为 JSON
-            con.setRequestProperty("Content-Type", "application/json");
-            // 允许向连接中写入数据
-            con.setDoOutput(true);
-
-            // 创建 JSON 对象，包含请求所需的模型和用户消息
-            JSONObject requestBody = new JSONObject();
-            requestBody.put("model", model);
-            requestBody.put("prompt", userMessage);
-
-            // 获取输出流，将请求体以 UTF-8 编码写入连接
-            try (OutputStream os = con.getOutputStream()) {
-                byte[] input = requestBody.toString().getBytes("utf-8");
-                os.write(input, 0, input.length);
+            // 通过共享的传输层发送请求，并逐行读取 Ollama 服务返回的 NDJSON 数据块
+            // 取消时中止连接，Ollama 检测到连接断开后会停止生成
+            transport.postJson(endpoint.getBaseUrl() + path, requestBody, null, cancellation, response -> {
+                readStream(response.getEntity().getContent(), chatMode, callback);
+                return null;
+            });
+        } catch (IOException | JSONException e) {
+            if (cancellation.isCancelled()) {
+                callback.onError("Request was cancelled");
+                return;
+            }
+            // 服务端返回了错误状态码说明节点仍然可达，其余 IO 异常计为节点故障
+            reachable = !(e instanceof IOException) || e instanceof HttpResponseException;
+            // 若出现 IO 异常或数据块无法解析，记录错误日志并回调错误信息
+            plugin.getLogger().severe("Error sending request to Ollama at " + endpoint.getBaseUrl() + ": " + e.getMessage());
+            callback.onError(e.getMessage());
+        } finally {
+            endpointPool.release(endpoint, reachable);
+        }
+    }
+
+    /**
+     * 创建发送给 Ollama 的请求体，包含模型、用户消息、流式输出标记、keep_alive 和生成参数。
+     *
+     * @param request  聊天请求
+     * @param chatMode 是否使用 /api/chat 的消息格式
+     * @return 请求体
+     */
+    JSONObject buildRequestBody(ChatRequest request, boolean chatMode) {
+        ChatSession session = request.getSession();
+        // 创建 JSON 对象，包含请求所需的模型、用户消息以及流式输出标记
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", request.getModel() != null ? request.getModel() : model);
+        requestBody.put("stream", true);
+        // 每次请求都带上 keep_alive，使模型在请求稀疏时也保持加载
+        requestBody.put("keep_alive", keepAlive);
+        // 限制生成长度和上下文长度，没有设置时使用 Ollama 的默认值
+        JSONObject options = request.getGeneration() == null ? null : request.getGeneration().toOllamaOptions();
+        if (options != null) {
+            requestBody.put("options", options);
+        }
+        if (chatMode) {
+            requestBody.put("messages", session.buildMessages(request.getModelPrompt()));
+        } else {
+            requestBody.put("prompt", request.getModelPrompt());
+            // 复用上一轮的 context，Ollama 无需重新计算之前的对话
+            JSONArray context = session == null ? null : session.getContext();
+            if (context != null) {
+                requestBody.put("context", context);
             }
+        }
+        return requestBody;
+    }
 
-            // 获取输入流，读取 Ollama 服务返回的响应
-            try (BufferedReader br = new BufferedReader(
-                    new InputStreamReader(con.getInputStream(), "utf-8"))) {
-                StringBuilder response = new StringBuilder();
-                String responseLine;
-                // 逐行读取响应内容并添加到 StringBuilder 中
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
+    /**
+     * 逐个解码 Ollama 返回的 NDJSON 数据块，依次回调生成的文本，直到收到 done 为 true 的数据块。
+     * 数据块直接在字节流上解码，不为每个数据块创建 JSONObject。
+     *
+     * @param in       响应体的输入流
+     * @param chatMode 是否是 /api/chat 的响应
+     * @param callback 接收生成文本和结束事件的回调
+     * @throws IOException 读取失败时抛出
+     */
+    static void readStream(InputStream in, boolean chatMode, StreamCallback callback) throws IOException {
+        try (in) {
+            NdjsonStreamDecoder decoder = new NdjsonStreamDecoder(in, chatMode);
+            while (decoder.next()) {
+                // Ollama 在生成过程中出错时会返回带 error 字段的数据块
+                if (decoder.getError() != null) {
+                    callback.onError(decoder.getError());
+                    return;
+                }
+                // /api/chat 的文本位于 message.content，/api/generate 的文本位于 response
+                String token = decoder.getToken();
+                if (!token.isEmpty()) {
+                    callback.onToken(token);
                 }
-                // 返回完整的响应内容
-                return response.toString();
+                // done 为 true 的数据块表示回复结束，只有这个数据块需要转换成 JSONObject
+                if (decoder.isDone()) {
+                    callback.onComplete(decoder.toFinalChunk());
+                    return;
+                }
+            }
+        }
+        // 连接在收到 done 之前被关闭
+        callback.onError("Stream ended before the reply was complete");
+    }
+
+    /**
+     * 在所有健康节点上预加载模型。发送不带提示词的请求时，Ollama 只加载模型而不生成文本。
+     * 上下文长度必须与之后的请求相同，否则第一个请求到达时 Ollama 会按新的上下文长度重新加载模型。
+     *
+     * @param targetModel 要预加载的模型
+     * @param numCtx      加载模型时使用的上下文长度，0 表示使用 Ollama 的默认值
+     * @return 至少一个节点加载成功时返回 true
+     */
+    public boolean preload(String targetModel, int numCtx) {
+        if (!processSupervisor.awaitReady()) {
+            plugin.getLogger().warning("Ollama service is not ready, skipped preloading " + targetModel);
+            return false;
+        }
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", targetModel);
+        requestBody.put("prompt", "");
+        requestBody.put("stream", false);
+        requestBody.put("keep_alive", keepAlive);
+        if (numCtx > 0) {
+            requestBody.put("options", new JSONObject().put("num_ctx", numCtx));
+        }
+
+        boolean loaded = false;
+        for (OllamaEndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            if (!endpoint.isHealthy()) {
+                continue;
+            }
+            try {
+                transport.postJson(endpoint.getBaseUrl() + "/api/generate", requestBody, null,
+                        response -> EntityUtils.toString(response.getEntity(), "UTF-8"));
+                loaded = true;
+            } catch (IOException e) {
+                plugin.getLogger().warning("Failed to preload " + targetModel + " on " + endpoint.getBaseUrl() + ": " + e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 通过 /api/embeddings 计算一段文本的向量，使用未完成请求数最少的健康节点。
+     *
+     * @param embedModel 嵌入模型
+     * @param text       要计算向量的文本
+     * @return 文本的向量
+     * @throws IOException 服务未就绪、请求失败或响应中没有向量时抛出
+     */
+    public float[] embed(String embedModel, String text) throws IOException {
+        if (!processSupervisor.awaitReady()) {
+            throw new IOException("Ollama service is not ready");
+        }
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", embedModel);
+        requestBody.put("prompt", text);
+        requestBody.put("keep_alive", keepAlive);
+
+        OllamaEndpointPool.Endpoint endpoint = endpointPool.acquire();
+        boolean reachable = true;
+        try {
+            JSONArray embedding = transport.postJson(endpoint.getBaseUrl() + "/api/embeddings", requestBody, null,
+                    response -> new JSONObject(EntityUtils.toString(response.getEntity(), "UTF-8"))
+                            .optJSONArray("embedding"));
+            if (embedding == null || embedding.isEmpty()) {
+                throw new IOException("No embedding returned by " + embedModel);
+            }
+            float[] vector = new float[embedding.length()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = (float) embedding.getDouble(i);
             }
+            return vector;
         } catch (IOException e) {
-            // 若出现 IO 异常，记录错误日志并返回错误信息
-            plugin.getLogger().severe("Error sending request to Ollama: " + e.getMessage());
-            return "Error: " + e.getMessage();
+            reachable = e instanceof HttpResponseException;
+            throw e;
+        } catch (JSONException e) {
+            throw new IOException("Malformed embedding response: " + e.getMessage(), e);
+        } finally {
+            endpointPool.release(endpoint, reachable);
         }
     }
 
@@ -95,11 +304,11 @@ public class OllamaClient {
     }
 
     /**
-     * 设置 Ollama 服务的请求地址。
+     * 设置模型保持加载的时间，之后的请求都会携带新的值。
      *
-     * @param newUrl 要设置的新请求地址
+     * @param keepAlive 模型保持加载的时间，可以是秒数或 "30m" 这样的时长
      */
-    public void setUrl(String newUrl) {
-        this.url = newUrl;
+    public void setKeepAlive(Object keepAlive) {
+        this.keepAlive = keepAlive;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,204 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * OllamaEndpointPool 类管理多个 Ollama 服务地址，
+ * 按未完成请求数最少的原则分配请求，并通过定期健康检查剔除和恢复故障节点。
+ */
+public class OllamaEndpointPool {
+
+    // 健康检查请求的超时时间（毫秒）
+    private static final int HEALTH_CHECK_TIMEOUT_MILLIS = 3000;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 共享的 HTTP 传输层，用于发送健康检查请求
+    private final HttpTransport transport;
+    // 连续失败多少次后将节点剔除
+    private final int ejectAfterFailures;
+    // 当前的节点列表，整体替换以保证读取时的一致性
+    private volatile List<Endpoint> endpoints;
+    // 轮询起点，未完成请求数相同时让请求均匀分布到各个节点
+    private final AtomicInteger nextStart = new AtomicInteger();
+
+    /**
+     * 构造函数，初始化 OllamaEndpointPool 实例。
+     *
+     * @param plugin             插件实例
+     * @param transport          共享的 HTTP 传输层
+     * @param baseUrls           Ollama 服务的基础地址列表
+     * @param ejectAfterFailures 连续失败多少次后将节点剔除
+     */
+    public OllamaEndpointPool(JavaPlugin plugin, HttpTransport transport, List<String> baseUrls,
+                              int ejectAfterFailures) {
+        this.plugin = plugin;
+        this.transport = transport;
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.endpoints = createEndpoints(baseUrls);
+    }
+
+    /**
+     * 替换节点列表，例如切换内置或独立模式之后。
+     *
+     * @param baseUrls Ollama 服务的基础地址列表
+     */
+    public void setEndpoints(List<String> baseUrls) {
+        endpoints = createEndpoints(baseUrls);
+    }
+
+    private static List<Endpoint> createEndpoints(List<String> baseUrls) {
+        List<Endpoint> newEndpoints = new ArrayList<>();
+        for (String baseUrl : baseUrls) {
+            newEndpoints.add(new Endpoint(toBaseUrl(baseUrl)));
+        }
+        return List.copyOf(newEndpoints);
+    }
+
+    /**
+     * 选择一个节点处理请求，优先选择健康且未完成请求数最少的节点。
+     * 所有节点都被剔除时，仍然从全部节点中选择，避免请求直接失败。
+     * 调用方在请求结束后必须调用 {@link #release(Endpoint, boolean)}。
+     *
+     * @return 选中的节点
+     */
+    public Endpoint acquire() {
+        List<Endpoint> current = endpoints;
+        if (current.isEmpty()) {
+            throw new IllegalStateException("No Ollama endpoints are configured");
+        }
+        Endpoint selected = select(current, true);
+        if (selected == null) {
+            selected = select(current, false);
+        }
+        selected.outstanding.incrementAndGet();
+        return selected;
+    }
+
+    /**
+     * 请求结束后归还节点，并记录请求是否成功。
+     *
+     * @param endpoint 之前选中的节点
+     * @param success  请求是否成功连接到节点
+     */
+    public void release(Endpoint endpoint, boolean success) {
+        endpoint.outstanding.decrementAndGet();
+        if (success) {
+            endpoint.consecutiveFailures.set(0);
+        } else if (endpoint.consecutiveFailures.incrementAndGet() >= ejectAfterFailures && endpoint.healthy) {
+            endpoint.healthy = false;
+            plugin.getLogger().warning("Ollama endpoint " + endpoint.baseUrl + " was ejected after repeated failures.");
+        }
+    }
+
+    /**
+     * 对所有节点执行一次健康检查，应在异步线程中定期调用。
+     */
+    public void checkHealth() {
+        for (Endpoint endpoint : endpoints) {
+            boolean reachable;
+            try {
+                transport.get(endpoint.baseUrl + "/api/version", HEALTH_CHECK_TIMEOUT_MILLIS, response -> null);
+                reachable = true;
+            } catch (IOException e) {
+                reachable = false;
+            }
+            if (reachable) {
+                endpoint.consecutiveFailures.set(0);
+                if (!endpoint.healthy) {
+                    endpoint.healthy = true;
+                    plugin.getLogger().info("Ollama endpoint " + endpoint.baseUrl + " is healthy again.");
+                }
+            } else if (endpoint.consecutiveFailures.incrementAndGet() >= ejectAfterFailures && endpoint.healthy) {
+                endpoint.healthy = false;
+                plugin.getLogger().warning("Ollama endpoint " + endpoint.baseUrl + " failed its health check and was ejected.");
+            }
+        }
+    }
+
+    /**
+     * 获取当前的节点列表。
+     *
+     * @return 节点列表
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 从候选节点中选出未完成请求数最少的节点。
+     *
+     * @param candidates  候选节点
+     * @param healthyOnly 是否只考虑健康节点
+     * @return 选中的节点，没有符合条件的节点时返回 null
+     */
+    private Endpoint select(List<Endpoint> candidates, boolean healthyOnly) {
+        int size = candidates.size();
+        int start = Math.floorMod(nextStart.getAndIncrement(), size);
+        Endpoint best = null;
+        for (int i = 0; i < size; i++) {
+            Endpoint endpoint = candidates.get((start + i) % size);
+            if (healthyOnly && !endpoint.healthy) {
+                continue;
+            }
+            if (best == null || endpoint.outstanding.get() < best.outstanding.get()) {
+                best = endpoint;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 把配置中的地址转换为基础地址，兼容带有 /api/generate 路径的旧配置。
+     *
+     * @param url 配置中的地址
+     * @return 不带 API 路径和末尾斜杠的基础地址
+     */
+    static String toBaseUrl(String url) {
+        String baseUrl = url.trim();
+        int apiIndex = baseUrl.indexOf("/api/");
+        if (apiIndex >= 0) {
+            baseUrl = baseUrl.substring(0, apiIndex);
+        }
+        while (baseUrl.endsWith("/")) {
+            baseUrl = baseUrl.substring(0, baseUrl.length() - 1);
+        }
+        return baseUrl;
+    }
+
+    /**
+     * Endpoint 类表示一个 Ollama 服务节点及其负载和健康状态。
+     */
+    public static class Endpoint {
+
+        // 节点的基础地址，例如 http://localhost:11434
+        private final String baseUrl;
+        // 当前正在该节点上执行的请求数
+        private final AtomicInteger outstanding = new AtomicInteger();
+        // 连续失败的次数
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        // 节点是否健康，被剔除的节点不会再分配到请求
+        private volatile boolean healthy = true;
+
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        public boolean isHealthy() {
+            return healthy;
+        }
+    }
+}
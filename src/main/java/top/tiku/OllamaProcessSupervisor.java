@@ -0,0 +1,288 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OllamaProcessSupervisor 类负责管理内置模式下的 ollama serve 进程：
+ * 持续读取并限速记录进程输出，轮询 HTTP 接口判断服务是否就绪，
+ * 进程意外退出时按指数退避重启，停止时先正常结束进程，超时后再强制结束。
+ */
+public class OllamaProcessSupervisor {
+
+    // 就绪检查的轮询间隔（毫秒）
+    private static final long READY_POLL_MILLIS = 500;
+    // 就绪检查请求的超时时间（毫秒）
+    private static final int READY_PROBE_TIMEOUT_MILLIS = 1000;
+    // 重启等待时间的初始值和上限（毫秒）
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+    // 进程就绪后持续运行超过该时间（毫秒）才重置重启等待时间
+    private static final long STABLE_UPTIME_MILLIS = 60_000;
+    // 每个时间窗口内最多记录的进程输出行数，以及时间窗口的长度（毫秒）
+    private static final int MAX_LOG_LINES_PER_WINDOW = 20;
+    private static final long LOG_WINDOW_MILLIS = 10_000;
+
+    // 插件实例，用于记录日志和获取数据目录
+    private final JavaPlugin plugin;
+    // 共享的 HTTP 传输层，用于就绪检查
+    private final HttpTransport transport;
+    // 用于轮询就绪状态和延迟重启的调度器
+    private final ScheduledExecutorService scheduler;
+    // 等待服务就绪的最长时间（毫秒）
+    private final long startupTimeoutMillis;
+    // 停止进程时等待其正常退出的最长时间（毫秒）
+    private final long shutdownTimeoutMillis;
+
+    // 就绪检查使用的服务基础地址
+    private volatile String baseUrl;
+    // 当前的 ollama serve 进程
+    private volatile Process process;
+    // 是否由本类管理进程，独立模式下为 false，此时总是视为就绪
+    private volatile boolean managing;
+    // 服务是否已就绪
+    private volatile boolean ready;
+    // 下一次重启前的等待时间（毫秒）
+    private long backoffMillis = INITIAL_BACKOFF_MILLIS;
+    // 进程最近一次就绪的时间（毫秒时间戳）
+    private volatile long readySince;
+
+    /**
+     * 构造函数，初始化 OllamaProcessSupervisor 实例。
+     *
+     * @param plugin                插件实例
+     * @param transport             共享的 HTTP 传输层
+     * @param startupTimeoutMillis  等待服务就绪的最长时间（毫秒）
+     * @param shutdownTimeoutMillis 停止进程时等待其正常退出的最长时间（毫秒）
+     */
+    public OllamaProcessSupervisor(JavaPlugin plugin, HttpTransport transport, long startupTimeoutMillis,
+                                   long shutdownTimeoutMillis) {
+        this.plugin = plugin;
+        this.transport = transport;
+        this.startupTimeoutMillis = startupTimeoutMillis;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OllamaChat-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动 ollama serve 进程并开始监控。
+     *
+     * @param serviceUrl 内置服务的地址，用于就绪检查
+     */
+    public synchronized void start(String serviceUrl) {
+        this.baseUrl = OllamaEndpointPool.toBaseUrl(serviceUrl);
+        this.managing = true;
+        this.backoffMillis = INITIAL_BACKOFF_MILLIS;
+        launch();
+    }
+
+    /**
+     * 停止进程：先请求正常退出，超过等待时间后强制结束。停止后不会再自动重启。
+     */
+    public void stop() {
+        Process current;
+        synchronized (this) {
+            managing = false;
+            ready = false;
+            current = process;
+            process = null;
+        }
+        if (current == null || !current.isAlive()) {
+            return;
+        }
+        current.destroy();
+        try {
+            if (!current.waitFor(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                plugin.getLogger().warning("Ollama service did not exit in time, killing it.");
+                current.destroyForcibly();
+                current.waitFor(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            current.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        plugin.getLogger().info("Ollama service stopped.");
+    }
+
+    /**
+     * 停止进程并关闭监控使用的调度器，插件禁用时调用。
+     */
+    public void shutdown() {
+        stop();
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 判断服务是否就绪。没有管理进程时（独立模式）总是返回 true。
+     *
+     * @return 服务就绪时返回 true
+     */
+    public boolean isReady() {
+        return !managing || ready;
+    }
+
+    /**
+     * 阻塞等待服务就绪，应在异步线程中调用。
+     *
+     * @return 在启动超时时间内就绪时返回 true
+     */
+    public boolean awaitReady() {
+        long deadline = System.currentTimeMillis() + startupTimeoutMillis;
+        while (!isReady()) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(READY_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 启动进程，并开始读取输出、检查就绪状态和监听进程退出。
+     */
+    private synchronized void launch() {
+        if (!managing) {
+            return;
+        }
+        ready = false;
+        String os = System.getProperty("os.name").toLowerCase();
+        String executableName = os.contains("win") ? "ollama.exe" : "ollama";
+        File ollamaExecutable = new File(plugin.getDataFolder(), "ollama/" + executableName);
+        if (!ollamaExecutable.exists()) {
+            plugin.getLogger().severe("Ollama executable not found!");
+            managing = false;
+            return;
+        }
+
+        ProcessBuilder pb = new ProcessBuilder(ollamaExecutable.getAbsolutePath(), "serve");
+        pb.directory(plugin.getDataFolder());
+        // 合并标准错误和标准输出，只需要一个线程读取
+        pb.redirectErrorStream(true);
+        Process started;
+        try {
+            started = pb.start();
+        } catch (IOException e) {
+            plugin.getLogger().severe("Failed to start Ollama service: " + e.getMessage());
+            scheduleRestart();
+            return;
+        }
+        process = started;
+        plugin.getLogger().info("Ollama service started, waiting for it to become ready...");
+
+        Thread.ofVirtual().name("OllamaChat-process-output").start(() -> drainOutput(started));
+        scheduler.schedule(() -> pollReady(started, System.currentTimeMillis() + startupTimeoutMillis),
+                READY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        started.onExit().thenRun(() -> onProcessExit(started));
+    }
+
+    /**
+     * 持续读取进程输出，避免管道缓冲区写满导致进程阻塞。输出过多时限速记录并统计被省略的行数。
+     *
+     * @param target 被读取的进程
+     */
+    private void drainOutput(Process target) {
+        long windowStart = System.currentTimeMillis();
+        int loggedInWindow = 0;
+        int suppressed = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(target.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long now = System.currentTimeMillis();
+                if (now - windowStart >= LOG_WINDOW_MILLIS) {
+                    if (suppressed > 0) {
+                        plugin.getLogger().info("[ollama] ... " + suppressed + " more lines suppressed");
+                    }
+                    windowStart = now;
+                    loggedInWindow = 0;
+                    suppressed = 0;
+                }
+                if (loggedInWindow < MAX_LOG_LINES_PER_WINDOW) {
+                    plugin.getLogger().info("[ollama] " + line);
+                    loggedInWindow++;
+                } else {
+                    suppressed++;
+                }
+            }
+        } catch (IOException e) {
+            // 进程退出时输出流会被关闭，无需处理
+        }
+    }
+
+    /**
+     * 轮询服务的 HTTP 接口，直到就绪、进程退出或超过启动超时时间。
+     *
+     * @param target   被检查的进程
+     * @param deadline 启动超时的截止时间（毫秒时间戳）
+     */
+    private void pollReady(Process target, long deadline) {
+        if (target != process || !target.isAlive()) {
+            return;
+        }
+        try {
+            transport.get(baseUrl + "/api/version", READY_PROBE_TIMEOUT_MILLIS, response -> null);
+            ready = true;
+            readySince = System.currentTimeMillis();
+            plugin.getLogger().info("Ollama service is ready.");
+            return;
+        } catch (IOException e) {
+            // 服务尚未开始监听端口，稍后重试
+        }
+        if (System.currentTimeMillis() >= deadline) {
+            plugin.getLogger().warning("Ollama service did not become ready within "
+                    + startupTimeoutMillis / 1000 + " seconds, still waiting.");
+            deadline = Long.MAX_VALUE;
+        }
+        long nextDeadline = deadline;
+        scheduler.schedule(() -> pollReady(target, nextDeadline), READY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 进程退出时调用。不是主动停止的情况下按指数退避重启。
+     *
+     * @param exited 已退出的进程
+     */
+    private synchronized void onProcessExit(Process exited) {
+        if (exited != process || !managing) {
+            return;
+        }
+        ready = false;
+        process = null;
+        plugin.getLogger().warning("Ollama service exited unexpectedly with code " + exited.exitValue() + ".");
+        // 进程稳定运行过一段时间后，重新从最短的等待时间开始
+        if (readySince > 0 && System.currentTimeMillis() - readySince >= STABLE_UPTIME_MILLIS) {
+            backoffMillis = INITIAL_BACKOFF_MILLIS;
+        }
+        scheduleRestart();
+    }
+
+    /**
+     * 在当前的退避时间后重启进程，并把下一次的退避时间翻倍。
+     */
+    private synchronized void scheduleRestart() {
+        if (!managing || scheduler.isShutdown()) {
+            return;
+        }
+        long delay = backoffMillis;
+        backoffMillis = Math.min(backoffMillis * 2, MAX_BACKOFF_MILLIS);
+        plugin.getLogger().info("Restarting Ollama service in " + delay / 1000.0 + " seconds.");
+        scheduler.schedule(this::launch, delay, TimeUnit.MILLISECONDS);
+    }
+}
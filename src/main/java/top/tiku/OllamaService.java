@@ -1,14 +1,9 @@
 package top.tiku;
 
 import org.bukkit.command.CommandSender;
-import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitScheduler;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 public class OllamaService {
@@ -16,157 +11,167 @@ public class OllamaService {
     private JavaPlugin plugin;
     private ConfigManager configManager;
     private OllamaClient ollamaClient;
-    private Process ollamaProcess;
+    private OllamaEndpointPool endpointPool;
+    private ModelResidencyTracker residencyTracker;
+    private OllamaProcessSupervisor processSupervisor;
+    private ModelWarmer modelWarmer;
+    private ModelPuller modelPuller;
     private BossBarManager bossBarManager;
+    // 当前生效的服务模式和内置服务地址，重新加载配置时用于判断是否需要重启内置 Ollama
+    private String activeMode;
+    private String activeBuiltInUrl;
 
-    public OllamaService(JavaPlugin plugin, ConfigManager configManager) {
+    public OllamaService(JavaPlugin plugin, ConfigManager configManager, HttpTransport transport) {
         this.plugin = plugin;
         this.configManager = configManager;
         this.bossBarManager = new BossBarManager();
+        this.processSupervisor = new OllamaProcessSupervisor(plugin, transport,
+                configManager.getStartupTimeoutSeconds() * 1000L, configManager.getShutdownTimeoutSeconds() * 1000L);
 
         String ollamaMode = configManager.getOllamaMode();
-        String ollamaUrl;
+        activeMode = ollamaMode;
+        activeBuiltInUrl = configManager.getOllamaBuiltInUrl();
         if ("built-in".equals(ollamaMode)) {
             startOllama();
-            ollamaUrl = configManager.getOllamaBuiltInUrl();
-        } else {
-            ollamaUrl = configManager.getOllamaStandaloneUrl();
         }
+        endpointPool = new OllamaEndpointPool(plugin, transport, getEndpointUrls(ollamaMode),
+                configManager.getEjectAfterFailures());
 
         String ollamaModel = configManager.getOllamaModel();
-        ollamaClient = new OllamaClient(plugin, ollamaModel, ollamaUrl);
+        ollamaClient = new OllamaClient(plugin, transport, ollamaModel, endpointPool, processSupervisor,
+                configManager.getOllamaKeepAlive());
+        // 预加载当前模型，避免第一个玩家等待模型加载
+        modelWarmer = new ModelWarmer(plugin, ollamaClient);
+        warmUp(null);
+        modelPuller = new ModelPuller(plugin, configManager, transport, endpointPool, processSupervisor, bossBarManager);
+
+        // 定期在异步线程中检查各个节点的健康状态
+        long healthCheckTicks = configManager.getHealthCheckIntervalSeconds() * 20L;
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, endpointPool::checkHealth,
+                healthCheckTicks, healthCheckTicks);
+
+        // 定期查询各个节点已加载的模型，供请求执行器按模型分组调度
+        residencyTracker = new ModelResidencyTracker(plugin, transport, endpointPool);
+        long residencyPollTicks = configManager.getResidencyPollIntervalSeconds() * 20L;
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, residencyTracker::poll,
+                0L, residencyPollTicks);
     }
 
     public void startOllama() {
-        try {
-            String os = System.getProperty("os.name").toLowerCase();
-            String executableName = os.contains("win") ? "ollama.exe" : "ollama";
-            File ollamaExecutable = new File(plugin.getDataFolder(), "ollama/" + executableName);
-            if (!ollamaExecutable.exists()) {
-                plugin.getLogger().severe("Ollama executable not found!");
-                return;
-            }
-
-            ProcessBuilder pb = new ProcessBuilder(ollamaExecutable.getAbsolutePath(), "serve");
-            pb.directory(plugin.getDataFolder());
-            ollamaProcess = pb.start();
-            plugin.getLogger().info("Ollama service started.");
-        } catch (IOException e) {
-            plugin.getLogger().severe("Failed to start Ollama service: " + e.getMessage());
-        }
+        processSupervisor.start(configManager.getOllamaBuiltInUrl());
     }
 
     public void stopOllama() {
-        if (ollamaProcess != null && ollamaProcess.isAlive()) {
-            ollamaProcess.destroy();
-            plugin.getLogger().info("Ollama service stopped.");
-        }
+        processSupervisor.stop();
     }
 
-    public boolean changeModel(String newModel) {
+    public void shutdown() {
+        bossBarManager.hideAll();
+        processSupervisor.shutdown();
+    }
+
+    public boolean changeModel(String newModel, CommandSender notifier) {
         if (configManager.getAvailableModels().contains(newModel)) {
             configManager.setOllamaModel(newModel);
             ollamaClient.setModel(newModel);
+            warmUp(notifier);
             return true;
         }
         return false;
     }
 
-    public boolean changeMode(String newMode) {
+    public boolean changeMode(String newMode, CommandSender notifier) {
         if ("built-in".equals(newMode) || "standalone".equals(newMode)) {
             configManager.setOllamaMode(newMode);
-            stopOllama();
-            String ollamaUrl;
-            if ("built-in".equals(newMode)) {
-                startOllama();
-                ollamaUrl = configManager.getOllamaBuiltInUrl();
-            } else {
-                ollamaUrl = configManager.getOllamaStandaloneUrl();
-            }
-            ollamaClient.setUrl(ollamaUrl);
+            switchMode(newMode, notifier);
             return true;
         }
         return false;
     }
 
-    public String sendRequest(String userMessage) {
-        return ollamaClient.sendRequestToOllama(userMessage);
+    /**
+     * 重新加载配置后调用：更新节点列表、模型和保持加载时间，
+     * 服务模式或内置服务地址变化时重启内置 Ollama，模型变化时预热新模型。
+     *
+     * @param notifier 预热结束后接收通知的命令发送者，可以为 null
+     */
+    public void reload(CommandSender notifier) {
+        ollamaClient.setKeepAlive(configManager.getOllamaKeepAlive());
+        String newModel = configManager.getOllamaModel();
+        boolean modelChanged = !newModel.equals(ollamaClient.getModel());
+        ollamaClient.setModel(newModel);
+
+        String newMode = configManager.getOllamaMode();
+        if (!newMode.equals(activeMode)
+                || ("built-in".equals(newMode) && !configManager.getOllamaBuiltInUrl().equals(activeBuiltInUrl))) {
+            switchMode(newMode, notifier);
+            return;
+        }
+        endpointPool.setEndpoints(getEndpointUrls(newMode));
+        if (modelChanged) {
+            warmUp(notifier);
+        }
     }
 
-    public void showTypingEffectByLine(CommandSender sender, String response) {
-        String[] lines = response.split("\n");
-        BukkitScheduler scheduler = plugin.getServer().getScheduler();
-        long lineDelay = configManager.getLineDelay();
-        for (int i = 0; i < lines.length; i++) {
-            final int lineIndex = i;
-            scheduler.runTaskLater(plugin, () -> {
-                sender.sendMessage(lines[lineIndex]);
-            }, i * lineDelay);
+    private void switchMode(String newMode, CommandSender notifier) {
+        activeMode = newMode;
+        activeBuiltInUrl = configManager.getOllamaBuiltInUrl();
+        // 停止进程时需要等待其退出，放到异步线程中执行，避免阻塞主线程
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            stopOllama();
+            if ("built-in".equals(newMode)) {
+                startOllama();
+            }
+            warmUp(notifier);
+        });
+        endpointPool.setEndpoints(getEndpointUrls(newMode));
+    }
+
+    /**
+     * 在异步线程中预热当前模型，配置中关闭预热时不做任何操作。
+     *
+     * @param notifier 预热结束后接收通知的命令发送者，可以为 null
+     * @return 已开始预热时返回 true
+     */
+    public boolean warmUp(CommandSender notifier) {
+        if (!configManager.isWarmUpEnabled()) {
+            return false;
         }
+        // 按默认生成档位的上下文长度加载模型，使之后的请求不会触发重新加载
+        GenerationProfile profile = configManager.getGenerationProfile(configManager.getDefaultGenerationProfile());
+        modelWarmer.warmUp(ollamaClient.getModel(), profile == null ? 0 : profile.getNumCtx(), notifier);
+        return true;
     }
 
-    public void downloadModel(CommandSender sender, String model) {
-        if (!(sender instanceof Player)) {
-            sender.sendMessage("只有玩家可以下载模型。");
-            return;
+    private List<String> getEndpointUrls(String mode) {
+        if ("built-in".equals(mode)) {
+            return List.of(configManager.getOllamaBuiltInUrl());
         }
-        Player player = (Player) sender;
-        bossBarManager.showBossBar(player, "正在下载模型: " + model);
-
-        try {
-            String os = System.getProperty("os.name").toLowerCase();
-            String executableName = os.contains("win") ? "ollama.exe" : "ollama";
-            File ollamaExecutable = new File(plugin.getDataFolder(), "ollama/" + executableName);
-            if (!ollamaExecutable.exists()) {
-                sender.sendMessage("Ollama executable not found!");
-                bossBarManager.hideBossBar(player);
-                return;
-            }
+        // 独立模式下配置了多个地址时在它们之间做负载均衡
+        List<String> endpoints = configManager.getOllamaEndpoints();
+        if (!endpoints.isEmpty()) {
+            return endpoints;
+        }
+        return List.of(configManager.getOllamaStandaloneUrl());
+    }
 
-            // 创建模型存储文件夹
-            File modelsFolder = new File(plugin.getDataFolder(), "models");
-            if (!modelsFolder.exists()) {
-                modelsFolder.mkdirs();
-            }
+    public OllamaClient getClient() {
+        return ollamaClient;
+    }
 
-            // 修改命令，指定模型存储路径
-            ProcessBuilder pb = new ProcessBuilder(
-                    ollamaExecutable.getAbsolutePath(),
-                    "pull",
-                    model,
-                    "--dir",
-                    modelsFolder.getAbsolutePath()
-            );
-            pb.directory(plugin.getDataFolder());
-            Process process = pb.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            double progress = 0.0;
-            while ((line = reader.readLine()) != null) {
-                if (line.contains("%")) {
-                    try {
-                        int percentIndex = line.indexOf("%");
-                        String progressStr = line.substring(0, percentIndex).trim();
-                        progress = Double.parseDouble(progressStr) / 100.0;
-                        bossBarManager.updateBossBarProgress(player, progress);
-                    } catch (NumberFormatException e) {
-                        plugin.getLogger().warning("无法解析下载进度: " + line);
-                    }
-                }
-            }
+    public ModelResidencyTracker getResidencyTracker() {
+        return residencyTracker;
+    }
 
-            int exitCode = process.waitFor();
-            if (exitCode == 0) {
-                sender.sendMessage("模型 " + model + " 下载成功。");
-                sender.sendMessage("你可以使用 /ollama setmodel " + model + " 命令来启用该模型。");
-            } else {
-                sender.sendMessage("下载模型 " + model + " 失败。");
-            }
-        } catch (IOException | InterruptedException e) {
-            sender.sendMessage("下载模型时出错: " + e.getMessage());
-        } finally {
-            bossBarManager.hideBossBar(player);
-        }
+    public ModelWarmer getModelWarmer() {
+        return modelWarmer;
+    }
+
+    public String sendRequest(String userMessage) {
+        return ollamaClient.sendRequest(userMessage);
+    }
+
+    public boolean downloadModel(CommandSender sender, String model) {
+        return modelPuller.pull(sender, model);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,299 @@
+package top.tiku;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * PluginMetrics 类收集请求路径上的运行指标：排队时间、首个 token 的延迟、总耗时、生成速度，
+ * 以及按后端和模型统计的请求、错误、超时和取消次数。记录操作只更新计数器，可以在任意线程中调用。
+ * 指标可以通过 /ollama stats 查看，也可以由 {@link MetricsHttpServer} 以 Prometheus 文本格式导出。
+ */
+public class PluginMetrics {
+
+    // 延迟直方图的桶上界（秒）
+    private static final double[] LATENCY_BUCKETS = {
+            0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300
+    };
+    // 生成速度直方图的桶上界（tokens/s）
+    private static final double[] SPEED_BUCKETS = {1, 2, 5, 10, 20, 30, 50, 75, 100, 150, 200, 300};
+
+    // 请求执行器，用于读取队列长度和正在执行的请求数
+    private final RequestExecutor requestExecutor;
+    // 回复缓存，用于读取命中和未命中的次数
+    private final ResponseCache responseCache;
+    // 语义缓存，用于读取命中和未命中的次数
+    private final SemanticCache semanticCache;
+    // 后端路由，用于读取熔断器的状态和故障转移的次数
+    private final BackendRouter backendRouter;
+    // 请求在执行器队列中等待的时间（秒）
+    private final MetricsHistogram queueWait = new MetricsHistogram(LATENCY_BUCKETS);
+    // 从提交请求到收到第一个 token 的时间（秒）
+    private final MetricsHistogram timeToFirstToken = new MetricsHistogram(LATENCY_BUCKETS);
+    // 从提交请求到回复完成的时间（秒）
+    private final MetricsHistogram totalLatency = new MetricsHistogram(LATENCY_BUCKETS);
+    // 根据 Ollama 返回的 eval_count 和 eval_duration 计算的生成速度（tokens/s）
+    private final MetricsHistogram tokensPerSecond = new MetricsHistogram(SPEED_BUCKETS);
+    // 合并到正在生成的相同请求上的次数
+    private final LongAdder coalesced = new LongAdder();
+    // 因队列已满被拒绝的次数
+    private final LongAdder rejected = new LongAdder();
+    // 因超出配额被拒绝的次数
+    private final LongAdder throttled = new LongAdder();
+    // 按后端和模型统计的计数，键为 "后端/模型"
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 PluginMetrics 实例。
+     *
+     * @param requestExecutor 请求执行器
+     * @param responseCache   回复缓存
+     * @param semanticCache   语义缓存
+     * @param backendRouter   后端路由
+     */
+    public PluginMetrics(RequestExecutor requestExecutor, ResponseCache responseCache, SemanticCache semanticCache,
+                         BackendRouter backendRouter) {
+        this.requestExecutor = requestExecutor;
+        this.responseCache = responseCache;
+        this.semanticCache = semanticCache;
+        this.backendRouter = backendRouter;
+    }
+
+    /**
+     * 记录一个发往后端的请求。
+     *
+     * @param backend 后端名称
+     * @param model   模型名称
+     */
+    public void recordRequest(String backend, String model) {
+        series(backend, model).requests.increment();
+    }
+
+    /**
+     * 记录请求在队列中等待的时间。
+     *
+     * @param nanos 等待时间（纳秒）
+     */
+    public void recordQueueWait(long nanos) {
+        queueWait.record(nanos / 1e9);
+    }
+
+    /**
+     * 记录从提交请求到收到第一个 token 的时间。
+     *
+     * @param nanos 首个 token 的延迟（纳秒）
+     */
+    public void recordTimeToFirstToken(long nanos) {
+        timeToFirstToken.record(nanos / 1e9);
+    }
+
+    /**
+     * 记录一个完成的请求的总耗时和生成速度。
+     *
+     * @param nanos     从提交到完成的时间（纳秒）
+     * @param evalCount 生成的 token 数，后端没有返回时为 0
+     * @param evalNanos 生成所用的时间（纳秒），后端没有返回时为 0
+     */
+    public void recordCompletion(long nanos, long evalCount, long evalNanos) {
+        totalLatency.record(nanos / 1e9);
+        if (evalCount > 0 && evalNanos > 0) {
+            tokensPerSecond.record(evalCount * 1e9 / evalNanos);
+        }
+    }
+
+    /**
+     * 记录一个以错误结束的请求。
+     *
+     * @param backend 后端名称
+     * @param model   模型名称
+     */
+    public void recordError(String backend, String model) {
+        series(backend, model).errors.increment();
+    }
+
+    /**
+     * 记录一个被取消的请求，包括超时取消的请求。
+     *
+     * @param backend 后端名称
+     * @param model   模型名称
+     */
+    public void recordCancelled(String backend, String model) {
+        series(backend, model).cancelled.increment();
+    }
+
+    /**
+     * 记录一个超时的请求。
+     *
+     * @param backend 后端名称
+     * @param model   模型名称
+     */
+    public void recordTimeout(String backend, String model) {
+        series(backend, model).timeouts.increment();
+    }
+
+    /**
+     * 记录一个合并到正在生成的相同请求上的请求。
+     */
+    public void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    /**
+     * 记录一个因队列已满被拒绝的请求。
+     */
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    /**
+     * 记录一个因超出配额被拒绝的请求。
+     */
+    public void recordThrottled() {
+        throttled.increment();
+    }
+
+    /**
+     * 生成供 /ollama stats 显示的摘要，延迟以毫秒显示。
+     *
+     * @return 每行一条的摘要
+     */
+    public List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        lines.add("队列: 等待 " + requestExecutor.getQueueSize() + " 个，执行中 " + requestExecutor.getRunningCount()
+                + " 个，已拒绝 " + rejected.sum() + " 个，超出配额 " + throttled.sum() + " 个");
+        lines.add("排队时间: " + percentiles(queueWait));
+        lines.add("首个 token: " + percentiles(timeToFirstToken));
+        lines.add("总耗时: " + percentiles(totalLatency));
+        lines.add(String.format(Locale.ROOT, "生成速度: 平均 %.1f tokens/s，p50 %.1f tokens/s（%d 次）",
+                tokensPerSecond.getMean(), tokensPerSecond.getQuantile(0.5), tokensPerSecond.getCount()));
+        lines.add("缓存: 命中 " + responseCache.getHits() + "，未命中 " + responseCache.getMisses()
+                + "，合并请求 " + coalesced.sum());
+        if (semanticCache.isEnabled()) {
+            lines.add("语义缓存: 命中 " + semanticCache.getHits() + "，未命中 " + semanticCache.getMisses()
+                    + "，条目 " + semanticCache.size());
+        }
+        for (Map.Entry<String, Series> entry : new TreeMap<>(series).entrySet()) {
+            Series s = entry.getValue();
+            lines.add(entry.getKey() + ": 请求 " + s.requests.sum() + "，错误 " + s.errors.sum()
+                    + "，超时 " + s.timeouts.sum() + "，取消 " + s.cancelled.sum());
+        }
+        lines.addAll(backendRouter.describe());
+        return lines;
+    }
+
+    /**
+     * 以 Prometheus 文本格式导出所有指标。
+     *
+     * @return Prometheus 文本格式的指标
+     */
+    public String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        queueWait.writePrometheus(out, "ollamachat_queue_wait_seconds",
+                "Time requests spent waiting in the executor queue.");
+        timeToFirstToken.writePrometheus(out, "ollamachat_time_to_first_token_seconds",
+                "Time from submission to the first generated token.");
+        totalLatency.writePrometheus(out, "ollamachat_request_duration_seconds",
+                "Time from submission to the end of the reply.");
+        tokensPerSecond.writePrometheus(out, "ollamachat_tokens_per_second",
+                "Generation speed reported by Ollama (eval_count / eval_duration).");
+        gauge(out, "ollamachat_queue_depth", "Requests waiting in the executor queue.",
+                requestExecutor.getQueueSize());
+        gauge(out, "ollamachat_requests_running", "Requests currently being generated.",
+                requestExecutor.getRunningCount());
+        counter(out, "ollamachat_cache_hits_total", "Response cache hits.", responseCache.getHits());
+        counter(out, "ollamachat_cache_misses_total", "Response cache misses.", responseCache.getMisses());
+        counter(out, "ollamachat_semantic_cache_hits_total", "Semantic cache hits.", semanticCache.getHits());
+        counter(out, "ollamachat_semantic_cache_misses_total", "Semantic cache misses.", semanticCache.getMisses());
+        counter(out, "ollamachat_requests_coalesced_total", "Requests joined to an identical in-flight request.",
+                coalesced.sum());
+        counter(out, "ollamachat_requests_rejected_total", "Requests rejected because the queue was full.",
+                rejected.sum());
+        counter(out, "ollamachat_requests_throttled_total", "Requests rejected because the sender exceeded a quota.",
+                throttled.sum());
+        counter(out, "ollamachat_failovers_total", "Requests moved to the next backend after a failure.",
+                backendRouter.getFailovers());
+        counter(out, "ollamachat_hedged_requests_total", "Duplicate requests sent to the next backend.",
+                backendRouter.getHedges());
+        counter(out, "ollamachat_hedge_wins_total", "Hedged requests that started streaming first.",
+                backendRouter.getHedgeWins());
+        out.append("# HELP ollamachat_circuit_state Circuit breaker state (0 closed, 1 half-open, 2 open).\n");
+        out.append("# TYPE ollamachat_circuit_state gauge\n");
+        for (CircuitBreaker breaker : backendRouter.getBreakers()) {
+            int state = switch (breaker.getState()) {
+                case CLOSED -> 0;
+                case HALF_OPEN -> 1;
+                case OPEN -> 2;
+            };
+            out.append("ollamachat_circuit_state{backend=\"").append(escape(breaker.getName())).append("\"} ")
+                    .append(state).append('\n');
+        }
+        Map<String, Series> sorted = new TreeMap<>(series);
+        seriesCounter(out, sorted, "ollamachat_requests_total", "Requests sent to a backend.", s -> s.requests);
+        seriesCounter(out, sorted, "ollamachat_errors_total", "Requests that ended with an error.", s -> s.errors);
+        seriesCounter(out, sorted, "ollamachat_timeouts_total", "Requests cancelled by the request deadline.",
+                s -> s.timeouts);
+        seriesCounter(out, sorted, "ollamachat_cancelled_total", "Requests cancelled before completion.",
+                s -> s.cancelled);
+        return out.toString();
+    }
+
+    private Series series(String backend, String model) {
+        return series.computeIfAbsent(backend + "/" + model, key -> new Series(backend, model));
+    }
+
+    private static String percentiles(MetricsHistogram histogram) {
+        return String.format(Locale.ROOT, "p50 %.0f ms，p95 %.0f ms，p99 %.0f ms（%d 次）",
+                histogram.getQuantile(0.5) * 1000, histogram.getQuantile(0.95) * 1000,
+                histogram.getQuantile(0.99) * 1000, histogram.getCount());
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void seriesCounter(StringBuilder out, Map<String, Series> sorted, String name, String help,
+                                      Function<Series, LongAdder> field) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Series s : sorted.values()) {
+            out.append(name).append("{backend=\"").append(escape(s.backend))
+                    .append("\",model=\"").append(escape(s.model)).append("\"} ")
+                    .append(field.apply(s).sum()).append('\n');
+        }
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Series 类保存某个后端和模型的计数。
+     */
+    private static class Series {
+
+        private final String backend;
+        private final String model;
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+
+        Series(String backend, String model) {
+            this.backend = backend;
+            this.model = model;
+        }
+    }
+}
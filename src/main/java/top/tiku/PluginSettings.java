@@ -0,0 +1,742 @@
+package top.tiku;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PluginSettings 类是配置文件的不可变快照。加载时一次性读取并校验所有配置项，
+ * 无效的值会被替换为默认值并记录问题；之后的读取不再访问 FileConfiguration，可以在任意线程中使用。
+ */
+public final class PluginSettings {
+
+    // Ollama 配置
+    private final String ollamaMode;
+    private final String ollamaModel;
+    private final List<String> availableModels;
+    private final String ollamaBuiltInUrl;
+    private final String ollamaStandaloneUrl;
+    private final List<String> ollamaEndpoints;
+    private final long healthCheckIntervalSeconds;
+    private final int ejectAfterFailures;
+    private final long residencyPollIntervalSeconds;
+    private final long startupTimeoutSeconds;
+    private final long shutdownTimeoutSeconds;
+    private final Object ollamaKeepAlive;
+    private final boolean warmUpEnabled;
+    private final boolean ollamaStreamEnabled;
+
+    // 新 API 配置
+    private final String newApiModel;
+    private final String newApiUrl;
+    private final String newApiKey;
+
+    // 后端选择，apiTypes 是依次尝试的后端
+    private final List<String> apiTypes;
+    private final List<String> enabledBackends;
+
+    // 熔断和对冲请求配置
+    private final boolean circuitBreakerEnabled;
+    private final int circuitWindow;
+    private final int circuitMinimumRequests;
+    private final double circuitFailureRate;
+    private final long circuitSlowCallMillis;
+    private final double circuitSlowCallRate;
+    private final long circuitOpenSeconds;
+    private final int circuitHalfOpenProbes;
+    private final boolean hedgeEnabled;
+    private final long hedgeDelayMillis;
+
+    // 回复缓存配置
+    private final boolean cacheEnabled;
+    private final int cacheMaxEntries;
+    private final long cacheTtlMinutes;
+    private final boolean cachePersistent;
+    private final boolean semanticCacheEnabled;
+    private final String semanticCacheModel;
+    private final double semanticCacheThreshold;
+    private final int semanticCacheMaxEntries;
+
+    // 知识库配置
+    private final boolean knowledgeEnabled;
+    private final String knowledgeModel;
+    private final int knowledgeChunkChars;
+    private final int knowledgeTopK;
+    private final double knowledgeMinScore;
+
+    // 共享状态配置
+    private final String sharedStateType;
+    private final String sharedStateKeyPrefix;
+    private final long sharedStateInflightWaitSeconds;
+    private final String redisHost;
+    private final int redisPort;
+    private final String redisPassword;
+    private final int redisDatabase;
+    private final int redisTimeoutMillis;
+    private final int redisPoolSize;
+
+    // 聊天触发配置
+    private final boolean chatTriggerEnabled;
+    private final String chatTriggerPrefix;
+    private final List<String> chatTriggerMentions;
+    private final long chatTriggerDebounceMillis;
+    private final boolean chatTriggerPublicReply;
+
+    // 会话配置
+    private final boolean sessionEnabled;
+    private final String sessionMode;
+    private final int sessionTokenBudget;
+    private final long sessionIdleMinutes;
+
+    // 回复输出配置
+    private final int deliveryCharsPerTick;
+    private final int deliveryLineWidth;
+    private final int deliveryPageLines;
+
+    // 请求执行器配置
+    private final int maxConcurrentRequests;
+    private final int requestQueueCapacity;
+    private final long maxAffinityWaitSeconds;
+    private final long requestDeadlineSeconds;
+
+    // HTTP 连接配置
+    private final int httpConnectTimeoutMillis;
+    private final int httpReadTimeoutMillis;
+    private final long httpTotalTimeoutMillis;
+    private final int httpMaxConnections;
+    private final int httpMaxConnectionsPerRoute;
+    private final long httpKeepAliveMillis;
+    private final boolean httpGzipRequests;
+    private final boolean httpGzipResponses;
+
+    // 指标导出配置
+    private final boolean metricsEndpointEnabled;
+    private final String metricsHost;
+    private final int metricsPort;
+
+    // 配额配置，配额组按优先级从高到低排列
+    private final boolean quotasEnabled;
+    private final List<QuotaGroup> quotaGroups;
+
+    // 生成档位配置
+    private final Map<String, GenerationProfile> generationProfiles;
+    private final String defaultGenerationProfile;
+    private final boolean adaptiveGenerationEnabled;
+    private final int adaptiveQueueThreshold;
+    private final int adaptiveQueueStep;
+    private final int adaptiveMaxLevel;
+    private final long adaptiveRestoreSeconds;
+    private final int adaptiveMinNumPredict;
+
+    // 加载时发现的问题，用于在日志和 /ollama reload 中提示
+    private final List<String> problems;
+
+    private PluginSettings(FileConfiguration config) {
+        List<String> found = new ArrayList<>();
+
+        ollamaMode = oneOf(config, "ollama.mode", "built-in", found, "built-in", "standalone");
+        ollamaModel = config.getString("ollama.current_model", "llama2:7b");
+        availableModels = List.copyOf(config.getStringList("ollama.available_models"));
+        if (!availableModels.contains(ollamaModel)) {
+            found.add("ollama.current_model '" + ollamaModel + "' is not listed in ollama.available_models");
+        }
+        ollamaBuiltInUrl = url(config, "ollama.built_in_url", "http://localhost:11434/api/generate", found);
+        ollamaStandaloneUrl = url(config, "ollama.standalone_url", "http://external-ollama-server:11434/api/generate", found);
+        List<String> endpoints = new ArrayList<>();
+        for (String endpoint : config.getStringList("ollama.endpoints")) {
+            if (isHttpUrl(endpoint)) {
+                endpoints.add(endpoint);
+            } else {
+                found.add("ignored invalid URL in ollama.endpoints: " + endpoint);
+            }
+        }
+        ollamaEndpoints = List.copyOf(endpoints);
+        healthCheckIntervalSeconds = Math.max(1, config.getLong("ollama.health-check-interval", 15));
+        ejectAfterFailures = Math.max(1, config.getInt("ollama.eject-after-failures", 3));
+        residencyPollIntervalSeconds = Math.max(1, config.getLong("ollama.residency-poll-interval", 10));
+        startupTimeoutSeconds = Math.max(1, config.getLong("ollama.startup-timeout", 60));
+        shutdownTimeoutSeconds = Math.max(1, config.getLong("ollama.shutdown-timeout", 10));
+        Object keepAlive = config.get("ollama.keep-alive", "30m");
+        ollamaKeepAlive = keepAlive instanceof Number || keepAlive instanceof String ? keepAlive : "30m";
+        warmUpEnabled = config.getBoolean("ollama.warm-up", true);
+        ollamaStreamEnabled = config.getBoolean("ollama.stream", true);
+
+        newApiModel = config.getString("new-api.model", "default-model");
+        newApiUrl = url(config, "new-api.url", "https://example.com/api/generate", found);
+        newApiKey = config.getString("new-api.key", "your_api_key_here");
+
+        // api-type 可以是单个后端，也可以是按顺序尝试的后端列表
+        List<String> types = config.isList("api-type")
+                ? new ArrayList<>(config.getStringList("api-type"))
+                : new ArrayList<>(List.of(config.getString("api-type", "ollama")));
+        enabledBackends = config.contains("backends")
+                ? List.copyOf(config.getStringList("backends"))
+                : List.of("ollama", "new-api");
+        for (String type : types) {
+            if (!enabledBackends.contains(type)) {
+                found.add("api-type '" + type + "' is not listed in backends");
+            }
+        }
+        if (types.isEmpty()) {
+            found.add("api-type is empty, using 'ollama'");
+            types.add("ollama");
+        }
+        apiTypes = List.copyOf(types.stream().distinct().toList());
+
+        circuitBreakerEnabled = config.getBoolean("failover.circuit-breaker.enabled", true);
+        circuitWindow = Math.max(1, config.getInt("failover.circuit-breaker.window", 20));
+        circuitMinimumRequests = Math.max(1, config.getInt("failover.circuit-breaker.minimum-requests", 5));
+        circuitFailureRate = rate(config, "failover.circuit-breaker.failure-rate", 0.5, found);
+        circuitSlowCallMillis = Math.max(1, config.getLong("failover.circuit-breaker.slow-call-ms", 60000));
+        circuitSlowCallRate = rate(config, "failover.circuit-breaker.slow-call-rate", 0.8, found);
+        circuitOpenSeconds = Math.max(1, config.getLong("failover.circuit-breaker.open-seconds", 30));
+        circuitHalfOpenProbes = Math.max(1, config.getInt("failover.circuit-breaker.half-open-probes", 1));
+        hedgeEnabled = config.getBoolean("failover.hedge.enabled", false);
+        hedgeDelayMillis = Math.max(1, config.getLong("failover.hedge.delay-ms", 10000));
+
+        cacheEnabled = config.getBoolean("cache.enabled", true);
+        cacheMaxEntries = Math.max(0, config.getInt("cache.max-entries", 500));
+        cacheTtlMinutes = Math.max(1, config.getLong("cache.ttl-minutes", 360));
+        cachePersistent = config.getBoolean("cache.persist", true);
+        semanticCacheEnabled = config.getBoolean("cache.semantic.enabled", false);
+        semanticCacheModel = config.getString("cache.semantic.model", "nomic-embed-text");
+        semanticCacheThreshold = rate(config, "cache.semantic.threshold", 0.92, found);
+        semanticCacheMaxEntries = Math.max(0, config.getInt("cache.semantic.max-entries", 500));
+
+        knowledgeEnabled = config.getBoolean("knowledge.enabled", false);
+        knowledgeModel = config.getString("knowledge.model", "nomic-embed-text");
+        knowledgeChunkChars = Math.max(100, config.getInt("knowledge.chunk-chars", 800));
+        knowledgeTopK = Math.max(1, config.getInt("knowledge.top-k", 3));
+        knowledgeMinScore = rate(config, "knowledge.min-score", 0.5, found);
+
+        sharedStateType = oneOf(config, "shared-state.type", "local", found, "local", "redis");
+        sharedStateKeyPrefix = config.getString("shared-state.key-prefix", "ollamachat:");
+        sharedStateInflightWaitSeconds = Math.max(0, config.getLong("shared-state.inflight-wait-seconds", 15));
+        redisHost = config.getString("shared-state.redis.host", "127.0.0.1");
+        int redisPortValue = config.getInt("shared-state.redis.port", 6379);
+        if (redisPortValue < 1 || redisPortValue > 65535) {
+            found.add("shared-state.redis.port " + redisPortValue + " is out of range, using 6379");
+            redisPortValue = 6379;
+        }
+        redisPort = redisPortValue;
+        redisPassword = config.getString("shared-state.redis.password", "");
+        redisDatabase = Math.max(0, config.getInt("shared-state.redis.database", 0));
+        redisTimeoutMillis = Math.max(50, config.getInt("shared-state.redis.timeout-ms", 500));
+        redisPoolSize = Math.max(1, config.getInt("shared-state.redis.pool-size", 4));
+
+        chatTriggerEnabled = config.getBoolean("chat-trigger.enabled", false);
+        chatTriggerPrefix = config.getString("chat-trigger.prefix", "@ai").trim();
+        List<String> mentions = new ArrayList<>();
+        for (String mention : config.getStringList("chat-trigger.mentions")) {
+            if (!mention.isBlank()) {
+                mentions.add(mention.trim());
+            }
+        }
+        chatTriggerMentions = List.copyOf(mentions);
+        chatTriggerDebounceMillis = Math.max(0, config.getLong("chat-trigger.debounce-ms", 1500));
+        chatTriggerPublicReply = config.getBoolean("chat-trigger.public-reply", false);
+
+        sessionEnabled = config.getBoolean("session.enabled", true);
+        sessionMode = oneOf(config, "session.mode", ChatSession.MODE_GENERATE, found,
+                ChatSession.MODE_GENERATE, ChatSession.MODE_CHAT);
+        sessionTokenBudget = Math.max(1, config.getInt("session.token-budget", 2048));
+        sessionIdleMinutes = Math.max(1, config.getLong("session.idle-minutes", 15));
+
+        deliveryCharsPerTick = Math.max(1, config.getInt("delivery.chars-per-tick", 40));
+        deliveryLineWidth = Math.max(10, config.getInt("delivery.line-width", 53));
+        deliveryPageLines = Math.max(1, config.getInt("delivery.page-lines", 20));
+
+        maxConcurrentRequests = Math.max(1, config.getInt("executor.max-concurrent", 2));
+        requestQueueCapacity = Math.max(0, config.getInt("executor.queue-capacity", 50));
+        maxAffinityWaitSeconds = Math.max(0, config.getLong("executor.max-affinity-wait-seconds", 30));
+        requestDeadlineSeconds = Math.max(0, config.getLong("executor.request-deadline-seconds", 180));
+
+        httpConnectTimeoutMillis = Math.max(1, config.getInt("http.connect-timeout-ms", 5000));
+        httpReadTimeoutMillis = Math.max(1, config.getInt("http.read-timeout-ms", 120000));
+        httpTotalTimeoutMillis = Math.max(1, config.getLong("http.total-timeout-ms", 300000));
+        httpMaxConnections = Math.max(1, config.getInt("http.max-connections", 20));
+        httpMaxConnectionsPerRoute = Math.max(1, config.getInt("http.max-connections-per-route", 10));
+        httpKeepAliveMillis = Math.max(1, config.getLong("http.keep-alive-ms", 30000));
+        httpGzipRequests = config.getBoolean("http.gzip-requests", false);
+        httpGzipResponses = config.getBoolean("http.gzip-responses", true);
+
+        metricsEndpointEnabled = config.getBoolean("metrics.prometheus.enabled", false);
+        metricsHost = config.getString("metrics.prometheus.host", "127.0.0.1");
+        int port = config.getInt("metrics.prometheus.port", 9464);
+        if (port < 1 || port > 65535) {
+            found.add("metrics.prometheus.port " + port + " is out of range, using 9464");
+            port = 9464;
+        }
+        metricsPort = port;
+
+        quotasEnabled = config.getBoolean("quotas.enabled", false);
+        List<QuotaGroup> groups = new ArrayList<>();
+        ConfigurationSection groupsSection = config.getConfigurationSection("quotas.groups");
+        if (groupsSection != null) {
+            for (String name : groupsSection.getKeys(false)) {
+                ConfigurationSection group = groupsSection.getConfigurationSection(name);
+                if (group == null) {
+                    found.add("quotas.groups." + name + " is not a section, ignoring it");
+                    continue;
+                }
+                groups.add(new QuotaGroup(name, group.getInt("priority", 0),
+                        group.getInt("requests-per-minute", 0), group.getInt("burst", 1),
+                        group.getInt("tokens-per-minute", 0), group.getInt("daily-requests", 0),
+                        group.getLong("daily-tokens", 0), group.getString("profile")));
+            }
+            if (groups.stream().noneMatch(group -> QuotaGroup.DEFAULT.equals(group.getName()))) {
+                found.add("quotas.groups has no 'default' group, players without a quota permission are not limited");
+            }
+        }
+        groups.sort(Comparator.comparingInt(QuotaGroup::getPriority).reversed());
+        quotaGroups = List.copyOf(groups);
+
+        Map<String, GenerationProfile> profiles = new LinkedHashMap<>();
+        ConfigurationSection profilesSection = config.getConfigurationSection("generation.profiles");
+        if (profilesSection != null) {
+            for (String name : profilesSection.getKeys(false)) {
+                ConfigurationSection profile = profilesSection.getConfigurationSection(name);
+                if (profile == null) {
+                    found.add("generation.profiles." + name + " is not a section, ignoring it");
+                    continue;
+                }
+                profiles.put(name, new GenerationProfile(name, profile.getInt("num-predict", 0),
+                        profile.getInt("num-ctx", 0), profile.getDouble("temperature", -1),
+                        profile.getStringList("stop")));
+            }
+        }
+        String defaultProfile = config.getString("generation.default-profile", GenerationProfile.DEFAULT);
+        if (!profiles.containsKey(defaultProfile)) {
+            if (profilesSection != null) {
+                found.add("generation.default-profile '" + defaultProfile + "' is not defined, generating without limits");
+            }
+            profiles.put(defaultProfile, GenerationProfile.unbounded(defaultProfile));
+        }
+        for (QuotaGroup group : quotaGroups) {
+            if (group.getProfile() != null && !profiles.containsKey(group.getProfile())) {
+                found.add("quotas.groups." + group.getName() + ".profile '" + group.getProfile()
+                        + "' is not defined, using " + defaultProfile);
+            }
+        }
+        generationProfiles = Collections.unmodifiableMap(profiles);
+        defaultGenerationProfile = defaultProfile;
+        adaptiveGenerationEnabled = config.getBoolean("generation.adaptive.enabled", false);
+        adaptiveQueueThreshold = Math.max(0, config.getInt("generation.adaptive.queue-threshold", 4));
+        adaptiveQueueStep = Math.max(1, config.getInt("generation.adaptive.queue-step", 4));
+        adaptiveMaxLevel = Math.max(0, Math.min(8, config.getInt("generation.adaptive.max-level", 2)));
+        adaptiveRestoreSeconds = Math.max(1, config.getLong("generation.adaptive.restore-seconds", 30));
+        adaptiveMinNumPredict = Math.max(1, config.getInt("generation.adaptive.min-num-predict", 64));
+
+        problems = Collections.unmodifiableList(found);
+    }
+
+    /**
+     * 从配置文件创建快照。
+     *
+     * @param config 配置文件对象
+     * @return 校验后的配置快照
+     */
+    public static PluginSettings load(FileConfiguration config) {
+        return new PluginSettings(config);
+    }
+
+    private static String oneOf(FileConfiguration config, String path, String defaultValue, List<String> found,
+                                String... allowed) {
+        String value = config.getString(path, defaultValue);
+        for (String candidate : allowed) {
+            if (candidate.equals(value)) {
+                return value;
+            }
+        }
+        found.add(path + " has invalid value '" + value + "', using '" + defaultValue + "'");
+        return defaultValue;
+    }
+
+    private static double rate(FileConfiguration config, String path, double defaultValue, List<String> found) {
+        double value = config.getDouble(path, defaultValue);
+        if (value > 0 && value <= 1) {
+            return value;
+        }
+        found.add(path + " must be between 0 and 1, using " + defaultValue);
+        return defaultValue;
+    }
+
+    private static String url(FileConfiguration config, String path, String defaultValue, List<String> found) {
+        String value = config.getString(path, defaultValue);
+        if (isHttpUrl(value)) {
+            return value;
+        }
+        found.add(path + " is not a valid http(s) URL, using '" + defaultValue + "'");
+        return defaultValue;
+    }
+
+    private static boolean isHttpUrl(String value) {
+        return value != null && (value.startsWith("http://") || value.startsWith("https://"));
+    }
+
+    public List<String> getProblems() {
+        return problems;
+    }
+
+    public String getOllamaMode() {
+        return ollamaMode;
+    }
+
+    public String getOllamaModel() {
+        return ollamaModel;
+    }
+
+    public List<String> getAvailableModels() {
+        return availableModels;
+    }
+
+    public String getOllamaBuiltInUrl() {
+        return ollamaBuiltInUrl;
+    }
+
+    public String getOllamaStandaloneUrl() {
+        return ollamaStandaloneUrl;
+    }
+
+    public List<String> getOllamaEndpoints() {
+        return ollamaEndpoints;
+    }
+
+    public long getHealthCheckIntervalSeconds() {
+        return healthCheckIntervalSeconds;
+    }
+
+    public int getEjectAfterFailures() {
+        return ejectAfterFailures;
+    }
+
+    public long getResidencyPollIntervalSeconds() {
+        return residencyPollIntervalSeconds;
+    }
+
+    public long getStartupTimeoutSeconds() {
+        return startupTimeoutSeconds;
+    }
+
+    public long getShutdownTimeoutSeconds() {
+        return shutdownTimeoutSeconds;
+    }
+
+    public Object getOllamaKeepAlive() {
+        return ollamaKeepAlive;
+    }
+
+    public boolean isWarmUpEnabled() {
+        return warmUpEnabled;
+    }
+
+    public boolean isOllamaStreamEnabled() {
+        return ollamaStreamEnabled;
+    }
+
+    public String getNewApiModel() {
+        return newApiModel;
+    }
+
+    public String getNewApiUrl() {
+        return newApiUrl;
+    }
+
+    public String getNewApiKey() {
+        return newApiKey;
+    }
+
+    public String getApiType() {
+        return apiTypes.get(0);
+    }
+
+    public List<String> getApiTypes() {
+        return apiTypes;
+    }
+
+    public List<String> getEnabledBackends() {
+        return enabledBackends;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public int getCacheMaxEntries() {
+        return cacheMaxEntries;
+    }
+
+    public long getCacheTtlMinutes() {
+        return cacheTtlMinutes;
+    }
+
+    public boolean isCachePersistent() {
+        return cachePersistent;
+    }
+
+    public boolean isSemanticCacheEnabled() {
+        return semanticCacheEnabled;
+    }
+
+    public String getSemanticCacheModel() {
+        return semanticCacheModel;
+    }
+
+    public double getSemanticCacheThreshold() {
+        return semanticCacheThreshold;
+    }
+
+    public int getSemanticCacheMaxEntries() {
+        return semanticCacheMaxEntries;
+    }
+
+    public boolean isKnowledgeEnabled() {
+        return knowledgeEnabled;
+    }
+
+    public String getKnowledgeModel() {
+        return knowledgeModel;
+    }
+
+    public int getKnowledgeChunkChars() {
+        return knowledgeChunkChars;
+    }
+
+    public int getKnowledgeTopK() {
+        return knowledgeTopK;
+    }
+
+    public double getKnowledgeMinScore() {
+        return knowledgeMinScore;
+    }
+
+    public String getSharedStateType() {
+        return sharedStateType;
+    }
+
+    public String getSharedStateKeyPrefix() {
+        return sharedStateKeyPrefix;
+    }
+
+    public long getSharedStateInflightWaitSeconds() {
+        return sharedStateInflightWaitSeconds;
+    }
+
+    public String getRedisHost() {
+        return redisHost;
+    }
+
+    public int getRedisPort() {
+        return redisPort;
+    }
+
+    public String getRedisPassword() {
+        return redisPassword;
+    }
+
+    public int getRedisDatabase() {
+        return redisDatabase;
+    }
+
+    public int getRedisTimeoutMillis() {
+        return redisTimeoutMillis;
+    }
+
+    public int getRedisPoolSize() {
+        return redisPoolSize;
+    }
+
+    public boolean isChatTriggerEnabled() {
+        return chatTriggerEnabled;
+    }
+
+    public String getChatTriggerPrefix() {
+        return chatTriggerPrefix;
+    }
+
+    public List<String> getChatTriggerMentions() {
+        return chatTriggerMentions;
+    }
+
+    public long getChatTriggerDebounceMillis() {
+        return chatTriggerDebounceMillis;
+    }
+
+    public boolean isChatTriggerPublicReply() {
+        return chatTriggerPublicReply;
+    }
+
+    public boolean isSessionEnabled() {
+        return sessionEnabled;
+    }
+
+    public String getSessionMode() {
+        return sessionMode;
+    }
+
+    public int getSessionTokenBudget() {
+        return sessionTokenBudget;
+    }
+
+    public long getSessionIdleMinutes() {
+        return sessionIdleMinutes;
+    }
+
+    public int getDeliveryCharsPerTick() {
+        return deliveryCharsPerTick;
+    }
+
+    public int getDeliveryLineWidth() {
+        return deliveryLineWidth;
+    }
+
+    public int getDeliveryPageLines() {
+        return deliveryPageLines;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getRequestQueueCapacity() {
+        return requestQueueCapacity;
+    }
+
+    public long getMaxAffinityWaitSeconds() {
+        return maxAffinityWaitSeconds;
+    }
+
+    public long getRequestDeadlineSeconds() {
+        return requestDeadlineSeconds;
+    }
+
+    public int getHttpConnectTimeoutMillis() {
+        return httpConnectTimeoutMillis;
+    }
+
+    public int getHttpReadTimeoutMillis() {
+        return httpReadTimeoutMillis;
+    }
+
+    public long getHttpTotalTimeoutMillis() {
+        return httpTotalTimeoutMillis;
+    }
+
+    public int getHttpMaxConnections() {
+        return httpMaxConnections;
+    }
+
+    public int getHttpMaxConnectionsPerRoute() {
+        return httpMaxConnectionsPerRoute;
+    }
+
+    public long getHttpKeepAliveMillis() {
+        return httpKeepAliveMillis;
+    }
+
+    public boolean isHttpGzipRequests() {
+        return httpGzipRequests;
+    }
+
+    public boolean isHttpGzipResponses() {
+        return httpGzipResponses;
+    }
+
+    public boolean isMetricsEndpointEnabled() {
+        return metricsEndpointEnabled;
+    }
+
+    public String getMetricsHost() {
+        return metricsHost;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    public int getCircuitWindow() {
+        return circuitWindow;
+    }
+
+    public int getCircuitMinimumRequests() {
+        return circuitMinimumRequests;
+    }
+
+    public double getCircuitFailureRate() {
+        return circuitFailureRate;
+    }
+
+    public long getCircuitSlowCallMillis() {
+        return circuitSlowCallMillis;
+    }
+
+    public double getCircuitSlowCallRate() {
+        return circuitSlowCallRate;
+    }
+
+    public long getCircuitOpenSeconds() {
+        return circuitOpenSeconds;
+    }
+
+    public int getCircuitHalfOpenProbes() {
+        return circuitHalfOpenProbes;
+    }
+
+    public boolean isHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    public long getHedgeDelayMillis() {
+        return hedgeDelayMillis;
+    }
+
+    public boolean isQuotasEnabled() {
+        return quotasEnabled;
+    }
+
+    public List<QuotaGroup> getQuotaGroups() {
+        return quotaGroups;
+    }
+
+    public Map<String, GenerationProfile> getGenerationProfiles() {
+        return generationProfiles;
+    }
+
+    public String getDefaultGenerationProfile() {
+        return defaultGenerationProfile;
+    }
+
+    public boolean isAdaptiveGenerationEnabled() {
+        return adaptiveGenerationEnabled;
+    }
+
+    public int getAdaptiveQueueThreshold() {
+        return adaptiveQueueThreshold;
+    }
+
+    public int getAdaptiveQueueStep() {
+        return adaptiveQueueStep;
+    }
+
+    public int getAdaptiveMaxLevel() {
+        return adaptiveMaxLevel;
+    }
+
+    public long getAdaptiveRestoreSeconds() {
+        return adaptiveRestoreSeconds;
+    }
+
+    public int getAdaptiveMinNumPredict() {
+        return adaptiveMinNumPredict;
+    }
+}
@@ -0,0 +1,103 @@
+package top.tiku;
+
+/**
+ * QuotaGroup 类表示配置文件中的一个配额组。拥有 ollama.quota.&lt;组名&gt; 权限的玩家属于该组，
+ * 没有任何配额权限的玩家属于 default 组。各项限制为 0 时表示不限制。每个组还可以指定组内玩家默认使用的生成档位。
+ */
+public final class QuotaGroup {
+
+    // default 组的名称，该组不需要权限
+    public static final String DEFAULT = "default";
+
+    // 组名
+    private final String name;
+    // 排队时的优先级，数值越大越先执行
+    private final int priority;
+    // 每分钟允许的提问次数
+    private final int requestsPerMinute;
+    // 允许连续提问的次数
+    private final int burst;
+    // 每分钟允许生成的 token 数
+    private final int tokensPerMinute;
+    // 每天允许的提问次数
+    private final int dailyRequests;
+    // 每天允许生成的 token 数
+    private final long dailyTokens;
+    // 组内玩家默认使用的生成档位，为 null 时使用全局的默认档位
+    private final String profile;
+
+    /**
+     * 构造函数，初始化 QuotaGroup 实例。
+     *
+     * @param name              组名
+     * @param priority          排队时的优先级
+     * @param requestsPerMinute 每分钟允许的提问次数，0 表示不限制
+     * @param burst             允许连续提问的次数
+     * @param tokensPerMinute   每分钟允许生成的 token 数，0 表示不限制
+     * @param dailyRequests     每天允许的提问次数，0 表示不限制
+     * @param dailyTokens       每天允许生成的 token 数，0 表示不限制
+     * @param profile           组内玩家默认使用的生成档位，为 null 时使用全局的默认档位
+     */
+    public QuotaGroup(String name, int priority, int requestsPerMinute, int burst, int tokensPerMinute,
+                      int dailyRequests, long dailyTokens, String profile) {
+        this.name = name;
+        this.priority = priority;
+        this.requestsPerMinute = Math.max(0, requestsPerMinute);
+        this.burst = Math.max(1, burst);
+        this.tokensPerMinute = Math.max(0, tokensPerMinute);
+        this.dailyRequests = Math.max(0, dailyRequests);
+        this.dailyTokens = Math.max(0, dailyTokens);
+        this.profile = profile;
+    }
+
+    /**
+     * 创建一个不限制任何用量的配额组。
+     *
+     * @param name 组名
+     * @return 不限制用量的配额组
+     */
+    public static QuotaGroup unlimited(String name) {
+        return new QuotaGroup(name, 0, 0, 1, 0, 0, 0, null);
+    }
+
+    /**
+     * 获取属于该组所需的权限，default 组不需要权限。
+     *
+     * @return 权限节点，default 组返回 null
+     */
+    public String getPermission() {
+        return DEFAULT.equals(name) ? null : "ollama.quota." + name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getRequestsPerMinute() {
+        return requestsPerMinute;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public int getTokensPerMinute() {
+        return tokensPerMinute;
+    }
+
+    public int getDailyRequests() {
+        return dailyRequests;
+    }
+
+    public long getDailyTokens() {
+        return dailyTokens;
+    }
+
+    public String getProfile() {
+        return profile;
+    }
+}
@@ -0,0 +1,490 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * QuotaManager 类按配额组限制每个玩家的提问频率和每日用量，并决定请求排队时的优先级。
+ * 频率限制使用令牌桶，按提问次数和生成的 token 数分别计算；每日用量在服务器时区的 0 点重置。
+ * 每个玩家的状态只通过 CAS 更新，检查时不加锁，不会在命令处理路径上产生竞争。
+ * 用量只保存在内存中，重启服务器后重新计算。多个服务器共享状态时，每日用量会定期与共享状态同步，
+ * 检查时使用本地记录的其他服务器的用量，不需要在命令处理路径上访问共享状态。
+ */
+public class QuotaManager implements Listener {
+
+    // 共享的每日用量计数器的存活时间，覆盖服务器之间的时区差异
+    private static final long SHARED_COUNTER_TTL_MILLIS = TimeUnit.DAYS.toMillis(2);
+
+    // 配置管理器，用于读取配额组
+    private final ConfigManager configManager;
+    // 多个服务器之间共享的状态，用于同步每日用量
+    private final SharedStateProvider sharedState;
+    // 每个发送者的用量，键与会话管理器相同
+    private final Map<String, PlayerQuota> quotas = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 QuotaManager 实例。
+     *
+     * @param configManager 配置管理器
+     * @param sharedState   多个服务器之间共享的状态
+     */
+    public QuotaManager(ConfigManager configManager, SharedStateProvider sharedState) {
+        this.configManager = configManager;
+        this.sharedState = sharedState;
+    }
+
+    /**
+     * 检查发送者是否还可以提问，可以时占用一次提问额度。
+     * 被拒绝时返回的许可中包含告知玩家何时可以再次提问的提示。只能在主线程中调用。
+     *
+     * @param sender 命令发送者
+     * @return 提问许可
+     */
+    public Permit acquire(CommandSender sender) {
+        if (!configManager.isQuotasEnabled()) {
+            return new Permit(null, null, null);
+        }
+        QuotaGroup group = resolveGroup(sender);
+        PlayerQuota quota = quotas.computeIfAbsent(SessionManager.sessionKey(sender), key -> new PlayerQuota());
+        long now = System.nanoTime();
+        long today = LocalDate.now().toEpochDay();
+
+        // 先检查不会修改状态的每日用量和 token 额度，最后才占用提问次数。每日用量包括其他服务器上的用量
+        DailyUsage usage = quota.daily.get().on(today);
+        DailyUsage others = quota.others.on(today);
+        long requestsToday = usage.requests + others.requests;
+        long tokensToday = usage.tokens + others.tokens;
+        if (group.getDailyRequests() > 0 && requestsToday >= group.getDailyRequests()) {
+            return denied(group, "今日的提问次数已用完（" + requestsToday + "/" + group.getDailyRequests()
+                    + "），将在 " + formatDuration(untilMidnight()) + "后重置。");
+        }
+        if (group.getDailyTokens() > 0 && tokensToday >= group.getDailyTokens()) {
+            return denied(group, "今日的生成额度已用完（" + tokensToday + "/" + group.getDailyTokens()
+                    + " tokens），将在 " + formatDuration(untilMidnight()) + "后重置。");
+        }
+        if (group.getTokensPerMinute() > 0) {
+            long wait = quota.tokens.waitForOne(tokenInterval(group), group.getTokensPerMinute(), now);
+            if (wait > 0) {
+                return denied(group, "生成的内容过多，请在 " + formatDuration(wait) + "后再试。");
+            }
+        }
+        if (group.getRequestsPerMinute() > 0) {
+            long wait = quota.requests.tryTake(requestInterval(group), group.getBurst(), now);
+            if (wait > 0) {
+                return denied(group, "请求过于频繁，请在 " + formatDuration(wait) + "后再试。");
+            }
+        }
+        int localLimit = group.getDailyRequests() > 0 ? Math.max(1, group.getDailyRequests() - others.requests) : 0;
+        if (!quota.addRequest(today, localLimit)) {
+            // 并发的请求已经用完了今日的提问次数
+            if (group.getRequestsPerMinute() > 0) {
+                quota.requests.giveBack(requestInterval(group));
+            }
+            return denied(group, "今日的提问次数已用完（" + group.getDailyRequests() + "/" + group.getDailyRequests()
+                    + "），将在 " + formatDuration(untilMidnight()) + "后重置。");
+        }
+        return new Permit(group, quota, null);
+    }
+
+    /**
+     * 生成描述发送者配额组和剩余用量的文本，供 /ollama quota 显示。
+     *
+     * @param sender 命令发送者
+     * @return 每行一条的描述
+     */
+    public List<String> describe(CommandSender sender) {
+        List<String> lines = new ArrayList<>();
+        if (!configManager.isQuotasEnabled()) {
+            lines.add("配额未启用，提问次数不受限制。");
+            return lines;
+        }
+        QuotaGroup group = resolveGroup(sender);
+        PlayerQuota quota = quotas.get(SessionManager.sessionKey(sender));
+        long now = System.nanoTime();
+        lines.add("配额组: " + group.getName() + "（优先级 " + group.getPriority() + "）");
+        if (group.getRequestsPerMinute() > 0) {
+            long available = quota == null ? group.getBurst()
+                    : quota.requests.available(requestInterval(group), group.getBurst(), now);
+            lines.add("提问频率: 每分钟 " + group.getRequestsPerMinute() + " 次，当前可连续提问 "
+                    + available + "/" + group.getBurst() + " 次");
+        } else {
+            lines.add("提问频率: 不限制");
+        }
+        if (group.getTokensPerMinute() > 0) {
+            long available = quota == null ? group.getTokensPerMinute()
+                    : quota.tokens.available(tokenInterval(group), group.getTokensPerMinute(), now);
+            lines.add("生成额度: 每分钟 " + group.getTokensPerMinute() + " tokens，当前剩余 " + Math.max(0, available));
+        }
+        long today = LocalDate.now().toEpochDay();
+        DailyUsage usage = quota == null ? DailyUsage.EMPTY : quota.daily.get().on(today);
+        DailyUsage others = quota == null ? DailyUsage.EMPTY : quota.others.on(today);
+        lines.add("今日用量: 提问 " + (usage.requests + others.requests) + "/" + limit(group.getDailyRequests())
+                + "，生成 " + (usage.tokens + others.tokens) + "/" + limit(group.getDailyTokens()) + " tokens，"
+                + formatDuration(untilMidnight()) + "后重置");
+        return lines;
+    }
+
+    /**
+     * 移除空闲玩家的状态：令牌桶已经恢复满，且今天没有用量。应在主线程中定期调用：
+     * {@link #acquire} 也在主线程中执行，在异步线程中清理可能移除 acquire 刚取出的条目，使这次提问不计入用量。
+     */
+    public void expireIdle() {
+        long now = System.nanoTime();
+        long today = LocalDate.now().toEpochDay();
+        quotas.values().removeIf(quota -> quota.isIdle(now, today));
+    }
+
+    /**
+     * 把每个玩家今日的用量同步到共享状态：先把上次同步以来本服务器新增的用量加到共享的计数器上，
+     * 再用计数器的总数减去本服务器累计的用量，得到其他服务器上的用量。应在异步线程中定期调用。
+     * 同步失败时保留尚未同步的用量，下次同步时一并加上。
+     */
+    public synchronized void syncShared() {
+        if (!sharedState.isDistributed() || !configManager.isQuotasEnabled()) {
+            return;
+        }
+        long today = LocalDate.now().toEpochDay();
+        try {
+            for (Map.Entry<String, PlayerQuota> entry : quotas.entrySet()) {
+                PlayerQuota quota = entry.getValue();
+                if (quota.syncedDay != today) {
+                    quota.syncedDay = today;
+                    quota.pushedRequests = 0;
+                    quota.pushedTokens = 0;
+                }
+                DailyUsage usage = quota.daily.get().on(today);
+                String prefix = "quota:" + entry.getKey() + ":" + today + ":";
+                long requests = sharedState.increment(prefix + "requests", usage.requests - quota.pushedRequests,
+                        SHARED_COUNTER_TTL_MILLIS);
+                long tokens = sharedState.increment(prefix + "tokens", usage.tokens - quota.pushedTokens,
+                        SHARED_COUNTER_TTL_MILLIS);
+                quota.pushedRequests = usage.requests;
+                quota.pushedTokens = usage.tokens;
+                quota.others = new DailyUsage(today, (int) Math.max(0, requests - usage.requests),
+                        Math.max(0, tokens - usage.tokens));
+            }
+        } catch (IOException e) {
+            // 共享状态会记录失败的原因，这里只保留尚未同步的用量
+        }
+    }
+
+    /**
+     * 多个服务器共享状态时，为刚进入服务器的玩家创建用量记录，使下一次同步就能取得其在其他服务器上的用量。
+     *
+     * @param event 玩家进入事件
+     */
+    @EventHandler
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        if (sharedState.isDistributed() && configManager.isQuotasEnabled()) {
+            quotas.computeIfAbsent(SessionManager.sessionKey(event.getPlayer()), key -> new PlayerQuota());
+        }
+    }
+
+    /**
+     * 根据发送者的权限选出配额组：拥有多个组的权限时使用优先级最高的组，都没有时使用 default 组。
+     *
+     * @param sender 命令发送者
+     * @return 发送者所属的配额组
+     */
+    QuotaGroup resolveGroup(CommandSender sender) {
+        QuotaGroup fallback = null;
+        // 配额组已按优先级从高到低排列
+        for (QuotaGroup group : configManager.getQuotaGroups()) {
+            String permission = group.getPermission();
+            if (permission == null) {
+                if (fallback == null) {
+                    fallback = group;
+                }
+            } else if (sender.hasPermission(permission)) {
+                return group;
+            }
+        }
+        return fallback != null ? fallback : QuotaGroup.unlimited(QuotaGroup.DEFAULT);
+    }
+
+    private static Permit denied(QuotaGroup group, String denial) {
+        return new Permit(group, null, denial);
+    }
+
+    private static long requestInterval(QuotaGroup group) {
+        return TimeUnit.MINUTES.toNanos(1) / group.getRequestsPerMinute();
+    }
+
+    private static long tokenInterval(QuotaGroup group) {
+        return TimeUnit.MINUTES.toNanos(1) / group.getTokensPerMinute();
+    }
+
+    private static String limit(long value) {
+        return value > 0 ? String.valueOf(value) : "不限";
+    }
+
+    private static long untilMidnight() {
+        LocalDateTime now = LocalDateTime.now();
+        return Duration.between(now, now.toLocalDate().plusDays(1).atStartOfDay()).toNanos();
+    }
+
+    /**
+     * 把等待时间格式化为玩家容易阅读的文本，不足一秒按一秒计算。
+     *
+     * @param nanos 等待时间（纳秒）
+     * @return 例如 "12 秒"、"3 分 5 秒"、"2 小时 10 分"
+     */
+    static String formatDuration(long nanos) {
+        long seconds = Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        if (seconds < 60) {
+            return seconds + " 秒";
+        }
+        if (seconds < 3600) {
+            return seconds / 60 + " 分 " + seconds % 60 + " 秒";
+        }
+        return seconds / 3600 + " 小时 " + seconds % 3600 / 60 + " 分";
+    }
+
+    /**
+     * Permit 类表示一次提问的许可。请求被执行器拒绝时应退还许可，请求结束后记录生成的 token 数。
+     */
+    public static final class Permit {
+
+        // 发送者所属的配额组，未启用配额时为 null
+        private final QuotaGroup group;
+        // 发送者的用量，被拒绝或未启用配额时为 null
+        private final PlayerQuota quota;
+        // 被拒绝时告知玩家的提示
+        private final String denial;
+        // 是否已经退还
+        private boolean refunded;
+
+        Permit(QuotaGroup group, PlayerQuota quota, String denial) {
+            this.group = group;
+            this.quota = quota;
+            this.denial = denial;
+        }
+
+        /**
+         * 判断是否允许提问。
+         *
+         * @return 允许提问时返回 true
+         */
+        public boolean isGranted() {
+            return denial == null;
+        }
+
+        /**
+         * 获取被拒绝时的提示。
+         *
+         * @return 告知玩家何时可以再次提问的提示，允许提问时返回 null
+         */
+        public String getDenial() {
+            return denial;
+        }
+
+        /**
+         * 获取请求排队时使用的优先级。
+         *
+         * @return 配额组的优先级，未启用配额时为 0
+         */
+        public int getPriority() {
+            return group == null ? 0 : group.getPriority();
+        }
+
+        /**
+         * 退还占用的提问额度，用于没有发往后端就被拒绝的请求。只在主线程中调用。
+         */
+        public void refund() {
+            if (quota == null || refunded) {
+                return;
+            }
+            refunded = true;
+            if (group.getRequestsPerMinute() > 0) {
+                quota.requests.giveBack(requestInterval(group));
+            }
+            quota.removeRequest(LocalDate.now().toEpochDay());
+        }
+
+        /**
+         * 记录请求生成的 token 数，计入每分钟和每日的生成额度。可以在任意线程中调用。
+         *
+         * @param tokens 生成的 token 数
+         */
+        public void recordTokens(long tokens) {
+            if (quota == null || tokens <= 0) {
+                return;
+            }
+            if (group.getTokensPerMinute() > 0) {
+                quota.tokens.charge(tokens * tokenInterval(group), System.nanoTime());
+            }
+            quota.addTokens(LocalDate.now().toEpochDay(), tokens);
+        }
+    }
+
+    /**
+     * PlayerQuota 类保存一个发送者的令牌桶和每日用量。
+     */
+    private static final class PlayerQuota {
+
+        // 提问次数的令牌桶
+        private final Bucket requests = new Bucket();
+        // 生成 token 数的令牌桶，请求结束后按实际生成的数量扣除，允许透支
+        private final Bucket tokens = new Bucket();
+        // 今日用量
+        private final AtomicReference<DailyUsage> daily = new AtomicReference<>(DailyUsage.EMPTY);
+        // 上次同步时其他服务器上的今日用量
+        private volatile DailyUsage others = DailyUsage.EMPTY;
+        // 已经加到共享计数器上的本服务器用量及其日期，只在同步时访问
+        private long syncedDay = Long.MIN_VALUE;
+        private int pushedRequests;
+        private long pushedTokens;
+
+        /**
+         * 增加一次今日的提问次数。
+         *
+         * @param today 今天的日期（epoch day）
+         * @param limit 每日提问次数的上限，0 表示不限制
+         * @return 没有超出上限时返回 true
+         */
+        boolean addRequest(long today, int limit) {
+            while (true) {
+                DailyUsage current = daily.get();
+                DailyUsage usage = current.on(today);
+                if (limit > 0 && usage.requests >= limit) {
+                    return false;
+                }
+                if (daily.compareAndSet(current, new DailyUsage(today, usage.requests + 1, usage.tokens))) {
+                    return true;
+                }
+            }
+        }
+
+        void removeRequest(long today) {
+            daily.updateAndGet(current -> current.day == today && current.requests > 0
+                    ? new DailyUsage(today, current.requests - 1, current.tokens) : current);
+        }
+
+        void addTokens(long today, long tokens) {
+            daily.updateAndGet(current -> {
+                DailyUsage usage = current.on(today);
+                return new DailyUsage(today, usage.requests, usage.tokens + tokens);
+            });
+        }
+
+        boolean isIdle(long now, long today) {
+            DailyUsage usage = daily.get();
+            DailyUsage other = others;
+            // 今日在其他服务器上有用量的玩家也不能移除，否则重新创建后到下一次同步之前会忽略这些用量
+            return requests.isFull(now) && tokens.isFull(now)
+                    && (usage.day != today || usage.requests == 0 && usage.tokens == 0)
+                    && (other.day != today || other.requests == 0 && other.tokens == 0);
+        }
+    }
+
+    /**
+     * Bucket 类是只用一个原子变量实现的令牌桶：保存桶重新装满的时间（System.nanoTime），
+     * 每取出一个令牌把该时间推后一个间隔，该时间超出当前时间太多时表示令牌已经用完。
+     */
+    private static final class Bucket {
+
+        // 桶重新装满的时间
+        private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+        /**
+         * 尝试取出一个令牌。
+         *
+         * @param interval 恢复一个令牌所需的时间（纳秒）
+         * @param capacity 桶的容量
+         * @param now      当前时间
+         * @return 取出成功时返回 0，否则返回还需等待的时间（纳秒）
+         */
+        long tryTake(long interval, long capacity, long now) {
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + interval;
+                long wait = next - now - capacity * interval;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * 计算还需等待多久桶中才至少有一个令牌，不取出令牌。
+         *
+         * @param interval 恢复一个令牌所需的时间（纳秒）
+         * @param capacity 桶的容量
+         * @param now      当前时间
+         * @return 已有令牌时返回 0，否则返回还需等待的时间（纳秒）
+         */
+        long waitForOne(long interval, long capacity, long now) {
+            return Math.max(0, fullAt.get() - now - (capacity - 1) * interval);
+        }
+
+        /**
+         * 计算桶中当前的令牌数，透支时为负数。
+         */
+        long available(long interval, long capacity, long now) {
+            return capacity - Math.max(0, fullAt.get() - now + interval - 1) / interval;
+        }
+
+        /**
+         * 扣除令牌，允许透支。
+         *
+         * @param amount 扣除的令牌数乘以恢复间隔（纳秒）
+         * @param now    当前时间
+         */
+        void charge(long amount, long now) {
+            fullAt.updateAndGet(current -> Math.max(current, now) + amount);
+        }
+
+        void giveBack(long interval) {
+            fullAt.addAndGet(-interval);
+        }
+
+        boolean isFull(long now) {
+            return fullAt.get() <= now;
+        }
+    }
+
+    /**
+     * DailyUsage 类是某一天的用量，不可变，通过 CAS 整体替换。
+     */
+    private static final class DailyUsage {
+
+        private static final DailyUsage EMPTY = new DailyUsage(Long.MIN_VALUE, 0, 0);
+
+        // 日期（epoch day）
+        private final long day;
+        // 提问次数
+        private final int requests;
+        // 生成的 token 数
+        private final long tokens;
+
+        DailyUsage(long day, int requests, long tokens) {
+            this.day = day;
+            this.requests = requests;
+            this.tokens = tokens;
+        }
+
+        /**
+         * 获取指定日期的用量，保存的是更早的日期时返回空的用量。
+         */
+        DailyUsage on(long today) {
+            return day == today ? this : new DailyUsage(today, 0, 0);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * RedisSharedStateProvider 类通过 Redis 协议（RESP）在多个服务器之间共享状态，兼容 Redis、Valkey、KeyDB 等服务。
+ * 客户端直接使用阻塞的 Socket 实现，只支持插件用到的几个命令，不依赖额外的库。
+ * 连接在空闲队列中复用；请求失败时暂停使用共享状态一段时间，避免 Redis 不可用时每个请求都等待超时。
+ */
+public class RedisSharedStateProvider implements SharedStateProvider {
+
+    // 请求失败后暂停使用共享状态的时间（毫秒）
+    private static final long FAILURE_BACKOFF_MILLIS = 30_000;
+    // 只删除自己持有的标记，避免标记过期后被其他服务器获取时误删
+    private static final String UNLOCK_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end";
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // Redis 的地址、端口、密码和数据库编号
+    private final String host;
+    private final int port;
+    private final String password;
+    private final int database;
+    // 连接和读取的超时时间（毫秒）
+    private final int timeoutMillis;
+    // 所有键的前缀，多个网络共用一个 Redis 时用于区分
+    private final String keyPrefix;
+    // 本服务器持有标记时写入的值，用于释放时确认标记仍属于本服务器
+    private final String ownerId = UUID.randomUUID().toString();
+    // 空闲的连接
+    private final BlockingQueue<Connection> idle;
+    // 暂停使用共享状态的截止时间（毫秒时间戳）
+    private volatile long pausedUntil;
+    // 是否已关闭
+    private volatile boolean closed;
+
+    /**
+     * 构造函数，初始化 RedisSharedStateProvider 实例。连接在第一次使用时建立。
+     *
+     * @param plugin        插件实例
+     * @param host          Redis 的地址
+     * @param port          Redis 的端口
+     * @param password      密码，为空时不认证
+     * @param database      数据库编号
+     * @param timeoutMillis 连接和读取的超时时间（毫秒）
+     * @param poolSize      最多保留的空闲连接数
+     * @param keyPrefix     所有键的前缀
+     */
+    public RedisSharedStateProvider(JavaPlugin plugin, String host, int port, String password, int database,
+                                    int timeoutMillis, int poolSize, String keyPrefix) {
+        this.plugin = plugin;
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.database = database;
+        this.timeoutMillis = timeoutMillis;
+        this.keyPrefix = keyPrefix;
+        this.idle = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    @Override
+    public boolean isDistributed() {
+        return true;
+    }
+
+    @Override
+    public String get(String key) throws IOException {
+        return (String) execute(command("GET", keyPrefix + key)).get(0);
+    }
+
+    @Override
+    public void put(String key, String value, long ttlMillis) throws IOException {
+        execute(command("SET", keyPrefix + key, value, "PX", String.valueOf(Math.max(1, ttlMillis))));
+    }
+
+    @Override
+    public boolean tryLock(String key, long ttlMillis) throws IOException {
+        Object reply = execute(command("SET", keyPrefix + key, ownerId, "NX", "PX",
+                String.valueOf(Math.max(1, ttlMillis)))).get(0);
+        return reply != null;
+    }
+
+    @Override
+    public void unlock(String key) throws IOException {
+        execute(command("EVAL", UNLOCK_SCRIPT, "1", keyPrefix + key, ownerId));
+    }
+
+    @Override
+    public long increment(String key, long amount, long ttlMillis) throws IOException {
+        // 两个命令一次发送，只需一次往返
+        List<Object> replies = execute(
+                command("INCRBY", keyPrefix + key, String.valueOf(amount)),
+                command("PEXPIRE", keyPrefix + key, String.valueOf(Math.max(1, ttlMillis))));
+        return (Long) replies.get(0);
+    }
+
+    @Override
+    public String describe() {
+        return "redis " + host + ":" + port + "/" + database;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idle.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    /**
+     * 在一个连接上依次发送多个命令并读取所有回复。连接出错时关闭该连接并暂停使用共享状态。
+     *
+     * @param commands 要发送的命令
+     * @return 每个命令的回复，按发送顺序排列
+     * @throws IOException 暂停中、无法连接或 Redis 返回错误时抛出
+     */
+    private List<Object> execute(byte[][]... commands) throws IOException {
+        if (closed) {
+            throw new IOException("shared state is closed");
+        }
+        if (System.currentTimeMillis() < pausedUntil) {
+            throw new IOException("shared state is paused after a failure");
+        }
+        Connection connection = idle.poll();
+        try {
+            if (connection == null) {
+                connection = connect();
+            }
+            for (byte[][] command : commands) {
+                connection.write(command);
+            }
+            connection.out.flush();
+            List<Object> replies = new ArrayList<>(commands.length);
+            RedisException error = null;
+            for (int i = 0; i < commands.length; i++) {
+                try {
+                    replies.add(connection.read());
+                } catch (RedisException e) {
+                    // 继续读取其余回复，使连接可以继续复用
+                    error = e;
+                    replies.add(null);
+                }
+            }
+            if (closed || !idle.offer(connection)) {
+                connection.close();
+            }
+            if (error != null) {
+                throw error;
+            }
+            return replies;
+        } catch (RedisException e) {
+            throw e;
+        } catch (IOException e) {
+            if (connection != null) {
+                connection.close();
+            }
+            pausedUntil = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+            plugin.getLogger().warning("Shared state paused for " + FAILURE_BACKOFF_MILLIS / 1000
+                    + " seconds, failed to reach " + describe() + ": " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * 建立新的连接，并按配置认证和选择数据库。
+     */
+    private Connection connect() throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            socket.setTcpNoDelay(true);
+            Connection connection = new Connection(socket);
+            if (!password.isEmpty()) {
+                connection.write(command("AUTH", password));
+            }
+            if (database != 0) {
+                connection.write(command("SELECT", String.valueOf(database)));
+            }
+            connection.out.flush();
+            if (!password.isEmpty()) {
+                connection.read();
+            }
+            if (database != 0) {
+                connection.read();
+            }
+            return connection;
+        } catch (IOException e) {
+            socket.close();
+            // 认证或选择数据库失败时同样暂停，而不是让每个请求都重新连接
+            throw e instanceof RedisException ? new IOException(e.getMessage()) : e;
+        }
+    }
+
+    private static byte[][] command(String... args) {
+        byte[][] command = new byte[args.length][];
+        for (int i = 0; i < args.length; i++) {
+            command[i] = args[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return command;
+    }
+
+    /**
+     * Connection 类是到 Redis 的一个连接，负责按 RESP 格式写入命令和解析回复。
+     */
+    private static final class Connection {
+
+        // 底层的 Socket
+        private final Socket socket;
+        // 带缓冲的输入和输出流
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        /**
+         * 以多行字符串数组的格式写入一个命令，例如 *2\r\n$3\r\nGET\r\n$1\r\nk\r\n。
+         */
+        void write(byte[][] command) throws IOException {
+            writeHeader('*', command.length);
+            for (byte[] arg : command) {
+                writeHeader('$', arg.length);
+                out.write(arg);
+                out.write('\r');
+                out.write('\n');
+            }
+        }
+
+        /**
+         * 读取一个回复：简单字符串和多行字符串返回 String，整数返回 Long，数组返回 List，空值返回 null。
+         *
+         * @throws RedisException Redis 返回错误时抛出，连接仍可继续使用
+         */
+        Object read() throws IOException {
+            int type = in.read();
+            if (type < 0) {
+                throw new EOFException("connection closed by server");
+            }
+            String line = readLine();
+            switch (type) {
+                case '+':
+                    return line;
+                case '-':
+                    throw new RedisException(line);
+                case ':':
+                    return Long.parseLong(line);
+                case '$': {
+                    int length = Integer.parseInt(line);
+                    if (length < 0) {
+                        return null;
+                    }
+                    byte[] bytes = in.readNBytes(length);
+                    if (bytes.length != length || in.read() != '\r' || in.read() != '\n') {
+                        throw new EOFException("truncated bulk string");
+                    }
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                case '*': {
+                    int count = Integer.parseInt(line);
+                    if (count < 0) {
+                        return null;
+                    }
+                    List<Object> items = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        items.add(read());
+                    }
+                    return items;
+                }
+                default:
+                    throw new IOException("unexpected reply type '" + (char) type + "'");
+            }
+        }
+
+        private void writeHeader(char type, int value) throws IOException {
+            out.write(type);
+            out.write(Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+            out.write('\r');
+            out.write('\n');
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int b;
+            while ((b = in.read()) != '\r') {
+                if (b < 0) {
+                    throw new EOFException("connection closed by server");
+                }
+                line.append((char) b);
+            }
+            if (in.read() != '\n') {
+                throw new IOException("malformed reply line");
+            }
+            return line.toString();
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // 连接已不可用，忽略关闭时的错误
+            }
+        }
+    }
+
+    /**
+     * RedisException 类表示 Redis 返回的错误回复，例如认证失败或命令不支持。
+     */
+    private static final class RedisException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RedisException(String message) {
+            super("Redis error: " + message);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package top.tiku;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * RequestCoalescer 类合并正在生成中的相同请求：相同后端、模型、参数和问题的请求只会向后端发送一次，
+ * 生成的文本会同时转发给所有等待的发送者。
+ */
+public class RequestCoalescer {
+
+    // 正在生成中的请求，键与回复缓存的键相同
+    private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * 把订阅者挂到指定键的请求上。没有正在生成的相同请求时创建新的请求，调用方负责向后端发送。
+     *
+     * @param key          请求的键
+     * @param subscriber   接收回复的订阅者
+     * @param cancellation 新创建的请求使用的取消标记，所有订阅者都离开时取消
+     * @return 新创建的请求，调用方需要把它作为回调发送给后端；已挂到现有请求上时返回 null
+     */
+    public Flight attach(String key, StreamCallback subscriber, CancellationToken cancellation) {
+        while (true) {
+            Flight created = new Flight(key, cancellation);
+            Flight existing = flights.putIfAbsent(key, created);
+            if (existing == null) {
+                created.addSubscriber(subscriber);
+                return created;
+            }
+            if (existing.addSubscriber(subscriber)) {
+                return null;
+            }
+            // 现有请求恰好在此时结束，重新创建
+            flights.remove(key, existing);
+        }
+    }
+
+    /**
+     * 把订阅者从指定键的请求上移除。最后一个订阅者离开后取消发往后端的请求。
+     *
+     * @param key        请求的键
+     * @param subscriber 取消请求的订阅者
+     */
+    public void detach(String key, StreamCallback subscriber) {
+        Flight flight = flights.get(key);
+        if (flight != null) {
+            flight.detach(subscriber);
+        }
+    }
+
+    /**
+     * 获取当前正在生成中的请求数。
+     *
+     * @return 请求数
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    /**
+     * Flight 类表示一个正在生成中的请求。它作为后端的回调接收生成的文本，
+     * 并转发给所有订阅者；中途加入的订阅者会先收到已经生成的文本。
+     */
+    public class Flight implements StreamCallback {
+
+        // 请求的键
+        private final String key;
+        // 发往后端的请求的取消标记
+        private final CancellationToken cancellation;
+        // 所有订阅者
+        private final List<StreamCallback> subscribers = new ArrayList<>();
+        // 已经生成的文本，用于补发给中途加入的订阅者
+        private final StringBuilder generated = new StringBuilder();
+        // 请求是否已经结束
+        private boolean finished;
+
+        private Flight(String key, CancellationToken cancellation) {
+            this.key = key;
+            this.cancellation = cancellation;
+        }
+
+        /**
+         * 添加订阅者，并补发已经生成的文本。
+         *
+         * @param subscriber 订阅者
+         * @return 请求已经结束、无法再加入时返回 false
+         */
+        public synchronized boolean addSubscriber(StreamCallback subscriber) {
+            if (finished) {
+                return false;
+            }
+            if (generated.length() > 0) {
+                subscriber.onToken(generated.toString());
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+
+        /**
+         * 移除订阅者，例如请求被拒绝、发起者已单独收到提示时。
+         *
+         * @param subscriber 订阅者
+         */
+        public synchronized void removeSubscriber(StreamCallback subscriber) {
+            subscribers.remove(subscriber);
+        }
+
+        /**
+         * 订阅者取消请求时调用。最后一个订阅者离开后，不再接受新的订阅者并取消发往后端的请求。
+         *
+         * @param subscriber 取消请求的订阅者
+         */
+        public void detach(StreamCallback subscriber) {
+            synchronized (this) {
+                if (!subscribers.remove(subscriber) || finished || !subscribers.isEmpty()) {
+                    return;
+                }
+                finished = true;
+                flights.remove(key, this);
+            }
+            cancellation.cancel();
+        }
+
+        /**
+         * 获取当前的订阅者数量。
+         *
+         * @return 订阅者数量
+         */
+        public synchronized int getSubscriberCount() {
+            return subscribers.size();
+        }
+
+        @Override
+        public synchronized void onToken(String token) {
+            generated.append(token);
+            for (StreamCallback subscriber : subscribers) {
+                subscriber.onToken(token);
+            }
+        }
+
+        @Override
+        public void onComplete(JSONObject finalChunk) {
+            for (StreamCallback subscriber : finish()) {
+                subscriber.onComplete(finalChunk);
+            }
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            for (StreamCallback subscriber : finish()) {
+                subscriber.onError(errorMessage);
+            }
+        }
+
+        /**
+         * 标记请求结束并从正在生成的请求中移除，之后到达的相同请求会重新发送给后端。
+         *
+         * @return 结束时的订阅者列表
+         */
+        private synchronized List<StreamCallback> finish() {
+            finished = true;
+            flights.remove(key, this);
+            return new ArrayList<>(subscribers);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * RequestExecutor 类是插件专用的请求执行器，使用虚拟线程执行阻塞的后端请求，
+ * 并通过并发上限和有界的等待队列控制同时发往后端的请求数量。
+ * 等待队列按优先级分为多个通道，优先级高的通道中的请求总是先执行；队列已满时，优先级更高的请求会挤出
+ * 优先级最低的通道中最晚进入队列的请求。同一通道内出队时优先选择模型已经加载的请求，减少模型切换；
+ * 等待超过上限的请求不再被插队。
+ */
+public class RequestExecutor {
+
+    // submit 方法的返回值，表示队列已满、请求被拒绝
+    public static final int REJECTED = -1;
+    // submit 方法的返回值，表示请求已立即开始执行
+    public static final int STARTED = 0;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 同时执行的最大请求数
+    private int maxConcurrent;
+    // 等待队列的最大长度
+    private int queueCapacity;
+    // 请求最多被其他模型的请求插队多久（毫秒）
+    private long maxAffinityWaitMillis;
+    // 判断模型是否已加载到内存中
+    private final Predicate<String> residentModel;
+    // 每个请求使用一个虚拟线程执行
+    private final ExecutorService executor;
+    // 等待执行的请求，键为优先级，优先级高的通道在前，每个通道内按提交顺序排列
+    private final NavigableMap<Integer, Deque<QueuedTask>> lanes = new TreeMap<>(Comparator.reverseOrder());
+    // 所有通道中等待的请求总数
+    private int queued;
+    // 正在执行的请求按模型统计的数量
+    private final Map<String, Integer> runningModels = new HashMap<>();
+    // 正在执行的请求数
+    private int running;
+    // 执行器是否已关闭
+    private boolean shutdown;
+
+    /**
+     * 构造函数，初始化 RequestExecutor 实例。
+     *
+     * @param plugin                插件实例
+     * @param maxConcurrent         同时执行的最大请求数
+     * @param queueCapacity         等待队列的最大长度
+     * @param maxAffinityWaitMillis 请求最多被其他模型的请求插队多久（毫秒）
+     * @param residentModel         判断模型是否已加载到内存中
+     */
+    public RequestExecutor(JavaPlugin plugin, int maxConcurrent, int queueCapacity, long maxAffinityWaitMillis,
+                           Predicate<String> residentModel) {
+        this.plugin = plugin;
+        applyLimits(maxConcurrent, queueCapacity, maxAffinityWaitMillis);
+        this.residentModel = residentModel;
+        this.executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("OllamaChat-request-", 0).factory());
+    }
+
+    /**
+     * 提交一个请求。未达到并发上限时立即执行，否则进入对应优先级的等待通道。请求在排队期间被取消时会从队列中移除。
+     * 队列已满时，如果有优先级更低的请求在排队，挤出其中最晚进入队列的一个，并在释放锁之后调用它的 onEvicted。
+     *
+     * @param model        请求使用的模型，用于按模型分组调度
+     * @param priority     请求的优先级，数值越大越先执行
+     * @param cancellation 请求的取消标记
+     * @param task         要执行的请求
+     * @param onEvicted    请求在排队期间被优先级更高的请求挤出时调用
+     * @return {@link #STARTED} 表示已开始执行，正数表示在队列中的位置，{@link #REJECTED} 表示队列已满
+     */
+    public int submit(String model, int priority, CancellationToken cancellation, Runnable task, Runnable onEvicted) {
+        QueuedTask evicted = null;
+        int position;
+        synchronized (this) {
+            if (shutdown) {
+                return REJECTED;
+            }
+            QueuedTask queuedTask = new QueuedTask(model, priority, task, onEvicted);
+            if (running < maxConcurrent) {
+                running++;
+                launch(queuedTask);
+                return STARTED;
+            }
+            if (queued >= queueCapacity) {
+                evicted = evictBelow(priority);
+                if (evicted == null) {
+                    return REJECTED;
+                }
+            }
+            Deque<QueuedTask> lane = lanes.computeIfAbsent(priority, key -> new ArrayDeque<>());
+            lane.addLast(queuedTask);
+            queued++;
+            // 排在前面的是优先级更高的通道中的全部请求和本通道中先到的请求
+            position = lane.size();
+            for (Deque<QueuedTask> higher : lanes.headMap(priority, false).values()) {
+                position += higher.size();
+            }
+            cancellation.onCancel(() -> remove(queuedTask));
+        }
+        if (evicted != null) {
+            evicted.onEvicted.run();
+        }
+        return position;
+    }
+
+    /**
+     * 修改并发上限、队列长度和插队时间。并发上限提高时立即从队列中取出请求填满空出的名额；
+     * 降低时正在执行的请求不受影响，执行数降到新的上限以下后才开始新的请求。
+     * 已在队列中的请求不会因为队列长度变小而被丢弃。
+     *
+     * @param maxConcurrent         同时执行的最大请求数
+     * @param queueCapacity         等待队列的最大长度
+     * @param maxAffinityWaitMillis 请求最多被其他模型的请求插队多久（毫秒）
+     */
+    public synchronized void setLimits(int maxConcurrent, int queueCapacity, long maxAffinityWaitMillis) {
+        applyLimits(maxConcurrent, queueCapacity, maxAffinityWaitMillis);
+        while (!shutdown && running < this.maxConcurrent) {
+            QueuedTask next = pollNext();
+            if (next == null) {
+                break;
+            }
+            running++;
+            launch(next);
+        }
+    }
+
+    private void applyLimits(int maxConcurrent, int queueCapacity, long maxAffinityWaitMillis) {
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.maxAffinityWaitMillis = maxAffinityWaitMillis;
+    }
+
+    /**
+     * 从等待队列中移除一个尚未执行的请求。
+     *
+     * @param queuedTask 要移除的请求
+     */
+    private synchronized void remove(QueuedTask queuedTask) {
+        Deque<QueuedTask> lane = lanes.get(queuedTask.priority);
+        if (lane != null && lane.remove(queuedTask)) {
+            queued--;
+            if (lane.isEmpty()) {
+                lanes.remove(queuedTask.priority);
+            }
+        }
+    }
+
+    /**
+     * 从优先级低于指定值的最低通道中移除最晚进入队列的请求。
+     *
+     * @param priority 新请求的优先级
+     * @return 被移除的请求，没有优先级更低的请求时返回 null
+     */
+    private QueuedTask evictBelow(int priority) {
+        Map.Entry<Integer, Deque<QueuedTask>> lowest = lanes.lastEntry();
+        if (lowest == null || lowest.getKey() >= priority) {
+            return null;
+        }
+        QueuedTask evicted = lowest.getValue().pollLast();
+        queued--;
+        if (lowest.getValue().isEmpty()) {
+            lanes.remove(lowest.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * 获取当前在队列中等待的请求数。
+     *
+     * @return 等待中的请求数
+     */
+    public synchronized int getQueueSize() {
+        return queued;
+    }
+
+    /**
+     * 获取当前正在执行的请求数。
+     *
+     * @return 正在执行的请求数
+     */
+    public synchronized int getRunningCount() {
+        return running;
+    }
+
+    /**
+     * 关闭执行器，丢弃等待中的请求，并等待正在执行的请求结束。
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+            lanes.clear();
+            queued = 0;
+        }
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Some Ollama requests were still running at shutdown.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 在虚拟线程上执行请求，结束后从队列中取出下一个请求继续执行。
+     *
+     * @param queuedTask 要执行的请求
+     */
+    private void launch(QueuedTask queuedTask) {
+        runningModels.merge(queuedTask.model, 1, Integer::sum);
+        executor.execute(() -> {
+            try {
+                queuedTask.task.run();
+            } catch (Throwable t) {
+                plugin.getLogger().log(Level.SEVERE, "Unhandled error while processing an Ollama request", t);
+            } finally {
+                onTaskFinished(queuedTask);
+            }
+        });
+    }
+
+    /**
+     * 一个请求结束后调用，把空出的执行名额交给下一个请求。
+     *
+     * @param finished 刚结束的请求
+     */
+    private synchronized void onTaskFinished(QueuedTask finished) {
+        runningModels.computeIfPresent(finished.model, (model, count) -> count > 1 ? count - 1 : null);
+        QueuedTask next = shutdown || running > maxConcurrent ? null : pollNext();
+        if (next != null) {
+            launch(next);
+        } else {
+            running--;
+        }
+    }
+
+    /**
+     * 从优先级最高的非空通道中选出下一个要执行的请求：队首请求等待过久时直接执行它，
+     * 否则优先选择模型正在运行或已加载的最早请求，都没有时按提交顺序执行。
+     *
+     * @return 下一个请求，队列为空时返回 null
+     */
+    private QueuedTask pollNext() {
+        Map.Entry<Integer, Deque<QueuedTask>> highest = lanes.firstEntry();
+        if (highest == null) {
+            return null;
+        }
+        Deque<QueuedTask> lane = highest.getValue();
+        QueuedTask next = selectFrom(lane);
+        queued--;
+        if (lane.isEmpty()) {
+            lanes.remove(highest.getKey());
+        }
+        return next;
+    }
+
+    private QueuedTask selectFrom(Deque<QueuedTask> lane) {
+        QueuedTask oldest = lane.peekFirst();
+        if (System.currentTimeMillis() - oldest.enqueuedAt >= maxAffinityWaitMillis) {
+            return lane.pollFirst();
+        }
+        for (Iterator<QueuedTask> it = lane.iterator(); it.hasNext(); ) {
+            QueuedTask candidate = it.next();
+            if (runningModels.containsKey(candidate.model) || residentModel.test(candidate.model)) {
+                it.remove();
+                return candidate;
+            }
+        }
+        return lane.pollFirst();
+    }
+
+    /**
+     * QueuedTask 类表示一个等待执行的请求。
+     */
+    private static class QueuedTask {
+
+        // 请求使用的模型
+        private final String model;
+        // 请求的优先级
+        private final int priority;
+        // 要执行的请求
+        private final Runnable task;
+        // 被优先级更高的请求挤出时调用
+        private final Runnable onEvicted;
+        // 进入队列的时间（毫秒时间戳）
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        QueuedTask(String model, int priority, Runnable task, Runnable onEvicted) {
+            this.model = model;
+            this.priority = priority;
+            this.task = task;
+            this.onEvicted = onEvicted;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ResponseCache 类缓存已经生成过的回复，键由规范化后的问题、后端、模型和生成参数组成。
+ * 缓存按最近最少使用的原则限制条目数，并为每个条目设置过期时间，可选地保存到插件数据目录中。
+ */
+public class ResponseCache {
+
+    // 快照文件的标识和版本号，用于识别格式不兼容的旧文件
+    private static final int SNAPSHOT_MAGIC = 0x4F434331;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 是否启用缓存
+    private final boolean enabled;
+    // 缓存的最大条目数
+    private final int maxEntries;
+    // 条目的存活时间（毫秒）
+    private final long ttlMillis;
+    // 按访问顺序排列的缓存条目，超过最大条目数时移除最久未使用的条目
+    private final LinkedHashMap<String, Entry> entries;
+    // 命中和未命中的次数
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    // 自上次保存快照以来缓存是否发生变化
+    private boolean dirty;
+
+    /**
+     * 构造函数，初始化 ResponseCache 实例。
+     *
+     * @param plugin     插件实例
+     * @param enabled    是否启用缓存
+     * @param maxEntries 缓存的最大条目数
+     * @param ttlMillis  条目的存活时间（毫秒）
+     */
+    public ResponseCache(JavaPlugin plugin, boolean enabled, int maxEntries, long ttlMillis) {
+        this.plugin = plugin;
+        this.enabled = enabled && maxEntries > 0;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * 生成缓存键。问题会被规范化，使大小写、多余空白和句末标点不同的相同问题命中同一条目。
+     *
+     * @param backend 后端名称
+     * @param model   模型名称
+     * @param options 生成参数的描述，没有额外参数时为空字符串
+     * @param prompt  用户输入的问题
+     * @return 缓存键
+     */
+    public static String key(String backend, String model, String options, String prompt) {
+        return backend + '\u0000' + model + '\u0000' + options + '\u0000' + normalize(prompt);
+    }
+
+    /**
+     * 计算缓存键的摘要，用作共享状态中的键，避免把问题原文和控制字符写入键中。
+     *
+     * @param key 缓存键
+     * @return SHA-256 摘要的十六进制字符串
+     */
+    static String digest(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            // 所有 Java 平台都必须支持 SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 规范化问题：去掉首尾空白和句末标点，合并连续空白并转换为小写。
+     *
+     * @param prompt 用户输入的问题
+     * @return 规范化后的问题
+     */
+    static String normalize(String prompt) {
+        String normalized = prompt.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+        int end = normalized.length();
+        while (end > 0 && "?？!！.。".indexOf(normalized.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return normalized.substring(0, end).trim();
+    }
+
+    /**
+     * 查找缓存的回复。
+     *
+     * @param key 缓存键
+     * @return 缓存的回复，未命中或已过期时返回 null
+     */
+    public String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.response;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 缓存一条回复。
+     *
+     * @param key      缓存键
+     * @param response 完整的回复内容
+     */
+    public void put(String key, String response) {
+        if (!enabled || response.isBlank()) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(key, new Entry(response, System.currentTimeMillis() + ttlMillis));
+            dirty = true;
+        }
+    }
+
+    /**
+     * 获取缓存命中的次数。
+     *
+     * @return 命中次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取缓存未命中的次数。
+     *
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取当前缓存的条目数。
+     *
+     * @return 条目数
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 从快照文件中加载缓存条目，已过期的条目会被忽略。
+     *
+     * @param file 快照文件
+     */
+    public void load(File file) {
+        if (!enabled || !file.exists()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(
+                new BufferedInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                plugin.getLogger().warning("Ignoring response cache snapshot with an unknown format.");
+                return;
+            }
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    String key = readString(in);
+                    String response = readString(in);
+                    long expiresAt = in.readLong();
+                    if (expiresAt > now) {
+                        entries.put(key, new Entry(response, expiresAt));
+                    }
+                }
+            }
+            plugin.getLogger().info("Loaded " + size() + " cached responses.");
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to load response cache snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 把缓存条目保存到快照文件。先写入临时文件再替换，避免写入中断时损坏原有快照。
+     * 缓存自上次保存以来没有变化时直接返回。
+     *
+     * @param file 快照文件
+     */
+    public void save(File file) {
+        if (!enabled) {
+            return;
+        }
+        List<Map.Entry<String, Entry>> snapshot;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            snapshot = new ArrayList<>(entries.entrySet());
+            dirty = false;
+        }
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            parent.mkdirs();
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile))))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            List<Map.Entry<String, Entry>> live = new ArrayList<>();
+            for (Map.Entry<String, Entry> entry : snapshot) {
+                if (entry.getValue().expiresAt > now) {
+                    live.add(entry);
+                }
+            }
+            out.writeInt(live.size());
+            for (Map.Entry<String, Entry> entry : live) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue().response);
+                out.writeLong(entry.getValue().expiresAt);
+            }
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to save response cache snapshot: " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            plugin.getLogger().warning("Failed to replace response cache snapshot: " + e.getMessage());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Entry 类表示一条缓存的回复及其过期时间。
+     */
+    private static class Entry {
+
+        // 缓存的回复内容
+        private final String response;
+        // 过期时间（毫秒时间戳）
+        private final long expiresAt;
+
+        Entry(String response, long expiresAt) {
+            this.response = response;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
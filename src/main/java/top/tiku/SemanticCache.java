@@ -0,0 +1,262 @@
+package top.tiku;
+
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SemanticCache 类在精确匹配的回复缓存之后再按语义查找相近的问题。问题先通过 Ollama 的嵌入模型转换成向量，
+ * 再与已缓存问题的向量逐一计算余弦相似度，最高相似度达到阈值时直接返回该问题的回复。
+ * 向量归一化后连续存放在同一个数组中，相似度只需计算点积；条目按写入顺序循环覆盖，
+ * 所有条目的存活时间相同，因此最早写入的条目也是最先过期的条目。
+ */
+public class SemanticCache {
+
+    // 嵌入请求失败后暂停使用语义缓存的时间（毫秒），避免 Ollama 不可用时每个请求都等待超时
+    private static final long FAILURE_BACKOFF_MILLIS = 30_000;
+
+    // 插件实例，用于记录日志
+    private final JavaPlugin plugin;
+    // 配置管理器，用于读取嵌入模型和相似度阈值，重新加载配置后立即生效
+    private final ConfigManager configManager;
+    // Ollama 客户端，用于计算问题的向量
+    private final OllamaClient ollamaClient;
+    // 是否启用语义缓存
+    private final boolean enabled;
+    // 缓存的最大条目数
+    private final int maxEntries;
+    // 条目的存活时间（毫秒）
+    private final long ttlMillis;
+    // 所有条目的单位向量，第 i 个条目占用 [i * dimension, (i + 1) * dimension)
+    private float[] vectors = new float[0];
+    // 向量的维度，由嵌入模型决定
+    private int dimension;
+    // 每个条目的适用范围（后端、模型、生成参数和嵌入模型），范围不同的条目不会互相命中
+    private final String[] scopes;
+    // 每个条目缓存的回复
+    private final String[] responses;
+    // 每个条目的过期时间（毫秒时间戳）
+    private final long[] expiresAt;
+    // 已写入的条目数和下一个写入的位置
+    private int size;
+    private int next;
+    // 暂停使用语义缓存的截止时间（毫秒时间戳）
+    private volatile long pausedUntil;
+    // 命中和未命中的次数
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 构造函数，初始化 SemanticCache 实例。
+     *
+     * @param plugin        插件实例
+     * @param configManager 配置管理器
+     * @param ollamaClient  Ollama 客户端
+     * @param enabled       是否启用语义缓存
+     * @param maxEntries    缓存的最大条目数
+     * @param ttlMillis     条目的存活时间（毫秒）
+     */
+    public SemanticCache(JavaPlugin plugin, ConfigManager configManager, OllamaClient ollamaClient,
+                         boolean enabled, int maxEntries, long ttlMillis) {
+        this.plugin = plugin;
+        this.configManager = configManager;
+        this.ollamaClient = ollamaClient;
+        this.enabled = enabled && maxEntries > 0;
+        this.maxEntries = Math.max(0, maxEntries);
+        this.ttlMillis = ttlMillis;
+        this.scopes = new String[this.maxEntries];
+        this.responses = new String[this.maxEntries];
+        this.expiresAt = new long[this.maxEntries];
+    }
+
+    /**
+     * 判断是否启用了语义缓存。
+     *
+     * @return 启用时返回 true
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 计算问题的向量并查找相近的问题。该方法会发送 HTTP 请求，不能在主线程中调用。
+     *
+     * @param scope  问题的适用范围，通常是不含问题的缓存键
+     * @param prompt 用户输入的问题
+     * @return 查找结果，未启用、暂停中或无法计算向量时返回 null
+     */
+    public Lookup lookup(String scope, String prompt) {
+        if (!enabled || System.currentTimeMillis() < pausedUntil) {
+            return null;
+        }
+        String model = configManager.getSemanticCacheModel();
+        float[] vector;
+        try {
+            vector = normalize(ollamaClient.embed(model, ResponseCache.normalize(prompt)));
+        } catch (IOException e) {
+            pausedUntil = System.currentTimeMillis() + FAILURE_BACKOFF_MILLIS;
+            plugin.getLogger().warning("Semantic cache paused for " + FAILURE_BACKOFF_MILLIS / 1000
+                    + " seconds, failed to embed with " + model + ": " + e.getMessage());
+            return null;
+        }
+        if (vector == null) {
+            return null;
+        }
+        Lookup lookup = new Lookup(scope + '\u0000' + model, vector,
+                find(scope + '\u0000' + model, vector, configManager.getSemanticCacheThreshold()));
+        if (lookup.response != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return lookup;
+    }
+
+    /**
+     * 缓存一条回复，之后与该问题相近的问题都可以命中。
+     *
+     * @param lookup   生成回复前查找时得到的结果
+     * @param response 完整的回复内容
+     */
+    public synchronized void put(Lookup lookup, String response) {
+        if (response.isBlank()) {
+            return;
+        }
+        float[] vector = lookup.vector;
+        // 更换了维度不同的嵌入模型时，旧的向量无法比较，直接清空
+        if (vector.length != dimension) {
+            dimension = vector.length;
+            vectors = new float[maxEntries * dimension];
+            size = 0;
+            next = 0;
+        }
+        System.arraycopy(vector, 0, vectors, next * dimension, dimension);
+        scopes[next] = lookup.scope;
+        responses[next] = response;
+        expiresAt[next] = System.currentTimeMillis() + ttlMillis;
+        next = (next + 1) % maxEntries;
+        size = Math.min(size + 1, maxEntries);
+    }
+
+    /**
+     * 在同一范围内的未过期条目中查找与向量最相似的条目。
+     *
+     * @param scope     适用范围
+     * @param vector    问题的单位向量
+     * @param threshold 命中所需的最低余弦相似度
+     * @return 最相似条目的回复，最高相似度低于阈值时返回 null
+     */
+    private synchronized String find(String scope, float[] vector, double threshold) {
+        if (vector.length != dimension) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int best = -1;
+        double bestScore = threshold;
+        for (int i = 0; i < size; i++) {
+            if (expiresAt[i] <= now || !scopes[i].equals(scope)) {
+                continue;
+            }
+            double score = dot(vectors, i * dimension, vector);
+            if (score >= bestScore) {
+                bestScore = score;
+                best = i;
+            }
+        }
+        return best < 0 ? null : responses[best];
+    }
+
+    /**
+     * 计算矩阵中一行与向量的点积。使用四个累加器打破加法之间的依赖，使循环可以流水执行。
+     */
+    private static double dot(float[] matrix, int offset, float[] vector) {
+        float s0 = 0;
+        float s1 = 0;
+        float s2 = 0;
+        float s3 = 0;
+        int length = vector.length;
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            s0 += matrix[offset + i] * vector[i];
+            s1 += matrix[offset + i + 1] * vector[i + 1];
+            s2 += matrix[offset + i + 2] * vector[i + 2];
+            s3 += matrix[offset + i + 3] * vector[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += matrix[offset + i] * vector[i];
+        }
+        return (double) s0 + s1 + s2 + s3;
+    }
+
+    /**
+     * 把向量缩放为单位向量，之后的余弦相似度就是点积。
+     *
+     * @param vector 原始向量，会被直接修改
+     * @return 单位向量，向量长度为 0 时返回 null
+     */
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += (double) value * value;
+        }
+        if (norm == 0) {
+            return null;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] *= scale;
+        }
+        return vector;
+    }
+
+    /**
+     * 获取语义缓存命中的次数。
+     *
+     * @return 命中次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取语义缓存未命中的次数。
+     *
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取当前缓存的条目数，包括尚未被覆盖的过期条目。
+     *
+     * @return 条目数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Lookup 类表示一次查找的结果，未命中时在回复生成后用于写入缓存。
+     */
+    public static final class Lookup {
+
+        // 问题的适用范围，包含嵌入模型
+        private final String scope;
+        // 问题的单位向量
+        private final float[] vector;
+        // 相近问题的回复，未命中时为 null
+        private final String response;
+
+        private Lookup(String scope, float[] vector, String response) {
+            this.scope = scope;
+            this.vector = vector;
+            this.response = response;
+        }
+
+        public String getResponse() {
+            return response;
+        }
+    }
+}
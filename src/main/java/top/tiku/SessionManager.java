@@ -0,0 +1,83 @@
+package top.tiku;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SessionManager 类为每个玩家保存一个对话会话，并清理长时间未使用的会话。
+ */
+public class SessionManager {
+
+    // 配置管理器，用于读取会话模式、token 预算和过期时间
+    private final ConfigManager configManager;
+    // 所有会话，键为玩家的 UUID，控制台等非玩家发送者使用名称
+    private final Map<String, ChatSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * 构造函数，初始化 SessionManager 实例。
+     *
+     * @param configManager 配置管理器
+     */
+    public SessionManager(ConfigManager configManager) {
+        this.configManager = configManager;
+    }
+
+    /**
+     * 获取命令发送者的会话，不存在时创建新的会话。未启用会话功能时返回 null。
+     *
+     * @param sender 命令发送者
+     * @return 对话会话，未启用会话功能时返回 null
+     */
+    public ChatSession getSession(CommandSender sender) {
+        if (!configManager.isSessionEnabled()) {
+            return null;
+        }
+        ChatSession session = sessions.computeIfAbsent(sessionKey(sender),
+                key -> new ChatSession(configManager.getSessionMode(), configManager.getSessionTokenBudget()));
+        session.touch();
+        return session;
+    }
+
+    /**
+     * 清空命令发送者的会话。
+     *
+     * @param sender 命令发送者
+     * @return 存在会话并已清空时返回 true
+     */
+    public boolean resetSession(CommandSender sender) {
+        return sessions.remove(sessionKey(sender)) != null;
+    }
+
+    /**
+     * 移除超过空闲时间的会话，应定期调用。
+     */
+    public void expireIdleSessions() {
+        long deadline = System.currentTimeMillis() - configManager.getSessionIdleMinutes() * 60_000L;
+        sessions.values().removeIf(session -> session.getLastActive() < deadline);
+    }
+
+    /**
+     * 获取当前的会话数量。
+     *
+     * @return 会话数量
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 获取命令发送者的标识，玩家使用 UUID，其余发送者使用名称。
+     *
+     * @param sender 命令发送者
+     * @return 发送者的标识
+     */
+    static String sessionKey(CommandSender sender) {
+        if (sender instanceof Player) {
+            return ((Player) sender).getUniqueId().toString();
+        }
+        return sender.getName();
+    }
+}
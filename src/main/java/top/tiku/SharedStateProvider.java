@@ -0,0 +1,79 @@
+package top.tiku;
+
+import java.io.IOException;
+
+/**
+ * SharedStateProvider 接口定义多个服务器之间共享的状态：回复缓存条目、正在生成中的请求标记和配额计数。
+ * 代理后面的多个服务器使用同一个共享状态时，相同的问题只生成一次，切换服务器也无法绕过每日配额。
+ * 所有方法都可能发起网络请求，不能在主线程中调用；失败时抛出 IOException，调用方应退回到只使用本地状态。
+ */
+public interface SharedStateProvider {
+
+    /**
+     * 判断共享状态是否在多个服务器之间共享。不共享时调用方直接使用本地的缓存和配额，无需再查询共享状态。
+     *
+     * @return 多个服务器共享时返回 true
+     */
+    boolean isDistributed();
+
+    /**
+     * 获取一个值。
+     *
+     * @param key 键
+     * @return 值，不存在或已过期时返回 null
+     * @throws IOException 无法访问共享状态时抛出
+     */
+    String get(String key) throws IOException;
+
+    /**
+     * 写入一个值，覆盖已有的值。
+     *
+     * @param key       键
+     * @param value     值
+     * @param ttlMillis 存活时间（毫秒）
+     * @throws IOException 无法访问共享状态时抛出
+     */
+    void put(String key, String value, long ttlMillis) throws IOException;
+
+    /**
+     * 尝试获取一个标记，用于保证同一时间只有一个服务器处理某个请求。标记在存活时间结束后自动释放，
+     * 持有标记的服务器崩溃时也不会一直阻塞其他服务器。
+     *
+     * @param key       标记的键
+     * @param ttlMillis 标记的存活时间（毫秒）
+     * @return 获取成功时返回 true，已被其他服务器或请求持有时返回 false
+     * @throws IOException 无法访问共享状态时抛出
+     */
+    boolean tryLock(String key, long ttlMillis) throws IOException;
+
+    /**
+     * 释放本服务器持有的标记，标记已过期并被其他服务器重新获取时不做任何操作。
+     *
+     * @param key 标记的键
+     * @throws IOException 无法访问共享状态时抛出
+     */
+    void unlock(String key) throws IOException;
+
+    /**
+     * 把计数器增加指定的值并刷新存活时间，计数器不存在时从 0 开始。
+     *
+     * @param key       计数器的键
+     * @param amount    增加的值，可以为 0 或负数
+     * @param ttlMillis 计数器的存活时间（毫秒）
+     * @return 增加后的值
+     * @throws IOException 无法访问共享状态时抛出
+     */
+    long increment(String key, long amount, long ttlMillis) throws IOException;
+
+    /**
+     * 生成描述共享状态的文本，用于日志。
+     *
+     * @return 例如 "redis 127.0.0.1:6379/0"
+     */
+    String describe();
+
+    /**
+     * 关闭共享状态，释放所有连接。
+     */
+    void close();
+}
@@ -0,0 +1,31 @@
+package top.tiku;
+
+import org.json.JSONObject;
+
+/**
+ * StreamCallback 接口用于接收流式生成过程中的事件，
+ * 客户端每解析出一段响应内容就会回调一次。
+ */
+public interface StreamCallback {
+
+    /**
+     * 收到一段新生成的文本时调用。
+     *
+     * @param token 本次解析出的文本片段
+     */
+    void onToken(String token);
+
+    /**
+     * 收到带有 done 标记的最后一个数据块时调用，表示本次回复结束。
+     *
+     * @param finalChunk 最后一个数据块，包含 context、eval_count 等统计信息
+     */
+    void onComplete(JSONObject finalChunk);
+
+    /**
+     * 请求或读取响应过程中出现错误时调用。
+     *
+     * @param errorMessage 错误信息
+     */
+    void onError(String errorMessage);
+}
@@ -0,0 +1,197 @@
+package top.tiku;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * NdjsonStreamDecoderTest 类用录制的 Ollama 流式响应检查 {@link NdjsonStreamDecoder} 和 {@link OllamaClient#readStream}：
+ * 解码结果与逐行用 JSONObject 解析相同，数据被拆分到多次读取中、出现错误数据块或流被截断时也能正确处理。
+ */
+class NdjsonStreamDecoderTest {
+
+    @Test
+    void decodesRecordedGenerateStream() throws IOException {
+        assertMatchesJsonObject(resource("generate.ndjson"), false);
+    }
+
+    @Test
+    void decodesRecordedChatStream() throws IOException {
+        assertMatchesJsonObject(resource("chat.ndjson"), true);
+    }
+
+    @Test
+    void decodesMultiByteCharactersAndEscapesSplitAcrossReads() throws IOException {
+        // 中文和 emoji 直接以 UTF-8 写入，另一部分使用 Unicode 转义和代理对
+        String body = "{\"response\":\"红石😀\",\"done\":false}\n"
+                + "{\"response\":\"a\\\"b\\\\c\\n\\t\\u7ea2\\u77f3\\ud83d\\ude00\\/\",\"done\":false}\n"
+                + "{\"response\":\"\",\"done\":true,\"context\":[1,2,3],\"eval_count\":2}\n";
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        List<String> expected = List.of("红石😀", "a\"b\\c\n\t红石😀/");
+        // 每次读取 1 到 7 个字节，多字节字符和转义序列会落在各种拆分位置上
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            Recorder recorder = read(new ChunkedInputStream(bytes, chunk), false);
+            assertEquals(expected, recorder.tokens, "chunk size " + chunk);
+            assertNull(recorder.error);
+            assertEquals(2, recorder.finalChunk.getLong("eval_count"));
+            assertTrue(new JSONArray("[1,2,3]").similar(recorder.finalChunk.getJSONArray("context")));
+        }
+    }
+
+    @Test
+    void reportsErrorChunk() throws IOException {
+        String body = "{\"response\":\"部分\",\"done\":false}\n{\"error\":\"model \\\"llama2\\\" not found\"}\n";
+        Recorder recorder = read(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)), false);
+        assertEquals(List.of("部分"), recorder.tokens);
+        assertEquals("model \"llama2\" not found", recorder.error);
+        assertNull(recorder.finalChunk);
+    }
+
+    @Test
+    void reportsStreamEndingBeforeDone() throws IOException {
+        byte[] recorded = resource("generate.ndjson");
+        // 在最后一个数据块之前截断
+        int lastLine = lastLineStart(recorded);
+        byte[] truncated = Arrays.copyOf(recorded, lastLine);
+        Recorder recorder = read(new ChunkedInputStream(truncated, 5), false);
+        assertFalse(recorder.tokens.isEmpty());
+        assertEquals("Stream ended before the reply was complete", recorder.error);
+        assertNull(recorder.finalChunk);
+    }
+
+    @Test
+    void rejectsChunkTruncatedMidLine() throws IOException {
+        byte[] recorded = resource("chat.ndjson");
+        // 在最后一个数据块中间截断，最后一行不是完整的 JSON 对象
+        int cut = lastLineStart(recorded) + 40;
+        NdjsonStreamDecoder decoder = new NdjsonStreamDecoder(
+                new ByteArrayInputStream(Arrays.copyOf(recorded, cut)), true);
+        for (int i = 1; i < countLines(recorded); i++) {
+            assertTrue(decoder.next());
+            assertFalse(decoder.isDone());
+        }
+        assertThrows(JSONException.class, decoder::next);
+    }
+
+    /**
+     * 确认 readStream 的结果与逐行用 JSONObject 解析相同，分别一次读完和每次只读取几个字节。
+     */
+    private static void assertMatchesJsonObject(byte[] body, boolean chatMode) throws IOException {
+        List<String> expectedTokens = new ArrayList<>();
+        JSONObject expectedFinal = null;
+        for (String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JSONObject chunk = new JSONObject(line);
+            String token = chatMode ? chunk.getJSONObject("message").optString("content", "")
+                    : chunk.optString("response", "");
+            if (!token.isEmpty()) {
+                expectedTokens.add(token);
+            }
+            if (chunk.optBoolean("done")) {
+                expectedFinal = chunk;
+            }
+        }
+        assertTrue(expectedFinal != null, "recorded stream has no final chunk");
+
+        for (InputStream in : List.of(new ByteArrayInputStream(body), new ChunkedInputStream(body, 3))) {
+            Recorder recorder = read(in, chatMode);
+            assertNull(recorder.error);
+            assertEquals(expectedTokens, recorder.tokens);
+            for (String key : List.of("done", "total_duration", "prompt_eval_count", "eval_count", "eval_duration")) {
+                assertEquals(String.valueOf(expectedFinal.opt(key)), String.valueOf(recorder.finalChunk.opt(key)), key);
+            }
+            JSONArray expectedContext = expectedFinal.optJSONArray("context");
+            JSONArray actualContext = recorder.finalChunk.optJSONArray("context");
+            assertTrue(expectedContext == null ? actualContext == null : expectedContext.similar(actualContext));
+        }
+    }
+
+    private static Recorder read(InputStream in, boolean chatMode) throws IOException {
+        Recorder recorder = new Recorder();
+        OllamaClient.readStream(in, chatMode, recorder);
+        return recorder;
+    }
+
+    private static byte[] resource(String name) throws IOException {
+        try (InputStream in = NdjsonStreamDecoderTest.class.getResourceAsStream("/streams/" + name)) {
+            assertTrue(in != null, "missing recorded stream " + name);
+            return in.readAllBytes();
+        }
+    }
+
+    private static int lastLineStart(byte[] body) {
+        int end = body.length;
+        while (end > 0 && body[end - 1] == '\n') {
+            end--;
+        }
+        int start = end;
+        while (start > 0 && body[start - 1] != '\n') {
+            start--;
+        }
+        return start;
+    }
+
+    private static int countLines(byte[] body) {
+        return (int) new String(body, StandardCharsets.UTF_8).lines().filter(line -> !line.isBlank()).count();
+    }
+
+    /**
+     * 记录回调收到的文本、最后一个数据块和错误。
+     */
+    private static final class Recorder implements StreamCallback {
+
+        private final List<String> tokens = new ArrayList<>();
+        private JSONObject finalChunk;
+        private String error;
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+        }
+
+        @Override
+        public void onComplete(JSONObject finalChunk) {
+            this.finalChunk = finalChunk;
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            error = errorMessage;
+        }
+    }
+
+    /**
+     * 每次最多返回固定字节数的输入流，模拟网络上零散到达的数据。
+     */
+    private static final class ChunkedInputStream extends ByteArrayInputStream {
+
+        private final int chunk;
+
+        ChunkedInputStream(byte[] body, int chunk) {
+            super(body);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, chunk));
+        }
+    }
+}